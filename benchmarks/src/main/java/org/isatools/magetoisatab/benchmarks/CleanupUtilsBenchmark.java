@@ -0,0 +1,94 @@
+package org.isatools.magetoisatab.benchmarks;
+
+import org.isatools.magetoisatab.io.fileprocessing.CleanupRunner;
+import org.isatools.magetoisatab.io.fileprocessing.CleanupUtils;
+import org.isatools.magetoisatab.io.fileprocessing.CollapseColumnUtil;
+import org.isatools.magetoisatab.io.fileprocessing.ColumnMoveUtil;
+import org.isatools.magetoisatab.io.fileprocessing.ProtocolInsertionUtil;
+import org.isatools.magetoisatab.io.fileprocessing.RemoveDuplicateColumnUtil;
+import org.isatools.magetoisatab.io.fileprocessing.RogueColumnRemovalUtil;
+import org.isatools.magetoisatab.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each CleanupUtils subclass on its own. Every utility is given the sheet as it would receive it in
+ * CleanupRunner.runAll, i.e. after the utilities running before it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CleanupUtilsBenchmark {
+
+    @Param({"RemoveDuplicateColumnUtil", "CollapseColumnUtil", "RogueColumnRemovalUtil", "ProtocolInsertionUtil",
+            "ColumnMoveUtil"})
+    public String util;
+
+    @Param({SdrfSheets.MICROARRAY, SdrfSheets.SEQUENCING})
+    public String layout;
+
+    @Param({"1000", "10000", "100000"})
+    public int height;
+
+    @Param({"48", "160"})
+    public int width;
+
+    private List<String[]> input;
+
+    private List<String[]> sheet;
+
+    private CleanupUtils cleanupUtil;
+
+    @Setup(Level.Trial)
+    public void createInput() {
+        // the input is generated as loaded, so drop the empty rows the way MAGETabSDRFLoader does before cleanup
+        input = SdrfSheets.generate(layout, height, width);
+        input = Utils.cleanInput(input, "E-MTAB-1");
+
+        CleanupUtils[] pipeline = createPipeline();
+        for (int index = 0; index < pipeline.length; index++) {
+            if (pipeline[index].getClass().getSimpleName().equals(util)) {
+                break;
+            }
+            input = CleanupRunner.runSelected(input, pipeline[index]);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyInput() {
+        // the utilities keep state and modify the rows they are given, so each call gets its own
+        sheet = SdrfSheets.copy(input);
+        for (CleanupUtils candidate : createPipeline()) {
+            if (candidate.getClass().getSimpleName().equals(util)) {
+                cleanupUtil = candidate;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String[]> processSpreadsheet() {
+        return cleanupUtil.processSpreadsheet(sheet);
+    }
+
+    // in the order CleanupRunner.runAll applies them
+    private static CleanupUtils[] createPipeline() {
+        return new CleanupUtils[]{new RemoveDuplicateColumnUtil(), new CollapseColumnUtil(),
+                new RogueColumnRemovalUtil(), new ProtocolInsertionUtil(), new ColumnMoveUtil()};
+    }
+}
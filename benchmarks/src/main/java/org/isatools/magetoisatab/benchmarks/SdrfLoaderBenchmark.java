@@ -0,0 +1,128 @@
+package org.isatools.magetoisatab.benchmarks;
+
+import com.sun.tools.javac.util.Pair;
+import org.isatools.magetoisatab.io.MAGETabSDRFLoader;
+import org.isatools.magetoisatab.io.fileprocessing.CleanupRunner;
+import org.isatools.magetoisatab.io.model.Assay;
+import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.utils.ConversionProperties;
+import org.isatools.magetoisatab.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of MAGETabSDRFLoader.loadsdrfTab which follow the cleanup utilities: reading the header,
+ * splitting the sheet in to the study sample and assay tables, and sorting the assay records by assay type.
+ * Each stage is given the output of the previous ones, computed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SdrfLoaderBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HeaderState {
+
+        @Param({SdrfSheets.MICROARRAY, SdrfSheets.SEQUENCING})
+        public String layout;
+
+        @Param({"48", "160"})
+        public int width;
+
+        String[] header;
+
+        @Setup(Level.Trial)
+        public void createInput() {
+            header = CleanupRunner.runAll(SdrfSheets.generate(layout, 1, width)).get(0);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SheetState {
+
+        @Param({SdrfSheets.MICROARRAY, SdrfSheets.SEQUENCING})
+        public String layout;
+
+        @Param({"1000", "10000", "100000"})
+        public int height;
+
+        @Param({"48", "160"})
+        public int width;
+
+        private List<String[]> cleanedSheet;
+
+        List<String[]> factorSheet;
+
+        List<String[]> assayTable;
+
+        Set<AssayType> assayTypes;
+
+        // per invocation, as splitting renames header columns of both the loader and the sheet
+        MAGETabSDRFLoader loader;
+
+        Pair<Integer, Integer> keyPositions;
+
+        List<String[]> sheet;
+
+        @Setup(Level.Trial)
+        public void createInput() {
+            List<String[]> input = Utils.cleanInput(SdrfSheets.generate(layout, height, width), "E-MTAB-1");
+
+            factorSheet = SdrfSheets.getColumnSubset(input, SdrfSheets.getFactorColumns(input.get(0)));
+            cleanedSheet = CleanupRunner.runAll(input);
+
+            assayTypes = new HashSet<AssayType>();
+            Set<String> designTypes = new HashSet<String>();
+            if (SdrfSheets.SEQUENCING.equals(layout)) {
+                assayTypes.add(new AssayType("protein-DNA binding site identification", "nucleotide sequencing", "ChIP-Seq"));
+                designTypes.add("ChIP-Seq");
+            } else {
+                assayTypes.add(new AssayType("transcription profiling", "DNA microarray", "GeneChip"));
+                designTypes.add("transcription profiling by array");
+            }
+            ConversionProperties.setDesignTypes(designTypes);
+
+            copyInput();
+            assayTable = loader.splitSdrfTable(keyPositions, sheet, factorSheet).snd;
+        }
+
+        @Setup(Level.Invocation)
+        public void copyInput() {
+            sheet = SdrfSheets.copy(cleanedSheet);
+            loader = new MAGETabSDRFLoader();
+            keyPositions = loader.processSdrfHeaderRow(sheet.get(0));
+        }
+    }
+
+    @Benchmark
+    public Pair<Integer, Integer> processSdrfHeaderRow(HeaderState state) {
+        return new MAGETabSDRFLoader().processSdrfHeaderRow(state.header);
+    }
+
+    @Benchmark
+    public Pair<List<String[]>, List<String[]>> splitSdrfTable(SheetState state) {
+        return state.loader.splitSdrfTable(state.keyPositions, state.sheet, state.factorSheet);
+    }
+
+    @Benchmark
+    public List<Assay> inspectSdrfAssay(SheetState state) {
+        return state.loader.inspectSdrfAssay(state.assayTable, state.assayTypes);
+    }
+}
@@ -0,0 +1,219 @@
+package org.isatools.magetoisatab.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates SDRF sheets, as returned by the spreadsheet Loader, of a given height and width.
+ * <p/>
+ * The sheets follow the shape of ArrayExpress microarray and sequencing SDRFs, and contain the things the cleanup
+ * utilities act on: duplicated columns, chained Protocol REFs, Term Source REFs with and without an annotated column
+ * before them, Parameter Values to be given a protocol and empty rows. Extra columns needed to reach the requested
+ * width are added as Characteristics (with Term Source REFs) and Comments.
+ */
+public class SdrfSheets {
+
+    public static final String MICROARRAY = "microarray";
+
+    public static final String SEQUENCING = "sequencing";
+
+    // the columns of a microarray SDRF, without the padding columns
+    private static final String[] MICROARRAY_SAMPLE_COLUMNS = {"Source Name", "Characteristics[organism]",
+            "Term Source REF", "Characteristics[strain]", "Characteristics[organism part]", "Protocol REF",
+            "Protocol REF", "Sample Name"};
+
+    private static final String[] MICROARRAY_ASSAY_COLUMNS = {"Material Type", "Protocol REF", "Protocol REF",
+            "Extract Name", "Protocol REF", "Term Source REF", "Labeled Extract Name", "Label", "Material Type",
+            "Protocol REF", "Parameter Value[hybridization temperature]", "Hybridization Name", "Array Design REF",
+            "Term Source REF", "Protocol REF", "Scan Name", "Array Data File", "Comment [ArrayExpress FTP file]",
+            "Protocol REF", "Normalization Name", "Derived Array Data File",
+            "Comment [Derived ArrayExpress FTP file]"};
+
+    // the columns of a sequencing SDRF, without the padding columns
+    private static final String[] SEQUENCING_SAMPLE_COLUMNS = {"Source Name", "Characteristics[organism]",
+            "Term Source REF", "Characteristics[cell line]", "Characteristics[organism part]", "Protocol REF",
+            "Sample Name"};
+
+    private static final String[] SEQUENCING_ASSAY_COLUMNS = {"Material Type", "Protocol REF", "Protocol REF",
+            "Extract Name", "Comment [LIBRARY_LAYOUT]", "Comment [LIBRARY_SOURCE]", "Comment [LIBRARY_STRATEGY]",
+            "Comment [LIBRARY_SELECTION]", "Parameter Value[fragment size]", "Protocol REF", "Performer",
+            "Comment [instrument_model]", "Assay Name", "Technology Type", "Comment [ENA_EXPERIMENT]",
+            "Scan Name", "Comment [ENA_RUN]", "Comment [FASTQ_URI]", "Protocol REF", "Derived Array Data File"};
+
+    private static final String[] FACTOR_COLUMNS = {"Factor Value[genotype]", "Factor Value[time]",
+            "Unit[time unit]"};
+
+    private static final int PROTOCOL_COUNT = 12;
+
+    // one row in this many is left empty, as found in files with trailing or separating blank lines
+    private static final int EMPTY_ROW_INTERVAL = 50;
+
+    /**
+     * @param layout - MICROARRAY or SEQUENCING
+     * @param height - number of data rows, excluding the header
+     * @param width  - number of columns, at least that of the layout without padding
+     * @return the sheet, header first
+     */
+    public static List<String[]> generate(String layout, int height, int width) {
+        boolean sequencing = SEQUENCING.equals(layout);
+
+        String[] header = createHeader(sequencing, width);
+
+        List<String[]> sheet = new ArrayList<String[]>(height + 1);
+        sheet.add(header);
+
+        for (int rowIndex = 0; rowIndex < height; rowIndex++) {
+            if (rowIndex % EMPTY_ROW_INTERVAL == EMPTY_ROW_INTERVAL - 1) {
+                String[] emptyRow = new String[header.length];
+                Arrays.fill(emptyRow, "");
+                sheet.add(emptyRow);
+            } else {
+                sheet.add(createRow(header, rowIndex, sequencing));
+            }
+        }
+
+        return sheet;
+    }
+
+    /**
+     * @return the columns of the first row of the sheet which make up the factor sheet, i.e. Source Name and the
+     *         Factor Values, as selected when loading the SDRF
+     */
+    public static int[] getFactorColumns(String[] header) {
+        List<Integer> factorColumns = new ArrayList<Integer>();
+        factorColumns.add(0);
+
+        for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+            if (header[columnIndex].startsWith("Factor Value")) {
+                factorColumns.add(columnIndex);
+            }
+        }
+
+        int[] columns = new int[factorColumns.size()];
+        for (int index = 0; index < columns.length; index++) {
+            columns[index] = factorColumns.get(index);
+        }
+        return columns;
+    }
+
+    /**
+     * Copies the given columns of every row, header included.
+     */
+    public static List<String[]> getColumnSubset(List<String[]> sheet, int[] columns) {
+        List<String[]> subset = new ArrayList<String[]>(sheet.size());
+
+        for (String[] row : sheet) {
+            String[] subsetRow = new String[columns.length];
+            for (int index = 0; index < columns.length; index++) {
+                subsetRow[index] = columns[index] < row.length ? row[columns[index]] : "";
+            }
+            subset.add(subsetRow);
+        }
+        return subset;
+    }
+
+    /**
+     * Copies every row, as most of the code under test modifies the rows it is given.
+     */
+    public static List<String[]> copy(List<String[]> sheet) {
+        List<String[]> copy = new ArrayList<String[]>(sheet.size());
+
+        for (String[] row : sheet) {
+            copy.add(row.clone());
+        }
+        return copy;
+    }
+
+    private static String[] createHeader(boolean sequencing, int width) {
+        String[] sampleColumns = sequencing ? SEQUENCING_SAMPLE_COLUMNS : MICROARRAY_SAMPLE_COLUMNS;
+        String[] assayColumns = sequencing ? SEQUENCING_ASSAY_COLUMNS : MICROARRAY_ASSAY_COLUMNS;
+
+        int padding = Math.max(0, width - sampleColumns.length - assayColumns.length - FACTOR_COLUMNS.length);
+
+        // half of the padding describes the sources, the other half the data files
+        int characteristicsPadding = padding / 2;
+        int commentPadding = padding - characteristicsPadding;
+
+        List<String> header = new ArrayList<String>(width);
+
+        // padding Characteristics go before Protocol REF, so they stay on the study sample sheet
+        int protocolIndex = Arrays.asList(sampleColumns).indexOf("Protocol REF");
+        header.addAll(Arrays.asList(sampleColumns).subList(0, protocolIndex));
+        for (int columnIndex = 0; columnIndex < characteristicsPadding; columnIndex++) {
+            // every third one is followed by its ontology source
+            if (columnIndex % 3 == 2) {
+                header.add("Term Source REF");
+            } else {
+                header.add("Characteristics[attribute " + columnIndex + "]");
+            }
+        }
+        header.addAll(Arrays.asList(sampleColumns).subList(protocolIndex, sampleColumns.length));
+
+        header.addAll(Arrays.asList(assayColumns));
+        for (int columnIndex = 0; columnIndex < commentPadding; columnIndex++) {
+            header.add("Comment [annotation " + columnIndex + "]");
+        }
+
+        header.addAll(Arrays.asList(FACTOR_COLUMNS));
+
+        return header.toArray(new String[header.size()]);
+    }
+
+    private static String[] createRow(String[] header, int rowIndex, boolean sequencing) {
+        String[] row = new String[header.length];
+
+        // a handful of sources, each giving a few samples
+        int sourceIndex = rowIndex / 4;
+        int protocolCount = 0;
+
+        for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+            String columnName = header[columnIndex];
+
+            String value;
+            if (columnName.equals("Source Name")) {
+                value = "source " + sourceIndex;
+            } else if (columnName.equals("Sample Name")) {
+                value = "sample " + rowIndex;
+            } else if (columnName.equals("Extract Name")) {
+                value = "extract " + rowIndex;
+            } else if (columnName.equals("Labeled Extract Name")) {
+                value = "labeled extract " + rowIndex;
+            } else if (columnName.endsWith("Name")) {
+                value = "assay " + rowIndex;
+            } else if (columnName.equals("Protocol REF")) {
+                // chained protocols are sometimes left empty, as in the files CollapseColumnUtil was written for
+                value = (rowIndex + protocolCount) % 5 == 0 ? "" : "P-MTAB-" + (protocolCount % PROTOCOL_COUNT + 1);
+                protocolCount++;
+            } else if (columnName.equals("Material Type")) {
+                value = sequencing ? (rowIndex % 2 == 0 ? "genomic DNA" : "total RNA") : "total RNA";
+            } else if (columnName.equals("Term Source REF")) {
+                value = "EFO";
+            } else if (columnName.equals("Label")) {
+                value = rowIndex % 2 == 0 ? "Cy3" : "Cy5";
+            } else if (columnName.equals("Array Design REF")) {
+                value = "A-AFFY-44";
+            } else if (columnName.equals("Technology Type")) {
+                value = "sequencing assay";
+            } else if (columnName.equals("Comment [LIBRARY_STRATEGY]")) {
+                value = rowIndex % 3 == 0 ? "ChIP-Seq" : "RNA-Seq";
+            } else if (columnName.equals("Comment [instrument_model]")) {
+                value = "Illumina Genome Analyzer II";
+            } else if (columnName.endsWith("File") || columnName.contains("FTP") || columnName.contains("URI")) {
+                value = "data_" + rowIndex + ".txt";
+            } else if (columnName.equals("Characteristics[organism]")) {
+                value = "Homo sapiens";
+            } else if (columnName.startsWith("Factor Value")) {
+                value = "level " + (sourceIndex % 7);
+            } else if (columnName.startsWith("Unit")) {
+                value = "hour";
+            } else {
+                value = "value " + (rowIndex % 97) + "." + columnIndex;
+            }
+
+            row[columnIndex] = value;
+        }
+
+        return row;
+    }
+}
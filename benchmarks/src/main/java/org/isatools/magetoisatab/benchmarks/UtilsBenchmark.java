@@ -0,0 +1,96 @@
+package org.isatools.magetoisatab.benchmarks;
+
+import org.isatools.magetoisatab.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the row and header clean up done in Utils before the cleanup utilities run.
+ * cleanInput is measured for both an ArrayExpress accession and a GEO import, which also strips the GEO accession
+ * from every cell.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SheetState {
+
+        @Param({"E-MTAB-1", "E-GEOD-16013"})
+        public String accession;
+
+        @Param({"1000", "10000", "100000"})
+        public int height;
+
+        @Param({"48", "160"})
+        public int width;
+
+        private List<String[]> input;
+
+        List<String[]> sheet;
+
+        @Setup(Level.Trial)
+        public void createInput() {
+            input = SdrfSheets.generate(SdrfSheets.MICROARRAY, height, width);
+        }
+
+        @Setup(Level.Invocation)
+        public void copyInput() {
+            // GEO clean up rewrites cells in place
+            sheet = SdrfSheets.copy(input);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HeaderState {
+
+        @Param({"48", "160"})
+        public int width;
+
+        private String[] input;
+
+        String[] header;
+
+        @Setup(Level.Trial)
+        public void createInput() {
+            input = SdrfSheets.generate(SdrfSheets.MICROARRAY, 0, width).get(0);
+
+            // lower case and unspaced variants of the headers correctColumnHeaders fixes
+            input[1] = "characteristics [organism]";
+            input[input.length - 3] = "FactorValue[genotype]";
+            input[input.length - 2] = "FactorValue[time]";
+        }
+
+        @Setup(Level.Iteration)
+        public void copyInput() {
+            // once corrected, the header stays correct, so later calls measure the common, nothing to fix, case
+            header = input.clone();
+        }
+    }
+
+    @Benchmark
+    public List<String[]> cleanInput(SheetState state) {
+        return Utils.cleanInput(state.sheet, state.accession);
+    }
+
+    @Benchmark
+    public String[] correctColumnHeaders(HeaderState state) {
+        return Utils.correctColumnHeaders(state.header);
+    }
+}
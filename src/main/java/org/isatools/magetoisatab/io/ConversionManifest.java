@@ -0,0 +1,232 @@
+package org.isatools.magetoisatab.io;
+
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.OutputSink;
+import org.isatools.magetoisatab.io.rules.AssayClassificationRules;
+import org.isatools.magetoisatab.utils.Digests;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Records what an accession was converted from: the content hashes of its IDF and SDRF files, the converter version,
+ * the assay classification rules checksum, whether tables were compressed, whether ISA-JSON was written and whether
+ * tables were validated. It is kept
+ * next to where the output sink keeps the files of the accession, the accession directory, as &lt;accession&gt;.manifest.
+ * <p/>
+ * A reconversion whose inputs are the same as those of the manifest can be skipped, and one where only some SDRFs
+ * changed only needs to rewrite the assay files made from them. The manifest also records which SDRF made each
+ * assay file, so that a file now made by another SDRF is rewritten too.
+ * <p/>
+ * Reconversion is incremental unless the magetoisatab.incremental system property is set to false.
+ */
+public class ConversionManifest {
+
+    // to be changed with any change to the converter which changes its output
+    public static final String CONVERTER_VERSION = "0.3";
+
+    public static final String INCREMENTAL_PROPERTY = "magetoisatab.incremental";
+
+    private static final String VERSION_KEY = "converter.version";
+    private static final String RULES_KEY = "rules.checksum";
+    private static final String COMPRESSION_KEY = "output.compression";
+    private static final String JSON_KEY = "output.json";
+    private static final String VALIDATION_KEY = "output.validation";
+    private static final String IDF_KEY = "idf.sha256";
+    private static final String SDRF_COUNT_KEY = "sdrf.count";
+    private static final String SDRF_KEY = "sdrf.";
+    private static final String ASSAY_KEY = "assay.";
+
+    private final Properties properties;
+
+    private ConversionManifest(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static boolean isIncremental() {
+        return !"false".equalsIgnoreCase(System.getProperty(INCREMENTAL_PROPERTY));
+    }
+
+    /**
+     * @return the manifest file of an accession converted in to the sink, or null if the sink does not keep its files
+     *         in a file
+     */
+    public static File getManifestFile(OutputSink sink, String accnum) {
+        File location = sink.getLocation(accnum);
+        return location == null ? null : new File(location.getParentFile(), accnum + ".manifest");
+    }
+
+    /**
+     * Hashes the inputs of a conversion.
+     *
+     * @param idfFile   - the IDF
+     * @param sdrfFiles - the SDRFs, in IDF order, or null if there are none. Missing files and directories are
+     *                  recorded as missing
+     * @param writingJson - whether an ISA-JSON file is written as well
+     * @param validating  - whether tables are validated against ISA configurations
+     */
+    public static ConversionManifest create(File idfFile, String[] sdrfFiles, boolean writingJson, boolean validating)
+            throws IOException {
+        Properties properties = new Properties();
+
+        properties.setProperty(VERSION_KEY, CONVERTER_VERSION);
+        properties.setProperty(RULES_KEY, AssayClassificationRules.getRules().getChecksum());
+        properties.setProperty(COMPRESSION_KEY, IsaTabWriter.isCompressingTables() ? "gzip" : "none");
+        properties.setProperty(JSON_KEY, String.valueOf(writingJson));
+        properties.setProperty(VALIDATION_KEY, String.valueOf(validating));
+        properties.setProperty(IDF_KEY, Digests.sha256(idfFile));
+
+        int sdrfCount = sdrfFiles == null ? 0 : sdrfFiles.length;
+        properties.setProperty(SDRF_COUNT_KEY, String.valueOf(sdrfCount));
+
+        for (int sdrfIndex = 0; sdrfIndex < sdrfCount; sdrfIndex++) {
+            File sdrfFile = new File(sdrfFiles[sdrfIndex]);
+            properties.setProperty(SDRF_KEY + sdrfIndex + ".name", sdrfFile.getName());
+            properties.setProperty(SDRF_KEY + sdrfIndex + ".sha256", sdrfFile.isFile() ? Digests.sha256(sdrfFile) : "missing");
+        }
+
+        return new ConversionManifest(properties);
+    }
+
+    /**
+     * @return the manifest of the last conversion, or null if there is none or it can not be read
+     */
+    public static ConversionManifest read(File manifestFile) {
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+
+        try {
+            Properties properties = new Properties();
+            InputStream input = new BufferedInputStream(new FileInputStream(manifestFile));
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+            Integer.parseInt(properties.getProperty(SDRF_COUNT_KEY, "0"));
+            return new ConversionManifest(properties);
+        } catch (NumberFormatException e) {
+            System.out.println("Could not read conversion manifest " + manifestFile + ": " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            System.out.println("Could not read conversion manifest " + manifestFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the manifest of an accession, so that a conversion which fails half way is not taken as up to date.
+     */
+    public static void delete(File manifestFile) {
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            System.out.println("Could not delete conversion manifest " + manifestFile);
+        }
+    }
+
+    public void write(File manifestFile, String accnum) throws IOException {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(manifestFile));
+        try {
+            properties.store(output, "MAGE-TAB to ISA-Tab conversion inputs of " + accnum);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * @return true if the converter, the rules, the compression, the ISA-JSON output, the validation, the IDF and the list
+     *         of SDRFs are those of the previous conversion
+     */
+    public boolean hasSameSettings(ConversionManifest previous) {
+        if (previous == null) {
+            return false;
+        }
+
+        if (!isSame(previous, VERSION_KEY) || !isSame(previous, RULES_KEY) || !isSame(previous, COMPRESSION_KEY)
+                || !isSame(previous, JSON_KEY) || !isSame(previous, VALIDATION_KEY) || !isSame(previous, IDF_KEY) || !isSame(previous, SDRF_COUNT_KEY)) {
+            return false;
+        }
+
+        for (String sdrfName : getSdrfNames()) {
+            if (!previous.getSdrfNames().contains(sdrfName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if nothing the conversion depends on has changed since the previous conversion
+     */
+    public boolean hasSameInputs(ConversionManifest previous) {
+        if (!hasSameSettings(previous)) {
+            return false;
+        }
+
+        for (String sdrfName : getSdrfNames()) {
+            if (isSdrfChanged(previous, sdrfName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that the assay file of the given key is made from the records of an SDRF.
+     */
+    public void setAssayProducer(String assayKey, String sdrfFile) {
+        properties.setProperty(ASSAY_KEY + assayKey, new File(sdrfFile).getName());
+    }
+
+    /**
+     * @return true if the assay file of the given key was made by the same, unchanged, SDRF in the previous
+     *         conversion, the settings being the same. setAssayProducer must have been called for the key
+     */
+    public boolean isAssayUnchanged(ConversionManifest previous, String assayKey) {
+        String sdrfName = properties.getProperty(ASSAY_KEY + assayKey);
+
+        return hasSameSettings(previous) && sdrfName != null
+                && sdrfName.equals(previous.properties.getProperty(ASSAY_KEY + assayKey))
+                && !isSdrfChanged(previous, sdrfName);
+    }
+
+    private boolean isSdrfChanged(ConversionManifest previous, String sdrfName) {
+        String hash = getSdrfHash(sdrfName);
+        return hash == null || !hash.equals(previous.getSdrfHash(sdrfName));
+    }
+
+    private List<String> getSdrfNames() {
+        List<String> sdrfNames = new ArrayList<String>();
+
+        int sdrfCount = Integer.parseInt(properties.getProperty(SDRF_COUNT_KEY, "0"));
+        for (int sdrfIndex = 0; sdrfIndex < sdrfCount; sdrfIndex++) {
+            sdrfNames.add(properties.getProperty(SDRF_KEY + sdrfIndex + ".name"));
+        }
+        return sdrfNames;
+    }
+
+    private String getSdrfHash(String sdrfName) {
+        int sdrfCount = Integer.parseInt(properties.getProperty(SDRF_COUNT_KEY, "0"));
+
+        for (int sdrfIndex = 0; sdrfIndex < sdrfCount; sdrfIndex++) {
+            if (sdrfName.equals(properties.getProperty(SDRF_KEY + sdrfIndex + ".name"))) {
+                return properties.getProperty(SDRF_KEY + sdrfIndex + ".sha256");
+            }
+        }
+        return null;
+    }
+
+    private boolean isSame(ConversionManifest previous, String key) {
+        String value = properties.getProperty(key);
+        return value != null && value.equals(previous.properties.getProperty(key));
+    }
+}
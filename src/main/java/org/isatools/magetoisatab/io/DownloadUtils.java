@@ -1,8 +1,13 @@
 package org.isatools.magetoisatab.io;
 
+import au.com.bytecode.opencsv.CSVReader;
 import org.apache.log4j.Logger;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageTimer;
 
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -10,17 +15,34 @@ import java.net.URLConnection;
 public class DownloadUtils {
     private static Logger log = Logger.getLogger(DownloadUtils.class.getName());
 
+    public static final String ARRAYEXPRESS_FILES_URL = "http://www.ebi.ac.uk/arrayexpress/files/";
+
     public static String TMP_DIRECTORY = System.getProperty("java.io.tmpdir");
 
     public static String CONVERTED_DIRECTORY = DownloadUtils.TMP_DIRECTORY + File.separator + "converted";
 
     public static boolean downloadFile(String fileLocation, String downloadLocation) {
+        return downloadFile(fileLocation, downloadLocation, null);
+    }
+
+    /**
+     * Downloads a file to a temporary file next to downloadLocation, renamed to it once complete, so that a job
+     * reading the file while another downloads it again, e.g. a plan and a conversion of the same submission, never
+     * sees it half written.
+     *
+     * @return true if the file was downloaded
+     */
+    public static boolean downloadFile(String fileLocation, String downloadLocation, String accession) {
         URL url;
         OutputStream os = null;
         InputStream is = null;
+        File partFile = null;
 
         System.out.println("Downloading to " + TMP_DIRECTORY);
 
+        StageTimer timer = ConversionMetrics.startStage(accession, ConversionStage.DOWNLOAD, fileLocation);
+        long bytesDownloaded = 0;
+
         try {
             url = new URL(fileLocation);
 
@@ -30,13 +52,25 @@ public class DownloadUtils {
 
             is = urlConn.getInputStream();
 
-            os = new BufferedOutputStream(new FileOutputStream(downloadLocation));
+            File downloadFile = new File(downloadLocation).getAbsoluteFile();
+            partFile = File.createTempFile(downloadFile.getName(), ".part", downloadFile.getParentFile());
+            os = new BufferedOutputStream(new FileOutputStream(partFile));
 
             byte[] inputBuffer = new byte[1024];
             int numBytesRead;
 
             while ((numBytesRead = is.read(inputBuffer)) != -1) {
                 os.write(inputBuffer, 0, numBytesRead);
+                bytesDownloaded += numBytesRead;
+            }
+
+            os.close();
+            os = null;
+            if (!partFile.renameTo(downloadFile)) {
+                downloadFile.delete();
+                if (!partFile.renameTo(downloadFile)) {
+                    throw new IOException("could not rename " + partFile + " to " + downloadFile);
+                }
             }
 
             return true;
@@ -67,6 +101,75 @@ public class DownloadUtils {
                 log.error("io exception caught: " + ioe.getMessage());
 
             }
+            if (partFile != null) {
+                partFile.delete();
+            }
+            timer.setBytes(bytesDownloaded).stop(-1, -1);
+        }
+    }
+
+    /**
+     * Reads the first line of a tab separated file, e.g. an SDRF, without downloading the rest of it.
+     *
+     * @return the cells of the first line, or null if the file can not be downloaded or is empty
+     */
+    public static String[] downloadHeaderLine(String fileLocation, String accession) {
+        InputStream is = null;
+
+        StageTimer timer = ConversionMetrics.startStage(accession, ConversionStage.DOWNLOAD, fileLocation);
+
+        try {
+            URLConnection urlConn = new URL(fileLocation).openConnection();
+            urlConn.setReadTimeout(10000);
+
+            is = urlConn.getInputStream();
+
+            return new CSVReader(new InputStreamReader(is, "UTF-8"), '\t').readNext();
+        } catch (MalformedURLException e) {
+            log.error("url malformed: " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            log.error("io exception caught" + e.getMessage());
+            return null;
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (IOException ioe) {
+                log.error("io exception caught: " + ioe.getMessage());
+            }
+            timer.stop(1, -1);
+        }
+    }
+
+    /**
+     * Asks for the size of a file with a HEAD request, without downloading it.
+     *
+     * @return the Content-Length of the file, or -1 if it can not be found or the server does not give it
+     */
+    public static long getContentLength(String fileLocation) {
+        try {
+            // not disconnected, a HEAD response having no body its connection goes back to the keep-alive cache
+            HttpURLConnection urlConn = (HttpURLConnection) new URL(fileLocation).openConnection();
+            urlConn.setRequestMethod("HEAD");
+            urlConn.setConnectTimeout(10000);
+            urlConn.setReadTimeout(10000);
+
+            if (urlConn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return -1;
+            }
+            String contentLength = urlConn.getHeaderField("Content-Length");
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (ClassCastException e) {
+            log.error("not an HTTP url: " + fileLocation);
+            return -1;
+        } catch (NumberFormatException e) {
+            log.error("bad Content-Length for " + fileLocation + ": " + e.getMessage());
+            return -1;
+        } catch (IOException e) {
+            log.error("io exception caught" + e.getMessage());
+            return -1;
         }
     }
 
@@ -0,0 +1,89 @@
+package org.isatools.magetoisatab.io;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.isatools.magetoisatab.io.model.ConversionResult;
+import org.isatools.magetoisatab.io.model.IsaTable;
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.TableOutputSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts MAGE-TAB submissions held in memory in to ISA-Tab held in memory, for use as a library: nothing is
+ * downloaded, and nothing is read from or written to disk. Conversions are independent of each other and can run side
+ * by side.
+ * <p/>
+ * Streams are read as UTF-8. They are read to the end but not closed.
+ */
+public class MAGETabConverter {
+
+    /**
+     * @param accnum - the accession number, used to name the ISA-Tab files
+     * @param idf    - the IDF
+     * @param sdrfs  - the SDRFs, by the file names the IDF lists them under in its SDRF File row
+     * @return the ISA-Tab files
+     * @throws IOException if a stream can not be read or the conversion fails
+     */
+    public ConversionResult convert(String accnum, InputStream idf, Map<String, InputStream> sdrfs) throws IOException {
+        Map<String, List<String[]>> sdrfTables = new HashMap<String, List<String[]>>();
+        for (Map.Entry<String, InputStream> sdrf : sdrfs.entrySet()) {
+            sdrfTables.put(sdrf.getKey(), readTable(new InputStreamReader(sdrf.getValue(), IsaTabWriter.ENCODING)));
+        }
+
+        TableOutputSink sink = new TableOutputSink();
+
+        MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+        idfloader.setOutputSink(sink);
+        idfloader.setWritingJson(false);
+        idfloader.loadidfTab(new InputStreamReader(idf, IsaTabWriter.ENCODING), accnum, sdrfTables);
+
+        if (idfloader.getFailure() != null) {
+            IOException failure = new IOException("Conversion of " + accnum + " failed: " + idfloader.getFailure());
+            failure.initCause(idfloader.getFailure());
+            throw failure;
+        }
+        return createResult(accnum, sink.getTables(accnum));
+    }
+
+    static List<String[]> readTable(Reader reader) throws IOException {
+        CSVReader csvReader = new CSVReader(reader, '\t');
+        List<String[]> table = new ArrayList<String[]>();
+
+        String[] nextLine;
+        while ((nextLine = csvReader.readNext()) != null) {
+            table.add(nextLine);
+        }
+        return table;
+    }
+
+    private static ConversionResult createResult(String accnum, Map<String, List<String[]>> tables) throws IOException {
+        IsaTable investigation = null;
+        IsaTable studySamples = null;
+        List<IsaTable> assays = new ArrayList<IsaTable>();
+
+        for (Map.Entry<String, List<String[]>> table : tables.entrySet()) {
+            String fileName = table.getKey();
+            IsaTable isaTable = new IsaTable(fileName, table.getValue());
+
+            if (fileName.startsWith("i_")) {
+                investigation = isaTable;
+            } else if (fileName.startsWith("s_")) {
+                studySamples = isaTable;
+            } else if (fileName.startsWith("a_")) {
+                assays.add(isaTable);
+            }
+        }
+
+        if (investigation == null) {
+            throw new IOException("Conversion of " + accnum + " failed, no investigation was produced");
+        }
+        return new ConversionResult(accnum, investigation, studySamples, assays);
+    }
+}
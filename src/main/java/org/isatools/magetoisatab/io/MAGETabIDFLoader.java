@@ -3,13 +3,31 @@ package org.isatools.magetoisatab.io;
 import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.collections15.set.ListOrderedSet;
 import org.apache.log4j.Logger;
+import org.isatools.magetoisatab.io.model.Assay;
 import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.io.model.ConversionPlan;
 import org.isatools.magetoisatab.io.model.Study;
+import org.isatools.magetoisatab.io.output.CopyingOutputSink;
+import org.isatools.magetoisatab.io.output.DirectoryOutputSink;
+import org.isatools.magetoisatab.io.output.IsaJsonWriter;
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.OutputSink;
+import org.isatools.magetoisatab.io.output.SpooledTable;
+import org.isatools.magetoisatab.io.rules.AssayClassificationRules;
+import org.isatools.magetoisatab.io.rules.AssayTypeRule;
+import org.isatools.magetoisatab.io.validation.IsaConfigurationCatalog;
+import org.isatools.magetoisatab.io.validation.ValidatingOutputSink;
+import org.isatools.magetoisatab.io.validation.ValidationReport;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageTimer;
 import org.isatools.magetoisatab.utils.ConversionProperties;
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
 import org.isatools.magetoisatab.utils.PrintUtils;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created by the ISA team
@@ -126,11 +144,106 @@ public class MAGETabIDFLoader {
 
     Map<InvestigationSections, List<String>> investigationSections;
 
+    // when set, SDRF files are read from here instead of being downloaded from ArrayExpress
+    private File localSdrfDirectory;
+
+    // where the ISA-Tab files go, the accession directory under DownloadUtils.CONVERTED_DIRECTORY unless set
+    private OutputSink outputSink;
+
+    // when converting from memory, the SDRFs by the names the IDF gives them
+    private Map<String, List<String[]>> sdrfTables;
+
+    private final ConversionProperties conversionProperties = new ConversionProperties();
+
+    // whether an ISA-JSON file is written as well, by default as the magetoisatab.json system property says
+    private boolean writingJson = IsaJsonWriter.isWritingJson();
+
+    // what the last conversion failed with, reported rather than thrown
+    private Exception failure;
+
+    // the ISA configurations tables are validated against, the shared catalog of the magetoisatab.config directory
+    // unless set
+    private IsaConfigurationCatalog configurationCatalog;
+
+    // what validation of the last conversion found, when there are ISA configurations
+    private ValidationReport validationReport;
+
+    // set while planning, when SDRFs are not downloaded, as only their header lines are read
+    private boolean planning;
+
 
     public MAGETabIDFLoader() {
         investigationSections = new HashMap<InvestigationSections, List<String>>();
     }
 
+    public File getLocalSdrfDirectory() {
+        return localSdrfDirectory;
+    }
+
+    /**
+     * Makes the loader read the SDRF files listed in the IDF from a local directory, e.g. the one holding the IDF,
+     * rather than downloading them, so that conversions can run offline.
+     *
+     * @param localSdrfDirectory - directory holding the SDRF files, or null to download them
+     */
+    public void setLocalSdrfDirectory(File localSdrfDirectory) {
+        this.localSdrfDirectory = localSdrfDirectory;
+    }
+
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    /**
+     * @param outputSink - where the ISA-Tab files are written, or null to write them to the accession directory under
+     *                   DownloadUtils.CONVERTED_DIRECTORY
+     */
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    public boolean isWritingJson() {
+        return writingJson;
+    }
+
+    /**
+     * @param writingJson - whether an ISA-JSON file of the whole conversion is written next to the ISA-Tab files
+     */
+    public void setWritingJson(boolean writingJson) {
+        this.writingJson = writingJson;
+    }
+
+    public ConversionProperties getConversionProperties() {
+        return conversionProperties;
+    }
+
+    /**
+     * @return the exception the last conversion failed with, or null if it did not fail
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public IsaConfigurationCatalog getConfigurationCatalog() {
+        return configurationCatalog;
+    }
+
+    /**
+     * @param configurationCatalog - the ISA configurations to validate tables against, or null to use the shared
+     *                             catalog of the magetoisatab.config directory, if it is set
+     */
+    public void setConfigurationCatalog(IsaConfigurationCatalog configurationCatalog) {
+        this.configurationCatalog = configurationCatalog;
+    }
+
+    /**
+     * @return the problems found validating the tables of the last conversion against the ISA configurations, or
+     *         null if there are none to validate against
+     */
+    public ValidationReport getValidationReport() {
+        return validationReport;
+    }
+
     private void populateIDF() {
         investigationSections.put(InvestigationSections.STUDY_PROTOCOL_SECTION, new ArrayList<String>());
         investigationSections.put(InvestigationSections.STUDY_CONTACT_SECTION, new ArrayList<String>());
@@ -141,50 +254,218 @@ public class MAGETabIDFLoader {
 
 
     public void loadidfTab(String url, String accnum) throws IOException {
+        convert(accnum, new File(url), null);
+    }
+
+    /**
+     * Converts a submission which has already been read, e.g. from streams, rather than one in files. Nothing is
+     * downloaded or read from disk, and the conversion is never incremental.
+     *
+     * @param idfReader  - the IDF, which the caller closes
+     * @param accnum     - the accession number
+     * @param sdrfTables - the SDRFs, header first, by the file names the IDF lists them under
+     */
+    public void loadidfTab(Reader idfReader, String accnum, Map<String, List<String[]>> sdrfTables) throws IOException {
+        this.sdrfTables = sdrfTables;
+        convert(accnum, null, idfReader);
+    }
+
+    /**
+     * Works out what converting a submission would produce, from its IDF and the header lines of its SDRFs alone,
+     * without converting it: the study assay types and assay files, the protocols, and the headers of the study
+     * sample and assay files. SDRFs are read from the local SDRF directory if it is set; otherwise only their header
+     * lines are downloaded. Nothing is written.
+     *
+     * @param url    - the IDF file
+     * @param accnum - the accession number
+     * @throws FileNotFoundException if there is no IDF file
+     * @throws IOException           if the IDF can not be read
+     */
+    public ConversionPlan planConversion(String url, String accnum) throws IOException {
+        File file = new File(url);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("IDF file not found: " + url);
+        }
 
+        ConversionPlan plan = new ConversionPlan(accnum);
+        populateIDF();
+        sdrfFileNames = null;
+
+        StageTimer idfTimer = ConversionMetrics.startStage(accnum, ConversionStage.IDF_PARSE, file.getName());
+        planning = true;
+        Reader fileReader = new FileReader(file);
         try {
-            populateIDF();
-            List<String> sdrfDownloadLocation = new ArrayList<String>();
-            File file = new File(url);
+            idfTimer.setBytes(file.length()).stop(processIncomingIDF(accnum, new ArrayList<String>(), fileReader), -1);
+        } finally {
+            planning = false;
+            fileReader.close();
+        }
+
+        Set<AssayType> assayTTMT = getStudyAssayTypes();
+        boolean sequencing = false;
+        for (AssayType assayType : assayTTMT) {
+            plan.addStudyAssayType(assayType);
+            sequencing |= assayType.getTechnology().contains("sequencing");
+        }
+        if (assayTTMT.isEmpty()) {
+            plan.addProblem("no study assay type found in the experimental design or title");
+        }
+        for (String assayFileName : getStudyAssayFileNames(accnum, assayTTMT)) {
+            plan.addListedAssayFile(assayFileName);
+        }
 
-            boolean success = (new File(DownloadUtils.CONVERTED_DIRECTORY + File.separator + accnum)).mkdirs();
-            if (success) {
-                System.out.println("Directory: " + accnum + " created");
+        for (String protocolLine : investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION)) {
+            if (protocolLine.startsWith("Study Protocol Name")) {
+                String[] protocolNames = protocolLine.split("\t");
+                for (int index = 1; index < protocolNames.length; index++) {
+                    if (protocolNames[index].trim().length() > 0) {
+                        plan.addProtocol(protocolNames[index].trim());
+                    }
+                }
+            }
+        }
+        if (sequencing) {
+            plan.addProtocol("library construction");
+            plan.addProtocol("nucleic acid sequencing");
+        }
+
+        if (sdrfFileNames == null || sdrfFileNames.length == 0) {
+            plan.addProblem("the IDF lists no SDRF file");
+            return plan;
+        }
+
+        StudySampleMerger studySampleMerger = new StudySampleMerger();
+
+        for (String sdrfFile : sdrfFileNames) {
+            String sdrfName = new File(sdrfFile).getName();
+
+            String[] sdrfHeader = readSdrfHeader(sdrfFile, accnum);
+            if (sdrfHeader == null) {
+                plan.addProblem(sdrfName + " could not be read");
+                continue;
+            }
+
+            MAGETabSDRFLoader sdrfloader = new MAGETabSDRFLoader(conversionProperties);
+            studySampleMerger.addTable(sdrfloader.planSdrfHeader(sdrfHeader, sdrfName, accnum, assayTTMT, plan));
+        }
+        plan.setStudySampleHeader(studySampleMerger.getHeader());
+
+        return plan;
+    }
+
+    /**
+     * @param sdrfFile - the SDRF file, or its ArrayExpress URL when planning without a local SDRF directory
+     * @return the header line of the SDRF, or null if it can not be found
+     */
+    private static String[] readSdrfHeader(String sdrfFile, String accnum) throws IOException {
+        if (sdrfFile.startsWith("http://") || sdrfFile.startsWith("https://")) {
+            return DownloadUtils.downloadHeaderLine(sdrfFile, accnum);
+        }
+
+        File file = new File(sdrfFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        Reader fileReader = new FileReader(file);
+        try {
+            return new CSVReader(fileReader, '\t').readNext();
+        } finally {
+            fileReader.close();
+        }
+    }
+
+    /**
+     * @param file      - the IDF file, or null to read the IDF from idfReader
+     * @param idfReader - the IDF, when there is no file
+     */
+    private void convert(String accnum, File file, Reader idfReader) throws IOException {
+
+        IsaTabWriter invPs = null;
+        IsaTabWriter ps = null;
+        failure = null;
+        validationReport = null;
+
+        OutputSink sink = outputSink != null ? outputSink : new DirectoryOutputSink(new File(DownloadUtils.CONVERTED_DIRECTORY));
+
+        // ISA-JSON is generated from copies of the ISA-Tab files, once they are all written
+        CopyingOutputSink tableCopies = writingJson ? new CopyingOutputSink(sink) : null;
+        OutputSink tableSink = tableCopies != null ? tableCopies : sink;
+
+        String investigationFileName = "i_" + accnum + "_investigation.txt";
+        String studyFileName = IsaTabWriter.getTableFileName("s_" + accnum + "_study_samples.txt");
+
+        try {
+            // tables are validated as they are written when there are ISA configurations to validate them against
+            IsaConfigurationCatalog catalog = configurationCatalog != null ? configurationCatalog : IsaConfigurationCatalog.getCatalog();
+            if (catalog != null) {
+                validationReport = new ValidationReport();
+                tableSink = new ValidatingOutputSink(tableSink, catalog, validationReport);
             }
 
-            if (file.exists()) {
+            populateIDF();
+            List<String> sdrfDownloadLocation = new ArrayList<String>();
+
+            if (file == null || file.exists()) {
 
                 System.out.println("Starting processing of IDF file");
 
-                processIncomingIDFFile(accnum, sdrfDownloadLocation, file);
+                StageTimer idfTimer = ConversionMetrics.startStage(accnum, ConversionStage.IDF_PARSE,
+                        file == null ? accnum + ".idf.txt" : file.getName());
+                int idfRowCount;
+                if (file == null) {
+                    idfRowCount = processIncomingIDF(accnum, sdrfDownloadLocation, idfReader);
+                } else {
+                    Reader fileReader = new FileReader(file);
+                    try {
+                        idfRowCount = processIncomingIDF(accnum, sdrfDownloadLocation, fileReader);
+                    } finally {
+                        fileReader.close();
+                    }
+                }
+                idfTimer.setBytes(file == null ? -1 : file.length()).stop(idfRowCount, -1);
                 System.out.println("Ending processing of IDF file");
 
-                PrintStream invPs = new PrintStream(new File(
-                        DownloadUtils.CONVERTED_DIRECTORY + File.separator + accnum + "/i_" + accnum + "_investigation.txt"));
+                // an accession whose inputs have not changed since it was last converted is not converted again
+                // (only for files converted in to sinks which keep the files of earlier conversions)
+                File manifestFile = file != null && sink.isIncremental() ? ConversionManifest.getManifestFile(sink, accnum) : null;
+                ConversionManifest manifest = manifestFile != null ? ConversionManifest.create(file, sdrfFileNames, writingJson,
+                        validationReport != null) : null;
+                ConversionManifest previousManifest = manifest != null && ConversionManifest.isIncremental()
+                        ? ConversionManifest.read(manifestFile) : null;
+
+                if (manifest != null && manifest.hasSameInputs(previousManifest) && sink.exists(accnum, investigationFileName)) {
+                    System.out.println("Inputs of " + accnum + " unchanged since the last conversion, skipping it");
+                    return;
+                }
+                if (manifest != null) {
+                    ConversionManifest.delete(manifestFile);
+                }
+
+                invPs = tableSink.openWriter(accnum, investigationFileName);
 
                 printOntologySourceRefSection(invPs);
                 printInvestigationSection(accnum, invPs);
 
-                invPs.println("Study Submission Date");
+                invPs.writeLine("Study Submission Date");
 
                 for (String dateLine : dateLines) {
-                    invPs.println(dateLine);
+                    invPs.writeLine(dateLine);
                 }
 
                 for (String aStudyDesc : studyDesc) {
-                    invPs.println(aStudyDesc);
+                    invPs.writeLine(aStudyDesc);
                 }
 
-                invPs.println("Study File Name" + "\t" + "s_" + accnum + "_study_samples.txt");
+                invPs.writeLine("Study File Name" + "\t" + studyFileName);
 
-                invPs.println("STUDY DESIGN DESCRIPTORS");
+                invPs.writeLine("STUDY DESIGN DESCRIPTORS");
 
                 for (String designLine : designLines) {
-                    invPs.println(designLine);
+                    invPs.writeLine(designLine);
                 }
 
 
-                invPs.println("STUDY PUBLICATIONS");
+                invPs.writeLine("STUDY PUBLICATIONS");
                 if (investigationSections.get(InvestigationSections.STUDY_PUBLICATION_SECTION).size() > 0) {
 
                     for (String publicationLine : investigationSections.get(InvestigationSections.STUDY_PUBLICATION_SECTION)) {
@@ -219,41 +500,23 @@ public class MAGETabIDFLoader {
 
                 //we now output the Publication Section of an ISA Study
                 for (Map.Entry<Integer, String> e : IsaPublicationSection.entrySet())
-                    invPs.println(e.getValue());
+                    invPs.writeLine(e.getValue());
 
 
                 // Now Creating the Factor Section
-                invPs.println("STUDY FACTORS");
+                invPs.writeLine("STUDY FACTORS");
 
                 for (String factorLine : factorLines) {
                     //this is to take care of unsupported commonly used characters and match the replacements performed
                     //in the MAGETabSDRFloader to match declared and used factors.
                     factorLine = factorLine.replace(". #", " number");
-                    invPs.println(factorLine);
+                    invPs.writeLine(factorLine);
                 }
 
                 //Now creating the Assay Section:
-                invPs.println("STUDY ASSAYS");
+                invPs.writeLine("STUDY ASSAYS");
 
-                // We are now trying to get the Measurement and Technology Type from MAGE annotation Experimental Design Type
-
-                Set<AssayType> assayTTMT = getMeasurementAndTech(designLines.get(0));
-
-                //trying to recover information about assay type in the absence of information in  Comment[AE..] and StudyDesign fields
-                for (String investigationLine : investigationLines) {
-
-                    if (investigationLine.contains("Study Title\tTranscription prof") || investigationLine.contains("Study Title\tGene expression prof")
-                            || investigationLine.contains("Study Title\ttranscription prof") || investigationLine.contains("Study Title\tgene expression prof")) {
-
-                        //System.out.println("BYE investigationLine = " + investigationLine);
-                        //NOTE: we take a risk here by assuming that in the absence of information  in  Comment[AE..] and StudyDesign fields, finding 'Gene expression profiling or Transcription profiling in the title
-                        // means it always uses microarrays.
-                        AssayType geneChip = new AssayType("transcription profiling", "DNA microarray", "GeneChip");
-                        if (!defaultAssayTypeAlreadyExists(geneChip, assayTTMT)) {
-                            assayTTMT.add(geneChip);
-                        }
-                    }
-                }
+                Set<AssayType> assayTTMT = getStudyAssayTypes();
 
                 // If this fails, we are falling back on checking MAGE-TAB Comment[AEExperimentType] line
                 String measurementTypes = "Study Assay Measurement Type";
@@ -269,72 +532,29 @@ public class MAGETabIDFLoader {
 
                 }
 
-                invPs.println(measurementTypes);
-                invPs.println("Study Assay Measurement Type Term Accession Number\n" +
+                invPs.writeLine(measurementTypes);
+                invPs.writeLine("Study Assay Measurement Type Term Accession Number\n" +
                         "Study Assay Measurement Type Term Source REF");
 
 
-                invPs.println(technologyTypes);
-                invPs.println("Study Assay Technology Type Term Accession Number\n" +
+                invPs.writeLine(technologyTypes);
+                invPs.writeLine("Study Assay Technology Type Term Accession Number\n" +
                         "Study Assay Technology Type Term Source REF\n" +
                         "Study Assay Technology Platform");
 
-                String assayfilenames = "Study Assay File Name";
-
-
                 //we now create as many assay spreadsheet as needed:
+                String assayfilenames = "Study Assay File Name";
 
-                //case1: there is only SDRF and we rely on the information found under Comment[AEexperimentTypes]
-                //NOTE: caveat: AE is inconsistent and encode various measurement types under the same spreadsheet for sequencing applications
-                if (assayTTMT.size() > 0 && sdrfFileNames != null) {
-
-                    for (AssayType anAssayTTMT : assayTTMT) {       //we start at 1 as the first element of the array is the header "
-                        assayfilenames = assayfilenames + "\ta_" + accnum + "_" + anAssayTTMT.getShortcut() + "_assay.txt";
-                        System.out.println("CASE1: " + anAssayTTMT.getShortcut());
-                    }
-
-                    System.out.println("CASE1: " + assayfilenames);
-                }
-
-                //case2: there are more than 1 SDRF and we rely on the information found under Comment[AEexperimentTypes]
-                else if (sdrfFileNames != null && sdrfFileNames.length > 0 && (sdrfFileNames.length == ConversionProperties.getDesignTypes().size())) {
-
-                    for (String cmtDesignType : ConversionProperties.getDesignTypes()) { //we start at 1 as the first element of the array is the header "
-
-                        if (ConversionProperties.isValueInDesignTypes("chip-seq") || ConversionProperties.isValueInDesignTypes("ChIP-seq")) {
-
-                            for (AssayType anAssayTTMT : assayTTMT) {
-                                if ((anAssayTTMT.getMeasurement().equalsIgnoreCase("protein-DNA binding site identification")) &&
-                                        (anAssayTTMT.getTechnology().equalsIgnoreCase("nucleotide sequencing"))) {
-                                    anAssayTTMT.setFile(cmtDesignType.replaceAll("\\?iChIP-seq", "ChIP-Seq"));
-                                }
-                            }
-                        }
-
-                        if (ConversionProperties.isValueInDesignTypes("transcription profiling by array")) {
-                            for (AssayType anAssayTTMT : assayTTMT) {
-
-                                if ((anAssayTTMT.getMeasurement().equalsIgnoreCase("transcription profiling")) &&
-                                        (anAssayTTMT.getTechnology().equalsIgnoreCase("DNA microarray"))) {
-                                    anAssayTTMT.setFile(cmtDesignType.replaceAll("transcription profiling by array", "GeneChip"));
-                                }
-                            }
-                        }
-                    }
-
-
-                    for (AssayType anAssayTTMT : assayTTMT) {
-                        assayfilenames = assayfilenames + "\ta_" + accnum + "_" + anAssayTTMT.getFile().replaceAll("\\s", "_") + "_assay.txt";
-                    }
-                    System.out.println("CASE2: " + assayfilenames);
+                for (String assayFileName : getStudyAssayFileNames(accnum, assayTTMT)) {
+                    assayfilenames = assayfilenames + "\t" + assayFileName;
                 }
 
                 //now we can output that IDF row containing all
 
-                invPs.println(assayfilenames);
+                invPs.writeLine(assayfilenames);
 
                 //Now creating the Protocol section
-                invPs.println("STUDY PROTOCOLS");
+                invPs.writeLine("STUDY PROTOCOLS");
 
 
                 if (investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).size() > 0) {
@@ -390,11 +610,11 @@ public class MAGETabIDFLoader {
                 //we now output the Protocol Section of an ISA Study
                 for (Map.Entry<Integer, String> e : isaProtocolSection.entrySet())
 
-                    invPs.println(e.getValue());
+                    invPs.writeLine(e.getValue());
 
 
                 // Let's now deal with the Contact Information Section
-                invPs.println("STUDY CONTACTS");
+                invPs.writeLine("STUDY CONTACTS");
 
                 if (investigationSections.get(InvestigationSections.STUDY_CONTACT_SECTION).size() > 0) {
 
@@ -431,111 +651,101 @@ public class MAGETabIDFLoader {
 
                     //we now output the Contact Section of an ISA Study
                     for (Map.Entry<Integer, String> e : isaContactSection.entrySet())
-                        invPs.println(e.getValue());
+                        invPs.writeLine(e.getValue());
 
-                    List<Map<String, List<String>>> studies = new ArrayList<Map<String, List<String>>>();
+                    StudySampleMerger studySampleMerger = new StudySampleMerger();
                     PrintUtils pu = new PrintUtils();
 
                     // study sample file
-                    PrintStream ps = new PrintStream(new File(DownloadUtils.CONVERTED_DIRECTORY + File.separator + accnum + "/s_" + accnum + "_" + "study_samples.txt"));
+                    ps = tableSink.openWriter(accnum, studyFileName);
 
-                    for (String sdrfFile : sdrfFileNames) {
-                        if (!new File(sdrfFile).isDirectory()) {
-                            System.out.println("Processing " + sdrfFile);
-                            System.out.println("SDRF number is:" + sdrfFile);
-
-                            MAGETabSDRFLoader sdrfloader = new MAGETabSDRFLoader();
-
-                            Study study = sdrfloader.loadsdrfTab(sdrfFile, accnum, assayTTMT);
-
-                            Map<String, List<String>> table = new LinkedHashMap<String, List<String>>();
+                    // the SDRFs are independent of each other until their study samples are merged, so each is
+                    // processed by its own loader on the shared pool, and the results gathered in SDRF order
+                    List<Callable<Study>> sdrfTasks = new ArrayList<Callable<Study>>();
+                    List<String> sdrfTaskFiles = new ArrayList<String>();
 
-                            if (study.getStudySampleLevelInformation().size() > 0) {
-                                for (int i = 0; i < study.getStudySampleLevelInformation().get(0).length; i++) {
-
-                                    String key = study.getStudySampleLevelInformation().get(0)[i];
-
-                                    List<String> values = new ArrayList<String>();
-
-                                    for (int k = 1; k < study.getStudySampleLevelInformation().size(); k++) {
-                                        String value = study.getStudySampleLevelInformation().get(k)[i];
-                                        if (value != null) {
-                                            values.add(value);
-                                        }
+                    for (final String sdrfFile : sdrfFileNames) {
+                        if (!new File(sdrfFile).isDirectory()) {
+                            sdrfTaskFiles.add(sdrfFile);
+                            final String accessionNumber = accnum;
+                            final Set<AssayType> studyAssayTypes = assayTTMT;
+                            final Map<String, List<String[]>> givenSdrfTables = sdrfTables;
+
+                            sdrfTasks.add(new Callable<Study>() {
+                                public Study call() {
+                                    System.out.println("Processing " + sdrfFile);
+                                    System.out.println("SDRF number is:" + sdrfFile);
+
+                                    MAGETabSDRFLoader sdrfloader = new MAGETabSDRFLoader(conversionProperties);
+                                    if (givenSdrfTables != null) {
+                                        return sdrfloader.processSdrfTable(givenSdrfTables.get(sdrfFile), sdrfFile, accessionNumber, studyAssayTypes);
                                     }
-                                    table.put(key, values);
+                                    return sdrfloader.processSdrfTab(sdrfFile, accessionNumber, studyAssayTypes);
                                 }
-                            }
-
-                            studies.add(table);
-                            //pu.printStudySamples(ps, study);
+                            });
                         }
                     }
 
-                    Map<String, List<String>> mergedTables = mergeTables(studies);
-
-                    //this set's keys are the final header of the merged study sample file
-                    Set<String> tableKeyset = mergedTables.keySet();
-                    String finalStudyTableHeader = "";
-
-                    //we now splice the header together by concatenating the key
-                    int keyCount=0;
-                    for (String aTableKeyset : tableKeyset) {
-                      if (keyCount<tableKeyset.size()-1)   {
-                        finalStudyTableHeader = finalStudyTableHeader + aTableKeyset + "\t";
-                      }
-                        else {
-                          finalStudyTableHeader = finalStudyTableHeader + aTableKeyset;
-                      }
-                        keyCount++;
-                    }
-                    //we print the header
-                    System.out.println("PRINTING STUDY HEADER: " + finalStudyTableHeader);
-                    ps.println(finalStudyTableHeader);
-
-                    //we now need to get the total number of records. This corresponds to the number of elements in the arrays associated to the key "Sample Name"
+                    List<Study> studies = ConversionThreadPool.invokeAll(sdrfTasks);
 
-                    int numberOfSampleRecords;
+                    // assays of different SDRFs with the same key go to the same file, the last SDRF's being kept
+                    Map<String, Integer> assayProducers = new HashMap<String, Integer>();
 
-                    List<String> guestList = mergedTables.get("Sample Name");
+                    for (int studyIndex = 0; studyIndex < studies.size(); studyIndex++) {
+                        Study study = studies.get(studyIndex);
+                        studySampleMerger.addTable(study.getStudySampleLevelInformation());
+                        //pu.printStudySamples(ps, study);
 
-                    numberOfSampleRecords = guestList.size();
-
-                    Set<String> finalStudyTable = new HashSet<String>();
-
-                    for (int sampleRecordIndex = 0; sampleRecordIndex < numberOfSampleRecords; sampleRecordIndex++) {
-
-                        String studyRecord = "";
+                        for (Assay assay : study.getAssays()) {
+                            for (String assayKey : assay.getAssayLevelInformation().keySet()) {
+                                assayProducers.put(assayKey, studyIndex);
+                                if (manifest != null) {
+                                    manifest.setAssayProducer(assayKey, sdrfTaskFiles.get(studyIndex));
+                                }
+                            }
+                        }
+                    }
 
-                        int otherKeyCount=0;
+                    // only the assay files made by changed SDRFs are written again, unless all of them are needed
+                    // for the ISA-JSON, or to be validated as the report of the accession is written again in full
+                    boolean writingAllAssays = tableCopies != null || validationReport != null;
+                    List<Assay> assays = new ArrayList<Assay>();
 
-                        for (String key : mergedTables.keySet()) {
+                    for (int studyIndex = 0; studyIndex < studies.size(); studyIndex++) {
+                        for (Assay assay : studies.get(studyIndex).getAssays()) {
+                            for (String assayKey : assay.getAssayLevelInformation().keySet()) {
+                                boolean assayFileExists = sink.exists(accnum, MAGETabSDRFLoader.getAssayFileName(accnum, assayKey));
 
-                            //obtain the list associated to that given key
-                            List<String> correspondingList = mergedTables.get(key);
-                            if (otherKeyCount<mergedTables.keySet().size())   {
-                            // now obtain the ith element of that associated list
-                                if (sampleRecordIndex < correspondingList.size()) {
-                                    studyRecord += correspondingList.get(sampleRecordIndex) + "\t";
+                                if (assayProducers.get(assayKey) == studyIndex && (writingAllAssays
+                                        || !(assayFileExists && manifest != null && manifest.isAssayUnchanged(previousManifest, assayKey)))) {
+                                    assays.add(assay);
                                 }
-                            } else  {
-                                studyRecord += correspondingList.get(sampleRecordIndex);
                             }
-                            otherKeyCount++;
                         }
+                    }
 
-                        finalStudyTable.add(studyRecord);
+                    MAGETabSDRFLoader.writeAssays(assays, accnum, tableSink);
 
-                    }
+                    StageTimer studyWriteTimer = ConversionMetrics.startStage(accnum, ConversionStage.WRITE, studyFileName);
 
-                    //Here we print the new records to the final study sample file
-                    for (String aFinalStudyTable : finalStudyTable) {
-                        ps.println(aFinalStudyTable);
-                    }
+                    //we print the header, followed by the records of every SDRF
+                    System.out.println("PRINTING STUDY HEADER: " + studySampleMerger.getHeader());
+                    studySampleMerger.write(ps);
 
                     //closing file handle
-                    ps.flush();
                     ps.close();
+                    studyWriteTimer.setBytes(ps.getByteCount()).stop(studySampleMerger.getRecordCount() + 1, studySampleMerger.getHeader().size());
+
+                    invPs.close();
+                    if (tableCopies != null) {
+                        writeJson(accnum, sink, tableCopies.getTables(accnum));
+                    }
+                    if (validationReport != null) {
+                        writeValidationReport(accnum, sink, validationReport);
+                    }
+                    if (manifest != null) {
+                        manifest.write(manifestFile, accnum);
+                    }
                 }
 
             } else {
@@ -546,21 +756,142 @@ public class MAGETabIDFLoader {
                 )
 
         {
+            failure = e;
             e.printStackTrace();
         } catch (
                 IOException e
                 )
 
         {
+            failure = e;
             e.printStackTrace();
         } catch (
                 Exception e
                 )
 
         {
+            failure = e;
             e.printStackTrace();
+        } finally {
+            IsaTabWriter.closeQuietly(invPs);
+            IsaTabWriter.closeQuietly(ps);
+            if (tableCopies != null) {
+                tableCopies.remove(accnum);
+            }
+        }
+
+    }
+
+    private static void writeJson(String accnum, OutputSink sink, Map<String, SpooledTable> tables) throws IOException {
+        String jsonFileName = IsaJsonWriter.getJsonFileName(accnum);
+        StageTimer jsonWriteTimer = ConversionMetrics.startStage(accnum, ConversionStage.WRITE, jsonFileName);
+
+        int rowCount = 0;
+        for (SpooledTable table : tables.values()) {
+            rowCount += table.getLineCount();
+        }
+
+        IsaTabWriter jsonWriter = sink.openWriter(accnum, jsonFileName);
+        try {
+            new IsaJsonWriter(jsonWriter).write(accnum, tables);
+        } finally {
+            jsonWriter.close();
+        }
+        jsonWriteTimer.setInput(rowCount, -1).setBytes(jsonWriter.getByteCount()).stop(1, -1);
+    }
+
+    private static void writeValidationReport(String accnum, OutputSink sink, ValidationReport report) throws IOException {
+        System.out.println("Validation of " + accnum + ": " + report.getProblemCount() + " problem(s) in "
+                + report.getValidatedFiles().size() + " file(s)");
+
+        IsaTabWriter reportWriter = sink.openWriter(accnum, ValidationReport.getReportFileName(accnum));
+        try {
+            for (String line : report.toLines()) {
+                reportWriter.writeLine(line);
+            }
+        } finally {
+            reportWriter.close();
+        }
+    }
+
+    /**
+     * @return the study assay types, from the Experimental Design line of the IDF and, failing that, its title
+     */
+    private Set<AssayType> getStudyAssayTypes() {
+
+        // We are now trying to get the Measurement and Technology Type from MAGE annotation Experimental Design Type
+
+        Set<AssayType> assayTTMT = getMeasurementAndTech(designLines.get(0));
+
+        //trying to recover information about assay type in the absence of information in  Comment[AE..] and StudyDesign fields
+        for (String investigationLine : investigationLines) {
+
+            if (investigationLine.contains("Study Title\tTranscription prof") || investigationLine.contains("Study Title\tGene expression prof")
+                    || investigationLine.contains("Study Title\ttranscription prof") || investigationLine.contains("Study Title\tgene expression prof")) {
+
+                //NOTE: we take a risk here by assuming that in the absence of information  in  Comment[AE..] and StudyDesign fields, finding 'Gene expression profiling or Transcription profiling in the title
+                // means it always uses microarrays.
+                AssayType geneChip = new AssayType("transcription profiling", "DNA microarray", "GeneChip");
+                if (!defaultAssayTypeAlreadyExists(geneChip, assayTTMT)) {
+                    assayTTMT.add(geneChip);
+                }
+            }
+        }
+        return assayTTMT;
+    }
+
+    /**
+     * @return the assay files of the Study Assay File Name row of the investigation, one per study assay type
+     */
+    private List<String> getStudyAssayFileNames(String accnum, Set<AssayType> assayTTMT) {
+
+        List<String> assayFileNames = new ArrayList<String>();
+
+        //case1: there is only SDRF and we rely on the information found under Comment[AEexperimentTypes]
+        //NOTE: caveat: AE is inconsistent and encode various measurement types under the same spreadsheet for sequencing applications
+        if (assayTTMT.size() > 0 && sdrfFileNames != null) {
+
+            for (AssayType anAssayTTMT : assayTTMT) {       //we start at 1 as the first element of the array is the header "
+                assayFileNames.add(MAGETabSDRFLoader.getAssayFileName(accnum, anAssayTTMT.getShortcut()));
+                System.out.println("CASE1: " + anAssayTTMT.getShortcut());
+            }
+
+            System.out.println("CASE1: " + assayFileNames);
         }
 
+        //case2: there are more than 1 SDRF and we rely on the information found under Comment[AEexperimentTypes]
+        else if (sdrfFileNames != null && sdrfFileNames.length > 0 && (sdrfFileNames.length == conversionProperties.getDesignTypes().size())) {
+
+            for (String cmtDesignType : conversionProperties.getDesignTypes()) { //we start at 1 as the first element of the array is the header "
+
+                if (conversionProperties.isValueInDesignTypes("chip-seq") || conversionProperties.isValueInDesignTypes("ChIP-seq")) {
+
+                    for (AssayType anAssayTTMT : assayTTMT) {
+                        if ((anAssayTTMT.getMeasurement().equalsIgnoreCase("protein-DNA binding site identification")) &&
+                                (anAssayTTMT.getTechnology().equalsIgnoreCase("nucleotide sequencing"))) {
+                            anAssayTTMT.setFile(cmtDesignType.replaceAll("\\?iChIP-seq", "ChIP-Seq"));
+                        }
+                    }
+                }
+
+                if (conversionProperties.isValueInDesignTypes("transcription profiling by array")) {
+                    for (AssayType anAssayTTMT : assayTTMT) {
+
+                        if ((anAssayTTMT.getMeasurement().equalsIgnoreCase("transcription profiling")) &&
+                                (anAssayTTMT.getTechnology().equalsIgnoreCase("DNA microarray"))) {
+                            anAssayTTMT.setFile(cmtDesignType.replaceAll("transcription profiling by array", "GeneChip"));
+                        }
+                    }
+                }
+            }
+
+
+            for (AssayType anAssayTTMT : assayTTMT) {
+                assayFileNames.add(MAGETabSDRFLoader.getAssayFileName(accnum, anAssayTTMT.getFile().replaceAll("\\s", "_")));
+            }
+            System.out.println("CASE2: " + assayFileNames);
+        }
+        return assayFileNames;
     }
 
     private boolean defaultAssayTypeAlreadyExists(AssayType geneChip, Set<AssayType> assayTTMT) {
@@ -572,10 +903,12 @@ public class MAGETabIDFLoader {
         return false;
     }
 
-    private void processIncomingIDFFile(String accnum, List<String> sdrfDownloadLocation, File file) throws IOException {
-        CSVReader reader = new CSVReader(new FileReader(file), '\t');
+    private int processIncomingIDF(String accnum, List<String> sdrfDownloadLocation, Reader idfReader) throws IOException {
+        CSVReader reader = new CSVReader(idfReader, '\t');
         String[] nextLine;
+        int rowCount = 0;
         while ((nextLine = reader.readNext()) != null) {
+            rowCount++;
             String rowName = nextLine[0];
 
             if (rowName.startsWith("Protocol")) {
@@ -641,7 +974,7 @@ public class MAGETabIDFLoader {
                 designLines.set(0, line);
 
                 for (String designType : designLines) {
-                    ConversionProperties.addDesignType(designType);
+                    conversionProperties.addDesignType(designType);
                 }
             }
 
@@ -651,7 +984,7 @@ public class MAGETabIDFLoader {
                 System.out.println("Alternative Design Tag found at: " + rowName);
 
                 for (String designType : nextLine) {
-                    ConversionProperties.addDesignType(designType);
+                    conversionProperties.addDesignType(designType);
                 }
 
                 String line = arrayToString(nextLine).replace("Comment[AEExperimentType]", "Study Design Type");
@@ -676,11 +1009,36 @@ public class MAGETabIDFLoader {
                 //There is more than one SDRF file listed in this submission, now iterating through them:");
                 int index = 0;
                 for (String sdrfFileName : sdrfFileNames) {
-                    String sdrfUrl = "http://www.ebi.ac.uk/arrayexpress/files/" + accnum + "/" + sdrfFileName;
+                    if (sdrfTables != null) {
+                        // converting from memory, the SDRFs are looked up by name
+                        sdrfDownloadLocation.add(sdrfFileName);
+                        index++;
+                        continue;
+                    }
+
+                    if (localSdrfDirectory != null) {
+                        String sdrfFile = new File(localSdrfDirectory, sdrfFileName).getPath();
+                        sdrfFileNames[index] = sdrfFile;
+                        sdrfDownloadLocation.add(sdrfFile);
+                        System.out.println("SDRF found locally: " + sdrfFile);
+                        index++;
+                        continue;
+                    }
+
+                    String sdrfUrl = DownloadUtils.ARRAYEXPRESS_FILES_URL + accnum + "/" + sdrfFileName;
+
+                    if (planning) {
+                        // the header line is read straight from ArrayExpress later on
+                        sdrfFileNames[index] = sdrfUrl;
+                        sdrfDownloadLocation.add(sdrfUrl);
+                        index++;
+                        continue;
+                    }
+
                     String sdrfFile = DownloadUtils.TMP_DIRECTORY + File.separator + accnum + File.separator + sdrfFileName;
                     sdrfFileNames[index] = sdrfFile;
                     sdrfDownloadLocation.add(sdrfFile);
-                    DownloadUtils.downloadFile(sdrfUrl, sdrfFile);
+                    DownloadUtils.downloadFile(sdrfUrl, sdrfFile, accnum);
                     System.out.println("SDRF found and downloaded: " + sdrfUrl);
                     index++;
                 }
@@ -730,6 +1088,7 @@ public class MAGETabIDFLoader {
 
             }
         }
+        return rowCount;
     }
 
     /**
@@ -753,17 +1112,17 @@ public class MAGETabIDFLoader {
         return string.toString();
     }
 
-    private void printOntologySourceRefSection(PrintStream invPs) {
+    private void printOntologySourceRefSection(IsaTabWriter invPs) throws IOException {
         //Outputting the ISA-TAB Ontology Section
-        invPs.println("ONTOLOGY SOURCE REFERENCE");
+        invPs.writeLine("ONTOLOGY SOURCE REFERENCE");
 
         for (Map.Entry<Integer, String> e : isaOntoSection.entrySet())
-            invPs.println(e.getValue());
+            invPs.writeLine(e.getValue());
     }
 
-    private void printInvestigationSection(String accnum, PrintStream invPs) {
+    private void printInvestigationSection(String accnum, IsaTabWriter invPs) throws IOException {
         //Outputing ISA-TAB Investigation Section which is always empty as MAGE-TAB does not support this.
-        invPs.println("INVESTIGATION\n" +
+        invPs.writeLine("INVESTIGATION\n" +
                 "Investigation Identifier\n" +
                 "Investigation Title\n" +
                 "Investigation Description\n" +
@@ -794,45 +1153,10 @@ public class MAGETabIDFLoader {
 
 
         for (String investigationLine : investigationLines) {
-            invPs.println(investigationLine);
-        }
-    }
-
-    private Map<String, List<String>> mergeTables(List<Map<String, List<String>>> studies) {
-
-        Set<String> allKeys = new LinkedHashSet<String>();
-        Map<String, List<String>> resultMap = new LinkedHashMap<String, List<String>>();
-
-        System.out.println("Doing merge");
-        System.out.printf("Size of studies is: %d", studies.size());
-
-        for (Map<String, List<String>> tables : studies) {
-            allKeys.addAll(tables.keySet());
-        }
-
-        for (String key : allKeys) {
-
-            List<List<String>> keyLists = new ArrayList<List<String>>();
-
-            for (Map<String, List<String>> tables : studies) {
-                if (tables.containsKey(key)) {
-                    keyLists.add(tables.get(key));
-                }
-            }
-
-            List<String> newList = new ArrayList<String>();
-
-            for (List<String> keyList : keyLists) {
-                newList.addAll(keyList);
-            }
-
-            resultMap.put(key, newList);
+            invPs.writeLine(investigationLine);
         }
-
-        return resultMap;
     }
 
-
     /**
      * A method to remove duplicate entries in Ontology Section
      */
@@ -856,11 +1180,11 @@ public class MAGETabIDFLoader {
 
 
     /**
-     * A method that uses MAGE-TAB Experiment Design information to deduce ISA Measurement and Technology Types.
+     * A method that uses MAGE-TAB Experiment Design information to deduce ISA Measurement and Technology Types,
+     * following the assay-type rules of the assay classification rules.
      *
      * @param line
-     * @return A Pair of Strings containing the Measurement and Technology Types to be output
-     *         TODO: rely on an xml configuration file to instead of hard coded values -> easier to maintain in case of changes in ArrayExpress terminology
+     * @return A Set of the AssayTypes to be output
      */
     private Set<AssayType> getMeasurementAndTech(String line) {
 
@@ -868,38 +1192,15 @@ public class MAGETabIDFLoader {
 
         Set<AssayType> assayTypes = new ListOrderedSet<AssayType>();
 
-        if (line.matches("(?i).*ChIP-Chip.*")) {
-            assayTypes.add(new AssayType("protein-DNA binding site identification", "DNA microarray", "ChIP-Chip"));
-        }
-
-        if ((line.matches("(?i).*RNA-seq.*")) || (line.matches("(?i).*RNA-Seq.*")) || (line.matches("(?i).*transcription profiling by high throughput sequencing.*"))) {
-            assayTypes.add(new AssayType("transcription profiling", "nucleotide sequencing", "RNA-Seq"));
-            isaProtocolSection.put(0, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(0).concat("\tlibrary construction\tnucleic acid sequencing"));
-            isaProtocolSection.put(1, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(1).concat("\tlibrary construction\tnucleic acid sequencing"));
-
-        }
-
-        if (line.matches(".*transcription profiling by array.*") || line.matches("dye_swap_design")) {
-            assayTypes.add(new AssayType("transcription profiling", "DNA microarray", "GeneChip"));
-        }
-        if (line.matches("(?i).*methylation profiling by array.*")) {
-            assayTypes.add(new AssayType("DNA methylation profiling", "DNA microarray", "Me-Chip"));
-
-        }
-        if (line.matches("(?i).*comparative genomic hybridization by array.*")) {
-            assayTypes.add(new AssayType("comparative genomic hybridization", "DNA microarray", "CGH-Chip"));
-        }
-        if (line.matches(".*genotyping by array.*")) {
-            assayTypes.add(new AssayType("SNP analysis", "DNA microarray", "SNPChip"));
-        }
-
-        if ((line.matches("(?i).*ChIP-Seq.*")) || (line.matches("(?i).*chip-seq.*"))) {
-            System.out.println("ASSAYTYPE IS: " + line);
+        for (AssayTypeRule assayTypeRule : AssayClassificationRules.getRules().getAssayTypeRules()) {
+            if (assayTypeRule.matches(line)) {
+                assayTypes.add(assayTypeRule.createAssayType());
 
-            assayTypes.add(new AssayType("protein-DNA binding site identification", "nucleotide sequencing", "ChIP-Seq"));
-            isaProtocolSection.put(0, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(0).concat("\tlibrary construction\tnucleic acid sequencing"));
-            isaProtocolSection.put(1, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(1).concat("\tlibrary construction\tnucleic acid sequencing"));
-            System.out.println("PROTOCOL INSERTION: " + isaProtocolSection.put(0, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(0).concat("\tlibrary construction\tnucleic acid sequencing")));
+                if (assayTypeRule.isSequencing()) {
+                    isaProtocolSection.put(0, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(0).concat("\tlibrary construction\tnucleic acid sequencing"));
+                    isaProtocolSection.put(1, investigationSections.get(InvestigationSections.STUDY_PROTOCOL_SECTION).get(1).concat("\tlibrary construction\tnucleic acid sequencing"));
+                }
+            }
         }
 
         return assayTypes;
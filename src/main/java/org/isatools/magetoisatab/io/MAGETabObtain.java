@@ -1,19 +1,67 @@
 package org.isatools.magetoisatab.io;
 
+import org.isatools.magetoisatab.io.model.ConversionPlan;
+import org.isatools.magetoisatab.io.output.ArchiveOutputSink;
+import org.isatools.magetoisatab.io.output.DirectoryOutputSink;
+import org.isatools.magetoisatab.io.output.OutputSink;
+import org.isatools.magetoisatab.monitoring.AccessionMetricsAggregator;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.server.ConversionJob;
+import org.isatools.magetoisatab.server.ConversionScheduler;
+import org.isatools.magetoisatab.server.ConversionServer;
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
 public class MAGETabObtain {
 
+    public static final String METRICS_PROPERTY = "magetoisatab.metrics";
+
+    // directory (the default), zip or tar
+    public static final String OUTPUT_PROPERTY = "magetoisatab.output";
+
+    public static final String PLAN_OPTION = "--plan";
+
+    public static final String SERVE_OPTION = "--serve";
+
+    public static final String BATCH_OPTION = "--batch";
+
     public String userUrl;
 
+    // when set, the ISA-Tab files go here rather than to the sink named by the magetoisatab.output property
+    private OutputSink outputSink;
+
+    // what the last conversion failed with
+    private Exception failure;
+
     public MAGETabObtain() {
     }
 
+    /**
+     * @param outputSink - where the ISA-Tab files of every conversion go. The caller closes it once done
+     */
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * @return the exception the last conversion failed with, reported rather than thrown, or null if it did not fail
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
     public void initialise() {
         DownloadUtils.createTmpDirectory();
         System.out.println("Enter ArrayExpress Accession Number: ");
@@ -46,49 +94,235 @@ public class MAGETabObtain {
 
         DownloadUtils.CONVERTED_DIRECTORY = saveDirectory;
 
-        String idfUrl;
-
         try {
 
-            Pattern accnumregex = Pattern.compile("^E-[A-Z]{4,}-\\d+");
-            Matcher accnummatcher = accnumregex.matcher(accessionNumber);
+            String idfDownloadLocation = downloadIdf(accessionNumber);
 
-            if (accnummatcher.find()) {
+            MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+            return convert(idfloader, idfDownloadLocation, accessionNumber);
 
-                idfUrl = "http://www.ebi.ac.uk/arrayexpress/files/" + accessionNumber + "/" + accessionNumber + ".idf.txt";
+        } catch (IOException ioe) {
 
-                DownloadUtils.createDirectory(DownloadUtils.TMP_DIRECTORY + File.separator + accessionNumber);
+            System.out.println("Caught an IO exception :-o");
+            ioe.printStackTrace();
+        }
 
-                String idfDownloadLocation = DownloadUtils.TMP_DIRECTORY + File.separator + accessionNumber + File.separator + accessionNumber + ".idf.txt";
+        return null;
+    }
 
-                DownloadUtils.downloadFile(idfUrl, idfDownloadLocation);
+    /**
+     * Plans the conversion of an ArrayExpress submission without converting it. Only the IDF and the header lines of
+     * the SDRFs are downloaded, and nothing is written.
+     *
+     * @param accessionNumber - the ArrayExpress accession number
+     * @return what the conversion would produce, and what would keep it from producing assays
+     */
+    public ConversionPlan doPlan(String accessionNumber) throws Exception {
+        return new MAGETabIDFLoader().planConversion(downloadIdf(accessionNumber), accessionNumber);
+    }
 
-                System.out.println("IDF found and downloaded: " + idfUrl);
+    /**
+     * Plans the conversion of a MAGE-TAB submission already on disk, the SDRF files being expected in the directory
+     * of the IDF, as doLocalConversion would find them.
+     */
+    public ConversionPlan doLocalPlan(String accessionNumber, File idfFile) throws Exception {
+        MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+        idfloader.setLocalSdrfDirectory(idfFile.getAbsoluteFile().getParentFile());
+        return idfloader.planConversion(idfFile.getPath(), accessionNumber);
+    }
 
-                MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
-                idfloader.loadidfTab(idfDownloadLocation, accessionNumber);
+    /**
+     * Plans the conversion of each submission on the shared conversion pool and prints the plans in the order given,
+     * followed by how many of them are convertible. A submission which can not be planned is reported as not
+     * convertible rather than stopping the others.
+     *
+     * @param submissions - ArrayExpress accession numbers, or IDF files on disk named accession.idf.txt
+     */
+    public void printPlans(List<String> submissions, PrintStream out) throws IOException {
+        List<Callable<ConversionPlan>> planTasks = new ArrayList<Callable<ConversionPlan>>();
+
+        for (final String submission : submissions) {
+            planTasks.add(new Callable<ConversionPlan>() {
+                public ConversionPlan call() {
+                    File idfFile = new File(submission);
+                    String accessionNumber = idfFile.isFile()
+                            ? idfFile.getName().replaceFirst("\\.idf\\.txt$", "") : submission;
+                    try {
+                        return idfFile.isFile() ? doLocalPlan(accessionNumber, idfFile) : doPlan(accessionNumber);
+                    } catch (Exception e) {
+                        ConversionPlan plan = new ConversionPlan(accessionNumber);
+                        plan.addProblem("could not be planned: " + e);
+                        return plan;
+                    }
+                }
+            });
+        }
 
-                return new File(DownloadUtils.CONVERTED_DIRECTORY + File.separator + accessionNumber);
+        int convertibleCount = 0;
+        for (ConversionPlan plan : ConversionThreadPool.invokeAll(planTasks)) {
+            for (String line : plan.toLines()) {
+                out.println(line);
+            }
+            out.println();
+            if (plan.isConvertible()) {
+                convertibleCount++;
+            }
+        }
+        out.println(convertibleCount + " of " + submissions.size() + " submission(s) convertible");
+    }
 
+    /**
+     * Converts each submission, running them together as far as the heap allows, and prints, in the order given,
+     * where each was converted to or what it failed with, followed by how many of them were converted. The jobs are
+     * run by a ConversionScheduler set up from the system properties, the largest first.
+     *
+     * @param submissions   - ArrayExpress accession numbers, or IDF files on disk named accession.idf.txt
+     * @param saveDirectory - directory in which the accession directories, or archives, are created
+     */
+    public static void convertAll(List<String> submissions, String saveDirectory, PrintStream out)
+            throws IOException, InterruptedException {
+        List<ConversionJob> jobs = new ArrayList<ConversionJob>();
+        for (String submission : submissions) {
+            File idfFile = new File(submission);
+            if (idfFile.isFile()) {
+                jobs.add(new ConversionJob("job-" + (jobs.size() + 1),
+                        idfFile.getName().replaceFirst("\\.idf\\.txt$", ""), idfFile.getAbsoluteFile(), false));
             } else {
+                jobs.add(new ConversionJob("job-" + (jobs.size() + 1), submission, null, false));
+            }
+        }
 
-                throw new Exception("Sorry, this does not seem to be a valid ArrayExpress accession number !");
-
+        ConversionScheduler scheduler = ConversionScheduler.create(saveDirectory);
+        try {
+            scheduler.submitAll(jobs);
+
+            int convertedCount = 0;
+            for (ConversionJob job : jobs) {
+                job.await();
+                if (job.getState() == ConversionJob.State.SUCCEEDED) {
+                    out.println(job.getAccession() + "\t" + job.getState() + "\t" + job.getLocation());
+                    convertedCount++;
+                } else {
+                    out.println(job.getAccession() + "\t" + job.getState() + "\t" + job.getFailure());
+                }
             }
+            out.println(convertedCount + " of " + submissions.size() + " submission(s) converted");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
 
-        } catch (IOException ioe) {
+    /**
+     * Downloads the IDF of an ArrayExpress submission in to its directory under DownloadUtils.TMP_DIRECTORY.
+     *
+     * @return where the IDF was downloaded to
+     * @throws Exception if the accession number is not well formed
+     */
+    private static String downloadIdf(String accessionNumber) throws Exception {
 
-            System.out.println("Caught an IO exception :-o");
-            ioe.printStackTrace();
+        Pattern accnumregex = Pattern.compile("^E-[A-Z]{4,}-\\d+");
+        Matcher accnummatcher = accnumregex.matcher(accessionNumber);
+
+        if (!accnummatcher.find()) {
+            throw new Exception("Sorry, this does not seem to be a valid ArrayExpress accession number !");
         }
 
-        return null;
+        String idfUrl = DownloadUtils.ARRAYEXPRESS_FILES_URL + accessionNumber + "/" + accessionNumber + ".idf.txt";
+
+        DownloadUtils.createDirectory(DownloadUtils.TMP_DIRECTORY + File.separator + accessionNumber);
+
+        String idfDownloadLocation = DownloadUtils.TMP_DIRECTORY + File.separator + accessionNumber + File.separator + accessionNumber + ".idf.txt";
+
+        DownloadUtils.downloadFile(idfUrl, idfDownloadLocation, accessionNumber);
+
+        System.out.println("IDF found and downloaded: " + idfUrl);
+
+        return idfDownloadLocation;
+    }
+
+    /**
+     * Converts a MAGE-TAB submission already on disk, without going to ArrayExpress. The SDRF files listed in the IDF
+     * are expected in the same directory as the IDF.
+     *
+     * @param accessionNumber - accession used to name the ISA-Tab files
+     * @param idfFile         - the IDF file
+     * @param saveDirectory   - directory in which the accession directory, or archive, is created
+     * @return the directory or archive holding the ISA-Tab files
+     */
+    public File doLocalConversion(String accessionNumber, File idfFile, String saveDirectory) throws Exception {
+
+        DownloadUtils.CONVERTED_DIRECTORY = saveDirectory;
+
+        if (!idfFile.isFile()) {
+            throw new FileNotFoundException("IDF file not found: " + idfFile.getAbsolutePath());
+        }
+
+        MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+        idfloader.setLocalSdrfDirectory(idfFile.getAbsoluteFile().getParentFile());
+        return convert(idfloader, idfFile.getPath(), accessionNumber);
+    }
+
+    private File convert(MAGETabIDFLoader idfloader, String idfFile, String accessionNumber) throws IOException {
+        OutputSink sink = outputSink != null ? outputSink : createOutputSink();
+        idfloader.setOutputSink(sink);
+
+        try {
+            idfloader.loadidfTab(idfFile, accessionNumber);
+            failure = idfloader.getFailure();
+            sink.finishAccession(accessionNumber);
+        } finally {
+            if (sink != outputSink) {
+                sink.close();
+            }
+        }
+        return sink.getLocation(accessionNumber);
+    }
+
+    /**
+     * @return the sink named by the magetoisatab.output system property: an archive per accession for zip or tar, and
+     *         a directory per accession otherwise, under DownloadUtils.CONVERTED_DIRECTORY
+     */
+    static OutputSink createOutputSink() {
+        String output = System.getProperty(OUTPUT_PROPERTY, "directory");
+        File directory = new File(DownloadUtils.CONVERTED_DIRECTORY);
+
+        if ("zip".equalsIgnoreCase(output)) {
+            return ArchiveOutputSink.perAccession(ArchiveOutputSink.Format.ZIP, directory);
+        } else if ("tar".equalsIgnoreCase(output)) {
+            return ArchiveOutputSink.perAccession(ArchiveOutputSink.Format.TAR, directory);
+        }
+        return new DirectoryOutputSink(directory);
     }
 
 
     public static void main(String[] argv) {
         MAGETabObtain mageReadFunction = new MAGETabObtain();
-        if (argv.length > 0) {
+        if (argv.length > 1 && argv[0].equals(PLAN_OPTION)) {
+            // --plan E-XXXX-1 [E-XXXX-2 ...] only reads IDFs and SDRF headers, to triage many submissions quickly
+            try {
+                mageReadFunction.printPlans(Arrays.asList(argv).subList(1, argv.length), System.out);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (argv.length > 2 && argv[0].equals(BATCH_OPTION)) {
+            // --batch save_directory E-XXXX-1 [E-XXXX-2 ...] converts many submissions in one JVM, within the heap
+            try {
+                convertAll(Arrays.asList(argv).subList(2, argv.length), argv[1], System.out);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } else if (argv.length > 0 && argv[0].equals(SERVE_OPTION)) {
+            // --serve [save directory] keeps the JVM up, taking conversion jobs over HTTP
+            ConversionServer.main(Arrays.asList(argv).subList(1, argv.length).toArray(new String[argv.length - 1]));
+        } else if (argv.length > 0) {
+            ConversionMetrics.installFlightRecorderListener();
+
+            // -Dmagetoisatab.metrics=true prints how long each stage took and how much it allocated
+            AccessionMetricsAggregator metrics = null;
+            if (Boolean.getBoolean(METRICS_PROPERTY)) {
+                metrics = new AccessionMetricsAggregator();
+                ConversionMetrics.addListener(metrics);
+            }
             try {
                 if (argv.length == 1) {
                     mageReadFunction.doConversion(argv[0]);
@@ -98,6 +332,9 @@ public class MAGETabObtain {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            if (metrics != null) {
+                metrics.printReport(System.out, argv[0]);
+            }
         } else {
             mageReadFunction.initialise();
         }
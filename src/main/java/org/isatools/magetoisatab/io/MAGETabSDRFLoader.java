@@ -10,17 +10,31 @@ import org.isatools.magetoisatab.io.fileprocessing.ColumnMoveUtil;
 import org.isatools.magetoisatab.io.fileprocessing.ProtocolInsertionUtil;
 import org.isatools.magetoisatab.io.model.Assay;
 import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.io.model.ConversionPlan;
 import org.isatools.magetoisatab.io.model.Study;
+import org.isatools.magetoisatab.io.output.DirectoryOutputSink;
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.OutputSink;
+import org.isatools.magetoisatab.io.rules.AssayClassificationRules;
+import org.isatools.magetoisatab.io.rules.AssayFileRule;
+import org.isatools.magetoisatab.io.rules.AssayRecords;
+import org.isatools.magetoisatab.io.rules.RecordClassifier;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageTimer;
 import org.isatools.magetoisatab.utils.Column;
 import org.isatools.magetoisatab.utils.ConversionProperties;
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+import org.isatools.magetoisatab.utils.Digests;
+import org.isatools.magetoisatab.utils.RowChunks;
 import org.isatools.magetoisatab.utils.Utils;
 import org.isatools.manipulator.SpreadsheetManipulation;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 
 public class MAGETabSDRFLoader {
@@ -58,8 +72,17 @@ public class MAGETabSDRFLoader {
     List columns2dropFromStudy = new ArrayList();
     private HashMap<String, String[]> theOne;
 
+    // the design types of the IDF, used when classifying assays
+    private final ConversionProperties conversionProperties;
+
 
     public MAGETabSDRFLoader() {
+        this(new ConversionProperties());
+    }
+
+    public MAGETabSDRFLoader(ConversionProperties conversionProperties) {
+
+        this.conversionProperties = conversionProperties;
 
         samples = new HashMap<Integer, String[]>();
 
@@ -69,6 +92,28 @@ public class MAGETabSDRFLoader {
 
     public Study loadsdrfTab(String url, String accnum, Set<AssayType> assayTTMT) throws IOException {
 
+        Study study = processSdrfTab(url, accnum, assayTTMT);
+
+        try {
+            //We are now iterating through the different assays and printing them
+            writeAssays(study.getAssays(), accnum, new DirectoryOutputSink(new File(DownloadUtils.CONVERTED_DIRECTORY)));
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return study;
+    }
+
+    /**
+     * Loads, cleans, splits and classifies an SDRF without writing anything, so that the SDRFs of a submission can be
+     * processed concurrently, each by its own loader, and their assays written together afterwards.
+     *
+     * @param url       - the SDRF file
+     * @param accnum    - the accession number of the submission
+     * @param assayTTMT - the study assay types, which must not change while SDRFs are processed
+     * @return the study sample table and assays of the SDRF, both empty if it could not be read
+     */
+    public Study processSdrfTab(String url, String accnum, Set<AssayType> assayTTMT) {
+
         List<String[]> studySamplesFromThisSDRF = new ArrayList<String[]>();
         List<Assay> assaysFromThisSDRF = new ArrayList<Assay>();
 
@@ -80,157 +125,382 @@ public class MAGETabSDRFLoader {
             File file = new File(url);
 
             if (file.exists() && !file.isDirectory()) {
-                Loader fileReader = new Loader();
-                List<String[]> sheetData = fileReader.loadSheet(url, FileType.TAB);
-
-                // clean up the input file, removing lines with no data.
-                sheetData = Utils.cleanInput(sheetData, accnum);
+                // loading and cleanup only depend on the SDRF, so their result can be kept in the snapshot cache
+                SdrfSnapshotCache snapshotCache = SdrfSnapshotCache.getCache();
+                String sdrfHash = snapshotCache == null ? null : Digests.sha256(file);
+                SdrfSnapshotCache.Snapshot snapshot = null;
+
+                // one load stage, whether the snapshot is used or the SDRF is loaded after looking for one
+                StageTimer loadTimer = ConversionMetrics.startStage(accnum, ConversionStage.SDRF_LOAD, file.getName());
+                if (snapshotCache != null) {
+                    snapshot = snapshotCache.load(accnum, sdrfHash);
+                    if (snapshot != null) {
+                        System.out.println("Using the cleaned SDRF snapshot of " + file.getName());
+                        loadTimer.stop(snapshot.getSheet());
+                    }
+                }
 
-                String[] columnNames = SpreadsheetManipulation.getColumnHeaders(sheetData);
+                if (snapshot == null) {
+                    snapshot = loadCleanedSdrf(file, accnum, loadTimer);
+                    if (snapshotCache != null) {
+                        snapshotCache.store(accnum, sdrfHash, snapshot);
+                    }
+                }
 
-                columnNames = Utils.correctColumnHeaders(columnNames);
+                splitAndClassify(study, snapshot, file.getName(), accnum, assayTTMT);
 
-                // initialization of the ArrayList which will receive all fields to be kept which are not factor value fields
-                List<Integer> positions2keep = new ArrayList<Integer>();
+            } else {
+                System.out.println("SDRF Processing: ERROR: file not found!");
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return study;
+    }
 
-                // initialization of the ArrayList which will receive all factor value fields to be kept
-                // this will be used to propagate existing factor value to study sample file
+    /**
+     * Processes an SDRF which has already been read, e.g. from a stream, as processSdrfTab does a file. The snapshot
+     * cache is not used, as it is keyed on SDRF files.
+     *
+     * @param sheetData - the SDRF, header first, or null if it could not be found
+     * @param sdrfName  - the name of the SDRF, for messages and metrics
+     * @param accnum    - the accession number of the submission
+     * @param assayTTMT - the study assay types, which must not change while SDRFs are processed
+     * @return the study sample table and assays of the SDRF, both empty if it could not be read
+     */
+    public Study processSdrfTable(List<String[]> sheetData, String sdrfName, String accnum, Set<AssayType> assayTTMT) {
 
-                List<String[]> factorSheetData;
-                List<Integer> factorPositions2Keep = new ArrayList<Integer>();
-                factorPositions2Keep.add(0);
+        Study study = new Study(new ArrayList<String[]>(), new ArrayList<Assay>());
 
-                // now checking which fields need dropping and adding them to the ArrayList
-                // This takes care of incorrect MAGE-TAB files where Protocol REF and Array Design REF are followed by Term Source REF
-                for (int columnIndex = 0; columnIndex < columnNames.length; columnIndex++) {
+        try {
+            if (sheetData != null && sheetData.size() > 0) {
+                StageTimer loadTimer = ConversionMetrics.startStage(accnum, ConversionStage.SDRF_LOAD, sdrfName).setInput(sheetData);
+                splitAndClassify(study, cleanSdrf(sheetData, accnum, loadTimer), sdrfName, accnum, assayTTMT);
+            } else {
+                System.out.println("SDRF Processing: ERROR: " + sdrfName + " not found!");
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return study;
+    }
 
-                    if (!columnNames[columnIndex].trim().equals("")) {
+    /**
+     * Works out from the header line of an SDRF alone what processSdrfTab and writeAssays would make of it: the header
+     * cleanup, the split in to study sample and assay tables and the assay typing are run on the header with no
+     * records. Assay labels which depend on the values of records are all taken as possible.
+     *
+     * @param header   - the header line of the SDRF
+     * @param sdrfName - the name of the SDRF, for messages and metrics
+     * @param plan     - where the possible assay labels and files, their headers, the inferred protocols and any
+     *                 problems go
+     * @return the study sample table of the SDRF, header only
+     */
+    public List<String[]> planSdrfHeader(String[] header, String sdrfName, String accnum, Set<AssayType> assayTTMT,
+                                         ConversionPlan plan) throws IOException {
+        List<String[]> sheetData = new ArrayList<String[]>();
+        sheetData.add(header.clone());
+
+        StageTimer loadTimer = ConversionMetrics.startStage(accnum, ConversionStage.SDRF_LOAD, sdrfName).setInput(sheetData);
+        ProtocolInsertionUtil protocolInsertionUtil = new ProtocolInsertionUtil();
+        SdrfSnapshotCache.Snapshot snapshot = cleanSdrf(sheetData, accnum, loadTimer, protocolInsertionUtil);
+        plan.addInferredProtocolTypes(protocolInsertionUtil.getInsertedProtocolTypes());
+
+        List<String[]> sheetDataSubset = snapshot.getSheet();
+        if (sheetDataSubset.isEmpty()) {
+            plan.addProblem(sdrfName + " has no header");
+            plan.addSdrf(sdrfName, Collections.<String>emptySet());
+            return new ArrayList<String[]>();
+        }
+        tt = snapshot.getTechnologyType();
+
+        Pair<Integer, Integer> sdrfKeyPositions = processSdrfHeaderRow(sheetDataSubset.get(0));
+        if (sdrfKeyPositions.fst <= 0) {
+            plan.addProblem(sdrfName + " has no Sample, Extract, Labeled Extract or Hybridization Name column, so no assay records");
+        } else if (sdrfKeyPositions.snd > 3) {
+            plan.addProblem(sdrfName + " starts its assays at " + columnNames[sdrfKeyPositions.fst]
+                    + ", too deep for its records to be split in to assays");
+        }
 
-                        if (!(columnNames[columnIndex].equalsIgnoreCase("term source ref") && columnNames[columnIndex - 1].equalsIgnoreCase("protocol ref"))
-                                &&
-                                !(columnNames[columnIndex].equalsIgnoreCase("term source ref") && columnNames[columnIndex - 1].equalsIgnoreCase("array design ref"))
-                                ) {
-                            positions2keep.add(columnIndex);
-                        }
+        Pair<List<String[]>, List<String[]>> studySplitTables = splitSdrfTable(sdrfKeyPositions, sheetDataSubset,
+                snapshot.getFactorSheet());
+
+        Set<String> possibleLabels = new LinkedHashSet<String>();
+        if (studySplitTables.snd.size() > 0) {
+            String[] assayHeader = studySplitTables.snd.get(0);
+            AssayClassificationRules rules = AssayClassificationRules.getRules();
+            possibleLabels = rules.createClassifier(assayHeader, assayTTMT, conversionProperties).getPossibleLabels();
+
+            // the assay files get the cleanup writeAssay gives them
+            List<String[]> assaySheet = new ArrayList<String[]>();
+            assaySheet.add(assayHeader.clone());
+            ProtocolInsertionUtil assayProtocolInsertionUtil = new ProtocolInsertionUtil();
+            assaySheet = CleanupRunner.runSelected(assaySheet, accnum, new ColumnMoveUtil(), assayProtocolInsertionUtil);
+            plan.addInferredProtocolTypes(assayProtocolInsertionUtil.getInsertedProtocolTypes());
+
+            for (String assayLabel : possibleLabels) {
+                for (AssayFileRule assayFileRule : rules.getAssayFileRules()) {
+                    if (assayFileRule.appliesTo(assayLabel)) {
+                        plan.addAssayFile(getAssayFileName(accnum, assayFileRule.getFileKey()), assaySheet.get(0));
                     }
+                }
+            }
+            if (possibleLabels.isEmpty()) {
+                plan.addProblem(sdrfName + " assay header matches no assay classification rule");
+            }
+        }
+        plan.addSdrf(sdrfName, possibleLabels);
 
-                    if (columnNames[columnIndex].equalsIgnoreCase("technology type")) {
-                        tt = 1;
-                        System.out.println("SDRF has 'technology type' header");
-                    }
+        return studySplitTables.fst;
+    }
 
-                    if (columnNames[columnIndex].equalsIgnoreCase("comment [platform_title]")) {
-                        ptf++;
-                    }
+    private void splitAndClassify(Study study, SdrfSnapshotCache.Snapshot snapshot, String sdrfName, String accnum,
+                                  Set<AssayType> assayTTMT) throws IOException {
+        List<String[]> sheetDataSubset = snapshot.getSheet();
+        List<String[]> factorSheetData = snapshot.getFactorSheet();
+        tt = snapshot.getTechnologyType();
+        String[] sdrfHeaderRow = sheetDataSubset.get(0);
+        Pair<Integer, Integer> sdrfKeyPositions;
+        sdrfKeyPositions = processSdrfHeaderRow(sdrfHeaderRow);
 
-                    if (columnNames[columnIndex].startsWith("Factor Value")) {
-                        columnNames[columnIndex] = columnNames[columnIndex].toLowerCase();
-                        columnNames[columnIndex] = columnNames[columnIndex].replaceAll("factor value ", "Factor Value");
-                        columnNames[columnIndex] = columnNames[columnIndex].replace(". #", "#").replace("#", " number");
-                        factorPositions2Keep.add(columnIndex);
-                    }
+        System.out.println("POSITIONS ARE: " + sdrfKeyPositions.fst + " AND " + sdrfKeyPositions.snd);
+
+        StageTimer splitTimer = ConversionMetrics.startStage(accnum, ConversionStage.SPLIT, sdrfName).setInput(sheetDataSubset);
+        Pair<List<String[]>, List<String[]>> studySplitTables = splitSdrfTable(sdrfKeyPositions, sheetDataSubset, factorSheetData);
+        splitTimer.stop(studySplitTables.snd);
+        study.setStudySampleLevelInformation(studySplitTables.fst);
+
+        StageTimer classificationTimer = ConversionMetrics.startStage(accnum, ConversionStage.ASSAY_CLASSIFICATION, sdrfName).setInput(studySplitTables.snd);
+        List<Assay> assaysFromThisSDRF = inspectSdrfAssay(studySplitTables.snd, assayTTMT);
+        classificationTimer.stop(assaysFromThisSDRF.size(), -1);
+        study.setAssays(assaysFromThisSDRF);
+
+        System.out.println("We have " + assaysFromThisSDRF.size() + " assays.");
+    }
+
+    /**
+     * Loads an SDRF and runs the cleanup utilities over it. Also sets the technology type flag.
+     *
+     * @return the cleaned sheet and the factor sheet, to be split and classified
+     */
+    private SdrfSnapshotCache.Snapshot loadCleanedSdrf(File file, String accnum, StageTimer loadTimer) throws IOException {
+        String url = file.getPath();
+
+        Loader fileReader = new Loader();
+        List<String[]> sheetData = fileReader.loadSheet(url, FileType.TAB);
+        loadTimer.setInput(sheetData).setBytes(file.length());
+
+        return cleanSdrf(sheetData, accnum, loadTimer);
+    }
+
+    /**
+     * Runs the cleanup utilities over a loaded SDRF. Also sets the technology type flag.
+     *
+     * @param loadTimer - the timer of the load stage, stopped once the SDRF is cleaned
+     */
+    private SdrfSnapshotCache.Snapshot cleanSdrf(List<String[]> sheetData, String accnum, StageTimer loadTimer) throws IOException {
+        return cleanSdrf(sheetData, accnum, loadTimer, new ProtocolInsertionUtil());
+    }
+
+    /**
+     * @param protocolInsertionUtil - the protocol insertion step of the cleanup
+     */
+    private SdrfSnapshotCache.Snapshot cleanSdrf(List<String[]> sheetData, String accnum, StageTimer loadTimer,
+                                                 ProtocolInsertionUtil protocolInsertionUtil) throws IOException {
+
+        // clean up the input file, removing lines with no data.
+        sheetData = Utils.cleanInput(sheetData, accnum);
+
+        String[] columnNames = SpreadsheetManipulation.getColumnHeaders(sheetData);
+
+        columnNames = Utils.correctColumnHeaders(columnNames);
+
+        // initialization of the ArrayList which will receive all fields to be kept which are not factor value fields
+        List<Integer> positions2keep = new ArrayList<Integer>();
+
+        // initialization of the ArrayList which will receive all factor value fields to be kept
+        // this will be used to propagate existing factor value to study sample file
+
+        List<String[]> factorSheetData;
+        List<Integer> factorPositions2Keep = new ArrayList<Integer>();
+        factorPositions2Keep.add(0);
+
+        // the node which becomes the Sample Name of the study samples, so factor records are found per sample
+        int sampleNodeIndex = getSampleNodeIndex(columnNames);
+        if (sampleNodeIndex > 0) {
+            factorPositions2Keep.add(sampleNodeIndex);
+        }
+
+        // now checking which fields need dropping and adding them to the ArrayList
+        // This takes care of incorrect MAGE-TAB files where Protocol REF and Array Design REF are followed by Term Source REF
+        for (int columnIndex = 0; columnIndex < columnNames.length; columnIndex++) {
+
+            if (!columnNames[columnIndex].trim().equals("")) {
+
+                if (!(columnNames[columnIndex].equalsIgnoreCase("term source ref") && columnNames[columnIndex - 1].equalsIgnoreCase("protocol ref"))
+                        &&
+                        !(columnNames[columnIndex].equalsIgnoreCase("term source ref") && columnNames[columnIndex - 1].equalsIgnoreCase("array design ref"))
+                        ) {
+                    positions2keep.add(columnIndex);
                 }
+            }
+
+            if (columnNames[columnIndex].equalsIgnoreCase("technology type")) {
+                tt = 1;
+                System.out.println("SDRF has 'technology type' header");
+            }
+
+            if (columnNames[columnIndex].equalsIgnoreCase("comment [platform_title]")) {
+                ptf++;
+            }
+
+            if (columnNames[columnIndex].startsWith("Factor Value")) {
+                columnNames[columnIndex] = columnNames[columnIndex].toLowerCase();
+                columnNames[columnIndex] = columnNames[columnIndex].replaceAll("factor value ", "Factor Value");
+                columnNames[columnIndex] = columnNames[columnIndex].replace(". #", "#").replace("#", " number");
+                factorPositions2Keep.add(columnIndex);
+            }
+        }
+
+        factorSheetData = SpreadsheetManipulation.getColumnSubset(sheetData, true, convertIntegers(factorPositions2Keep));
+        sheetData = SpreadsheetManipulation.getColumnSubset(sheetData, true, convertIntegers(positions2keep));
 
-                factorSheetData = SpreadsheetManipulation.getColumnSubset(sheetData, true, convertIntegers(factorPositions2Keep));
-                sheetData = SpreadsheetManipulation.getColumnSubset(sheetData, true, convertIntegers(positions2keep));
+        //getting the associated header row in order to perform identification of field positions prior to reordering
+        columnNames = SpreadsheetManipulation.getColumnHeaders(sheetData);
 
-                //getting the associated header row in order to perform identification of field positions prior to reordering
-                columnNames = SpreadsheetManipulation.getColumnHeaders(sheetData);
+        List<Column> columnOrders = Utils.createColumnOrderList(columnNames);
 
-                List<Column> columnOrders = Utils.createColumnOrderList(columnNames);
+        //where does Assay Name field appear?
+        int assayNameIndex = Utils.getIndexForValue("Assay Name", columnOrders);
+        System.out.println("Assay Name field found at: " + assayNameIndex);
 
-                //where does Assay Name field appear?
-                int assayNameIndex = Utils.getIndexForValue("Assay Name", columnOrders);
-                System.out.println("Assay Name field found at: " + assayNameIndex);
+        //where does Data Transformation Name field appear?
+        int dtNameIndex = -1;
+        dtNameIndex = Utils.getIndexForValue("Data Transformation Name", columnOrders);
 
-                //where does Data Transformation Name field appear?
-                int dtNameIndex = -1;
-                dtNameIndex = Utils.getIndexForValue("Data Transformation Name", columnOrders);
+        //where does Derived Array Data File field appear?
+        int derivedArrayDataFileIndex = -1;
+        derivedArrayDataFileIndex = Utils.getIndexForValue("Derived Array Data Matrix File", columnOrders);
 
-                //where does Derived Array Data File field appear?
-                int derivedArrayDataFileIndex = -1;
-                derivedArrayDataFileIndex = Utils.getIndexForValue("Derived Array Data Matrix File", columnOrders);
+        //scanning the header checking if it contains "Scan Name field"
+        int scanNameIndex = Utils.getIndexForValue("Scan Name", columnOrders);
 
-                //scanning the header checking if it contains "Scan Name field"
-                int scanNameIndex = Utils.getIndexForValue("Scan Name", columnOrders);
+        // if present, fetching and moving the technology type field  next to Assay Name
+        if (tt >= 0) {
+            Column technology = columnOrders.remove(Utils.getIndexForValue("technology type", columnOrders));
+            columnOrders.add(assayNameIndex, technology);
 
-                // if present, fetching and moving the technology type field  next to Assay Name
-                if (tt >= 0) {
-                    Column technology = columnOrders.remove(Utils.getIndexForValue("technology type", columnOrders));
-                    columnOrders.add(assayNameIndex, technology);
+            if (derivedArrayDataFileIndex > 0 && scanNameIndex > 0) {
+                Column scanName = columnOrders.remove(Utils.getIndexForValue("Scan Name", columnOrders));
+                columnOrders.add(derivedArrayDataFileIndex - 1, scanName);
+            } else if (derivedArrayDataFileIndex == 0 && scanNameIndex > 0) {
+                Column scanName = columnOrders.remove(Utils.getIndexForValue("Scan Name", columnOrders));
+                columnOrders.add(assayNameIndex + 1, scanName);
+            }
+        }
+
+        //add a column header Data Transformation Name when absent from MAGE-TAB input but Derived Data Files are found
+        if ((derivedArrayDataFileIndex > 0) && (dtNameIndex <= 0)) {
+            //System.out.println("Derived Data files found but DTNAME field missing");
+            Column derivedDataFile = columnOrders.remove(Utils.getIndexForValue("Derived Array Data Matrix File", columnOrders));
+            columnOrders.add(derivedArrayDataFileIndex - 1, derivedDataFile);
+        }
+
+        //fetching and moving the platform title field if present
+        if (ptf >= 0) {
+            Column platformTitle = columnOrders.remove(Utils.getIndexForValue("comment [platform_title]", columnOrders));
+            columnOrders.add(assayNameIndex + 1, platformTitle);
+        }
+
+        // calling the getColumnSubset method and create a object containing the SDRF data minus all fields such as Term Source REF following a Protocol REF
+        List<String[]> sheetDataSubset = SpreadsheetManipulation.getColumnSubset(sheetData, true, Utils.createIndexArray(columnOrders));
+        loadTimer.stop(sheetDataSubset);
+
+        //we perform the transformation using the processSpreadsheet method
+        sheetDataSubset = CleanupRunner.runAll(sheetDataSubset, accnum, protocolInsertionUtil);
 
-                    if (derivedArrayDataFileIndex > 0 && scanNameIndex > 0) {
-                        Column scanName = columnOrders.remove(Utils.getIndexForValue("Scan Name", columnOrders));
-                        columnOrders.add(derivedArrayDataFileIndex - 1, scanName);
-                    } else if (derivedArrayDataFileIndex == 0 && scanNameIndex > 0) {
-                        Column scanName = columnOrders.remove(Utils.getIndexForValue("Scan Name", columnOrders));
-                        columnOrders.add(assayNameIndex + 1, scanName);
+        return new SdrfSnapshotCache.Snapshot(sheetDataSubset, factorSheetData, tt);
+    }
+
+    /**
+     * @return the first of Sample Name, Extract Name, Labeled Extract Name and Hybridization or Assay Name found in the
+     *         header, as processSdrfHeaderRow takes for the Sample Name of study samples, or -1 if there is none
+     */
+    private static int getSampleNodeIndex(String[] columnNames) {
+        String[][] sampleNodes = {{"Sample Name"}, {"Extract Name"}, {"Labeled Extract Name"},
+                {"Hybridization Name", "Assay Name"}};
+
+        for (String[] nodeNames : sampleNodes) {
+            for (int columnIndex = 0; columnIndex < columnNames.length; columnIndex++) {
+                for (String nodeName : nodeNames) {
+                    if (columnNames[columnIndex].trim().equalsIgnoreCase(nodeName)) {
+                        return columnIndex;
                     }
                 }
+            }
+        }
+        return -1;
+    }
 
-                //add a column header Data Transformation Name when absent from MAGE-TAB input but Derived Data Files are found
-                if ((derivedArrayDataFileIndex > 0) && (dtNameIndex <= 0)) {
-                    //System.out.println("Derived Data files found but DTNAME field missing");
-                    Column derivedDataFile = columnOrders.remove(Utils.getIndexForValue("Derived Array Data Matrix File", columnOrders));
-                    columnOrders.add(derivedArrayDataFileIndex - 1, derivedDataFile);
-                }
+    /**
+     * A method cleaning and printing assay spreadsheets, one task per assay file on the shared conversion pool.
+     * Assays sharing a key are printed to the same a_ file, so only the last of them is kept, as it is the one
+     * which would overwrite the others.
+     *
+     * @param assays - the assays to print
+     * @param accnum - the accession number, used to build the file names
+     * @param sink   - where the assay files go
+     */
+    public static void writeAssays(List<Assay> assays, final String accnum, final OutputSink sink) throws IOException {
 
-                //fetching and moving the platform title field if present
-                if (ptf >= 0) {
-                    Column platformTitle = columnOrders.remove(Utils.getIndexForValue("comment [platform_title]", columnOrders));
-                    columnOrders.add(assayNameIndex + 1, platformTitle);
-                }
+        Map<String, List<String[]>> assaySpreadsheets = new LinkedHashMap<String, List<String[]>>();
 
-                // calling the getColumnSubset method and create a object containing the SDRF data minus all fields such as Term Source REF following a Protocol REF
-                List<String[]> sheetDataSubset = SpreadsheetManipulation.getColumnSubset(sheetData, true, Utils.createIndexArray(columnOrders));
-
-                //we perform the transformation using the processSpreadsheet method
-                sheetDataSubset = CleanupRunner.runAll(sheetDataSubset);
-                String[] sdrfHeaderRow = sheetDataSubset.get(0);
-                Pair<Integer, Integer> sdrfKeyPositions;
-                sdrfKeyPositions = processSdrfHeaderRow(sdrfHeaderRow);
-
-                System.out.println("POSITIONS ARE: " + sdrfKeyPositions.fst + " AND " + sdrfKeyPositions.snd);
-
-                Pair<List<String[]>, List<String[]>> studySplitTables = splitSdrfTable(sdrfKeyPositions, sheetDataSubset, factorSheetData);
-                study.setStudySampleLevelInformation(studySplitTables.fst);
-                assaysFromThisSDRF = inspectSdrfAssay(studySplitTables.snd, assayTTMT);
-                study.setAssays(assaysFromThisSDRF);
-
-                //We are now iterating through the different assays and printing them
-                System.out.println("We have " + assaysFromThisSDRF.size() + " assays.");
-                for (Assay anAssaysFromThisSDRF : assaysFromThisSDRF) {
-                    for (String key : anAssaysFromThisSDRF.getAssayLevelInformation().keySet()) {
-
-                        System.out.println("ASSAY KEY IS: " + key);
-
-                        List<String[]> assaySpreadsheet = anAssaysFromThisSDRF.getAssayLevelInformation().get(key);
-                        assaySpreadsheet = CleanupRunner.runSelected(assaySpreadsheet, new ColumnMoveUtil(), new ProtocolInsertionUtil());  // ,
-                        PrintStream assayPs = new PrintStream(new File(DownloadUtils.CONVERTED_DIRECTORY + File.separator + accnum + "/a_" + accnum + "_" + key + "_assay.txt"));
-                        for (String[] records : assaySpreadsheet) {
-                            String newAssayRecord = "";
-                            int count = 0;
-                            for (String s : records) {
-                                newAssayRecord += s;
-                                if (count != records.length - 1) {   //avoids adding a tab right before the line break and after last value
-                                    newAssayRecord += TAB_DELIM;
-                                }
-                                count++;
-                            }
-                            assayPs.println(newAssayRecord);
-                        }
-                    }
+        for (Assay assay : assays) {
+            for (String key : assay.getAssayLevelInformation().keySet()) {
+                System.out.println("ASSAY KEY IS: " + key);
+                assaySpreadsheets.put(key, assay.getAssayLevelInformation().get(key));
+            }
+        }
+
+        List<Callable<Void>> assayTasks = new ArrayList<Callable<Void>>();
+
+        for (final Map.Entry<String, List<String[]>> assaySpreadsheet : assaySpreadsheets.entrySet()) {
+            assayTasks.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    writeAssay(assaySpreadsheet.getKey(), assaySpreadsheet.getValue(), accnum, sink);
+                    return null;
                 }
+            });
+        }
 
-            } else {
-                System.out.println("SDRF Processing: ERROR: file not found!");
+        ConversionThreadPool.invokeAll(assayTasks);
+    }
+
+    /**
+     * @return the name of the a_ file of the assays of the given key, ending in .gz if tables are compressed
+     */
+    public static String getAssayFileName(String accnum, String key) {
+        return IsaTabWriter.getTableFileName("a_" + accnum + "_" + key + "_assay.txt");
+    }
+
+    private static void writeAssay(String key, List<String[]> assaySpreadsheet, String accnum, OutputSink sink) throws IOException {
+
+        assaySpreadsheet = CleanupRunner.runSelected(assaySpreadsheet, accnum, new ColumnMoveUtil(), new ProtocolInsertionUtil());  // ,
+
+        String assayFileName = getAssayFileName(accnum, key);
+        StageTimer writeTimer = ConversionMetrics.startStage(accnum, ConversionStage.WRITE, assayFileName).setInput(assaySpreadsheet);
+
+        IsaTabWriter assayWriter = sink.openWriter(accnum, assayFileName);
+        try {
+            for (String[] records : assaySpreadsheet) {
+                assayWriter.writeRow(records);
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+        } finally {
+            assayWriter.close();
         }
-        return study;
+        writeTimer.setBytes(assayWriter.getByteCount()).stop(assaySpreadsheet);
     }
 
 
@@ -391,8 +661,11 @@ public class MAGETabSDRFLoader {
         List<String[]> sdrfStudySampleTable = new ArrayList<String[]>();
         List<String[]> sdrfAssayTable = new ArrayList<String[]>();
 
-        String studySampleHeaders = "";
-        String studyAssayHeaders = "";
+        List<String> studySampleHeaders = new ArrayList<String>();
+        List<String> studyAssayHeaders = new ArrayList<String>();
+
+        // the SDRF column each assay column after the hinge node comes from, -1 for columns with no SDRF counterpart
+        List<Integer> assayColumns = new ArrayList<Integer>();
 
         Integer firstIndexNodePosition = indices.fst;
         System.out.println("FIRST NODE POSITION : " + firstIndexNodePosition);
@@ -400,7 +673,6 @@ public class MAGETabSDRFLoader {
 
         Integer secondIndexNodeDepth = indices.snd;
 
-        int dataTransNameIndex;
         int instrumentIndex = -1;
         int assayNamePosition = -1;
 
@@ -413,20 +685,21 @@ public class MAGETabSDRFLoader {
                 // now dealing with descriptors that will go on the ISA study sample sheet, i.e. everything before the first Material Node after Source Node
                 if (columnIndex < firstIndexNodePosition) {
                     columnNames[columnIndex] = columnNames[columnIndex].replace(". #", "#").replace("#", " number");
-                    studySampleHeaders += columnNames[columnIndex] + TAB_DELIM;
+                    studySampleHeaders.add(columnNames[columnIndex]);
                 }
 
                 //dealing with the hinge position
                 else if (columnIndex == firstIndexNodePosition) {
                     //this case deals with situation where the first node after Source Name is *not* Sample Name, we need therefore to create it
                     if (!columnNames[firstIndexNodePosition].equalsIgnoreCase("sample name")) {
-                        studySampleHeaders += "Sample Name";
-                        studyAssayHeaders = "Sample Name" + TAB_DELIM + columnNames[firstIndexNodePosition] + TAB_DELIM;
+                        studySampleHeaders.add("Sample Name");
+                        studyAssayHeaders.add("Sample Name");
+                        studyAssayHeaders.add(columnNames[firstIndexNodePosition]);
                     }
                     // otherwise, this is easy, we just concatenate
                     else {
-                        studySampleHeaders += columnNames[columnIndex] + TAB_DELIM;
-                        studyAssayHeaders = columnNames[columnIndex] + TAB_DELIM;//+columnNames[firstIndexNodePosition] + TAB_DELIM;
+                        studySampleHeaders.add(columnNames[columnIndex]);
+                        studyAssayHeaders.add(columnNames[columnIndex]);
                     }
                 }
 
@@ -437,77 +710,77 @@ public class MAGETabSDRFLoader {
 
                     if (columnNames[columnIndex].equalsIgnoreCase("Hybridization Name")) {
                         columnNames[columnIndex] = "Hybridization Assay Name";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     } else if (columnNames[columnIndex].equalsIgnoreCase("Assay Name") && tt >= 0) {
 
                         assayNamePosition = columnIndex;
                         System.out.println("TECHTYPE: " + tt + assayNamePosition);
                         //columnNames[columnIndex] = "Labeled Extract Name";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
 
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Labeled Extract Name field with Protocol REF corresponding to a library creation
                     else if ((columnNames[columnIndex].equalsIgnoreCase("Labeled Extract Name")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Comment[library name]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                         System.out.println("replacing LEN with PROTOCOL_REF");
                     }
 
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Label field with Parameter Value[mid] , corresponding to multiplex barcodes
                     else if ((columnNames[columnIndex].equalsIgnoreCase("Material Type")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Comment[material]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                         System.out.println("replacing MT with C[m]");
                     }
 
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Label field with Parameter Value[mid] , corresponding to multiplex barcodes
                     else if ((columnNames[columnIndex].equalsIgnoreCase("Label")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[library mid]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[library layout]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("Technology Type")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Comment[technology type]";
                         assayNamePosition = columnIndex - 1;
                         System.out.println("Assay Name found at: " + assayNamePosition);
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[sequencing instrument]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [instrument model]") || (columnNames[columnIndex].equalsIgnoreCase("comment [instrument_model]")) && (tt >= 0))) {
                         columnNames[columnIndex] = "Parameter Value[sequencing instrument]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                         instrumentIndex = columnIndex;
                         System.out.println("INSTRUMENT MODEL: " + instrumentIndex);
                     } else if (!(instrumentIndex > 0) && ((columnNames[columnIndex].equalsIgnoreCase("comment [platform_title]") || (columnNames[columnIndex].equalsIgnoreCase("comment [platform title]"))))) { //&& (instrumentIndex>0)
 
                         System.out.println("PLATFORM title INDEX before: " + instrumentIndex);
                         columnNames[columnIndex] = "Parameter Value[sequencing instrument]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                         instrumentIndex = columnIndex;
                         System.out.println("PLATFORM title INDEX: " + instrumentIndex);
                     } else if ((columnNames[columnIndex].equalsIgnoreCase("comment [platform_title]") || (columnNames[columnIndex].equalsIgnoreCase("comment [platform title]")) && (instrumentIndex < 0))) {
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
 
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[library_source]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [library_source]")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[library_source]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[library_selection]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [library_selection]")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[library selection]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[library_strategy]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [library_strategy]")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[library_strategy]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Technology Type field with Parameter Value[library_strategy]
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [library_layout]")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[library_layout]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
 
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Scan Name field with Assay Name (mapped to SRA Run,which are technical replicates, and SRAExperiment matches a library
@@ -515,7 +788,7 @@ public class MAGETabSDRFLoader {
                         System.out.println("Scan Name Found, assay index is: " + assayNamePosition);
                         columnNames[columnIndex] = "Assay Name";
                         assayNamePosition = columnIndex;
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
 
                     }
                     //we have already found an Assay and technology is sequencing, therefore we rename Scan Name Field to a Comment
@@ -523,125 +796,292 @@ public class MAGETabSDRFLoader {
                         System.out.println("Scan Name Found, assay index is: " + assayNamePosition);
                         columnNames[columnIndex] = "Comment[Assay Name]";
                         assayNamePosition = columnIndex;
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
 
                     }
                     //we have not yet found an Assay Name field in Mage-Tab and technology is sequencing, we therefore fall back on ENA_EXPERIMENT comment to create an Assay
                     else if ((columnNames[columnIndex].equalsIgnoreCase("comment [ENA_EXPERIMENT]")) && (tt >= 0) && assayNamePosition < 0) {
                         System.out.println("ENA_Experiment Found assay index is: " + assayNamePosition);
                         columnNames[columnIndex] = "Assay Name";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     } else if ((columnNames[columnIndex].equalsIgnoreCase("comment [ENA_RUN]")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Parameter Value[run identifier]";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
 
                     }
                     //if we have not found any Raw Data File before and come across a FASTQ_URI comment field, we cast it as a Raw Data File
                     else if (columnNames[columnIndex].equalsIgnoreCase("comment [FASTQ_URI]")) {
                         columnNames[columnIndex] = "Raw Data File";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                     //Here in case Sequencing is used (tt>=0) we replace MAGE-TAB Derived Array Data File with Derived Data file
                     else if ((columnNames[columnIndex].equalsIgnoreCase("Derived Array Data File")) && (tt >= 0)) {
                         columnNames[columnIndex] = "Derived Data File";
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
-                    }
-                    //
-                    else if ((isPresentDT = false) && ((columnNames[columnIndex].equals("Derived Array Data Matrix File")))) {
-                        columnNames[columnIndex] = "Data Transformation Name\tDerived Data File";
-                        dataTransNameIndex = columnIndex;
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     } else if (columnNames[columnIndex].startsWith("Factor Value ")) {
                         columnNames[columnIndex] = columnNames[columnIndex].toLowerCase();
                         columnNames[columnIndex] = columnNames[columnIndex].replaceAll("factor\\s*value ", "Factor Value");
                         columnNames[columnIndex] = columnNames[columnIndex].replace(". #", "#").replace("#", " number");
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     } else if (columnNames[columnIndex].contains("#")) {
+                        // left out of the assay header, and so of the assay records
                         columnNames[columnIndex] = columnNames[columnIndex].replace(". #", "#").replace("#", " number");
                     } else {
-                        studyAssayHeaders += columnNames[columnIndex] + TAB_DELIM;
+                        addAssayColumn(studyAssayHeaders, assayColumns, columnNames[columnIndex], columnIndex);
                     }
                 }
-
-                // we are now dealing with the last field provided it is not a tab!
-                else if (!(columnNames[columnIndex].contains("" + TAB_DELIM)) && (columnIndex == columnNames.length - 1)) {
-                    studyAssayHeaders += columnNames[columnIndex];
-                }
             }
 
-            sdrfStudySampleTable.add(studySampleHeaders.split("\\t"));
-            sdrfAssayTable.add(studyAssayHeaders.split("\\t"));
+            sdrfStudySampleTable.add(toHeaderRow(studySampleHeaders));
+            sdrfAssayTable.add(toHeaderRow(studyAssayHeaders));
             System.out.println("Assay Header:" + Arrays.toString(sdrfAssayTable.get(0)));
         } else {
-            studySampleHeaders = studySampleHeaders + "Sample Name";
-            sdrfStudySampleTable.add(studySampleHeaders.split("\\t"));
+            studySampleHeaders.add("Sample Name");
+            sdrfStudySampleTable.add(toHeaderRow(studySampleHeaders));
         }
 
         //we now drop the header row in order to only process data records
         sheetDataSubset.remove(0);
 
-        for (String[] sdrfRecord : sheetDataSubset) {
-
-            if (firstIndexNodePosition > 0 && (secondIndexNodeDepth == 0)) {
-                insertMissingNode(sdrfStudySampleTable, sdrfAssayTable, firstIndexNodePosition, sdrfRecord, 1);
-            } else if (firstIndexNodePosition > 0 && (secondIndexNodeDepth == 1)) {   //&& counter > 0
-                //  Sample Name is present  and Extract Name is the first Material Node
-                insertMissingNode(sdrfStudySampleTable, sdrfAssayTable, firstIndexNodePosition, sdrfRecord, secondIndexNodeDepth);
-            } else if (firstIndexNodePosition > 0 && secondIndexNodeDepth == 2) {
-                insertMissingNode(sdrfStudySampleTable, sdrfAssayTable, firstIndexNodePosition, sdrfRecord, secondIndexNodeDepth);
-            } else if (firstIndexNodePosition > 0 && secondIndexNodeDepth == 3) {
-                insertMissingNode(sdrfStudySampleTable, sdrfAssayTable, firstIndexNodePosition, sdrfRecord, secondIndexNodeDepth);
-            }
+        // records are split independently of each other, so tall sheets are split in chunks and stitched back in order
+        final RecordSplit recordSplit = new RecordSplit(firstIndexNodePosition, secondIndexNodeDepth, columnNames.length, assayColumns);
+
+        List<Pair<List<String[]>, List<String[]>>> splitChunks = RowChunks.process(sheetDataSubset, 0,
+                new RowChunks.ChunkTask<Pair<List<String[]>, List<String[]>>>() {
+                    public Pair<List<String[]>, List<String[]>> process(List<String[]> rows, int from, int to) {
+                        return splitSdrfRecords(rows.subList(from, to), recordSplit);
+                    }
+                });
+
+        for (Pair<List<String[]>, List<String[]>> splitChunk : splitChunks) {
+            sdrfStudySampleTable.addAll(splitChunk.fst);
+            sdrfAssayTable.addAll(splitChunk.snd);
         }
 
         // THIS CODE SECTION IS MEANT TO RETROFIT ANY FACTOR VALUES TO THE STUDY SAMPLE SPREADSHEET
-        // The underlying assumption is that the factors are the same, even in the case of multiple SDRF
+        // The underlying assumption is that the factors are the same, even in the case of multiple SDRF.
+        // Factor records are looked up by Source Name and Sample Name rather than by position, as the cleanup steps may
+        // have dropped or reordered study sample records.
+
+        List<String[]> sdrfStudySampleTableCumFactors = new ArrayList<String[]>(sdrfStudySampleTable.size());
+
+        FactorIndex factorIndex = new FactorIndex(factorSheetData);
 
-        List<String[]> sdrfStudySampleTableCumFactors = new ArrayList<String[]>();
+        int sampleNameIndex = -1;
+        String[] studySampleHeader = sdrfStudySampleTable.get(0);
+        for (int columnIndex = 0; columnIndex < studySampleHeader.length; columnIndex++) {
+            if (studySampleHeader[columnIndex].equalsIgnoreCase("Sample Name")) {
+                sampleNameIndex = columnIndex;
+                break;
+            }
+        }
 
         for (int k = 0; k < sdrfStudySampleTable.size(); k++) {
+            String[] tempRecord = sdrfStudySampleTable.get(k);
+
             //  we are now splicing the 2 records sections, that corresponding to the sample descriptions and that detailing the factor set
-            if (sdrfStudySampleTable.get(k)[0].equalsIgnoreCase(factorSheetData.get(k)[0])) {
+            String[] tempFactorRecord = k == 0 ? factorIndex.getHeader() : factorIndex.getFactorRecord(tempRecord[0],
+                    sampleNameIndex >= 0 && sampleNameIndex < tempRecord.length ? tempRecord[sampleNameIndex] : null);
 
-                String[] tempRecord = sdrfStudySampleTable.get(k);
+            String[] newRecord = new String[tempRecord.length + factorIndex.getFactorCount()];
 
-                String[] tempFactorRecord = factorSheetData.get(k);
+            System.arraycopy(tempRecord, 0, newRecord, 0, tempRecord.length);
 
-                String[] newRecord = new String[tempRecord.length + tempFactorRecord.length - 1];
+            if (tempFactorRecord != null) {
+                int keyCount = factorIndex.getKeyCount();
+                System.arraycopy(tempFactorRecord, keyCount, newRecord, tempRecord.length,
+                        Math.max(0, Math.min(tempFactorRecord.length - keyCount, factorIndex.getFactorCount())));
+            }
+            for (int columnIndex = tempRecord.length; columnIndex < newRecord.length; columnIndex++) {
+                if (newRecord[columnIndex] == null) {
+                    newRecord[columnIndex] = "";
+                }
+            }
 
-                System.arraycopy(tempRecord, 0, newRecord, 0, tempRecord.length);
+            sdrfStudySampleTableCumFactors.add(newRecord);
+        }
+        return new Pair<List<String[]>, List<String[]>>(sdrfStudySampleTableCumFactors, sdrfAssayTable);
+    }
+
+    /**
+     * The factor sheet of an SDRF (Source Name, the node which becomes the Sample Name of the study samples, then the
+     * Factor Values) indexed on its Source Name and Sample Name, ignoring case. Where the SDRF has no such node the
+     * sheet is indexed on Source Name alone, and a source with several records gets the first of them.
+     */
+    private static class FactorIndex {
+
+        private final String[] header;
+
+        // the leading columns of the factor sheet which identify a record: Source Name, and Sample Name if present
+        private final int keyCount;
+
+        private final Map<String, String[]> factorRecords = new HashMap<String, String[]>();
+
+        FactorIndex(List<String[]> factorSheetData) {
+            header = factorSheetData.isEmpty() ? new String[]{"Source Name"} : factorSheetData.get(0);
+            keyCount = header.length > 1 && !header[1].toLowerCase().startsWith("factor value") ? 2 : 1;
 
-                System.arraycopy(tempFactorRecord, 1, newRecord, tempRecord.length, tempFactorRecord.length - 1);
+            for (int recordIndex = 1; recordIndex < factorSheetData.size(); recordIndex++) {
+                String[] factorRecord = factorSheetData.get(recordIndex);
+                if (factorRecord.length < keyCount) {
+                    continue;
+                }
 
-                sdrfStudySampleTableCumFactors.add(newRecord);
+                String key = getKey(factorRecord[0], keyCount > 1 ? factorRecord[1] : null);
+                if (!factorRecords.containsKey(key)) {
+                    factorRecords.put(key, factorRecord);
+                }
             }
         }
-        return new Pair<List<String[]>, List<String[]>>(sdrfStudySampleTableCumFactors, sdrfAssayTable);
+
+        private String getKey(String sourceName, String sampleName) {
+            String key = sourceName == null ? "" : sourceName.toLowerCase();
+            if (keyCount > 1) {
+                key += "\t" + (sampleName == null ? "" : sampleName.toLowerCase());
+            }
+            return key;
+        }
+
+        String[] getHeader() {
+            return header;
+        }
+
+        int getKeyCount() {
+            return keyCount;
+        }
+
+        int getFactorCount() {
+            return header.length - keyCount;
+        }
+
+        /**
+         * @return the factor record of the sample of the source, or null if there is none
+         */
+        String[] getFactorRecord(String sourceName, String sampleName) {
+            return factorRecords.get(getKey(sourceName, sampleName));
+        }
+    }
+
+    private void addAssayColumn(List<String> studyAssayHeaders, List<Integer> assayColumns, String columnName, int columnIndex) {
+        studyAssayHeaders.add(columnName);
+        assayColumns.add(columnIndex);
     }
 
-    private void insertMissingNode(List<String[]> sdrfStudySampleTable, List<String[]> sdrfAssayTable, Integer firstAssayNodeIndex, String[] sdrfRecord, int secondIndexNodeDepth) {
-        List<String> sampleRecord = new ArrayList<String>();
+    /**
+     * Header rows used to be joined with tabs and split again, which drops trailing empty columns; this keeps that.
+     */
+    private static String[] toHeaderRow(List<String> headers) {
+        int width = headers.size();
+        while (width > 1 && headers.get(width - 1).length() == 0) {
+            width--;
+        }
+        return headers.subList(0, width).toArray(new String[width]);
+    }
+
+    private Pair<List<String[]>, List<String[]>> splitSdrfRecords(List<String[]> sdrfRecords, RecordSplit recordSplit) {
+
+        List<String[]> sdrfStudySampleRecords = new ArrayList<String[]>(sdrfRecords.size());
+        List<String[]> sdrfAssayRecords = new ArrayList<String[]>(sdrfRecords.size());
+
+        //  records are only split when the first node after Source Name was found, and when it is at most 3 nodes deep
+        if (recordSplit.firstAssayNodeIndex > 0 && recordSplit.firstNodeDepth <= 3) {
+            for (String[] sdrfRecord : sdrfRecords) {
+                insertMissingNode(sdrfStudySampleRecords, sdrfAssayRecords, recordSplit, sdrfRecord);
+            }
+        }
+
+        return new Pair<List<String[]>, List<String[]>>(sdrfStudySampleRecords, sdrfAssayRecords);
+    }
+
+    private void insertMissingNode(List<String[]> sdrfStudySampleTable, List<String[]> sdrfAssayTable, RecordSplit recordSplit, String[] sdrfRecord) {
+        int firstAssayNodeIndex = recordSplit.firstAssayNodeIndex;
 
-        int offset = 0;
         if (sdrfRecord.length - firstAssayNodeIndex > 0) {
-            List<String> assayRecord = new ArrayList<String>();
-            for (int sdrfColumnIndex = 0; sdrfColumnIndex < sdrfRecord.length; sdrfColumnIndex++) {
-                if (sdrfColumnIndex < firstAssayNodeIndex) {
-                    sampleRecord.add(sdrfColumnIndex, sdrfRecord[sdrfColumnIndex]);
-                } else if (sdrfColumnIndex == firstAssayNodeIndex) {
-                    sampleRecord.add(sdrfColumnIndex, sdrfRecord[sdrfColumnIndex]);
-                    offset = secondIndexNodeDepth - 1;
-                    for (int insertionCount = 0; insertionCount < secondIndexNodeDepth; insertionCount++) {
-                        assayRecord.add((sdrfColumnIndex - firstAssayNodeIndex) + insertionCount, sdrfRecord[sdrfColumnIndex]);
-                    }
+            String[] sampleRecord = new String[firstAssayNodeIndex + 1];
+            System.arraycopy(sdrfRecord, 0, sampleRecord, 0, sampleRecord.length);
+            sdrfStudySampleTable.add(sampleRecord);
+
+            sdrfAssayTable.add(recordSplit.getAssayRecord(sdrfRecord));
+        } else {
+            sdrfStudySampleTable.add(sdrfRecord.clone());
+        }
+    }
+
+    /**
+     * How the records of an SDRF are split in to a study sample record and an assay record, worked out once from the
+     * header. The study sample record is everything up to and including the first node after Source Name (the hinge
+     * node). The assay record starts with the hinge node, repeated for the nodes missing before it, followed by the
+     * columns after it in runs copied with System.arraycopy. Cells beyond the header are kept at the end.
+     */
+    private static class RecordSplit {
+
+        final int firstAssayNodeIndex;
+        final int firstNodeDepth;
+
+        private final int hingeCopies;
+        private final int headerWidth;
+
+        // the runs of assay columns after the hinge node: where each starts in the SDRF record, and how many columns
+        // it has
+        private final int[] runSources;
+        private final int[] runLengths;
+
+        RecordSplit(int firstAssayNodeIndex, int firstNodeDepth, int headerWidth, List<Integer> assayColumns) {
+            this.firstAssayNodeIndex = firstAssayNodeIndex;
+            this.firstNodeDepth = firstNodeDepth;
+            this.hingeCopies = Math.max(firstNodeDepth, 1);
+            this.headerWidth = headerWidth;
+
+            List<int[]> runs = new ArrayList<int[]>();
+            int[] run = null;
+
+            for (int assayColumn : assayColumns) {
+                if (run != null && run[0] + run[1] == assayColumn) {
+                    run[1]++;
                 } else {
-                    assayRecord.add((sdrfColumnIndex - firstAssayNodeIndex) + offset, sdrfRecord[sdrfColumnIndex]);
+                    run = new int[]{assayColumn, 1};
+                    runs.add(run);
+                }
+            }
+
+            runSources = new int[runs.size()];
+            runLengths = new int[runs.size()];
+            for (int runIndex = 0; runIndex < runs.size(); runIndex++) {
+                runSources[runIndex] = runs.get(runIndex)[0];
+                runLengths[runIndex] = runs.get(runIndex)[1];
+            }
+        }
+
+        String[] getAssayRecord(String[] sdrfRecord) {
+            // records shorter than the header only get the columns they have
+            int width = hingeCopies;
+            for (int runIndex = 0; runIndex < runSources.length; runIndex++) {
+                width += Math.max(0, Math.min(runLengths[runIndex], sdrfRecord.length - runSources[runIndex]));
+            }
+            int overhang = Math.max(0, sdrfRecord.length - headerWidth);
+
+            String[] assayRecord = new String[width + overhang];
+
+            for (int copy = 0; copy < hingeCopies; copy++) {
+                assayRecord[copy] = sdrfRecord[firstAssayNodeIndex];
+            }
+
+            int target = hingeCopies;
+            for (int runIndex = 0; runIndex < runSources.length; runIndex++) {
+                int length = Math.max(0, Math.min(runLengths[runIndex], sdrfRecord.length - runSources[runIndex]));
+                if (length == 0) {
+                    // the record ends before this run, and so before the runs after it
+                    break;
                 }
+                System.arraycopy(sdrfRecord, runSources[runIndex], assayRecord, target, length);
+                target += length;
             }
 
-            sdrfAssayTable.add(assayRecord.toArray(new String[assayRecord.size()]));
+            if (overhang > 0) {
+                System.arraycopy(sdrfRecord, headerWidth, assayRecord, target, overhang);
+            }
+            return assayRecord;
         }
-        sdrfStudySampleTable.add(sampleRecord.toArray(new String[sampleRecord.size()]));
     }
 
     /*
@@ -649,146 +1089,52 @@ public class MAGETabSDRFLoader {
    in case SDRF contains more than one assay type.
    The method returns a HashMap where the key as assay type and the values are ArrayList of assay records.
     */
-    private List<Assay> inspectSdrfAssay(List<String[]> sdrfAssayTableAsInput, Set<AssayType> assayTTMT) {
+    public List<Assay> inspectSdrfAssay(List<String[]> sdrfAssayTableAsInput, Set<AssayType> assayTTMT) {
 
         //a data structure to hold the different assay types found when iterating over the sdrf assay sheet
         List<Assay> assaysFromGivenSDRF = new ArrayList<Assay>();
 
         if (sdrfAssayTableAsInput.size() > 0) {
 
-            Assay chipSeqAssay = new Assay();
-            Assay chipChipAssay = new Assay();
-            Assay geneChipAssay = new Assay();
-            Assay meSeqAssay = new Assay();
-            Assay TFSeqAssay = new Assay();
-            Assay rnaSeqAssay = new Assay();
-
-            List<String[]> chipSeqRecords = new ArrayList<String[]>();
-            List<String[]> rnaSeqRecords = new ArrayList<String[]>();
-            List<String[]> meSeqRecords = new ArrayList<String[]>();
-            List<String[]> tfSeqRecords = new ArrayList<String[]>();
-            List<String[]> genechipRecords = new ArrayList<String[]>();
-            List<String[]> chipchipRecords = new ArrayList<String[]>();
-
-
-            chipSeqRecords.add(sdrfAssayTableAsInput.get(0));
-            rnaSeqRecords.add(sdrfAssayTableAsInput.get(0));
-            meSeqRecords.add(sdrfAssayTableAsInput.get(0));
-            tfSeqRecords.add(sdrfAssayTableAsInput.get(0));
-            genechipRecords.add(sdrfAssayTableAsInput.get(0));
-            chipchipRecords.add(sdrfAssayTableAsInput.get(0));
-
+            AssayClassificationRules rules = AssayClassificationRules.getRules();
 
             Set<String> aTypeUnique = new HashSet<String>();
 
             String[] columnHeaders = sdrfAssayTableAsInput.get(0);
 
+            // the header and design type rules are evaluated once for the table rather than for every record
+            final RecordClassifier classifier = rules.createClassifier(columnHeaders, assayTTMT, conversionProperties);
 
-            boolean isHybridizationAssay = false;
-            boolean  containsAntibodyInHeader = false;
-            for (String columnHeader : columnHeaders) {
-                if (columnHeader.contains("Hybridization")) {
-                    isHybridizationAssay = true;
+            // each record is classified on its own, so tall assay tables are classified in chunks
+            List<AssayRecords> chunkRecords = RowChunks.process(sdrfAssayTableAsInput, 1, new RowChunks.ChunkTask<AssayRecords>() {
+                public AssayRecords process(List<String[]> rows, int from, int to) {
+                    return classifier.classify(rows, from, to);
                 }
-                if (columnHeader.toLowerCase().contains("antibody")) {
-                    containsAntibodyInHeader = true;
-                }
-            }
+            });
 
-            for (int rowIndex = 1; rowIndex < sdrfAssayTableAsInput.size(); rowIndex++) {
-
-                String[] thisAssayRecord = sdrfAssayTableAsInput.get(rowIndex);
-                String arrayAsString = getArrayAsString(thisAssayRecord);
-
-                if (haveSequencingAssay(assayTTMT)) {
-
-                    if (!isHybridizationAssay && arrayAsString.contains("ChIP-Seq") || arrayAsString.contains("ChIPSeq")) {
-                        aTypeUnique.add("ChIP-Seq");
-                        chipSeqRecords.add(thisAssayRecord);
-                    }
-                    if (arrayAsString.contains("Bisulfite-Seq") || arrayAsString.contains("MRE-Seq") ||
-                            arrayAsString.contains("MBD-Seq") || arrayAsString.contains("MeDIP-Seq ")) {
-                        aTypeUnique.add("ME-Seq");
-                        meSeqRecords.add(thisAssayRecord);
-                    }
-                    if (arrayAsString.contains("DNase-Hypersensitivity") || arrayAsString.contains("MNase-Seq")) {
-                        aTypeUnique.add("Chromatin-Seq");
-                        tfSeqRecords.add(thisAssayRecord);
-                    }
-                }
-                //ConversionProperties.isValueInDesignTypes("ChIP-Seq") &&
-                //NOTE: this is potential problematic: solves issues with AE ChipSeq data but what happens with non chip seq application uisng genomic dna
-                if (!isHybridizationAssay && (arrayAsString.contains("genomic DNA") || arrayAsString.contains("genomic_DNA")) && !(arrayAsString.contains("MNase-Seq"))) {
-                    aTypeUnique.add("ChIP-Seq");
-                    chipSeqRecords.add(thisAssayRecord);
-                }
-//                if (arrayAsString.contains("RNA-Seq")) {
-//                    aTypeUnique.add("RNA-Seq");
-//                    rnaSeqRecords.add(thisAssayRecord);
-//                }
-                if (ConversionProperties.isValueInDesignTypes("dye_swap_design")) {
-                    aTypeUnique.add("Hybridization");
-                    genechipRecords.add(thisAssayRecord);
-                }
-                if (ConversionProperties.isValueInDesignTypes("ChIP-chip by tiling array")) {
-                    aTypeUnique.add("ChIP-chip by tiling array");
-                    chipchipRecords.add(thisAssayRecord);
-                }
-                if ( (isHybridizationAssay && !containsAntibodyInHeader)  && (arrayAsString.contains("RNA") || arrayAsString.contains("genomic DNA")) ) {
-                    aTypeUnique.add("transcription profiling by array");
-                    genechipRecords.add(thisAssayRecord);
-                }
+            // every assay gets the header
+            AssayRecords assayRecords = classifier.createAssayRecords();
+            assayRecords.addToAllGroups(0);
 
-                //ConversionProperties.isValueInDesignTypes("ChIP-Seq") &&
-                //NOTE: this is potential problematic: solves issues with AE ChipSeq data but what happens with non chip seq application uisng genomic dna
-                if (!isHybridizationAssay && (arrayAsString.contains("genomic DNA") || arrayAsString.contains("genomic_DNA")) && (arrayAsString.contains("MNase-Seq"))) {
-                    aTypeUnique.add("ChIP-Seq");
-                    chipSeqRecords.add(thisAssayRecord);
-                }
-                if (!isHybridizationAssay && (arrayAsString.contains("RNA-Seq") || arrayAsString.contains("total RNA"))) {
-                    aTypeUnique.add("RNA-Seq");
-                    rnaSeqRecords.add(thisAssayRecord);
-                }
-//                if (ConversionProperties.isValueInDesignTypes("dye_swap_design")) {
-//                    aTypeUnique.add("transcription profiling by array");
-//                    genechipRecords.add(thisAssayRecord);
-//                }
-//            else if (arrayAsString.contains("Bisulfite-Seq") || arrayAsString.contains("MRE-Seq") ||
-//                    arrayAsString.contains("MBD-Seq") || arrayAsString.contains("MeDIP-Seq ")) {
-//                aTypeUnique.add("ME-Seq");
-//                meSeqRecords.add(thisAssayRecord);
-//            }
-//             if (arrayAsString.contains("DNase-Hypersensitivity") ||
-//                    arrayAsString.contains("MNase-Seq")) {
-//                aTypeUnique.add("Chromatin-Seq");
-//                tfSeqRecords.add(thisAssayRecord);
-//            }
-                if ( ( isHybridizationAssay  ) && containsAntibodyInHeader &&  ( arrayAsString.contains("genomic DNA") || arrayAsString.toLowerCase().contains("chip") )) {    //note: reference is used as a keyword in chip-seq/chip-chip experiment but this is not consistently done
-                    aTypeUnique.add("ChIP-chip");
-                    chipchipRecords.add(thisAssayRecord);
-                }
+            for (AssayRecords chunk : chunkRecords) {
+                assayRecords.addAll(chunk);
+                aTypeUnique.addAll(chunk.getAssayLabels());
             }
 
+            List<AssayFileRule> assayFileRules = rules.getAssayFileRules();
+            Assay[] assays = new Assay[assayFileRules.size()];
 
             for (String assaytype : aTypeUnique) {
-                if ( assaytype.contains("transcription profiling by array")) {   //assaytype.contains("Hybridization") ||
-                    addToAssays("GeneChip", assaysFromGivenSDRF, geneChipAssay, genechipRecords);
-                }
+                for (int ruleIndex = 0; ruleIndex < assays.length; ruleIndex++) {
+                    AssayFileRule assayFileRule = assayFileRules.get(ruleIndex);
 
-                if (assaytype.contains("ChIP-chip")) {
-                    addToAssays("ChIP-Chip", assaysFromGivenSDRF, chipChipAssay, chipchipRecords);
-                }
-                if (assaytype.contains("ChIP-Seq") || assaytype.contains("ChIPSeq")) {
-                    addToAssays("ChIP-Seq", assaysFromGivenSDRF, chipSeqAssay, chipSeqRecords);
-                }
-                if (assaytype.contains("RNA-Seq")) {
-                    addToAssays("RNA-Seq", assaysFromGivenSDRF, rnaSeqAssay, rnaSeqRecords);
-                }
-                if (assaytype.contains("ME-Seq")) {
-                    addToAssays("ChIP-Seq", assaysFromGivenSDRF, meSeqAssay, meSeqRecords);
-                }
-                if (assaytype.contains("Chromatin-Seq")) {
-                    addToAssays("Chromatin-Seq", assaysFromGivenSDRF, TFSeqAssay, tfSeqRecords);
+                    if (assayFileRule.appliesTo(assaytype)) {
+                        if (assays[ruleIndex] == null) {
+                            assays[ruleIndex] = new Assay();
+                        }
+                        addToAssays(assayFileRule.getFileKey(), assaysFromGivenSDRF, assays[ruleIndex], sdrfAssayTableAsInput,
+                                assayRecords.getGroup(assayFileRule.getGroup()));
+                    }
                 }
             }
 
@@ -797,20 +1143,8 @@ public class MAGETabSDRFLoader {
         return new ArrayList<Assay>(assaysFromGivenSDRF);
     }
 
-
-    private boolean haveSequencingAssay(Set<AssayType> assayTTMT) {
-        for (AssayType assay : assayTTMT) {
-            if (assay.getMeasurement().equals("protein-DNA binding site identification") && assay.getTechnology().contains("sequencing")) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-
-    private void addToAssays(String type, List<Assay> assaysFromGivenSDRF, Assay assay, List<String[]> records) {
-        assay.setAssayLevelInformation(Collections.singletonMap(type, records));
+    private void addToAssays(String type, List<Assay> assaysFromGivenSDRF, Assay assay, List<String[]> assayTable, BitSet records) {
+        assay.setAssayRows(type, assayTable, records);
         assaysFromGivenSDRF.add(assay);
     }
 
@@ -0,0 +1,240 @@
+package org.isatools.magetoisatab.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps SDRFs as they are after loading and cleanup, in a compact binary form, so that reconverting an unchanged SDRF
+ * can go straight to splitting and assay classification. Snapshots are keyed on the accession, the SHA-256 of the SDRF
+ * and the version of the cleanup pipeline.
+ * <p/>
+ * The cache is only used when the magetoisatab.cache.dir system property names the directory to keep it in. A
+ * snapshot which can not be read is ignored, and the SDRF processed as if there were none; counts read from a
+ * snapshot are checked against its size first, so that a corrupt one can not have huge arrays allocated.
+ * <p/>
+ * A snapshot holds the distinct cell values once, in a string table, followed by the tables as indexes in to it.
+ */
+public class SdrfSnapshotCache {
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "magetoisatab.cache.dir";
+
+    // to be changed with any change to the loading or cleanup of SDRFs
+    public static final int PIPELINE_VERSION = 2;
+
+    private static final int MAGIC = 0x53445246;
+
+    private static final int NULL_CELL = -1;
+
+    private final File directory;
+
+    public SdrfSnapshotCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the cache in the directory named by the magetoisatab.cache.dir system property, or null if it is not set
+     */
+    public static SdrfSnapshotCache getCache() {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        return directory == null || directory.trim().length() == 0 ? null : new SdrfSnapshotCache(new File(directory));
+    }
+
+    /**
+     * @return the snapshot of the SDRF, or null if there is none
+     */
+    public Snapshot load(String accnum, String sdrfHash) {
+        File snapshotFile = getSnapshotFile(accnum, sdrfHash);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 65536));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != PIPELINE_VERSION) {
+                    return null;
+                }
+
+                // every count is of items of at least 4 bytes, but for those of the bytes of strings
+                long byteLimit = snapshotFile.length();
+                String[] strings = new String[readCount(input, byteLimit / 4)];
+                for (int index = 0; index < strings.length; index++) {
+                    strings[index] = readString(input, byteLimit);
+                }
+
+                int technologyType = input.readInt();
+                List<String[]> sheet = readTable(input, strings, byteLimit / 4);
+                List<String[]> factorSheet = readTable(input, strings, byteLimit / 4);
+
+                return new Snapshot(sheet, factorSheet, technologyType);
+            } finally {
+                input.close();
+            }
+        } catch (EOFException e) {
+            System.out.println("Ignoring truncated SDRF snapshot " + snapshotFile);
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable SDRF snapshot " + snapshotFile + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // counts or string indexes out of range
+            System.out.println("Ignoring corrupt SDRF snapshot " + snapshotFile + ": " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Stores a snapshot of the SDRF. It is written to a temporary file first, so that concurrent conversions never see
+     * half written snapshots. Failures are reported but not thrown, the cache being an optimisation.
+     */
+    public void store(String accnum, String sdrfHash, Snapshot snapshot) {
+        File snapshotFile = getSnapshotFile(accnum, sdrfHash);
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("could not create " + directory);
+            }
+
+            File temporaryFile = File.createTempFile(snapshotFile.getName(), ".tmp", directory);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 65536));
+                try {
+                    write(output, snapshot);
+                } finally {
+                    output.close();
+                }
+
+                if (!temporaryFile.renameTo(snapshotFile)) {
+                    snapshotFile.delete();
+                    if (!temporaryFile.renameTo(snapshotFile)) {
+                        throw new IOException("could not rename " + temporaryFile);
+                    }
+                }
+            } finally {
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not store SDRF snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+    File getSnapshotFile(String accnum, String sdrfHash) {
+        return new File(directory, accnum + "-" + sdrfHash + "-v" + PIPELINE_VERSION + ".snapshot");
+    }
+
+    private void write(DataOutputStream output, Snapshot snapshot) throws IOException {
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+
+        addStrings(snapshot.getSheet(), stringIndexes, strings);
+        addStrings(snapshot.getFactorSheet(), stringIndexes, strings);
+
+        output.writeInt(MAGIC);
+        output.writeInt(PIPELINE_VERSION);
+
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(output, string);
+        }
+
+        output.writeInt(snapshot.getTechnologyType());
+        writeTable(output, snapshot.getSheet(), stringIndexes);
+        writeTable(output, snapshot.getFactorSheet(), stringIndexes);
+    }
+
+    private static void addStrings(List<String[]> table, Map<String, Integer> stringIndexes, List<String> strings) {
+        for (String[] row : table) {
+            for (String cell : row) {
+                if (cell != null && !stringIndexes.containsKey(cell)) {
+                    stringIndexes.put(cell, strings.size());
+                    strings.add(cell);
+                }
+            }
+        }
+    }
+
+    private static void writeTable(DataOutputStream output, List<String[]> table, Map<String, Integer> stringIndexes) throws IOException {
+        output.writeInt(table.size());
+
+        for (String[] row : table) {
+            output.writeInt(row.length);
+            for (String cell : row) {
+                output.writeInt(cell == null ? NULL_CELL : stringIndexes.get(cell));
+            }
+        }
+    }
+
+    private static List<String[]> readTable(DataInputStream input, String[] strings, long countLimit) throws IOException {
+        int rowCount = readCount(input, countLimit);
+        List<String[]> table = new ArrayList<String[]>(rowCount);
+
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            String[] row = new String[readCount(input, countLimit)];
+            for (int cellIndex = 0; cellIndex < row.length; cellIndex++) {
+                int stringIndex = input.readInt();
+                row[cellIndex] = stringIndex == NULL_CELL ? null : strings[stringIndex];
+            }
+            table.add(row);
+        }
+        return table;
+    }
+
+    // DataOutputStream.writeUTF is limited to 64k, which long cells can go over
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input, long byteLimit) throws IOException {
+        byte[] bytes = new byte[readCount(input, byteLimit)];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int readCount(DataInputStream input, long limit) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("count " + count + " out of range");
+        }
+        return count;
+    }
+
+    /**
+     * An SDRF after loading and cleanup: the cleaned sheet, the factor sheet (Source Name and Factor Values) and the
+     * technology type flag of the loader, 1 if the SDRF has a Technology Type column and -1 otherwise.
+     */
+    public static class Snapshot {
+
+        private final List<String[]> sheet;
+        private final List<String[]> factorSheet;
+        private final int technologyType;
+
+        public Snapshot(List<String[]> sheet, List<String[]> factorSheet, int technologyType) {
+            this.sheet = sheet;
+            this.factorSheet = factorSheet;
+            this.technologyType = technologyType;
+        }
+
+        public List<String[]> getSheet() {
+            return sheet;
+        }
+
+        public List<String[]> getFactorSheet() {
+            return factorSheet;
+        }
+
+        public int getTechnologyType() {
+            return technologyType;
+        }
+    }
+}
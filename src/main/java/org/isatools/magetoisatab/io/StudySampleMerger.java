@@ -0,0 +1,86 @@
+package org.isatools.magetoisatab.io;
+
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.utils.RowFingerprintSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the study sample tables of the SDRFs of a submission in to one study sample file.
+ * <p/>
+ * The merged header has every column name found, in the order first found. Each record of each table is laid out on
+ * that header, empty where its table lacks the column and taking the last of repeated columns, and written straight
+ * away unless the same record was written before. Records keep their SDRF and table order.
+ */
+class StudySampleMerger {
+
+    private final Map<String, Integer> mergedColumns = new LinkedHashMap<String, Integer>();
+
+    private final List<List<String[]>> studySampleTables = new ArrayList<List<String[]>>();
+
+    private int recordCount;
+
+    /**
+     * @param studySampleTable - a study sample table, header first. Empty tables are ignored
+     */
+    void addTable(List<String[]> studySampleTable) {
+        if (studySampleTable.size() > 0) {
+            for (String columnName : studySampleTable.get(0)) {
+                if (!mergedColumns.containsKey(columnName)) {
+                    mergedColumns.put(columnName, mergedColumns.size());
+                }
+            }
+            studySampleTables.add(studySampleTable);
+        }
+    }
+
+    List<String> getHeader() {
+        return new ArrayList<String>(mergedColumns.keySet());
+    }
+
+    /**
+     * Writes the header and the distinct records. The tables are let go of as they are written.
+     */
+    void write(IsaTabWriter studyWriter) throws IOException {
+        studyWriter.writeRow(getHeader());
+
+        RowFingerprintSet writtenRecords = new RowFingerprintSet();
+
+        for (int tableIndex = 0; tableIndex < studySampleTables.size(); tableIndex++) {
+            List<String[]> studySampleTable = studySampleTables.get(tableIndex);
+            studySampleTables.set(tableIndex, null);
+
+            String[] header = studySampleTable.get(0);
+            int[] mergedPositions = new int[header.length];
+            for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+                mergedPositions[columnIndex] = mergedColumns.get(header[columnIndex]);
+            }
+
+            for (int recordIndex = 1; recordIndex < studySampleTable.size(); recordIndex++) {
+                String[] record = studySampleTable.get(recordIndex);
+
+                String[] mergedRecord = new String[mergedColumns.size()];
+                for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+                    String value = columnIndex < record.length ? record[columnIndex] : null;
+                    mergedRecord[mergedPositions[columnIndex]] = value == null ? "" : value;
+                }
+
+                if (writtenRecords.add(mergedRecord)) {
+                    studyWriter.writeRow(mergedRecord);
+                    recordCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of records written, without the header
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+}
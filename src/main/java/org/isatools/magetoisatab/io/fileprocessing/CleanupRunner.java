@@ -1,5 +1,9 @@
 package org.isatools.magetoisatab.io.fileprocessing;
 
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageTimer;
+
 import java.util.List;
 
 /**
@@ -13,41 +17,65 @@ import java.util.List;
 public class CleanupRunner {
 
     public static List<String[]> runAll(List<String[]> spreadsheet) {
+        return runAll(spreadsheet, null);
+    }
+
+    public static List<String[]> runAll(List<String[]> spreadsheet, String accession) {
+        return runAll(spreadsheet, accession, new ProtocolInsertionUtil());
+    }
+
+    /**
+     * @param protocolInsertionUtil - the protocol insertion step, which callers can ask which protocols it inserted
+     */
+    public static List<String[]> runAll(List<String[]> spreadsheet, String accession, ProtocolInsertionUtil protocolInsertionUtil) {
 
         CleanupUtils collapseColumnUtil = new CollapseColumnUtil();
         CleanupUtils removeDuplicateColumnUtil = new RemoveDuplicateColumnUtil();
         CleanupUtils removeRogueColumnUtil = new RogueColumnRemovalUtil();
-        CleanupUtils protocolInsertionUtil = new ProtocolInsertionUtil();
         CleanupUtils columnMovementUtil = new ColumnMoveUtil();
 
         //we perform the transformation using the processSpreadsheet method
 
-        spreadsheet = removeDuplicateColumnUtil.processSpreadsheet(spreadsheet);
+        spreadsheet = run(removeDuplicateColumnUtil, spreadsheet, accession);
         System.out.println("Ran remove duplicate util.");
 
 
-        spreadsheet = collapseColumnUtil.processSpreadsheet(spreadsheet);
+        spreadsheet = run(collapseColumnUtil, spreadsheet, accession);
         System.out.println("Ran collapse column util.");
 
 
-        spreadsheet = removeRogueColumnUtil.processSpreadsheet(spreadsheet);
+        spreadsheet = run(removeRogueColumnUtil, spreadsheet, accession);
         System.out.println("Ran remove rogue column util.");
 
-        spreadsheet = protocolInsertionUtil.processSpreadsheet(spreadsheet);
+        spreadsheet = run(protocolInsertionUtil, spreadsheet, accession);
         System.out.println("Ran protocol insertion util.");
 
-        spreadsheet = columnMovementUtil.processSpreadsheet(spreadsheet);
+        spreadsheet = run(columnMovementUtil, spreadsheet, accession);
         System.out.println("Ran column movement util.");
 
         return spreadsheet;
     }
-    
+
     public static List<String[]> runSelected(List<String[]> spreadsheet, CleanupUtils... utils) {
+        return runSelected(spreadsheet, (String) null, utils);
+    }
+
+    public static List<String[]> runSelected(List<String[]> spreadsheet, String accession, CleanupUtils... utils) {
 
         for(CleanupUtils cleanupUtil : utils) {
-            spreadsheet = cleanupUtil.processSpreadsheet(spreadsheet);
+            spreadsheet = run(cleanupUtil, spreadsheet, accession);
         }
 
         return spreadsheet;
     }
+
+    private static List<String[]> run(CleanupUtils cleanupUtil, List<String[]> spreadsheet, String accession) {
+        StageTimer timer = ConversionMetrics.startStage(accession, ConversionStage.CLEANUP,
+                cleanupUtil.getClass().getSimpleName()).setInput(spreadsheet);
+
+        spreadsheet = cleanupUtil.processSpreadsheet(spreadsheet);
+
+        timer.stop(spreadsheet);
+        return spreadsheet;
+    }
 }
@@ -1,5 +1,7 @@
 package org.isatools.magetoisatab.io.fileprocessing;
 
+import org.isatools.magetoisatab.utils.RowChunks;
+
 import java.util.*;
 
 
@@ -53,12 +55,34 @@ public class CollapseColumnUtil extends CleanupUtils {
 
         String[] columnNames = spreadsheet.get(0);
 
-        Map<Integer, Integer> candidates = selectCandidates(columnNames);
+        final Map<Integer, Integer> candidates = selectCandidates(columnNames);
 
-        Map<Integer, Map<Integer, Set<String>>> rowToProtocolValues = new HashMap<Integer, Map<Integer, Set<String>>>();
+        // protocol blocks are rebuilt by walking this map, so it has to iterate in row order
+        Map<Integer, Map<Integer, Set<String>>> rowToProtocolValues = new LinkedHashMap<Integer, Map<Integer, Set<String>>>();
 
         // at this point we now have the cases where there are multiple chained Protocol REFs
-        for (int rowNumber = 1; rowNumber < spreadsheet.size(); rowNumber++) {
+        // each row is scanned on its own, so tall sheets are scanned in chunks
+        List<Map<Integer, Map<Integer, Set<String>>>> chunkProtocolValues = RowChunks.process(spreadsheet, 1,
+                new RowChunks.ChunkTask<Map<Integer, Map<Integer, Set<String>>>>() {
+                    public Map<Integer, Map<Integer, Set<String>>> process(List<String[]> rows, int from, int to) {
+                        return collectProtocolValues(rows, from, to, candidates);
+                    }
+                });
+
+        for (Map<Integer, Map<Integer, Set<String>>> protocolValues : chunkProtocolValues) {
+            rowToProtocolValues.putAll(protocolValues);
+        }
+
+        Map<Integer, List<String[]>> protocolBlocks = createNewProtocolBlock(rowToProtocolValues);
+        return reconstructSpreadsheetAfterProcessing(protocolBlocks, candidates, spreadsheet);
+    }
+
+    private Map<Integer, Map<Integer, Set<String>>> collectProtocolValues(List<String[]> spreadsheet, int from, int to,
+                                                                         Map<Integer, Integer> candidates) {
+
+        Map<Integer, Map<Integer, Set<String>>> rowToProtocolValues = new LinkedHashMap<Integer, Map<Integer, Set<String>>>();
+
+        for (int rowNumber = from; rowNumber < to; rowNumber++) {
 
             String[] column = spreadsheet.get(rowNumber);
 
@@ -78,19 +102,25 @@ public class CollapseColumnUtil extends CleanupUtils {
                 }
             }
         }
-        Map<Integer, List<String[]>> protocolBlocks = createNewProtocolBlock(rowToProtocolValues);
-        return reconstructSpreadsheetAfterProcessing(protocolBlocks, candidates, spreadsheet);
+
+        return rowToProtocolValues;
     }
 
     private Map<Integer, List<String[]>> createNewProtocolBlock(Map<Integer, Map<Integer, Set<String>>> rowToProtocolValues) {
 
         Map<Integer, List<String[]>> builtProtocolBlocks = new HashMap<Integer, List<String[]>>();
 
+        // the block width only depends on the start index, so it is worked out once rather than for every row
+        Map<Integer, Integer> startIndexToNumberOfProtocols = new HashMap<Integer, Integer>();
+
         for (int rowNumber : rowToProtocolValues.keySet()) {
 
             for (int startIndex : rowToProtocolValues.get(rowNumber).keySet()) {
 
-                int numberOfProtocols = calculateNumberOfProtocols(rowToProtocolValues, startIndex);
+                if (!startIndexToNumberOfProtocols.containsKey(startIndex)) {
+                    startIndexToNumberOfProtocols.put(startIndex, calculateNumberOfProtocols(rowToProtocolValues, startIndex));
+                }
+                int numberOfProtocols = startIndexToNumberOfProtocols.get(startIndex);
 
                 String[] protocols = new String[numberOfProtocols];
 
@@ -16,6 +16,17 @@ import java.util.List;
  */
 public class ProtocolInsertionUtil extends CleanupUtils {
 
+    // the types of the Protocol REF columns inserted, in the order they were inserted
+    private final List<String> insertedProtocolTypes = new ArrayList<String>();
+
+    /**
+     * @return the protocol types of the Protocol REF columns inserted by the spreadsheets processed so far, which
+     *         are known from the column headers alone
+     */
+    public List<String> getInsertedProtocolTypes() {
+        return Collections.unmodifiableList(insertedProtocolTypes);
+    }
+
     @Override
     public List<String[]> processSpreadsheet(List<String[]> spreadsheet) {
         String[] columnHeaders = spreadsheet.get(0);
@@ -38,6 +49,7 @@ public class ProtocolInsertionUtil extends CleanupUtils {
                 //TODO: add as missing from investigation file  by calling a addProtocolObject2InvFile method
                 inferredType="library construction";
                 spreadsheet = SpreadsheetManipulation.insertColumn(spreadsheet, "Protocol REF", valueToInsertAt, inferredType);
+                insertedProtocolTypes.add(inferredType);
                 //System.out.println("inferred protocol is: " + inferredType.toString());
                 //System.out.println("insertion before: "+ columnHeaders[valueToInsertAt]);
             }
@@ -46,6 +58,7 @@ public class ProtocolInsertionUtil extends CleanupUtils {
                 //TODO: add as missing from investigation file
                 inferredType="nucleic acid sequencing";
                 spreadsheet = SpreadsheetManipulation.insertColumn(spreadsheet, "Protocol REF", valueToInsertAt, inferredType);
+                insertedProtocolTypes.add(inferredType);
                 //System.out.println("inferred protocol is:: " + inferredType);
 
             }
@@ -53,6 +66,7 @@ public class ProtocolInsertionUtil extends CleanupUtils {
             else if (columnHeaders[valueToInsertAt].contains("instrument") && (!columnHeaders[valueToInsertAt-1].contains("run")&& !columnHeaders[valueToInsertAt+1].contains("run") ))    {     //
                 inferredType="nucleic acid sequencing";
                 spreadsheet = SpreadsheetManipulation.insertColumn(spreadsheet, "Protocol REF", valueToInsertAt, inferredType);
+                insertedProtocolTypes.add(inferredType);
                 //System.out.println("inferred protocol is:: " + inferredType);
 
             }
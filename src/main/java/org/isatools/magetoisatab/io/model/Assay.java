@@ -1,6 +1,10 @@
 package org.isatools.magetoisatab.io.model;
 
+import org.isatools.magetoisatab.utils.RowSubset;
+
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,4 +33,15 @@ public class Assay {
         this.assayLevelInformation = assayLevelInformation;
        // assayLevelInformation.put(assaytype,assayLevelInformation);
     }
+
+    /**
+     * Sets the assay records to the given rows of an assay table. The records are a view of the table, not a copy.
+     *
+     * @param assaytype  - the assay type, used to name the assay file
+     * @param assayTable - the assay table, header first
+     * @param rows       - the indexes of the table rows in this assay, including the header's
+     */
+    public void setAssayRows(String assaytype, List<String[]> assayTable, BitSet rows) {
+        setAssayLevelInformation(Collections.<String, List<String[]>>singletonMap(assaytype, new RowSubset(assayTable, rows)));
+    }
 }
@@ -0,0 +1,190 @@
+package org.isatools.magetoisatab.io.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * What converting a submission would produce, worked out from its IDF and the header lines of its SDRFs without
+ * reading any SDRF record: the study assay types and the assay files the investigation lists, the protocols, the
+ * study sample and assay headers, and anything which would keep the conversion from producing assays.
+ * <p/>
+ * The assay files of an SDRF are those the assay labels possible for its assay header would make. Records decide
+ * which labels are actually found, so a conversion may make fewer of them. Chained Protocol REF columns, which are
+ * collapsed by their values, are given as found in the header.
+ */
+public class ConversionPlan {
+
+    private final String accession;
+
+    private final List<AssayType> studyAssayTypes = new ArrayList<AssayType>();
+
+    private final List<String> listedAssayFiles = new ArrayList<String>();
+
+    private final Set<String> protocols = new LinkedHashSet<String>();
+
+    private final Set<String> inferredProtocolTypes = new LinkedHashSet<String>();
+
+    // the possible assay labels of each SDRF, in IDF order
+    private final Map<String, Set<String>> sdrfAssayLabels = new LinkedHashMap<String, Set<String>>();
+
+    private List<String> studySampleHeader = Collections.emptyList();
+
+    // by file name, the header of the SDRF read last winning, as its assays would overwrite the others
+    private final Map<String, String[]> assayHeaders = new TreeMap<String, String[]>();
+
+    private final List<String> problems = new ArrayList<String>();
+
+    public ConversionPlan(String accession) {
+        this.accession = accession;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public void addStudyAssayType(AssayType assayType) {
+        studyAssayTypes.add(assayType);
+    }
+
+    public List<AssayType> getStudyAssayTypes() {
+        return Collections.unmodifiableList(studyAssayTypes);
+    }
+
+    /**
+     * @param fileName - an assay file named by the Study Assay File Name row of the investigation
+     */
+    public void addListedAssayFile(String fileName) {
+        listedAssayFiles.add(fileName);
+    }
+
+    public List<String> getListedAssayFiles() {
+        return Collections.unmodifiableList(listedAssayFiles);
+    }
+
+    /**
+     * @param protocol - the name of a protocol of the investigation
+     */
+    public void addProtocol(String protocol) {
+        protocols.add(protocol);
+    }
+
+    public Set<String> getProtocols() {
+        return Collections.unmodifiableSet(protocols);
+    }
+
+    /**
+     * @param protocolTypes - the types of Protocol REF columns the cleanup inserts where the SDRF has none
+     */
+    public void addInferredProtocolTypes(List<String> protocolTypes) {
+        inferredProtocolTypes.addAll(protocolTypes);
+    }
+
+    public Set<String> getInferredProtocolTypes() {
+        return Collections.unmodifiableSet(inferredProtocolTypes);
+    }
+
+    public void addSdrf(String sdrfName, Set<String> possibleAssayLabels) {
+        sdrfAssayLabels.put(sdrfName, new LinkedHashSet<String>(possibleAssayLabels));
+    }
+
+    public List<String> getSdrfNames() {
+        return new ArrayList<String>(sdrfAssayLabels.keySet());
+    }
+
+    /**
+     * @return the assay labels records of the SDRF may be given, or an empty set if it has no assay records
+     */
+    public Set<String> getPossibleAssayLabels(String sdrfName) {
+        Set<String> labels = sdrfAssayLabels.get(sdrfName);
+        return labels == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(labels);
+    }
+
+    public void setStudySampleHeader(List<String> studySampleHeader) {
+        this.studySampleHeader = new ArrayList<String>(studySampleHeader);
+    }
+
+    public List<String> getStudySampleHeader() {
+        return Collections.unmodifiableList(studySampleHeader);
+    }
+
+    public void addAssayFile(String fileName, String[] header) {
+        assayHeaders.put(fileName, header);
+    }
+
+    /**
+     * @return the assay files the SDRFs may make, in file name order
+     */
+    public List<String> getAssayFiles() {
+        return new ArrayList<String>(assayHeaders.keySet());
+    }
+
+    /**
+     * @return the header of an assay file, or null if the SDRFs can not make it
+     */
+    public String[] getAssayHeader(String fileName) {
+        String[] header = assayHeaders.get(fileName);
+        return header == null ? null : header.clone();
+    }
+
+    public void addProblem(String problem) {
+        problems.add(problem);
+    }
+
+    public List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * @return true if nothing was found which would keep the conversion from producing assays
+     */
+    public boolean isConvertible() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * @return the plan as lines of tab separated text, starting with a summary line
+     */
+    public List<String> toLines() {
+        List<String> lines = new ArrayList<String>();
+
+        lines.add(accession + "\t" + (isConvertible() ? "convertible" : "not convertible") + "\t"
+                + assayHeaders.size() + " assay file(s)");
+        for (String problem : problems) {
+            lines.add("Problem\t" + problem);
+        }
+
+        List<String> assayTypes = new ArrayList<String>();
+        for (AssayType assayType : studyAssayTypes) {
+            assayTypes.add(assayType.getMeasurement() + " / " + assayType.getTechnology());
+        }
+        lines.add(join("Study Assay Types", assayTypes));
+        lines.add(join("Study Assay File Name", listedAssayFiles));
+        lines.add(join("Protocols", protocols));
+        lines.add(join("Inferred Protocol Types", inferredProtocolTypes));
+
+        for (Map.Entry<String, Set<String>> sdrf : sdrfAssayLabels.entrySet()) {
+            lines.add(join("SDRF " + sdrf.getKey() + " Assay Labels", sdrf.getValue()));
+        }
+
+        lines.add(join("Study Sample Header", studySampleHeader));
+        for (Map.Entry<String, String[]> assayHeader : assayHeaders.entrySet()) {
+            lines.add(join(assayHeader.getKey(), Arrays.asList(assayHeader.getValue())));
+        }
+        return lines;
+    }
+
+    private static String join(String rowName, Iterable<String> values) {
+        StringBuilder line = new StringBuilder(rowName);
+        for (String value : values) {
+            line.append('\t').append(value);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package org.isatools.magetoisatab.io.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ISA-Tab files a submission was converted to, held in memory: the investigation, the study samples and the
+ * assays, in the alphabetical order of their file names.
+ */
+public final class ConversionResult {
+
+    private final String accession;
+    private final IsaTable investigation;
+    private final IsaTable studySamples;
+    private final List<IsaTable> assays;
+
+    public ConversionResult(String accession, IsaTable investigation, IsaTable studySamples, List<IsaTable> assays) {
+        this.accession = accession;
+        this.investigation = investigation;
+        this.studySamples = studySamples;
+        this.assays = Collections.unmodifiableList(new ArrayList<IsaTable>(assays));
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public IsaTable getInvestigation() {
+        return investigation;
+    }
+
+    /**
+     * @return the study sample table, or null if no SDRF could be converted
+     */
+    public IsaTable getStudySamples() {
+        return studySamples;
+    }
+
+    public List<IsaTable> getAssays() {
+        return assays;
+    }
+
+    /**
+     * @return the assay table of the given file name, or null if there is none
+     */
+    public IsaTable getAssay(String fileName) {
+        for (IsaTable assay : assays) {
+            if (assay.getFileName().equals(fileName)) {
+                return assay;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package org.isatools.magetoisatab.io.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ISA-Tab file held in memory as rows of cells, the header first for study and assay files. It can not be changed:
+ * rows are copied on the way out.
+ */
+public final class IsaTable {
+
+    private final String fileName;
+    private final List<String[]> rows;
+
+    /**
+     * @param fileName - the name the file would have been written under
+     * @param rows     - the rows of the file. The row arrays are kept as they are and must not be changed afterwards
+     */
+    public IsaTable(String fileName, List<String[]> rows) {
+        this.fileName = fileName;
+        this.rows = new ArrayList<String[]>(rows);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public String[] getRow(int rowIndex) {
+        return rows.get(rowIndex).clone();
+    }
+
+    /**
+     * @return the first row, empty if there are no rows
+     */
+    public String[] getHeader() {
+        return rows.isEmpty() ? new String[0] : getRow(0);
+    }
+
+    /**
+     * @return the cell, empty if the row is shorter than that
+     */
+    public String getValue(int rowIndex, int columnIndex) {
+        String[] row = rows.get(rowIndex);
+        return columnIndex < row.length ? row[columnIndex] : "";
+    }
+
+    /**
+     * @return the index of the first header column of the given name, or -1 if there is none
+     */
+    public int getColumnIndex(String columnName) {
+        if (!rows.isEmpty()) {
+            String[] header = rows.get(0);
+            for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+                if (header[columnIndex].equals(columnName)) {
+                    return columnIndex;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a row by its first cell, as investigation file rows are found, e.g. "Study Title".
+     *
+     * @return the first row starting with the given name, or null if there is none
+     */
+    public String[] getRowNamed(String rowName) {
+        for (String[] row : rows) {
+            if (row.length > 0 && row[0].equals(rowName)) {
+                return row.clone();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of every row
+     */
+    public List<String[]> getRows() {
+        List<String[]> rowsCopy = new ArrayList<String[]>(rows.size());
+        for (String[] row : rows) {
+            rowsCopy.add(row.clone());
+        }
+        return rowsCopy;
+    }
+}
@@ -0,0 +1,401 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the files of each accession in to a zip or tar archive, one per accession or one for a whole batch, so that
+ * bulk conversions write a handful of large files rather than thousands of small ones. Files are stored under
+ * &lt;accession&gt;/&lt;file name&gt;, as they would be laid out by a DirectoryOutputSink.
+ * <p/>
+ * An archive takes one file at a time, while the converter writes assay files concurrently, so each file is gathered
+ * in memory, or in a temporary file once it is larger than 8MB, and added to the archive when its writer is closed.
+ * Archives are written under a .part name and only renamed once finished, so an archive which exists is complete.
+ * <p/>
+ * Archives are always written whole, so reconversions in to an archive are never incremental.
+ */
+public class ArchiveOutputSink implements OutputSink {
+
+    public enum Format {
+        ZIP(".zip"), TAR(".tar");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final int SPILL_THRESHOLD = 8 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Format format;
+
+    // the directory holding one archive per accession, or null when all go in to the batch file
+    private final File directory;
+    private final File batchFile;
+
+    private final Map<String, Archive> openArchives = new HashMap<String, Archive>();
+
+    private ArchiveOutputSink(Format format, File directory, File batchFile) {
+        this.format = format;
+        this.directory = directory;
+        this.batchFile = batchFile;
+    }
+
+    /**
+     * @param directory - the directory in which an archive named after each accession is written
+     */
+    public static ArchiveOutputSink perAccession(Format format, File directory) {
+        return new ArchiveOutputSink(format, directory, null);
+    }
+
+    /**
+     * @param archiveFile - the archive holding the files of every accession, finished when the sink is closed
+     */
+    public static ArchiveOutputSink perBatch(Format format, File archiveFile) {
+        return new ArchiveOutputSink(format, null, archiveFile);
+    }
+
+    public IsaTabWriter openWriter(String accnum, String fileName) throws IOException {
+        return IsaTabWriter.open(new EntryOutputStream(accnum, accnum + "/" + fileName), fileName);
+    }
+
+    public boolean exists(String accnum, String fileName) {
+        return false;
+    }
+
+    public boolean isIncremental() {
+        return false;
+    }
+
+    public File getLocation(String accnum) {
+        return batchFile != null ? batchFile : new File(directory, accnum + format.getExtension());
+    }
+
+    /**
+     * Finishes the archive of the accession, unless the archive is that of the batch.
+     */
+    public void finishAccession(String accnum) throws IOException {
+        if (batchFile == null) {
+            Archive archive;
+            synchronized (this) {
+                archive = openArchives.remove(accnum);
+            }
+            if (archive != null) {
+                archive.finish();
+            }
+        }
+    }
+
+    /**
+     * Finishes every archive still open, that of the batch included.
+     */
+    public void close() throws IOException {
+        List<Archive> archives;
+        synchronized (this) {
+            archives = new ArrayList<Archive>(openArchives.values());
+            openArchives.clear();
+        }
+
+        IOException failure = null;
+        for (Archive archive : archives) {
+            try {
+                archive.finish();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized void addEntry(String accnum, EntryOutputStream entry) throws IOException {
+        String archiveKey = batchFile != null ? "" : accnum;
+
+        Archive archive = openArchives.get(archiveKey);
+        if (archive == null) {
+            File archiveFile = getLocation(accnum);
+            File parent = archiveFile.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create directory " + parent);
+            }
+
+            archive = format == Format.ZIP ? new ZipArchive(archiveFile) : new TarArchive(archiveFile);
+            openArchives.put(archiveKey, archive);
+        }
+        archive.putEntry(entry);
+    }
+
+    /**
+     * Gathers a file until it is closed, then adds it to its archive.
+     */
+    private class EntryOutputStream extends OutputStream {
+
+        private final String accnum;
+        private final String entryName;
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream(8192);
+        private File spillFile;
+        private OutputStream output = memory;
+
+        private long size;
+        private boolean closed;
+
+        EntryOutputStream(String accnum, String entryName) {
+            this.accnum = accnum;
+            this.entryName = entryName;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            makeRoomFor(1);
+            output.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            makeRoomFor(length);
+            output.write(bytes, offset, length);
+            size += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (spillFile != null) {
+                    output.close();
+                }
+                addEntry(accnum, this);
+            } finally {
+                memory = null;
+                if (spillFile != null && !spillFile.delete()) {
+                    System.out.println("Could not delete temporary file " + spillFile);
+                }
+            }
+        }
+
+        String getEntryName() {
+            return entryName;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        void writeTo(OutputStream target) throws IOException {
+            if (spillFile == null) {
+                memory.writeTo(target);
+                return;
+            }
+
+            InputStream input = new FileInputStream(spillFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    target.write(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        private void makeRoomFor(int length) throws IOException {
+            if (spillFile == null && size + length > SPILL_THRESHOLD) {
+                spillFile = File.createTempFile("isatab-entry", ".tmp");
+                output = new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE);
+                memory.writeTo(output);
+                memory = null;
+            }
+        }
+    }
+
+    private abstract static class Archive {
+
+        private final File archiveFile;
+        private final File partFile;
+
+        protected final OutputStream output;
+
+        Archive(File archiveFile) throws IOException {
+            this.archiveFile = archiveFile;
+            this.partFile = new File(archiveFile.getPath() + ".part");
+            this.output = new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE);
+        }
+
+        abstract void putEntry(EntryOutputStream entry) throws IOException;
+
+        abstract void writeEnd() throws IOException;
+
+        void finish() throws IOException {
+            try {
+                writeEnd();
+            } finally {
+                output.close();
+            }
+
+            if (!partFile.renameTo(archiveFile)) {
+                archiveFile.delete();
+                if (!partFile.renameTo(archiveFile)) {
+                    throw new IOException("Could not rename " + partFile + " to " + archiveFile);
+                }
+            }
+        }
+    }
+
+    private static class ZipArchive extends Archive {
+
+        private final ZipOutputStream zipOutput;
+
+        ZipArchive(File archiveFile) throws IOException {
+            super(archiveFile);
+            zipOutput = new ZipOutputStream(output);
+        }
+
+        @Override
+        void putEntry(EntryOutputStream entry) throws IOException {
+            zipOutput.putNextEntry(new ZipEntry(entry.getEntryName()));
+            entry.writeTo(zipOutput);
+            zipOutput.closeEntry();
+        }
+
+        @Override
+        void writeEnd() throws IOException {
+            zipOutput.finish();
+        }
+    }
+
+    /**
+     * Writes POSIX ustar archives: a 512 byte header per file, followed by the file padded to a multiple of 512 bytes,
+     * and two empty blocks at the end. Names which do not fit the header are given in a GNU long name entry first.
+     */
+    private static class TarArchive extends Archive {
+
+        private static final int BLOCK_SIZE = 512;
+
+        private static final String LONG_NAME = "././@LongLink";
+
+        TarArchive(File archiveFile) throws IOException {
+            super(archiveFile);
+        }
+
+        @Override
+        void putEntry(EntryOutputStream entry) throws IOException {
+            long modificationTime = System.currentTimeMillis() / 1000;
+            String entryName = entry.getEntryName();
+
+            // names longer than 100 bytes are split at a slash in to a prefix and a name, if they can be
+            byte[] name = entryName.getBytes("UTF-8");
+            byte[] prefix = new byte[0];
+            if (name.length > 100) {
+                int split = entryName.lastIndexOf('/');
+                byte[] splitPrefix = entryName.substring(0, Math.max(split, 0)).getBytes("UTF-8");
+                byte[] splitName = entryName.substring(split + 1).getBytes("UTF-8");
+
+                if (split > 0 && splitName.length <= 100 && splitPrefix.length <= 155) {
+                    prefix = splitPrefix;
+                    name = splitName;
+                } else {
+                    byte[] longName = new byte[name.length + 1];
+                    System.arraycopy(name, 0, longName, 0, name.length);
+
+                    output.write(createHeader(LONG_NAME.getBytes("US-ASCII"), prefix, longName.length, modificationTime, 'L'));
+                    writePadded(longName, longName.length);
+
+                    byte[] truncatedName = new byte[100];
+                    System.arraycopy(name, 0, truncatedName, 0, 100);
+                    name = truncatedName;
+                }
+            }
+
+            output.write(createHeader(name, prefix, entry.getSize(), modificationTime, '0'));
+            entry.writeTo(output);
+            writePadding(entry.getSize());
+        }
+
+        @Override
+        void writeEnd() throws IOException {
+            output.write(new byte[BLOCK_SIZE * 2]);
+        }
+
+        private void writePadded(byte[] content, int length) throws IOException {
+            output.write(content, 0, length);
+            writePadding(length);
+        }
+
+        private void writePadding(long length) throws IOException {
+            int padding = (int) (length % BLOCK_SIZE);
+            if (padding > 0) {
+                output.write(new byte[BLOCK_SIZE - padding]);
+            }
+        }
+
+        private static byte[] createHeader(byte[] name, byte[] prefix, long size, long modificationTime, char type) throws IOException {
+            byte[] header = new byte[BLOCK_SIZE];
+
+            System.arraycopy(name, 0, header, 0, name.length);
+            putOctal(header, 100, 8, 0644);
+            putOctal(header, 108, 8, 0);
+            putOctal(header, 116, 8, 0);
+            putOctal(header, 124, 12, size);
+            putOctal(header, 136, 12, modificationTime);
+            header[156] = (byte) type;
+            System.arraycopy("ustar\u000000".getBytes("US-ASCII"), 0, header, 257, 8);
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+            // the checksum is taken with its own field set to spaces
+            for (int index = 148; index < 156; index++) {
+                header[index] = ' ';
+            }
+            long checksum = 0;
+            for (byte headerByte : header) {
+                checksum += headerByte & 0xFF;
+            }
+            putOctal(header, 148, 7, checksum);
+
+            return header;
+        }
+
+        // a zero padded octal number, ended by a NUL
+        private static void putOctal(byte[] header, int offset, int length, long value) throws IOException {
+            String octal = Long.toOctalString(value);
+            if (octal.length() > length - 1) {
+                throw new IOException("Value too large for a tar header: " + value);
+            }
+
+            int start = offset + length - 1 - octal.length();
+            for (int index = offset; index < start; index++) {
+                header[index] = '0';
+            }
+            for (int index = 0; index < octal.length(); index++) {
+                header[start + index] = (byte) octal.charAt(index);
+            }
+            header[offset + length - 1] = 0;
+        }
+    }
+}
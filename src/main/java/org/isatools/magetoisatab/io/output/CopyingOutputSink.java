@@ -0,0 +1,144 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes files to another sink, keeping a copy of their lines and rows as tables, for output which is generated from
+ * every file of an accession once they are written, as ISA-JSON is. Text appended rather than written as lines or
+ * rows is not copied.
+ * <p/>
+ * The copies are SpooledTables, kept in temporary files rather than in memory, so that the heap does not grow with
+ * the tables of an accession; they are deleted when the accession is removed. Everything but the copies is left to
+ * the other sink: which files exist, where they are, finishing and closing.
+ */
+public class CopyingOutputSink implements OutputSink {
+
+    private final OutputSink sink;
+
+    private final Map<String, Map<String, SpooledTable>> accessionCopies = new HashMap<String, Map<String, SpooledTable>>();
+
+    public CopyingOutputSink(OutputSink sink) {
+        this.sink = sink;
+    }
+
+    public IsaTabWriter openWriter(String accnum, String fileName) throws IOException {
+        SpooledTable copy = new SpooledTable(File.createTempFile("isatab-table", ".tmp"));
+        IsaTabWriter copyWriter = null;
+        try {
+            copyWriter = new IsaTabWriter(copy.getFile());
+            IsaTabWriter writer = new CopyingWriter(sink.openWriter(accnum, fileName), copyWriter, copy);
+            putCopy(accnum, fileName, copy);
+            return writer;
+        } catch (IOException e) {
+            IsaTabWriter.closeQuietly(copyWriter);
+            copy.delete();
+            throw e;
+        }
+    }
+
+    public boolean exists(String accnum, String fileName) {
+        return sink.exists(accnum, fileName);
+    }
+
+    public boolean isIncremental() {
+        return sink.isIncremental();
+    }
+
+    public File getLocation(String accnum) {
+        return sink.getLocation(accnum);
+    }
+
+    /**
+     * @return the copies of the files of the accession written so far, by file name, in alphabetical order
+     */
+    public synchronized Map<String, SpooledTable> getTables(String accnum) {
+        Map<String, SpooledTable> copies = accessionCopies.get(accnum);
+        return copies == null ? Collections.<String, SpooledTable>emptyMap()
+                : Collections.unmodifiableMap(new TreeMap<String, SpooledTable>(copies));
+    }
+
+    /**
+     * Deletes the copies of the files of an accession.
+     */
+    public synchronized void remove(String accnum) {
+        Map<String, SpooledTable> copies = accessionCopies.remove(accnum);
+        if (copies != null) {
+            for (SpooledTable copy : copies.values()) {
+                copy.delete();
+            }
+        }
+    }
+
+    public void finishAccession(String accnum) throws IOException {
+        sink.finishAccession(accnum);
+    }
+
+    public void close() throws IOException {
+        sink.close();
+    }
+
+    private synchronized void putCopy(String accnum, String fileName, SpooledTable copy) {
+        Map<String, SpooledTable> copies = accessionCopies.get(accnum);
+        if (copies == null) {
+            copies = new HashMap<String, SpooledTable>();
+            accessionCopies.put(accnum, copies);
+        }
+        SpooledTable previousCopy = copies.put(fileName, copy);
+        if (previousCopy != null) {
+            previousCopy.delete();
+        }
+    }
+
+    private static class CopyingWriter extends ForwardingIsaTabWriter {
+
+        private final IsaTabWriter copy;
+
+        private final SpooledTable table;
+
+        private boolean closed;
+
+        CopyingWriter(IsaTabWriter writer, IsaTabWriter copy, SpooledTable table) {
+            super(writer);
+            this.copy = copy;
+            this.table = table;
+        }
+
+        @Override
+        public void writeRow(String[] row) throws IOException {
+            super.writeRow(row);
+            copy.writeRow(row);
+        }
+
+        @Override
+        public void writeRow(List<String> row) throws IOException {
+            super.writeRow(row);
+            copy.writeRow(row);
+        }
+
+        @Override
+        public void writeLine(String line) throws IOException {
+            super.writeLine(line);
+            copy.writeLine(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                copy.close();
+            }
+            table.written(copy.getLineCount());
+        }
+    }
+}
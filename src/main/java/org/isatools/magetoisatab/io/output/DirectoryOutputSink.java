@@ -0,0 +1,53 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the files of each accession to a directory named after it, the layout the converter has always had.
+ */
+public class DirectoryOutputSink implements OutputSink {
+
+    private final File directory;
+
+    /**
+     * @param directory - the directory in which the accession directories are created
+     */
+    public DirectoryOutputSink(File directory) {
+        this.directory = directory;
+    }
+
+    public IsaTabWriter openWriter(String accnum, String fileName) throws IOException {
+        File accessionDirectory = getLocation(accnum);
+
+        // assay files are opened concurrently, so another thread may create the directory first
+        if (!accessionDirectory.isDirectory()) {
+            if (accessionDirectory.mkdirs()) {
+                System.out.println("Directory: " + accnum + " created");
+            } else if (!accessionDirectory.isDirectory()) {
+                throw new IOException("Could not create directory " + accessionDirectory);
+            }
+        }
+
+        return IsaTabWriter.open(new FileOutputStream(new File(accessionDirectory, fileName)), fileName);
+    }
+
+    public boolean exists(String accnum, String fileName) {
+        return new File(getLocation(accnum), fileName).isFile();
+    }
+
+    public boolean isIncremental() {
+        return true;
+    }
+
+    public File getLocation(String accnum) {
+        return new File(directory, accnum);
+    }
+
+    public void finishAccession(String accnum) {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,70 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Passes everything written to another writer, for writers which do something with what is written on its way:
+ * subclasses override the methods they need to.
+ */
+public class ForwardingIsaTabWriter extends IsaTabWriter {
+
+    private final IsaTabWriter writer;
+
+    public ForwardingIsaTabWriter(IsaTabWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void writeRow(String[] row) throws IOException {
+        writer.writeRow(row);
+    }
+
+    @Override
+    public void writeRow(List<String> row) throws IOException {
+        writer.writeRow(row);
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        writer.writeLine(line);
+    }
+
+    @Override
+    public IsaTabWriter append(CharSequence text) throws IOException {
+        writer.append(text);
+        return this;
+    }
+
+    @Override
+    public IsaTabWriter append(CharSequence text, int start, int end) throws IOException {
+        writer.append(text, start, end);
+        return this;
+    }
+
+    @Override
+    public IsaTabWriter append(char character) throws IOException {
+        writer.append(character);
+        return this;
+    }
+
+    @Override
+    public long getLineCount() {
+        return writer.getLineCount();
+    }
+
+    @Override
+    public long getByteCount() {
+        return writer.getByteCount();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,97 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the files of each accession in memory, for callers which pass them on rather than keep them, and for tests.
+ * A file only appears once its writer is closed.
+ */
+public class InMemoryOutputSink implements OutputSink {
+
+    private final Map<String, Map<String, byte[]>> accessionFiles = new HashMap<String, Map<String, byte[]>>();
+
+    public IsaTabWriter openWriter(final String accnum, final String fileName) throws IOException {
+        return IsaTabWriter.open(new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    putFile(accnum, fileName, toByteArray());
+                }
+            }
+        }, fileName);
+    }
+
+    public synchronized boolean exists(String accnum, String fileName) {
+        Map<String, byte[]> files = accessionFiles.get(accnum);
+        return files != null && files.containsKey(fileName);
+    }
+
+    public boolean isIncremental() {
+        return false;
+    }
+
+    public File getLocation(String accnum) {
+        return null;
+    }
+
+    /**
+     * @return the names of the files of the accession, in alphabetical order
+     */
+    public synchronized List<String> getFileNames(String accnum) {
+        Map<String, byte[]> files = accessionFiles.get(accnum);
+        return files == null ? new ArrayList<String>() : new ArrayList<String>(files.keySet());
+    }
+
+    /**
+     * @return the content of a file, or null if there is no such file
+     */
+    public synchronized byte[] getBytes(String accnum, String fileName) {
+        Map<String, byte[]> files = accessionFiles.get(accnum);
+        return files == null ? null : files.get(fileName);
+    }
+
+    /**
+     * @return the content of a file as text, or null if there is no such file
+     */
+    public String getContent(String accnum, String fileName) {
+        byte[] bytes = getBytes(accnum, fileName);
+        try {
+            return bytes == null ? null : new String(bytes, IsaTabWriter.ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lets go of the files of an accession.
+     */
+    public synchronized void remove(String accnum) {
+        accessionFiles.remove(accnum);
+    }
+
+    public void finishAccession(String accnum) {
+    }
+
+    public void close() {
+    }
+
+    private synchronized void putFile(String accnum, String fileName, byte[] content) {
+        Map<String, byte[]> files = accessionFiles.get(accnum);
+        if (files == null) {
+            files = new TreeMap<String, byte[]>();
+            accessionFiles.put(accnum, files);
+        }
+        files.put(fileName, content);
+    }
+}
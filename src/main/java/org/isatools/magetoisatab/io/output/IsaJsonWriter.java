@@ -0,0 +1,845 @@
+package org.isatools.magetoisatab.io.output;
+
+import org.isatools.magetoisatab.utils.RowFingerprintSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the ISA-Tab files of a conversion as one ISA-JSON document: the investigation, its study, the study's
+ * sources, samples and processes, and its assays with their materials, data files and processes.
+ * <p/>
+ * The document is generated straight from the tables as they were written, with a JsonStreamWriter, so no JSON
+ * object tree is built. Each material, data file and process is written when its table is read, and only a
+ * fingerprint of it is kept so that rows sharing it write it once. Tables are only iterated over, a row at a time,
+ * once for the parameters of their protocols and once for each JSON array they feed, so they need not be held in
+ * memory.
+ * <p/>
+ * Protocol REF columns become processes whose inputs and outputs are the nearest material or data columns on their
+ * left and right, so consecutive protocols share both. Assay tables are expected to refer to study samples by name.
+ * ISA-JSON is written when the magetoisatab.json system property is true, as accession.json next to the ISA-Tab
+ * files, compressed when tables are.
+ */
+public class IsaJsonWriter {
+
+    public static final String JSON_PROPERTY = "magetoisatab.json";
+
+    private static final String JSON_EXTENSION = ".json";
+
+    private enum Role {
+        SOURCE("#source/"), SAMPLE("#sample/"), MATERIAL("#material/"), DATA("#data/"),
+        PROCESS_NAME, PROTOCOL, CHARACTERISTIC, FACTOR, PARAMETER, COMMENT, PERFORMER, DATE,
+        UNIT, TERM_SOURCE, TERM_ACCESSION, OTHER;
+
+        private final String idPrefix;
+
+        private Role() {
+            this(null);
+        }
+
+        private Role(String idPrefix) {
+            this.idPrefix = idPrefix;
+        }
+
+        boolean isNode() {
+            return idPrefix != null;
+        }
+    }
+
+    private final JsonStreamWriter json;
+
+    private int processCount;
+
+    public IsaJsonWriter(Appendable output) {
+        this.json = new JsonStreamWriter(output);
+    }
+
+    public static boolean isWritingJson() {
+        return Boolean.getBoolean(JSON_PROPERTY);
+    }
+
+    /**
+     * @return the name of the ISA-JSON file of an accession, ending in .gz if tables are compressed
+     */
+    public static String getJsonFileName(String accnum) {
+        return IsaTabWriter.getTableFileName(accnum + JSON_EXTENSION);
+    }
+
+    /**
+     * @param accnum - the accession number, the identifier of the investigation if its file has none
+     * @param tables - the rows of the i_, s_ and a_ files of the accession by file name, header first for study and
+     *               assay files
+     * @throws IllegalArgumentException if there is no investigation file
+     */
+    public void write(String accnum, Map<String, ? extends Iterable<String[]>> tables) throws IOException {
+        String investigationFileName = null;
+        Iterable<String[]> studyTable = null;
+        String studyTableName = null;
+        Map<String, Iterable<String[]>> assayTables = new HashMap<String, Iterable<String[]>>();
+
+        for (Map.Entry<String, ? extends Iterable<String[]>> table : tables.entrySet()) {
+            if (table.getKey().startsWith("i_")) {
+                investigationFileName = table.getKey();
+            } else if (table.getKey().startsWith("s_")) {
+                studyTableName = table.getKey();
+                studyTable = table.getValue();
+            } else if (table.getKey().startsWith("a_")) {
+                assayTables.put(table.getKey(), table.getValue());
+            }
+        }
+        if (investigationFileName == null) {
+            throw new IllegalArgumentException("No investigation file for " + accnum);
+        }
+
+        InvestigationRows investigation = new InvestigationRows(tables.get(investigationFileName));
+
+        json.beginObject();
+        json.member("identifier", investigation.getValue("Investigation Identifier", 0, accnum));
+        json.member("filename", investigationFileName);
+        json.member("title", investigation.getValue("Investigation Title", 0, ""));
+        json.member("description", investigation.getValue("Investigation Description", 0, ""));
+        json.member("submissionDate", investigation.getValue("Investigation Submission Date", 0, ""));
+        json.member("publicReleaseDate", investigation.getValue("Investigation Public Release Date", 0, ""));
+        writeOntologySources(investigation);
+        writePublications(investigation, "Investigation");
+        writePeople(investigation, "Investigation");
+        json.name("comments").beginArray().endArray();
+
+        json.name("studies").beginArray();
+        writeStudy(accnum, investigation, studyTableName, studyTable, assayTables);
+        json.endArray();
+
+        json.endObject();
+        json.finish();
+    }
+
+    private void writeStudy(String accnum, InvestigationRows investigation, String studyTableName,
+                            Iterable<String[]> studyTable, Map<String, Iterable<String[]>> assayTables) throws IOException {
+        json.beginObject();
+        json.member("identifier", investigation.getValue("Study Identifier", 0, accnum));
+        json.member("filename", investigation.getValue("Study File Name", 0, studyTableName == null ? "" : studyTableName));
+        json.member("title", investigation.getValue("Study Title", 0, ""));
+        json.member("description", investigation.getValue("Study Description", 0, ""));
+        json.member("submissionDate", investigation.getValue("Study Submission Date", 0, ""));
+        json.member("publicReleaseDate", investigation.getValue("Study Public Release Date", 0, ""));
+
+        json.name("studyDesignDescriptors").beginArray();
+        for (int index = 0; index < investigation.getCount("Study Design Type"); index++) {
+            writeAnnotation(investigation.getValue("Study Design Type", index, ""),
+                    investigation.getValue("Study Design Type Term Source REF", index, ""),
+                    investigation.getValue("Study Design Type Term Accession Number", index, ""));
+        }
+        json.endArray();
+
+        writePublications(investigation, "Study");
+        writePeople(investigation, "Study");
+
+        json.name("factors").beginArray();
+        for (int index = 0; index < investigation.getCount("Study Factor Name"); index++) {
+            String factorName = investigation.getValue("Study Factor Name", index, "");
+            json.beginObject();
+            json.member("@id", "#factor/" + factorName);
+            json.member("factorName", factorName);
+            json.name("factorType");
+            writeAnnotation(investigation.getValue("Study Factor Type", index, ""),
+                    investigation.getValue("Study Factor Type Term Source REF", index, ""),
+                    investigation.getValue("Study Factor Type Term Accession Number", index, ""));
+            json.endObject();
+        }
+        json.endArray();
+
+        List<Iterable<String[]>> tables = new ArrayList<Iterable<String[]>>(assayTables.values());
+        if (studyTable != null) {
+            tables.add(studyTable);
+        }
+        writeProtocols(investigation, getTableParameters(tables));
+
+        TableLayout studyLayout = getLayout(studyTable);
+
+        writeCharacteristicCategories(studyLayout);
+        json.name("unitCategories").beginArray().endArray();
+
+        json.name("materials").beginObject();
+        json.name("sources").beginArray();
+        writeMaterials(studyTable, studyLayout, Role.SOURCE);
+        json.endArray();
+        json.name("samples").beginArray();
+        writeMaterials(studyTable, studyLayout, Role.SAMPLE);
+        json.endArray();
+        json.name("otherMaterials").beginArray();
+        writeMaterials(studyTable, studyLayout, Role.MATERIAL);
+        json.endArray();
+        json.endObject();
+
+        json.name("processSequence").beginArray();
+        writeProcesses(studyTable, studyLayout);
+        json.endArray();
+
+        json.name("assays").beginArray();
+        Set<String> assayFileNames = new LinkedHashSet<String>();
+        for (int index = 0; index < investigation.getCount("Study Assay File Name"); index++) {
+            assayFileNames.add(investigation.getValue("Study Assay File Name", index, ""));
+        }
+        assayFileNames.addAll(new TreeSet<String>(assayTables.keySet()));
+
+        int assayIndex = 0;
+        for (String assayFileName : assayFileNames) {
+            writeAssay(investigation, assayIndex++, assayFileName, assayTables.get(assayFileName));
+        }
+        json.endArray();
+
+        json.name("comments").beginArray().endArray();
+        json.endObject();
+    }
+
+    private void writeAssay(InvestigationRows investigation, int index, String assayFileName,
+                            Iterable<String[]> assayTable) throws IOException {
+        TableLayout layout = getLayout(assayTable);
+
+        json.beginObject();
+        json.member("filename", assayFileName);
+        json.name("measurementType");
+        writeAnnotation(investigation.getValue("Study Assay Measurement Type", index, ""),
+                investigation.getValue("Study Assay Measurement Type Term Source REF", index, ""),
+                investigation.getValue("Study Assay Measurement Type Term Accession Number", index, ""));
+        json.name("technologyType");
+        writeAnnotation(investigation.getValue("Study Assay Technology Type", index, ""),
+                investigation.getValue("Study Assay Technology Type Term Source REF", index, ""),
+                investigation.getValue("Study Assay Technology Type Term Accession Number", index, ""));
+        json.member("technologyPlatform", investigation.getValue("Study Assay Technology Platform", index, ""));
+
+        writeCharacteristicCategories(layout);
+        json.name("unitCategories").beginArray().endArray();
+
+        json.name("materials").beginObject();
+        json.name("samples").beginArray();
+        writeSampleReferences(assayTable, layout);
+        json.endArray();
+        json.name("otherMaterials").beginArray();
+        writeMaterials(assayTable, layout, Role.MATERIAL);
+        json.endArray();
+        json.endObject();
+
+        json.name("dataFiles").beginArray();
+        writeMaterials(assayTable, layout, Role.DATA);
+        json.endArray();
+
+        json.name("processSequence").beginArray();
+        writeProcesses(assayTable, layout);
+        json.endArray();
+
+        json.name("comments").beginArray().endArray();
+        json.endObject();
+    }
+
+    private void writeOntologySources(InvestigationRows investigation) throws IOException {
+        json.name("ontologySourceReferences").beginArray();
+        for (int index = 0; index < investigation.getCount("Term Source Name"); index++) {
+            json.beginObject();
+            json.member("name", investigation.getValue("Term Source Name", index, ""));
+            json.member("file", investigation.getValue("Term Source File", index, ""));
+            json.member("version", investigation.getValue("Term Source Version", index, ""));
+            json.member("description", investigation.getValue("Term Source Description", index, ""));
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writePublications(InvestigationRows investigation, String section) throws IOException {
+        String titleRow = section + " Publication Title";
+        int count = Math.max(investigation.getCount(titleRow), investigation.getCount(section + " PubMed ID"));
+
+        json.name("publications").beginArray();
+        for (int index = 0; index < count; index++) {
+            json.beginObject();
+            json.member("pubMedID", investigation.getValue(section + " PubMed ID", index, ""));
+            json.member("doi", investigation.getValue(section + " Publication DOI", index, ""));
+            json.member("authorList", investigation.getValue(section + " Publication Author List", index, ""));
+            json.member("title", investigation.getValue(titleRow, index, ""));
+            json.name("status");
+            writeAnnotation(investigation.getValue(section + " Publication Status", index, ""),
+                    investigation.getValue(section + " Publication Status Term Source REF", index, ""),
+                    investigation.getValue(section + " Publication Status Term Accession Number", index, ""));
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writePeople(InvestigationRows investigation, String section) throws IOException {
+        String prefix = section + " Person ";
+
+        json.name("people").beginArray();
+        for (int index = 0; index < investigation.getCount(prefix + "Last Name"); index++) {
+            json.beginObject();
+            json.member("lastName", investigation.getValue(prefix + "Last Name", index, ""));
+            json.member("firstName", investigation.getValue(prefix + "First Name", index, ""));
+            json.member("midInitials", investigation.getValue(prefix + "Mid Initials", index, ""));
+            json.member("email", investigation.getValue(prefix + "Email", index, ""));
+            json.member("phone", investigation.getValue(prefix + "Phone", index, ""));
+            json.member("fax", investigation.getValue(prefix + "Fax", index, ""));
+            json.member("address", investigation.getValue(prefix + "Address", index, ""));
+            json.member("affiliation", investigation.getValue(prefix + "Affiliation", index, ""));
+
+            // several roles of a person are separated by semicolons
+            json.name("roles").beginArray();
+            String[] roles = splitList(investigation.getValue(prefix + "Roles", index, ""));
+            String[] roleSources = splitList(investigation.getValue(prefix + "Roles Term Source REF", index, ""));
+            String[] roleAccessions = splitList(investigation.getValue(prefix + "Roles Term Accession Number", index, ""));
+            for (int roleIndex = 0; roleIndex < roles.length; roleIndex++) {
+                writeAnnotation(roles[roleIndex], getElement(roleSources, roleIndex), getElement(roleAccessions, roleIndex));
+            }
+            json.endArray();
+
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writeProtocols(InvestigationRows investigation, Map<String, Set<String>> tableParameters)
+            throws IOException {
+        json.name("protocols").beginArray();
+        for (int index = 0; index < investigation.getCount("Study Protocol Name"); index++) {
+            String protocolName = investigation.getValue("Study Protocol Name", index, "");
+
+            json.beginObject();
+            json.member("@id", "#protocol/" + protocolName);
+            json.member("name", protocolName);
+            json.name("protocolType");
+            writeAnnotation(investigation.getValue("Study Protocol Type", index, ""),
+                    investigation.getValue("Study Protocol Type Term Source REF", index, ""),
+                    investigation.getValue("Study Protocol Type Term Accession Number", index, ""));
+            json.member("description", investigation.getValue("Study Protocol Description", index, ""));
+            json.member("uri", investigation.getValue("Study Protocol URI", index, ""));
+            json.member("version", investigation.getValue("Study Protocol Version", index, ""));
+
+            Set<String> parameterNames = new LinkedHashSet<String>(
+                    Arrays.asList(splitList(investigation.getValue("Study Protocol Parameters Name", index, ""))));
+            if (tableParameters.containsKey(protocolName)) {
+                parameterNames.addAll(tableParameters.get(protocolName));
+            }
+
+            json.name("parameters").beginArray();
+            for (String parameterName : parameterNames) {
+                json.beginObject();
+                json.member("@id", getParameterPrefix(protocolName) + parameterName);
+                json.name("parameterName");
+                writeAnnotation(parameterName, "", "");
+                json.endObject();
+            }
+            json.endArray();
+
+            json.name("components").beginArray();
+            for (String componentName : splitList(investigation.getValue("Study Protocol Components Name", index, ""))) {
+                json.beginObject();
+                json.member("componentName", componentName);
+                json.endObject();
+            }
+            json.endArray();
+
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Finds the parameters the tables give values of, by protocol, for protocols to list them even where the
+     * investigation file does not. Only tables with Parameter Value columns are read.
+     */
+    private static Map<String, Set<String>> getTableParameters(List<Iterable<String[]>> tables) {
+        Map<String, Set<String>> tableParameters = new HashMap<String, Set<String>>();
+
+        for (Iterable<String[]> table : tables) {
+            TableLayout layout = getLayout(table);
+            if (layout == null) {
+                continue;
+            }
+
+            // the protocol columns with parameter columns, and the names of their parameters
+            List<Integer> protocolColumns = new ArrayList<Integer>();
+            List<List<String>> columnParameterNames = new ArrayList<List<String>>();
+            for (int column = 0; column < layout.roles.length; column++) {
+                if (layout.roles[column] != Role.PROTOCOL) {
+                    continue;
+                }
+
+                List<String> parameterNames = new ArrayList<String>();
+                for (int parameterColumn = column + 1; parameterColumn < layout.ends[column]; parameterColumn++) {
+                    if (layout.roles[parameterColumn] == Role.PARAMETER) {
+                        parameterNames.add(layout.names[parameterColumn]);
+                    }
+                }
+                if (!parameterNames.isEmpty()) {
+                    protocolColumns.add(column);
+                    columnParameterNames.add(parameterNames);
+                }
+            }
+            if (protocolColumns.isEmpty()) {
+                continue;
+            }
+
+            List<Set<String>> columnProtocolNames = new ArrayList<Set<String>>();
+            for (int index = 0; index < protocolColumns.size(); index++) {
+                columnProtocolNames.add(new HashSet<String>());
+            }
+            for (String[] row : getRecords(table)) {
+                for (int index = 0; index < protocolColumns.size(); index++) {
+                    columnProtocolNames.get(index).add(getCell(row, protocolColumns.get(index)));
+                }
+            }
+
+            for (int index = 0; index < protocolColumns.size(); index++) {
+                List<String> parameterNames = columnParameterNames.get(index);
+                for (String protocolName : columnProtocolNames.get(index)) {
+                    if (!tableParameters.containsKey(protocolName)) {
+                        tableParameters.put(protocolName, new LinkedHashSet<String>());
+                    }
+                    tableParameters.get(protocolName).addAll(parameterNames);
+                }
+            }
+        }
+        return tableParameters;
+    }
+
+    /**
+     * @return the layout of a table by its header, or null if there is no table or it has no rows
+     */
+    private static TableLayout getLayout(Iterable<String[]> table) {
+        if (table == null) {
+            return null;
+        }
+        Iterator<String[]> rows = table.iterator();
+        return rows.hasNext() ? new TableLayout(rows.next()) : null;
+    }
+
+    /**
+     * @return the rows of a table after its header
+     */
+    private static Iterable<String[]> getRecords(final Iterable<String[]> table) {
+        return new Iterable<String[]>() {
+            public Iterator<String[]> iterator() {
+                Iterator<String[]> rows = table.iterator();
+                if (rows.hasNext()) {
+                    rows.next();
+                }
+                return rows;
+            }
+        };
+    }
+
+    private void writeCharacteristicCategories(TableLayout layout) throws IOException {
+        json.name("characteristicCategories").beginArray();
+        if (layout != null) {
+            Set<String> categories = new LinkedHashSet<String>();
+            for (int column = 0; column < layout.roles.length; column++) {
+                if (layout.roles[column] == Role.CHARACTERISTIC) {
+                    categories.add(layout.names[column]);
+                }
+            }
+            for (String category : categories) {
+                json.beginObject();
+                json.member("@id", "#characteristic_category/" + category);
+                json.name("characteristicType");
+                writeAnnotation(category, "", "");
+                json.endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    /**
+     * Writes each distinct node of the given role once: sources, samples, other materials or data files.
+     */
+    private void writeMaterials(Iterable<String[]> table, TableLayout layout, Role role) throws IOException {
+        if (layout == null) {
+            return;
+        }
+
+        RowFingerprintSet writtenNodes = new RowFingerprintSet();
+
+        for (String[] row : getRecords(table)) {
+            String previousSource = null;
+
+            for (int column = 0; column < layout.roles.length; column++) {
+                Role columnRole = layout.roles[column];
+                String name = getCell(row, column);
+                if (!columnRole.isNode() || name.length() == 0) {
+                    continue;
+                }
+                if (columnRole == Role.SOURCE) {
+                    previousSource = layout.idPrefixes[column] + name;
+                }
+                if (columnRole != role || !writtenNodes.add(new String[]{layout.headers[column], name})) {
+                    continue;
+                }
+
+                json.beginObject();
+                json.member("@id", layout.idPrefixes[column] + name);
+                json.member("name", name);
+                if (role == Role.MATERIAL || role == Role.DATA) {
+                    json.member("type", layout.headers[column]);
+                }
+                if (role == Role.DATA) {
+                    writeComments(row, layout, column);
+                } else {
+                    writeAttributes("characteristics", Role.CHARACTERISTIC, "#characteristic_category/", row, layout, column);
+                }
+                if (role == Role.SAMPLE) {
+                    writeAttributes("factorValues", Role.FACTOR, "#factor/", row, layout, column);
+                    json.name("derivesFrom").beginArray();
+                    if (previousSource != null) {
+                        json.beginObject().member("@id", previousSource).endObject();
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+            }
+        }
+    }
+
+    private void writeSampleReferences(Iterable<String[]> table, TableLayout layout) throws IOException {
+        if (layout == null) {
+            return;
+        }
+
+        RowFingerprintSet writtenSamples = new RowFingerprintSet();
+
+        for (String[] row : getRecords(table)) {
+            for (int column = 0; column < layout.roles.length; column++) {
+                String name = getCell(row, column);
+                if (layout.roles[column] == Role.SAMPLE && name.length() > 0 && writtenSamples.add(new String[]{name})) {
+                    json.beginObject().member("@id", layout.idPrefixes[column] + name).endObject();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a process for each protocol of each row, once for rows which share the protocol, its parameter values,
+     * inputs and outputs.
+     */
+    private void writeProcesses(Iterable<String[]> table, TableLayout layout) throws IOException {
+        if (layout == null) {
+            return;
+        }
+
+        RowFingerprintSet writtenProcesses = new RowFingerprintSet();
+        List<Integer> protocolColumns = new ArrayList<Integer>();
+
+        for (String[] row : getRecords(table)) {
+            String input = null;
+            protocolColumns.clear();
+
+            for (int column = 0; column <= layout.roles.length; column++) {
+                Role role = column < layout.roles.length ? layout.roles[column] : null;
+
+                if (role == Role.PROTOCOL) {
+                    if (getCell(row, column).length() > 0) {
+                        protocolColumns.add(column);
+                    }
+                } else if (role == null || role.isNode()) {
+                    String name = role == null ? "" : getCell(row, column);
+                    if (role != null && name.length() == 0) {
+                        continue;
+                    }
+
+                    String output = role == null ? null : layout.idPrefixes[column] + name;
+                    for (int protocolColumn : protocolColumns) {
+                        writeProcess(row, layout, protocolColumn, input, output, writtenProcesses);
+                    }
+                    protocolColumns.clear();
+                    input = output;
+                }
+            }
+        }
+    }
+
+    private void writeProcess(String[] row, TableLayout layout, int protocolColumn, String input, String output,
+                              RowFingerprintSet writtenProcesses) throws IOException {
+        String protocolName = getCell(row, protocolColumn);
+
+        // the process is known by its protocol, its own columns, its input and its output
+        int end = layout.ends[protocolColumn];
+        String[] process = new String[end - protocolColumn + 2];
+        for (int column = protocolColumn; column < end; column++) {
+            process[column - protocolColumn] = getCell(row, column);
+        }
+        process[process.length - 2] = input;
+        process[process.length - 1] = output;
+        if (!writtenProcesses.add(process)) {
+            return;
+        }
+
+        json.beginObject();
+        json.member("@id", "#process/" + protocolName + "/" + ++processCount);
+        json.name("executesProtocol").beginObject().member("@id", "#protocol/" + protocolName).endObject();
+
+        String processName = "";
+        String performer = "";
+        String date = "";
+        for (int column = protocolColumn + 1; column < end; column++) {
+            if (layout.roles[column] == Role.PROCESS_NAME) {
+                processName = getCell(row, column);
+            } else if (layout.roles[column] == Role.PERFORMER) {
+                performer = getCell(row, column);
+            } else if (layout.roles[column] == Role.DATE) {
+                date = getCell(row, column);
+            }
+        }
+        json.member("name", processName);
+        json.member("performer", performer);
+        json.member("date", date);
+
+        writeAttributes("parameterValues", Role.PARAMETER, getParameterPrefix(protocolName), row, layout, protocolColumn);
+
+        json.name("inputs").beginArray();
+        if (input != null) {
+            json.beginObject().member("@id", input).endObject();
+        }
+        json.endArray();
+        json.name("outputs").beginArray();
+        if (output != null) {
+            json.beginObject().member("@id", output).endObject();
+        }
+        json.endArray();
+
+        writeComments(row, layout, protocolColumn);
+        json.endObject();
+    }
+
+    /**
+     * Writes the characteristics, factor values or parameter values in the columns of a node or protocol.
+     */
+    private void writeAttributes(String arrayName, Role role, String categoryPrefix, String[] row, TableLayout layout,
+                                 int ownerColumn) throws IOException {
+        json.name(arrayName).beginArray();
+        for (int column = ownerColumn + 1; column < layout.ends[ownerColumn]; column++) {
+            if (layout.roles[column] != role) {
+                continue;
+            }
+
+            json.beginObject();
+            json.name("category").beginObject().member("@id", categoryPrefix + layout.names[column]).endObject();
+            json.name("value");
+            writeAnnotation(getCell(row, column), getCell(row, layout.termSources[column]),
+                    getCell(row, layout.termAccessions[column]));
+            if (layout.units[column] >= 0) {
+                int unitColumn = layout.units[column];
+                json.name("unit");
+                writeAnnotation(getCell(row, unitColumn), getCell(row, layout.termSources[unitColumn]),
+                        getCell(row, layout.termAccessions[unitColumn]));
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private void writeComments(String[] row, TableLayout layout, int ownerColumn) throws IOException {
+        json.name("comments").beginArray();
+        for (int column = ownerColumn + 1; column < layout.ends[ownerColumn]; column++) {
+            if (layout.roles[column] == Role.COMMENT || layout.roles[column] == Role.OTHER) {
+                json.beginObject();
+                json.member("name", layout.names[column]);
+                json.member("value", getCell(row, column));
+                json.endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    private void writeAnnotation(String value, String termSource, String termAccession) throws IOException {
+        json.beginObject();
+        json.member("annotationValue", value);
+        json.member("termSource", termSource);
+        json.member("termAccession", termAccession);
+        json.endObject();
+    }
+
+    // parameters of different protocols may share names
+    private static String getParameterPrefix(String protocolName) {
+        return "#parameter/" + protocolName + "/";
+    }
+
+    private static String getCell(String[] row, int column) {
+        return column >= 0 && column < row.length && row[column] != null ? row[column] : "";
+    }
+
+    private static String[] splitList(String value) {
+        if (value.trim().length() == 0) {
+            return new String[0];
+        }
+        String[] elements = value.split(";");
+        for (int index = 0; index < elements.length; index++) {
+            elements[index] = elements[index].trim();
+        }
+        return elements;
+    }
+
+    private static String getElement(String[] elements, int index) {
+        return index < elements.length ? elements[index] : "";
+    }
+
+    /**
+     * What each column of a study or assay table holds, and which columns belong to which: the attribute, comment
+     * and process name columns following a node or protocol column belong to it, up to the next one, and the unit
+     * and term columns following an attribute qualify it.
+     */
+    private static class TableLayout {
+
+        final String[] headers;
+        final Role[] roles;
+        // for node columns, what their names are prefixed with to make their @id
+        final String[] idPrefixes;
+        // the category of attribute columns, the name of comment columns
+        final String[] names;
+        // for node and protocol columns, the column after their last own column
+        final int[] ends;
+        // for attribute and unit columns, their qualifying columns or -1
+        final int[] units;
+        final int[] termSources;
+        final int[] termAccessions;
+
+        TableLayout(String[] header) {
+            headers = header;
+            roles = new Role[header.length];
+            idPrefixes = new String[header.length];
+            names = new String[header.length];
+            ends = new int[header.length];
+            units = new int[header.length];
+            termSources = new int[header.length];
+            termAccessions = new int[header.length];
+
+            int qualified = -1;
+            for (int column = 0; column < header.length; column++) {
+                String columnName = header[column] == null ? "" : header[column].trim();
+                Role role = getRole(columnName);
+                roles[column] = role;
+                names[column] = role == Role.CHARACTERISTIC || role == Role.FACTOR || role == Role.PARAMETER
+                        || role == Role.COMMENT || role == Role.UNIT ? getBracketedName(columnName) : columnName;
+                if (role == Role.MATERIAL || role == Role.DATA) {
+                    // extracts and labeled extracts, raw and derived data files may share names
+                    idPrefixes[column] = role.idPrefix + columnName.toLowerCase().replace(' ', '_') + "/";
+                } else {
+                    idPrefixes[column] = role.idPrefix;
+                }
+                units[column] = -1;
+                termSources[column] = -1;
+                termAccessions[column] = -1;
+
+                if (role == Role.CHARACTERISTIC || role == Role.FACTOR || role == Role.PARAMETER) {
+                    qualified = column;
+                } else if (role == Role.UNIT && qualified >= 0 && roles[qualified] != Role.UNIT) {
+                    units[qualified] = column;
+                    qualified = column;
+                } else if (role == Role.TERM_SOURCE && qualified >= 0) {
+                    termSources[qualified] = column;
+                } else if (role == Role.TERM_ACCESSION && qualified >= 0) {
+                    termAccessions[qualified] = column;
+                } else {
+                    qualified = -1;
+                }
+            }
+
+            int end = header.length;
+            for (int column = header.length - 1; column >= 0; column--) {
+                ends[column] = end;
+                if (roles[column].isNode() || roles[column] == Role.PROTOCOL) {
+                    end = column;
+                }
+            }
+        }
+
+        private static Role getRole(String columnName) {
+            String lowerCaseName = columnName.toLowerCase();
+
+            if (lowerCaseName.equals("source name")) {
+                return Role.SOURCE;
+            } else if (lowerCaseName.equals("sample name")) {
+                return Role.SAMPLE;
+            } else if (lowerCaseName.equals("extract name") || lowerCaseName.equals("labeled extract name")) {
+                return Role.MATERIAL;
+            } else if (lowerCaseName.endsWith(" file")) {
+                return Role.DATA;
+            } else if (lowerCaseName.endsWith("assay name") || lowerCaseName.equals("scan name")
+                    || lowerCaseName.equals("normalization name") || lowerCaseName.equals("data transformation name")) {
+                return Role.PROCESS_NAME;
+            } else if (lowerCaseName.equals("protocol ref")) {
+                return Role.PROTOCOL;
+            } else if (lowerCaseName.startsWith("characteristics") || lowerCaseName.equals("material type")
+                    || lowerCaseName.equals("label")) {
+                return Role.CHARACTERISTIC;
+            } else if (lowerCaseName.startsWith("factor value")) {
+                return Role.FACTOR;
+            } else if (lowerCaseName.startsWith("parameter value")) {
+                return Role.PARAMETER;
+            } else if (lowerCaseName.startsWith("comment")) {
+                return Role.COMMENT;
+            } else if (lowerCaseName.equals("performer")) {
+                return Role.PERFORMER;
+            } else if (lowerCaseName.equals("date")) {
+                return Role.DATE;
+            } else if (lowerCaseName.startsWith("unit")) {
+                return Role.UNIT;
+            } else if (lowerCaseName.equals("term source ref")) {
+                return Role.TERM_SOURCE;
+            } else if (lowerCaseName.equals("term accession number")) {
+                return Role.TERM_ACCESSION;
+            }
+            return Role.OTHER;
+        }
+
+        /**
+         * @return the name in brackets, e.g. organism for Characteristics[organism], or the column name if it has none
+         */
+        private static String getBracketedName(String columnName) {
+            int open = columnName.indexOf('[');
+            int close = columnName.lastIndexOf(']');
+            return open >= 0 && close > open ? columnName.substring(open + 1, close).trim() : columnName;
+        }
+    }
+
+    /**
+     * The rows of an investigation file by their first cell, the values of a row being its other cells.
+     */
+    private static class InvestigationRows {
+
+        private final Map<String, String[]> rows = new HashMap<String, String[]>();
+
+        InvestigationRows(Iterable<String[]> investigationTable) {
+            for (String[] row : investigationTable) {
+                if (row.length > 0 && row[0] != null && !rows.containsKey(row[0].trim())) {
+                    rows.put(row[0].trim(), row);
+                }
+            }
+        }
+
+        /**
+         * @return the number of values of the row, trailing empty ones aside
+         */
+        int getCount(String rowName) {
+            String[] row = rows.get(rowName);
+            if (row == null) {
+                return 0;
+            }
+            int count = row.length - 1;
+            while (count > 0 && (row[count] == null || row[count].trim().length() == 0)) {
+                count--;
+            }
+            return count;
+        }
+
+        String getValue(String rowName, int index, String defaultValue) {
+            String[] row = rows.get(rowName);
+            String value = row == null ? null : getCell(row, index + 1);
+            return value == null || value.length() == 0 ? defaultValue : value;
+        }
+    }
+}
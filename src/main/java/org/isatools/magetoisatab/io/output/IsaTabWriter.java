@@ -0,0 +1,230 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes ISA-Tab files (i_, s_ and a_ files) a line or a row at a time, through a large buffer and in UTF-8.
+ * <p/>
+ * Rows are written cell by cell straight from their arrays, separated by tabs. null cells are written as empty cells,
+ * and tabs and line breaks within a cell as spaces, as they would otherwise shift the cells after them. Lines are
+ * written as they are, for the investigation file whose lines are already tab separated, and text is appended as it
+ * is, for files which are not tables such as ISA-JSON.
+ * <p/>
+ * Study and assay tables are gzip compressed when the magetoisatab.compression system property is gzip, in which
+ * case their file names end in .gz. Writers opened with open on such a name compress in parallel blocks.
+ * <p/>
+ * Writers must be closed, which is safe to do more than once; callers should do so in a finally block.
+ */
+public class IsaTabWriter implements Appendable, Closeable, Flushable {
+
+    public static final String ENCODING = "UTF-8";
+
+    // none (the default) or gzip
+    public static final String COMPRESSION_PROPERTY = "magetoisatab.compression";
+
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final char DELIMITER = '\t';
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final Writer writer;
+
+    private final CountingOutputStream countingOutput;
+
+    private long lineCount;
+
+    private boolean closed;
+
+    public IsaTabWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public IsaTabWriter(OutputStream output) throws IOException {
+        this(new CountingOutputStream(output));
+    }
+
+    public IsaTabWriter(Writer writer) {
+        this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+        this.countingOutput = null;
+    }
+
+    /**
+     * For writers which keep what is written rather than write it to a stream. They must override every method which
+     * writes, flushes or closes.
+     */
+    protected IsaTabWriter() {
+        this.writer = null;
+        this.countingOutput = null;
+    }
+
+    private IsaTabWriter(CountingOutputStream countingOutput) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(countingOutput, ENCODING), BUFFER_SIZE);
+        this.countingOutput = countingOutput;
+    }
+
+    /**
+     * Opens a writer on the stream of a file, which is gzip compressed if the file name ends in .gz.
+     */
+    public static IsaTabWriter open(OutputStream output, String fileName) throws IOException {
+        return new IsaTabWriter(fileName.endsWith(GZIP_EXTENSION) ? new ParallelGzipOutputStream(output) : output);
+    }
+
+    /**
+     * @return the name of the file a study or assay table is written to, the given name with .gz appended if tables
+     *         are compressed
+     */
+    public static String getTableFileName(String fileName) {
+        return isCompressingTables() ? fileName + GZIP_EXTENSION : fileName;
+    }
+
+    public static boolean isCompressingTables() {
+        return "gzip".equalsIgnoreCase(System.getProperty(COMPRESSION_PROPERTY));
+    }
+
+    /**
+     * Writes the cells of a row, tab separated, followed by a line break.
+     */
+    public void writeRow(String[] row) throws IOException {
+        for (int cellIndex = 0; cellIndex < row.length; cellIndex++) {
+            if (cellIndex > 0) {
+                writer.write(DELIMITER);
+            }
+            writeCell(row[cellIndex]);
+        }
+        endLine();
+    }
+
+    public void writeRow(List<String> row) throws IOException {
+        for (int cellIndex = 0; cellIndex < row.size(); cellIndex++) {
+            if (cellIndex > 0) {
+                writer.write(DELIMITER);
+            }
+            writeCell(row.get(cellIndex));
+        }
+        endLine();
+    }
+
+    /**
+     * Writes a line as it is, followed by a line break.
+     */
+    public void writeLine(String line) throws IOException {
+        if (line != null) {
+            writer.write(line);
+        }
+        endLine();
+    }
+
+    /**
+     * Writes text as it is, without a line break. It is not counted as lines.
+     */
+    public IsaTabWriter append(CharSequence text) throws IOException {
+        writer.append(text);
+        return this;
+    }
+
+    public IsaTabWriter append(CharSequence text, int start, int end) throws IOException {
+        writer.append(text, start, end);
+        return this;
+    }
+
+    public IsaTabWriter append(char character) throws IOException {
+        writer.write(character);
+        return this;
+    }
+
+    /**
+     * @return the number of lines written so far, rows included
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the number of bytes written so far, before any compression and up to the last flush, or -1 if the
+     *         writer was made from a Writer
+     */
+    public long getByteCount() {
+        return countingOutput == null ? -1 : countingOutput.byteCount;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            writer.close();
+        }
+    }
+
+    /**
+     * Closes the writer, reporting rather than throwing a failure, for use where another exception is on its way.
+     */
+    public static void closeQuietly(IsaTabWriter isaTabWriter) {
+        if (isaTabWriter != null) {
+            try {
+                isaTabWriter.close();
+            } catch (IOException e) {
+                System.out.println("Could not close ISA-Tab file: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeCell(String cell) throws IOException {
+        if (cell == null) {
+            return;
+        }
+
+        int start = 0;
+        for (int index = 0; index < cell.length(); index++) {
+            char character = cell.charAt(index);
+            if (character == DELIMITER || character == '\n' || character == '\r') {
+                writer.write(cell, start, index - start);
+                writer.write(' ');
+                start = index + 1;
+            }
+        }
+        writer.write(cell, start, cell.length() - start);
+    }
+
+    private void endLine() throws IOException {
+        writer.write(LINE_SEPARATOR);
+        lineCount++;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long byteCount;
+
+        CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            byteCount++;
+        }
+
+        // FilterOutputStream would write the bytes one at a time
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            byteCount += length;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes JSON a token at a time, straight to its output, so that nothing of the document is kept but the nesting of
+ * the objects and arrays being written. Commas and colons are put in as needed; misplaced tokens, such as a value
+ * without a name inside an object, are refused with an IllegalStateException.
+ * <p/>
+ * Output is compact, one line, with strings escaped as RFC 4627 requires.
+ */
+public class JsonStreamWriter {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Appendable output;
+
+    // one entry per open object or array: whether it is an object, and whether it has had a member yet
+    private final List<boolean[]> scopes = new ArrayList<boolean[]>();
+
+    private boolean nameWritten;
+
+    public JsonStreamWriter(Appendable output) {
+        this.output = output;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        output.append('{');
+        scopes.add(new boolean[]{true, false});
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        endScope(true);
+        output.append('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        output.append('[');
+        scopes.add(new boolean[]{false, false});
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        endScope(false);
+        output.append(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        boolean[] scope = currentScope();
+        if (!scope[0] || nameWritten) {
+            throw new IllegalStateException("Member name " + name + " outside an object or after another name");
+        }
+        if (scope[1]) {
+            output.append(',');
+        }
+        scope[1] = true;
+
+        writeString(name);
+        output.append(':');
+        nameWritten = true;
+        return this;
+    }
+
+    /**
+     * Writes a string, or null if the string is null.
+     */
+    public JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            output.append("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        output.append(String.valueOf(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        output.append(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a member whose value is a string.
+     */
+    public JsonStreamWriter member(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /**
+     * @throws IllegalStateException if an object or array is still open
+     */
+    public void finish() {
+        if (!scopes.isEmpty() || nameWritten) {
+            throw new IllegalStateException("Unfinished JSON document, " + scopes.size() + " open objects or arrays");
+        }
+    }
+
+    private void beforeValue() throws IOException {
+        if (scopes.isEmpty()) {
+            return;
+        }
+
+        boolean[] scope = currentScope();
+        if (scope[0]) {
+            if (!nameWritten) {
+                throw new IllegalStateException("Object member without a name");
+            }
+            nameWritten = false;
+        } else {
+            if (scope[1]) {
+                output.append(',');
+            }
+            scope[1] = true;
+        }
+    }
+
+    private void endScope(boolean object) {
+        if (scopes.isEmpty() || currentScope()[0] != object || nameWritten) {
+            throw new IllegalStateException("No " + (object ? "object" : "array") + " to end here");
+        }
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private boolean[] currentScope() {
+        if (scopes.isEmpty()) {
+            throw new IllegalStateException("No object or array open");
+        }
+        return scopes.get(scopes.size() - 1);
+    }
+
+    private void writeString(String string) throws IOException {
+        output.append('"');
+
+        int start = 0;
+        for (int index = 0; index < string.length(); index++) {
+            char character = string.charAt(index);
+            if (character >= 0x20 && character != '"' && character != '\\') {
+                continue;
+            }
+
+            output.append(string, start, index);
+            start = index + 1;
+
+            switch (character) {
+                case '"':
+                    output.append("\\\"");
+                    break;
+                case '\\':
+                    output.append("\\\\");
+                    break;
+                case '\n':
+                    output.append("\\n");
+                    break;
+                case '\r':
+                    output.append("\\r");
+                    break;
+                case '\t':
+                    output.append("\\t");
+                    break;
+                default:
+                    output.append("\\u00").append(HEX_DIGITS[character >> 4]).append(HEX_DIGITS[character & 0xF]);
+            }
+        }
+        output.append(string, start, string.length());
+
+        output.append('"');
+    }
+}
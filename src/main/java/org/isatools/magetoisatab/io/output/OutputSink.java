@@ -0,0 +1,45 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where the ISA-Tab files of a conversion go: a directory per accession, an archive per accession or per batch, or
+ * memory. The converter only ever asks for a file of an accession by name, so it does not need to know which.
+ * <p/>
+ * Sinks must allow several files to be written at once, from different threads, as assay files are. A file is
+ * complete once its writer is closed.
+ */
+public interface OutputSink extends Closeable {
+
+    /**
+     * Opens a file of an accession for writing, replacing any file of the same name.
+     *
+     * @param accnum   - the accession number
+     * @param fileName - the name of the file, e.g. i_E-GEOD-16013_investigation.txt
+     * @return a writer, which the caller must close
+     */
+    IsaTabWriter openWriter(String accnum, String fileName) throws IOException;
+
+    /**
+     * @return true if a file of the accession was written, by this conversion or a previous one
+     */
+    boolean exists(String accnum, String fileName);
+
+    /**
+     * @return true if the files of earlier conversions are kept, so that a reconversion only needs to write the files
+     *         which changed
+     */
+    boolean isIncremental();
+
+    /**
+     * @return the directory or archive holding the files of the accession, or null if they are not kept in a file
+     */
+    File getLocation(String accnum);
+
+    /**
+     * Called once every file of an accession has been written and closed.
+     */
+    void finishAccession(String accnum) throws IOException;
+}
@@ -0,0 +1,198 @@
+package org.isatools.magetoisatab.io.output;
+
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compresses a stream in blocks, each block being compressed on the shared conversion pool in to a gzip member
+ * of its own, as pigz does. The members are written in order, one after the other, which is still a standard gzip
+ * file: gunzip, zcat and GZIPInputStream read concatenated members as one stream.
+ * <p/>
+ * Only a few blocks are kept waiting for compression at a time. Once they are, the writing thread waits for the
+ * oldest, compressing it itself if no pool thread has started on it, so a fast writer can not run out of memory and
+ * writers on pool threads can not starve the pool.
+ * <p/>
+ * Blocks being compressed independently, each starts without the previous block as its dictionary, which costs a
+ * little compression, less the larger the blocks.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // ID1, ID2, deflate, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] MEMBER_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream output;
+
+    private final int blockSize;
+    private final int level;
+
+    private final LinkedList<FutureTask<byte[]>> pendingBlocks = new LinkedList<FutureTask<byte[]>>();
+    private final int maxPendingBlocks;
+
+    private byte[] block;
+    private int blockLength;
+
+    private boolean memberWritten;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream output) {
+        this(output, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param output    - the stream to write the gzip members to, closed with this stream
+     * @param blockSize - the number of bytes compressed in to each member
+     * @param level     - the deflate compression level, 0 to 9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public ParallelGzipOutputStream(OutputStream output, int blockSize, int level) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.output = output;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.maxPendingBlocks = ConversionThreadPool.getThreadCount() * 2;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int copied = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, copied);
+            blockLength += copied;
+            offset += copied;
+            length -= copied;
+
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks already compressed and flushes the underlying stream. The block being filled is left as it
+     * is, as compressing it early would only make for smaller members.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pendingBlocks.isEmpty() && pendingBlocks.getFirst().isDone()) {
+            writeMember(pendingBlocks.removeFirst());
+        }
+        output.flush();
+    }
+
+    /**
+     * Compresses the last block, writes every member and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            // a stream nothing was written to is still a gzip file, of one empty member
+            if (blockLength > 0 || (!memberWritten && pendingBlocks.isEmpty())) {
+                submitBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeMember(pendingBlocks.removeFirst());
+            }
+        } finally {
+            closed = true;
+            block = null;
+            for (FutureTask<byte[]> pendingBlock : pendingBlocks) {
+                pendingBlock.cancel(false);
+            }
+            pendingBlocks.clear();
+            output.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = blockLength;
+
+        pendingBlocks.add(ConversionThreadPool.fork(new Callable<byte[]>() {
+            public byte[] call() {
+                return compress(data, length, level);
+            }
+        }));
+
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        while (pendingBlocks.size() > maxPendingBlocks
+                || (!pendingBlocks.isEmpty() && pendingBlocks.getFirst().isDone())) {
+            writeMember(pendingBlocks.removeFirst());
+        }
+    }
+
+    private void writeMember(FutureTask<byte[]> pendingBlock) throws IOException {
+        output.write(ConversionThreadPool.join(pendingBlock));
+        memberWritten = true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * @return a complete gzip member holding the bytes
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+        member.write(MEMBER_HEADER, 0, MEMBER_HEADER.length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+
+            byte[] buffer = new byte[Math.min(Math.max(length, 512), 1 << 16)];
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(buffer);
+                member.write(buffer, 0, deflated);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLittleEndian(member, (int) crc.getValue());
+        writeIntLittleEndian(member, length);
+
+        return member.toByteArray();
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream member, int value) {
+        member.write(value);
+        member.write(value >>> 8);
+        member.write(value >>> 16);
+        member.write(value >>> 24);
+    }
+}
@@ -0,0 +1,166 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A copy of a table kept in a temporary file, written as an ISA-Tab file is and read back a row at a time, as often
+ * as needed, so that a table can be read several times without being held in memory.
+ * <p/>
+ * Each line of the file is a row, split in to cells at tabs: IsaTabWriter writes tabs and line breaks within cells as
+ * spaces, and lines written whole are split at their line breaks. The header, the first row, is also kept in memory,
+ * so that reading only the header does not open the file. A reader is closed once its last row is read, or when the
+ * table is deleted.
+ */
+public class SpooledTable implements Iterable<String[]> {
+
+    private final File file;
+
+    private final List<BufferedReader> openReaders = new ArrayList<BufferedReader>();
+
+    private String[] header;
+
+    private long lineCount;
+
+    SpooledTable(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of lines written to the table, 0 until it is written
+     */
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Reads the header of the table, once the file is written.
+     */
+    void written(long lineCount) throws IOException {
+        synchronized (this) {
+            this.lineCount = lineCount;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), IsaTabWriter.ENCODING));
+        try {
+            String line = reader.readLine();
+            synchronized (this) {
+                header = line == null ? null : line.split("\t", -1);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the file can not be read, the failure being its cause
+     */
+    public Iterator<String[]> iterator() {
+        return new RowIterator();
+    }
+
+    /**
+     * Closes the readers still open and deletes the file.
+     */
+    public synchronized void delete() {
+        for (BufferedReader reader : openReaders) {
+            closeQuietly(reader);
+        }
+        openReaders.clear();
+        file.delete();
+    }
+
+    private synchronized BufferedReader open() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), IsaTabWriter.ENCODING), 1 << 16);
+        openReaders.add(reader);
+        return reader;
+    }
+
+    private synchronized void close(BufferedReader reader) {
+        openReaders.remove(reader);
+        closeQuietly(reader);
+    }
+
+    private static void closeQuietly(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            System.out.println("Could not close table copy: " + e.getMessage());
+        }
+    }
+
+    private class RowIterator implements Iterator<String[]> {
+
+        private BufferedReader reader;
+
+        private boolean headerRead;
+
+        private String nextLine;
+
+        private boolean finished;
+
+        public boolean hasNext() {
+            if (!headerRead) {
+                synchronized (SpooledTable.this) {
+                    if (header != null) {
+                        return true;
+                    }
+                }
+            }
+            if (nextLine == null && !finished) {
+                nextLine = readLine();
+            }
+            return nextLine != null;
+        }
+
+        public String[] next() {
+            if (!headerRead) {
+                synchronized (SpooledTable.this) {
+                    if (header != null) {
+                        headerRead = true;
+                        return header;
+                    }
+                }
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = nextLine;
+            nextLine = null;
+            return line.split("\t", -1);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private String readLine() {
+            try {
+                if (reader == null) {
+                    reader = open();
+                    if (headerRead) {
+                        reader.readLine();
+                    }
+                }
+                String line = reader.readLine();
+                if (line == null) {
+                    finished = true;
+                    close(reader);
+                }
+                return line;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.isatools.magetoisatab.io.output;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the files of each accession as tables, one String[] per row, rather than as text, so that they can be used
+ * without being parsed again. Cells are kept as they would have been written: null cells as empty ones, tabs and line
+ * breaks within cells as spaces. Lines written whole, as those of the investigation file are, are split in to rows at
+ * line breaks and in to cells at tabs.
+ * <p/>
+ * Files are kept by name, uncompressed whatever their name, and only once their writer is closed. Text which is not
+ * written as lines or rows, such as ISA-JSON, can not be kept.
+ */
+public class TableOutputSink implements OutputSink {
+
+    private final Map<String, Map<String, List<String[]>>> accessionTables = new HashMap<String, Map<String, List<String[]>>>();
+
+    public IsaTabWriter openWriter(String accnum, String fileName) {
+        return new RecordingWriter(accnum, fileName);
+    }
+
+    public synchronized boolean exists(String accnum, String fileName) {
+        Map<String, List<String[]>> tables = accessionTables.get(accnum);
+        return tables != null && tables.containsKey(fileName);
+    }
+
+    public boolean isIncremental() {
+        return false;
+    }
+
+    public File getLocation(String accnum) {
+        return null;
+    }
+
+    /**
+     * @return the tables of the accession by file name, in alphabetical order
+     */
+    public synchronized Map<String, List<String[]>> getTables(String accnum) {
+        Map<String, List<String[]>> tables = accessionTables.get(accnum);
+        return tables == null ? Collections.<String, List<String[]>>emptyMap()
+                : Collections.unmodifiableMap(new TreeMap<String, List<String[]>>(tables));
+    }
+
+    /**
+     * Lets go of the tables of an accession.
+     */
+    public synchronized void remove(String accnum) {
+        accessionTables.remove(accnum);
+    }
+
+    public void finishAccession(String accnum) {
+    }
+
+    public void close() {
+    }
+
+    private synchronized void putTable(String accnum, String fileName, List<String[]> rows) {
+        Map<String, List<String[]>> tables = accessionTables.get(accnum);
+        if (tables == null) {
+            tables = new HashMap<String, List<String[]>>();
+            accessionTables.put(accnum, tables);
+        }
+        tables.put(fileName, Collections.unmodifiableList(rows));
+    }
+
+    private class RecordingWriter extends IsaTabWriter {
+
+        private final String accnum;
+        private final String fileName;
+
+        private final List<String[]> rows = new ArrayList<String[]>();
+        private boolean closed;
+
+        RecordingWriter(String accnum, String fileName) {
+            this.accnum = accnum;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void writeRow(String[] row) {
+            String[] cells = new String[row.length];
+            for (int cellIndex = 0; cellIndex < row.length; cellIndex++) {
+                cells[cellIndex] = toCell(row[cellIndex]);
+            }
+            add(cells);
+        }
+
+        @Override
+        public void writeRow(List<String> row) {
+            String[] cells = new String[row.size()];
+            for (int cellIndex = 0; cellIndex < cells.length; cellIndex++) {
+                cells[cellIndex] = toCell(row.get(cellIndex));
+            }
+            add(cells);
+        }
+
+        @Override
+        public void writeLine(String line) {
+            if (line == null) {
+                add(new String[]{""});
+                return;
+            }
+            for (String rowLine : line.split("\r\n|\n|\r", -1)) {
+                add(rowLine.split("\t", -1));
+            }
+        }
+
+        @Override
+        public IsaTabWriter append(CharSequence text) {
+            throw new UnsupportedOperationException(fileName + " is not a table");
+        }
+
+        @Override
+        public IsaTabWriter append(CharSequence text, int start, int end) {
+            throw new UnsupportedOperationException(fileName + " is not a table");
+        }
+
+        @Override
+        public IsaTabWriter append(char character) {
+            throw new UnsupportedOperationException(fileName + " is not a table");
+        }
+
+        @Override
+        public long getLineCount() {
+            return rows.size();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                putTable(accnum, fileName, rows);
+            }
+        }
+
+        private void add(String[] cells) {
+            if (closed) {
+                throw new IllegalStateException(fileName + " is closed");
+            }
+            rows.add(cells);
+        }
+
+        private String toCell(String value) {
+            if (value == null) {
+                return "";
+            }
+            return value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0
+                    ? value : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        }
+    }
+}
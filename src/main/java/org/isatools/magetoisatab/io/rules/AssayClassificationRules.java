@@ -0,0 +1,389 @@
+package org.isatools.magetoisatab.io.rules;
+
+import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.utils.ConversionProperties;
+import org.isatools.magetoisatab.utils.Digests;
+import org.isatools.magetoisatab.utils.KeywordAutomaton;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The rules classifying MAGE-TAB submissions in to ISA assays: which study assay types the design types of an IDF
+ * give, which assay type each SDRF assay record belongs to, and which assay files are made of them.
+ * <p/>
+ * The rules are read from assay-classification.txt, next to this class, or from the file named by the
+ * magetoisatab.rules system property, where the syntax is described. They are compiled once: assay type patterns in
+ * to regular expressions, and record conditions in to tests on a bitmask of the keywords found by a single
+ * KeywordAutomaton pass over a record, combined with the features of the table the record is in.
+ */
+public class AssayClassificationRules {
+
+    public static final String RULES_PROPERTY = "magetoisatab.rules";
+
+    private static final String DEFAULT_RULES = "assay-classification.txt";
+
+    private static final int MAXIMUM_FEATURES = 64;
+
+    private final List<AssayTypeRule> assayTypeRules = new ArrayList<AssayTypeRule>();
+
+    private final List<TableFeature> tableFeatures = new ArrayList<TableFeature>();
+
+    private final List<RecordRule> recordRules = new ArrayList<RecordRule>();
+
+    private final List<AssayFileRule> assayFileRules = new ArrayList<AssayFileRule>();
+
+    // record group names, in the order of their indexes
+    private final List<String> groups = new ArrayList<String>();
+
+    // feature names and keywords to their bit
+    private final Map<String, Integer> featureBits = new HashMap<String, Integer>();
+
+    private final Map<String, Long> keywordMasks = new LinkedHashMap<String, Long>();
+
+    private KeywordAutomaton keywordAutomaton;
+
+    private String checksum;
+
+    private static class DefaultRulesHolder {
+        static final AssayClassificationRules RULES = loadDefaultRules();
+    }
+
+    /**
+     * @return the rules in use, loaded on first use
+     */
+    public static AssayClassificationRules getRules() {
+        return DefaultRulesHolder.RULES;
+    }
+
+    private static AssayClassificationRules loadDefaultRules() {
+        String rulesFile = System.getProperty(RULES_PROPERTY);
+
+        try {
+            InputStream rules = rulesFile == null
+                    ? AssayClassificationRules.class.getResourceAsStream(DEFAULT_RULES)
+                    : new FileInputStream(new File(rulesFile));
+            if (rules == null) {
+                throw new IllegalStateException("Assay classification rules not found: " + DEFAULT_RULES);
+            }
+
+            try {
+                return load(new InputStreamReader(rules, "UTF-8"));
+            } finally {
+                rules.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the assay classification rules: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads and compiles rules.
+     *
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    public static AssayClassificationRules load(Reader reader) throws IOException {
+        AssayClassificationRules rules = new AssayClassificationRules();
+
+        BufferedReader lines = new BufferedReader(reader);
+        MessageDigest digest = Digests.newSha256();
+        String line;
+        int lineNumber = 0;
+
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            digest.update((line + "\n").getBytes("UTF-8"));
+
+            if (line.trim().length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                rules.addRule(line.split("\t"));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Assay classification rules, line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        rules.compileKeywords();
+        rules.checksum = Digests.toHex(digest.digest());
+        return rules;
+    }
+
+    private AssayClassificationRules() {
+    }
+
+    private void addRule(String[] columns) {
+        String ruleType = columns[0];
+
+        if (ruleType.equals("assay-type")) {
+            requireColumns(columns, 5);
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(columns[1]);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("invalid pattern " + columns[1]);
+            }
+            boolean sequencing = columns.length > 5 && columns[5].equals("sequencing");
+            assayTypeRules.add(new AssayTypeRule(pattern, columns[2], columns[3], columns[4], sequencing));
+
+        } else if (ruleType.equals("feature")) {
+            requireColumns(columns, 4);
+            if (featureBits.containsKey(columns[1])) {
+                throw new IllegalArgumentException("feature " + columns[1] + " is already defined");
+            }
+            TableFeature feature = new TableFeature(columns[2], columns[3], columns.length > 4 ? columns[4] : null);
+            tableFeatures.add(feature);
+            featureBits.put(columns[1], nextBit());
+            feature.bit = featureBits.get(columns[1]);
+
+        } else if (ruleType.equals("record")) {
+            requireColumns(columns, 4);
+            recordRules.add(new RecordRule(columns[1], getGroup(columns[2]), new ConditionParser(columns[3]).parse()));
+
+        } else if (ruleType.equals("assay-file")) {
+            requireColumns(columns, 4);
+            assayFileRules.add(new AssayFileRule(columns[1].split("\\|"), columns[2], getGroup(columns[3])));
+
+        } else {
+            throw new IllegalArgumentException("unknown rule " + ruleType);
+        }
+    }
+
+    private void requireColumns(String[] columns, int count) {
+        if (columns.length < count) {
+            throw new IllegalArgumentException(columns[0] + " rules need " + (count - 1) + " values");
+        }
+    }
+
+    private int getGroup(String group) {
+        if (!groups.contains(group)) {
+            groups.add(group);
+        }
+        return groups.indexOf(group);
+    }
+
+    private int nextBit() {
+        int bit = featureBits.size();
+        if (bit >= MAXIMUM_FEATURES) {
+            throw new IllegalArgumentException("more than " + MAXIMUM_FEATURES + " features and keywords");
+        }
+        return bit;
+    }
+
+    private int getKeywordBit(String keyword, boolean ignoreCase) {
+        String key = (ignoreCase ? "i\"" : "\"") + keyword + "\"";
+
+        if (!featureBits.containsKey(key)) {
+            int bit = nextBit();
+            featureBits.put(key, bit);
+
+            List<String> variants = ignoreCase ? KeywordAutomaton.caseVariants(keyword) : Collections.singletonList(keyword);
+            for (String variant : variants) {
+                Long mask = keywordMasks.get(variant);
+                keywordMasks.put(variant, (mask == null ? 0L : mask) | (1L << bit));
+            }
+        }
+        return featureBits.get(key);
+    }
+
+    private void compileKeywords() {
+        keywordAutomaton = new KeywordAutomaton(keywordMasks);
+    }
+
+    public List<AssayTypeRule> getAssayTypeRules() {
+        return Collections.unmodifiableList(assayTypeRules);
+    }
+
+    public List<AssayFileRule> getAssayFileRules() {
+        return Collections.unmodifiableList(assayFileRules);
+    }
+
+    /**
+     * @return the SHA-256 hash of the rules text, which changes whenever the rules do
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Works out the features of an SDRF assay table, once, and returns a classifier for its records.
+     *
+     * @param header          - the header of the assay table
+     * @param studyAssayTypes - the study assay types, from the IDF
+     * @param properties      - the properties of the conversion, holding the design types of the IDF
+     */
+    public RecordClassifier createClassifier(String[] header, Set<AssayType> studyAssayTypes, ConversionProperties properties) {
+        long features = 0;
+        long featureMask = 0;
+
+        for (TableFeature feature : tableFeatures) {
+            if (feature.isPresent(header, studyAssayTypes, properties)) {
+                features |= 1L << feature.bit;
+            }
+            featureMask |= 1L << feature.bit;
+        }
+
+        return new RecordClassifier(recordRules, groups.size(), keywordAutomaton, features, featureMask);
+    }
+
+    /**
+     * A fact about an SDRF assay table as a whole.
+     */
+    private static class TableFeature {
+
+        private final String kind;
+        private final String text;
+        private final String secondText;
+        private int bit;
+
+        TableFeature(String kind, String text, String secondText) {
+            if (!kind.equals("header") && !kind.equals("header-ignore-case") && !kind.equals("design")
+                    && !kind.equals("study-assay")) {
+                throw new IllegalArgumentException("unknown feature type " + kind);
+            }
+            if (kind.equals("study-assay") && secondText == null) {
+                throw new IllegalArgumentException("study-assay features need a measurement and a technology");
+            }
+            this.kind = kind;
+            this.text = text;
+            this.secondText = secondText;
+        }
+
+        boolean isPresent(String[] header, Set<AssayType> studyAssayTypes, ConversionProperties properties) {
+            if (kind.equals("design")) {
+                return properties.isValueInDesignTypes(text);
+            }
+
+            if (kind.equals("study-assay")) {
+                for (AssayType assayType : studyAssayTypes) {
+                    if (assayType.getMeasurement().equals(text) && assayType.getTechnology().contains(secondText)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            boolean ignoreCase = kind.equals("header-ignore-case");
+            String headerText = ignoreCase ? text.toLowerCase() : text;
+            for (String columnHeader : header) {
+                if ((ignoreCase ? columnHeader.toLowerCase() : columnHeader).contains(headerText)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Parses record conditions: or-ed terms of and-ed factors, a factor being a feature name, a keyword, a negated
+     * factor or a bracketed condition.
+     */
+    private class ConditionParser {
+
+        private final String text;
+        private int position;
+
+        ConditionParser(String text) {
+            this.text = text;
+        }
+
+        Condition parse() {
+            Condition condition = parseOr();
+            skipSpaces();
+            if (position < text.length()) {
+                throw new IllegalArgumentException("unexpected " + text.charAt(position) + " in " + text);
+            }
+            return condition;
+        }
+
+        private Condition parseOr() {
+            Condition condition = parseAnd();
+            while (accept('|')) {
+                condition = Condition.or(condition, parseAnd());
+            }
+            return condition;
+        }
+
+        private Condition parseAnd() {
+            Condition condition = parseFactor();
+            while (accept('&')) {
+                condition = Condition.and(condition, parseFactor());
+            }
+            return condition;
+        }
+
+        private Condition parseFactor() {
+            if (accept('!')) {
+                return Condition.not(parseFactor());
+            }
+            if (accept('(')) {
+                Condition condition = parseOr();
+                if (!accept(')')) {
+                    throw new IllegalArgumentException("missing ) in " + text);
+                }
+                return condition;
+            }
+
+            skipSpaces();
+            boolean ignoreCase = position + 1 < text.length() && text.charAt(position) == 'i' && text.charAt(position + 1) == '"';
+            if (ignoreCase) {
+                position++;
+            }
+            if (position < text.length() && text.charAt(position) == '"') {
+                int end = text.indexOf('"', position + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("missing \" in " + text);
+                }
+                String keyword = text.substring(position + 1, end);
+                position = end + 1;
+                return Condition.feature(getKeywordBit(keyword, ignoreCase));
+            }
+
+            int start = position;
+            while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position))
+                    || text.charAt(position) == '-' || text.charAt(position) == '_')) {
+                position++;
+            }
+            String feature = text.substring(start, position);
+            if (feature.length() == 0 || !featureBits.containsKey(feature)) {
+                throw new IllegalArgumentException("unknown feature '" + feature + "' in " + text);
+            }
+            return Condition.feature(featureBits.get(feature));
+        }
+
+        private boolean accept(char operator) {
+            skipSpaces();
+            if (position < text.length() && text.charAt(position) == operator) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && text.charAt(position) == ' ') {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.isatools.magetoisatab.io.rules;
+
+/**
+ * Makes an assay file of a record group for every assay label found which contains one of its label texts.
+ */
+public class AssayFileRule {
+
+    private final String[] labelTexts;
+    private final String fileKey;
+    private final int group;
+
+    AssayFileRule(String[] labelTexts, String fileKey, int group) {
+        this.labelTexts = labelTexts;
+        this.fileKey = fileKey;
+        this.group = group;
+    }
+
+    public boolean appliesTo(String assayLabel) {
+        for (String labelText : labelTexts) {
+            if (assayLabel.contains(labelText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the key the assay file is named after
+     */
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return the index of the record group the assay file is made of
+     */
+    public int getGroup() {
+        return group;
+    }
+}
@@ -0,0 +1,52 @@
+package org.isatools.magetoisatab.io.rules;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The assay records found in (a chunk of) an SDRF assay table: the assay labels found, and the indexes of the table
+ * rows in each record group. A record matching several rules for the same group is only in it once.
+ */
+public class AssayRecords {
+
+    private final Set<String> assayLabels = new HashSet<String>();
+
+    private final BitSet[] groups;
+
+    AssayRecords(int groupCount) {
+        groups = new BitSet[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+            groups[group] = new BitSet();
+        }
+    }
+
+    void addRecord(String assayLabel, int group, int recordIndex) {
+        assayLabels.add(assayLabel);
+        groups[group].set(recordIndex);
+    }
+
+    /**
+     * Adds a record, e.g. the header, to every group.
+     */
+    public void addToAllGroups(int recordIndex) {
+        for (BitSet group : groups) {
+            group.set(recordIndex);
+        }
+    }
+
+    public void addAll(AssayRecords records) {
+        assayLabels.addAll(records.assayLabels);
+        for (int group = 0; group < groups.length; group++) {
+            groups[group].or(records.groups[group]);
+        }
+    }
+
+    public Set<String> getAssayLabels() {
+        return assayLabels;
+    }
+
+    public BitSet getGroup(int group) {
+        return groups[group];
+    }
+}
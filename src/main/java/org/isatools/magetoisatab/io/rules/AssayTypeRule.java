@@ -0,0 +1,47 @@
+package org.isatools.magetoisatab.io.rules;
+
+import org.isatools.magetoisatab.io.model.AssayType;
+
+import java.util.regex.Pattern;
+
+/**
+ * Gives a study assay type when its pattern is found in the Experimental Design line of an IDF.
+ */
+public class AssayTypeRule {
+
+    private final Pattern pattern;
+    private final String measurement;
+    private final String technology;
+    private final String shortcut;
+    private final boolean sequencing;
+
+    public AssayTypeRule(Pattern pattern, String measurement, String technology, String shortcut, boolean sequencing) {
+        this.pattern = pattern;
+        this.measurement = measurement;
+        this.technology = technology;
+        this.shortcut = shortcut;
+        this.sequencing = sequencing;
+    }
+
+    public boolean matches(String designLine) {
+        return pattern.matcher(designLine).find();
+    }
+
+    /**
+     * @return a new AssayType, as callers go on to set its file
+     */
+    public AssayType createAssayType() {
+        return new AssayType(measurement, technology, shortcut);
+    }
+
+    /**
+     * @return true if the assay type needs the library construction and sequencing protocols
+     */
+    public boolean isSequencing() {
+        return sequencing;
+    }
+
+    public String getShortcut() {
+        return shortcut;
+    }
+}
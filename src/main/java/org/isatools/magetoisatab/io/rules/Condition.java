@@ -0,0 +1,85 @@
+package org.isatools.magetoisatab.io.rules;
+
+/**
+ * A compiled record rule condition, evaluated against the feature bits of a record: the keywords found in its cells
+ * and the features of the table it is in.
+ * <p/>
+ * Where only some of the bits are known, e.g. the table features of a header without records, canBeTrue tells
+ * whether the condition may hold for some record. It errs on the side of yes, a feature used twice in a condition
+ * being taken as free to differ between its uses.
+ */
+abstract class Condition {
+
+    abstract boolean isTrue(long features);
+
+    /**
+     * @param known - the bits of features which are known, the others being unknown
+     */
+    abstract boolean canBeTrue(long features, long known);
+
+    abstract boolean canBeFalse(long features, long known);
+
+    static Condition feature(final int bit) {
+        return new Condition() {
+            boolean isTrue(long features) {
+                return (features & (1L << bit)) != 0;
+            }
+
+            boolean canBeTrue(long features, long known) {
+                return (known & (1L << bit)) == 0 || isTrue(features);
+            }
+
+            boolean canBeFalse(long features, long known) {
+                return (known & (1L << bit)) == 0 || !isTrue(features);
+            }
+        };
+    }
+
+    static Condition not(final Condition condition) {
+        return new Condition() {
+            boolean isTrue(long features) {
+                return !condition.isTrue(features);
+            }
+
+            boolean canBeTrue(long features, long known) {
+                return condition.canBeFalse(features, known);
+            }
+
+            boolean canBeFalse(long features, long known) {
+                return condition.canBeTrue(features, known);
+            }
+        };
+    }
+
+    static Condition and(final Condition left, final Condition right) {
+        return new Condition() {
+            boolean isTrue(long features) {
+                return left.isTrue(features) && right.isTrue(features);
+            }
+
+            boolean canBeTrue(long features, long known) {
+                return left.canBeTrue(features, known) && right.canBeTrue(features, known);
+            }
+
+            boolean canBeFalse(long features, long known) {
+                return left.canBeFalse(features, known) || right.canBeFalse(features, known);
+            }
+        };
+    }
+
+    static Condition or(final Condition left, final Condition right) {
+        return new Condition() {
+            boolean isTrue(long features) {
+                return left.isTrue(features) || right.isTrue(features);
+            }
+
+            boolean canBeTrue(long features, long known) {
+                return left.canBeTrue(features, known) || right.canBeTrue(features, known);
+            }
+
+            boolean canBeFalse(long features, long known) {
+                return left.canBeFalse(features, known) && right.canBeFalse(features, known);
+            }
+        };
+    }
+}
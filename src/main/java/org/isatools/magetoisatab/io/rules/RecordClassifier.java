@@ -0,0 +1,77 @@
+package org.isatools.magetoisatab.io.rules;
+
+import org.isatools.magetoisatab.utils.KeywordAutomaton;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Classifies the records of one SDRF assay table, the features of the table having been worked out when the
+ * classifier was created. Classifiers are not changed by classifying, so chunks of a table can be classified by
+ * different threads.
+ */
+public class RecordClassifier {
+
+    private final RecordRule[] recordRules;
+    private final int groupCount;
+    private final KeywordAutomaton keywordAutomaton;
+    private final long tableFeatures;
+
+    // the bits of every table feature, whether present or not
+    private final long tableFeatureMask;
+
+    RecordClassifier(List<RecordRule> recordRules, int groupCount, KeywordAutomaton keywordAutomaton, long tableFeatures,
+                     long tableFeatureMask) {
+        this.recordRules = recordRules.toArray(new RecordRule[recordRules.size()]);
+        this.groupCount = groupCount;
+        this.keywordAutomaton = keywordAutomaton;
+        this.tableFeatures = tableFeatures;
+        this.tableFeatureMask = tableFeatureMask;
+    }
+
+    /**
+     * @return empty assay records, with a group for every group of the rules
+     */
+    public AssayRecords createAssayRecords() {
+        return new AssayRecords(groupCount);
+    }
+
+    /**
+     * Classifies the records from (inclusive) to (exclusive) of the table.
+     */
+    public AssayRecords classify(List<String[]> assayTable, int from, int to) {
+        AssayRecords records = createAssayRecords();
+
+        for (int recordIndex = from; recordIndex < to; recordIndex++) {
+            // one pass over the cells finds every keyword the rules look for
+            long features = keywordAutomaton.match(assayTable.get(recordIndex)) | tableFeatures;
+
+            for (RecordRule recordRule : recordRules) {
+                if (recordRule.condition.isTrue(features)) {
+                    records.addRecord(recordRule.label, recordRule.group, recordIndex);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Works out from the table features alone, without looking at any record, which assay labels records of the
+     * table may be given. The keywords of records being unknown, a label is possible unless the table features rule
+     * it out.
+     *
+     * @return the possible assay labels, in rule order
+     */
+    public Set<String> getPossibleLabels() {
+        Set<String> labels = new LinkedHashSet<String>();
+
+        for (RecordRule recordRule : recordRules) {
+            if (recordRule.condition.canBeTrue(tableFeatures, tableFeatureMask)) {
+                labels.add(recordRule.label);
+            }
+        }
+        return labels;
+    }
+}
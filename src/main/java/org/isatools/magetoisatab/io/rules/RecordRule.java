@@ -0,0 +1,17 @@
+package org.isatools.magetoisatab.io.rules;
+
+/**
+ * Puts the assay records for which its condition holds in a record group, and records the assay label as found.
+ */
+class RecordRule {
+
+    final String label;
+    final int group;
+    final Condition condition;
+
+    RecordRule(String label, int group, Condition condition) {
+        this.label = label;
+        this.group = group;
+        this.condition = condition;
+    }
+}
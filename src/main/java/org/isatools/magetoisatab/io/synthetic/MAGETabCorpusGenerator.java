@@ -0,0 +1,614 @@
+package org.isatools.magetoisatab.io.synthetic;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Writes synthetic MAGE-TAB submissions, an IDF and one or more SDRFs, of configurable size and shape, for scale,
+ * memory and regression testing without going to ArrayExpress.
+ * <p/>
+ * The SDRFs contain the irregularities the converter has to deal with in real submissions: chained Protocol REFs with
+ * gaps, duplicated Characteristics columns, Term Source REFs following columns which have no ontology annotation,
+ * Parameter Values and Performers without a Protocol REF, empty rows, and the ArrayExpress specific columns of
+ * microarray and sequencing submissions. The same settings and seed always give the same files.
+ * <p/>
+ * The result can be converted with MAGETabObtain.doLocalConversion.
+ */
+public class MAGETabCorpusGenerator {
+
+    public enum Layout {
+
+        MICROARRAY("transcription profiling by array", false, false),
+        CHIP_CHIP("ChIP-chip by tiling array", false, true),
+        CHIP_SEQ("ChIP-seq", true, true),
+        RNA_SEQ("RNA-seq of coding RNA", true, false);
+
+        private String designType;
+        private boolean sequencing;
+        private boolean genomicDNA;
+
+        private Layout(String designType, boolean sequencing, boolean genomicDNA) {
+            this.designType = designType;
+            this.sequencing = sequencing;
+            this.genomicDNA = genomicDNA;
+        }
+
+        public String getDesignType() {
+            return designType;
+        }
+
+        public boolean isSequencing() {
+            return sequencing;
+        }
+
+        public String getMaterialType() {
+            return genomicDNA ? "genomic DNA" : "total RNA";
+        }
+    }
+
+    private static final String TAB = "\t";
+
+    private static final String PROTOCOL_REF = "Protocol REF";
+
+    private static final String TERM_SOURCE_REF = "Term Source REF";
+
+    private static final String[] FACTOR_NAMES = {"genotype", "time", "compound", "dose", "cell type"};
+
+    private static final String[] CHARACTERISTIC_NAMES = {"organism", "strain", "organism part", "sex", "age",
+            "developmental stage", "cell line", "disease state"};
+
+    // Term Source REFs the converter has to drop, in the order they are added: the first two are dropped when the
+    // SDRF is loaded, the others by RogueColumnRemovalUtil
+    private static final int ROGUE_AFTER_PROTOCOL = 0;
+    private static final int ROGUE_AFTER_ARRAY_DESIGN = 1;
+    private static final int ROGUE_AFTER_SAMPLE = 2;
+    private static final int ROGUE_AFTER_EXTRACT = 3;
+    private static final int ROGUE_AFTER_LABEL = 4;
+
+    public static final int MAXIMUM_ROGUE_TERM_SOURCE_REFS = 5;
+
+    private int rowCount = 100;
+    private int characteristicsColumnCount = 3;
+    private int factorValueColumnCount = 2;
+    private int protocolChainLength = 2;
+    private int duplicateColumnCount = 1;
+    private int rogueTermSourceRefCount = 3;
+    private int sdrfCount = 1;
+    private int emptyRowInterval = 50;
+    private Layout[] layouts = {Layout.MICROARRAY};
+    private long seed = 1;
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param rowCount - number of data rows in each SDRF, empty rows included
+     */
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public int getCharacteristicsColumnCount() {
+        return characteristicsColumnCount;
+    }
+
+    public void setCharacteristicsColumnCount(int characteristicsColumnCount) {
+        this.characteristicsColumnCount = characteristicsColumnCount;
+    }
+
+    public int getFactorValueColumnCount() {
+        return factorValueColumnCount;
+    }
+
+    public void setFactorValueColumnCount(int factorValueColumnCount) {
+        this.factorValueColumnCount = factorValueColumnCount;
+    }
+
+    public int getProtocolChainLength() {
+        return protocolChainLength;
+    }
+
+    /**
+     * @param protocolChainLength - number of consecutive Protocol REF columns between the Source, Sample and Extract
+     *                            nodes. Runs longer than one are collapsed by CollapseColumnUtil
+     */
+    public void setProtocolChainLength(int protocolChainLength) {
+        this.protocolChainLength = protocolChainLength;
+    }
+
+    public int getDuplicateColumnCount() {
+        return duplicateColumnCount;
+    }
+
+    /**
+     * @param duplicateColumnCount - number of Characteristics columns repeated further along the SDRF, which
+     *                             RemoveDuplicateColumnUtil merges back together
+     */
+    public void setDuplicateColumnCount(int duplicateColumnCount) {
+        this.duplicateColumnCount = duplicateColumnCount;
+    }
+
+    public int getRogueTermSourceRefCount() {
+        return rogueTermSourceRefCount;
+    }
+
+    /**
+     * @param rogueTermSourceRefCount - number of Term Source REF columns following a column without ontology
+     *                                annotation, at most MAXIMUM_ROGUE_TERM_SOURCE_REFS
+     */
+    public void setRogueTermSourceRefCount(int rogueTermSourceRefCount) {
+        this.rogueTermSourceRefCount = Math.min(rogueTermSourceRefCount, MAXIMUM_ROGUE_TERM_SOURCE_REFS);
+    }
+
+    public int getSdrfCount() {
+        return sdrfCount;
+    }
+
+    public void setSdrfCount(int sdrfCount) {
+        this.sdrfCount = sdrfCount;
+    }
+
+    public int getEmptyRowInterval() {
+        return emptyRowInterval;
+    }
+
+    /**
+     * @param emptyRowInterval - one row in this many is left empty, 0 for none
+     */
+    public void setEmptyRowInterval(int emptyRowInterval) {
+        this.emptyRowInterval = emptyRowInterval;
+    }
+
+    public Layout[] getLayouts() {
+        return layouts;
+    }
+
+    /**
+     * @param layouts - the layouts of the SDRFs, the first SDRF gets the first layout, and so on, starting over
+     *                when there are more SDRFs than layouts
+     */
+    public void setLayouts(Layout... layouts) {
+        if (layouts.length == 0) {
+            throw new IllegalArgumentException("At least one layout is needed");
+        }
+        this.layouts = layouts;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes accession.idf.txt and its SDRFs in to the directory.
+     *
+     * @param directory - where the files are written, created if needed
+     * @param accession - the accession of the submission, e.g. E-SYNT-1
+     * @return the IDF file
+     * @throws IOException if the files can not be written
+     */
+    public File generate(File directory, String accession) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getAbsolutePath());
+        }
+
+        List<String> sdrfFileNames = new ArrayList<String>();
+
+        for (int sdrfIndex = 0; sdrfIndex < sdrfCount; sdrfIndex++) {
+            String sdrfFileName = sdrfCount == 1 ? accession + ".sdrf.txt"
+                    : accession + "." + (sdrfIndex + 1) + ".sdrf.txt";
+            sdrfFileNames.add(sdrfFileName);
+
+            writeRows(new File(directory, sdrfFileName), generateSdrf(sdrfIndex));
+        }
+
+        File idfFile = new File(directory, accession + ".idf.txt");
+        writeRows(idfFile, generateIdf(accession, sdrfFileNames));
+
+        return idfFile;
+    }
+
+    /**
+     * @return the rows of the IDF, listing the given SDRF files
+     */
+    public List<String[]> generateIdf(String accession, List<String> sdrfFileNames) {
+        List<String[]> idf = new ArrayList<String[]>();
+
+        Set<String> designTypes = new LinkedHashSet<String>();
+        for (int sdrfIndex = 0; sdrfIndex < sdrfCount; sdrfIndex++) {
+            designTypes.add(getLayout(sdrfIndex).getDesignType());
+        }
+
+        idf.add(row("MAGE-TAB Version", "1.1"));
+        idf.add(row("Investigation Title", "Synthetic " + designTypes.iterator().next() + " study " + accession));
+        idf.add(row("Experimental Design", designTypes));
+        idf.add(row("Experimental Design Term Source REF", repeat("EFO", designTypes.size())));
+
+        List<String> factorNames = new ArrayList<String>();
+        for (int factorIndex = 0; factorIndex < factorValueColumnCount; factorIndex++) {
+            factorNames.add(getFactorName(factorIndex));
+        }
+        idf.add(row("Experimental Factor Name", factorNames));
+        idf.add(row("Experimental Factor Type", factorNames));
+        idf.add(row("Experimental Factor Term Source REF", repeat("EFO", factorNames.size())));
+
+        idf.add(row("Person Last Name", "Smith", "Jones"));
+        idf.add(row("Person First Name", "Anna", "Ben"));
+        idf.add(row("Person Mid Initials", "", "C"));
+        idf.add(row("Person Email", "anna.smith@example.org", "ben.jones@example.org"));
+        idf.add(row("Person Affiliation", "Synthetic Data Institute", "Synthetic Data Institute"));
+        idf.add(row("Person Roles", "submitter", "investigator"));
+
+        idf.add(row("Public Release Date", "2012-07-01"));
+        idf.add(row("PubMed ID", "12345678"));
+        idf.add(row("Publication DOI", "10.0000/synthetic." + accession));
+        idf.add(row("Publication Author List", "Smith A, Jones BC"));
+        idf.add(row("Publication Title", "A synthetic submission"));
+        idf.add(row("Publication Status", "published"));
+        idf.add(row("Experiment Description", "Generated submission with " + sdrfCount + " SDRF file(s) of "
+                + rowCount + " rows."));
+
+        List<String> protocolNames = new ArrayList<String>();
+        List<String> protocolTypes = new ArrayList<String>();
+        List<String> protocolDescriptions = new ArrayList<String>();
+        for (int protocolIndex = 0; protocolIndex < getProtocolCount(); protocolIndex++) {
+            protocolNames.add(getProtocolName(protocolIndex));
+            protocolTypes.add(protocolIndex % 2 == 0 ? "sample treatment" : "nucleic acid extraction");
+            protocolDescriptions.add("Synthetic protocol " + (protocolIndex + 1));
+        }
+        idf.add(row("Protocol Name", protocolNames));
+        idf.add(row("Protocol Type", protocolTypes));
+        idf.add(row("Protocol Description", protocolDescriptions));
+        idf.add(row("Protocol Parameters", "temperature"));
+        idf.add(row("Protocol Hardware", "synthesizer"));
+        idf.add(row("Protocol Software", "generator"));
+        idf.add(row("Protocol Term Source REF", repeat("EFO", protocolNames.size())));
+
+        idf.add(row("Term Source Name", "EFO", "ArrayExpress", "EFO"));
+        idf.add(row("Term Source File", "http://www.ebi.ac.uk/efo/", "http://www.ebi.ac.uk/arrayexpress/"));
+        idf.add(row("Term Source Version", "", ""));
+
+        idf.add(row("SDRF File", sdrfFileNames));
+        idf.add(row("Comment[AEExperimentType]", designTypes));
+
+        return idf;
+    }
+
+    /**
+     * @return the rows of the SDRF at the given index, header first
+     */
+    public List<String[]> generateSdrf(int sdrfIndex) {
+        Layout layout = getLayout(sdrfIndex);
+
+        List<String> header = createHeader(layout);
+        String[] headerRow = header.toArray(new String[header.size()]);
+
+        List<String[]> sdrf = new ArrayList<String[]>(rowCount + 1);
+        sdrf.add(headerRow);
+
+        Random random = new Random(seed * 31 + sdrfIndex);
+
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            if (emptyRowInterval > 0 && rowIndex % emptyRowInterval == emptyRowInterval - 1) {
+                String[] emptyRow = new String[headerRow.length];
+                Arrays.fill(emptyRow, "");
+                sdrf.add(emptyRow);
+            } else {
+                sdrf.add(createRow(headerRow, layout, sdrfIndex, rowIndex, random));
+            }
+        }
+
+        return sdrf;
+    }
+
+    private Layout getLayout(int sdrfIndex) {
+        return layouts[sdrfIndex % layouts.length];
+    }
+
+    private List<String> createHeader(Layout layout) {
+        List<String> header = new ArrayList<String>();
+
+        header.add("Source Name");
+        for (int characteristicIndex = 0; characteristicIndex < characteristicsColumnCount; characteristicIndex++) {
+            header.add(getCharacteristicColumn(characteristicIndex));
+            // every other characteristic is annotated with an ontology term
+            if (characteristicIndex % 2 == 0) {
+                header.add(TERM_SOURCE_REF);
+            }
+        }
+
+        addProtocolChain(header);
+        if (rogueTermSourceRefCount > ROGUE_AFTER_PROTOCOL) {
+            header.add(TERM_SOURCE_REF);
+        }
+
+        header.add("Sample Name");
+        if (rogueTermSourceRefCount > ROGUE_AFTER_SAMPLE) {
+            header.add(TERM_SOURCE_REF);
+        }
+
+        // duplicates of the first characteristics, sometimes filled in, sometimes not
+        for (int duplicateIndex = 0; duplicateIndex < duplicateColumnCount; duplicateIndex++) {
+            header.add(getCharacteristicColumn(duplicateIndex % Math.max(1, characteristicsColumnCount)));
+        }
+
+        header.add("Material Type");
+        addProtocolChain(header);
+        header.add("Extract Name");
+        if (rogueTermSourceRefCount > ROGUE_AFTER_EXTRACT) {
+            header.add(TERM_SOURCE_REF);
+        }
+
+        if (layout.isSequencing()) {
+            header.add("Comment [LIBRARY_LAYOUT]");
+            header.add("Comment [LIBRARY_SOURCE]");
+            header.add("Comment [LIBRARY_STRATEGY]");
+            header.add("Comment [LIBRARY_SELECTION]");
+            // no Protocol REF in front of these, ProtocolInsertionUtil has to add one
+            header.add("Performer");
+            header.add("Parameter Value[fragment size]");
+            header.add("Assay Name");
+            if (rogueTermSourceRefCount > ROGUE_AFTER_LABEL) {
+                header.add(TERM_SOURCE_REF);
+            }
+            header.add("Technology Type");
+            header.add("Comment [ENA_EXPERIMENT]");
+            header.add("Comment [instrument_model]");
+            header.add("Scan Name");
+            header.add("Comment [ENA_RUN]");
+            header.add("Comment [FASTQ_URI]");
+            header.add(PROTOCOL_REF);
+            header.add("Derived Array Data File");
+        } else {
+            if (layout == Layout.CHIP_CHIP) {
+                header.add("Characteristics[immunoprecipitate antibody]");
+            }
+            header.add(PROTOCOL_REF);
+            header.add("Labeled Extract Name");
+            header.add("Label");
+            if (rogueTermSourceRefCount > ROGUE_AFTER_LABEL) {
+                header.add(TERM_SOURCE_REF);
+            }
+            header.add(PROTOCOL_REF);
+            header.add("Parameter Value[hybridization temperature]");
+            header.add("Hybridization Name");
+            header.add("Array Design REF");
+            if (rogueTermSourceRefCount > ROGUE_AFTER_ARRAY_DESIGN) {
+                header.add(TERM_SOURCE_REF);
+            }
+            header.add(PROTOCOL_REF);
+            header.add("Scan Name");
+            header.add("Array Data File");
+            header.add("Comment [ArrayExpress FTP file]");
+            header.add(PROTOCOL_REF);
+            header.add("Normalization Name");
+            header.add("Derived Array Data File");
+            header.add("Comment [Derived ArrayExpress FTP file]");
+        }
+
+        for (int factorIndex = 0; factorIndex < factorValueColumnCount; factorIndex++) {
+            header.add("Factor Value[" + getFactorName(factorIndex) + "]");
+            if (getFactorName(factorIndex).equals("time")) {
+                header.add("Unit[time unit]");
+                header.add(TERM_SOURCE_REF);
+            }
+        }
+
+        return header;
+    }
+
+    private void addProtocolChain(List<String> header) {
+        for (int protocolIndex = 0; protocolIndex < protocolChainLength; protocolIndex++) {
+            header.add(PROTOCOL_REF);
+        }
+    }
+
+    private String[] createRow(String[] header, Layout layout, int sdrfIndex, int rowIndex, Random random) {
+        String[] row = new String[header.length];
+
+        // each source gives a few samples, each sample is hybridized or sequenced once
+        String rowId = (sdrfIndex + 1) + "." + rowIndex;
+        String sourceId = (sdrfIndex + 1) + "." + (rowIndex / 4);
+        int protocolColumn = 0;
+
+        for (int columnIndex = 0; columnIndex < header.length; columnIndex++) {
+            String columnName = header[columnIndex];
+
+            String value;
+            if (columnName.equals("Source Name")) {
+                value = "source " + sourceId;
+            } else if (columnName.equals("Sample Name")) {
+                value = "sample " + rowId;
+            } else if (columnName.equals("Extract Name")) {
+                value = "extract " + rowId;
+            } else if (columnName.equals("Labeled Extract Name")) {
+                value = "labeled extract " + rowId;
+            } else if (columnName.equals("Hybridization Name") || columnName.equals("Assay Name")) {
+                value = "assay " + rowId;
+            } else if (columnName.equals("Scan Name")) {
+                value = "scan " + rowId;
+            } else if (columnName.equals("Normalization Name")) {
+                value = "normalization " + rowId;
+            } else if (columnName.equals(PROTOCOL_REF)) {
+                // chained protocols are not always all filled in
+                value = random.nextInt(4) == 0 ? "" : getProtocolName(protocolColumn % getProtocolCount());
+                protocolColumn++;
+            } else if (columnName.equals(TERM_SOURCE_REF)) {
+                value = "EFO";
+            } else if (columnName.equals("Material Type")) {
+                value = layout.getMaterialType();
+            } else if (columnName.equals("Label")) {
+                value = rowIndex % 2 == 0 ? "Cy3" : "Cy5";
+            } else if (columnName.equals("Array Design REF")) {
+                value = "A-AFFY-44";
+            } else if (columnName.equals("Technology Type")) {
+                value = "sequencing assay";
+            } else if (columnName.equals("Performer")) {
+                value = "sequencing facility";
+            } else if (columnName.equals("Comment [LIBRARY_LAYOUT]")) {
+                value = "SINGLE";
+            } else if (columnName.equals("Comment [LIBRARY_SOURCE]")) {
+                value = layout == Layout.RNA_SEQ ? "TRANSCRIPTOMIC" : "GENOMIC";
+            } else if (columnName.equals("Comment [LIBRARY_STRATEGY]")) {
+                value = layout == Layout.RNA_SEQ ? "RNA-Seq" : "ChIP-Seq";
+            } else if (columnName.equals("Comment [LIBRARY_SELECTION]")) {
+                value = layout == Layout.RNA_SEQ ? "cDNA" : "ChIP";
+            } else if (columnName.equals("Comment [instrument_model]")) {
+                value = "Illumina Genome Analyzer II";
+            } else if (columnName.equals("Comment [ENA_EXPERIMENT]")) {
+                value = "ERX" + rowId;
+            } else if (columnName.equals("Comment [ENA_RUN]")) {
+                value = "ERR" + rowId;
+            } else if (columnName.endsWith("File") || columnName.contains("FTP") || columnName.contains("URI")) {
+                value = "data_" + rowId + ".txt";
+            } else if (columnName.equals("Characteristics[immunoprecipitate antibody]")) {
+                value = "anti-H3K4me3";
+            } else if (columnName.startsWith("Characteristics")) {
+                value = getCharacteristicValue(columnName, rowIndex);
+                // duplicated columns only carry part of the values
+                if (isDuplicate(header, columnIndex) && random.nextBoolean()) {
+                    value = "";
+                }
+            } else if (columnName.startsWith("Factor Value")) {
+                value = "level " + (rowIndex / 4 % 5);
+            } else if (columnName.startsWith("Unit")) {
+                value = "hour";
+            } else if (columnName.startsWith("Parameter Value")) {
+                value = String.valueOf(100 + random.nextInt(300));
+            } else {
+                value = "value " + rowId;
+            }
+
+            row[columnIndex] = value;
+        }
+
+        return row;
+    }
+
+    private boolean isDuplicate(String[] header, int columnIndex) {
+        for (int previousIndex = 0; previousIndex < columnIndex; previousIndex++) {
+            if (header[previousIndex].equals(header[columnIndex])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getCharacteristicColumn(int characteristicIndex) {
+        if (characteristicIndex < CHARACTERISTIC_NAMES.length) {
+            return "Characteristics[" + CHARACTERISTIC_NAMES[characteristicIndex] + "]";
+        }
+        return "Characteristics[attribute " + characteristicIndex + "]";
+    }
+
+    private String getCharacteristicValue(String columnName, int rowIndex) {
+        if (columnName.equals("Characteristics[organism]")) {
+            return "Homo sapiens";
+        }
+        if (columnName.equals("Characteristics[sex]")) {
+            return rowIndex % 2 == 0 ? "female" : "male";
+        }
+        return columnName.substring("Characteristics[".length(), columnName.length() - 1) + " " + (rowIndex / 4 % 10);
+    }
+
+    private String getFactorName(int factorIndex) {
+        if (factorIndex < FACTOR_NAMES.length) {
+            return FACTOR_NAMES[factorIndex];
+        }
+        return "factor " + factorIndex;
+    }
+
+    private int getProtocolCount() {
+        // two chains, plus the labeling, hybridization, scanning and normalization protocols
+        return Math.max(1, 2 * protocolChainLength + 4);
+    }
+
+    private String getProtocolName(int protocolIndex) {
+        return "P-SYNT-" + (protocolIndex + 1);
+    }
+
+    private static String[] row(String name, String... values) {
+        return row(name, Arrays.asList(values));
+    }
+
+    private static String[] row(String name, Iterable<String> values) {
+        List<String> row = new ArrayList<String>();
+        row.add(name);
+        for (String value : values) {
+            row.add(value);
+        }
+        return row.toArray(new String[row.size()]);
+    }
+
+    private static String[] repeat(String value, int times) {
+        String[] values = new String[times];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    private static void writeRows(File file, List<String[]> rows) throws IOException {
+        PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false, "UTF-8");
+
+        try {
+            for (String[] row : rows) {
+                StringBuilder line = new StringBuilder();
+                for (int columnIndex = 0; columnIndex < row.length; columnIndex++) {
+                    if (columnIndex > 0) {
+                        line.append(TAB);
+                    }
+                    line.append(row[columnIndex]);
+                }
+                ps.println(line);
+            }
+        } finally {
+            ps.close();
+        }
+
+        if (ps.checkError()) {
+            throw new IOException("Could not write " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Usage: MAGETabCorpusGenerator directory accession [rows] [sdrf count] [layout,layout...]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: MAGETabCorpusGenerator directory accession [rows] [sdrf count] [layouts, e.g. "
+                    + Layout.MICROARRAY + "," + Layout.CHIP_SEQ + "]");
+            return;
+        }
+
+        MAGETabCorpusGenerator generator = new MAGETabCorpusGenerator();
+        if (args.length > 2) {
+            generator.setRowCount(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.setSdrfCount(Integer.parseInt(args[3]));
+        }
+        if (args.length > 4) {
+            String[] layoutNames = args[4].split(",");
+            Layout[] layouts = new Layout[layoutNames.length];
+            for (int layoutIndex = 0; layoutIndex < layoutNames.length; layoutIndex++) {
+                layouts[layoutIndex] = Layout.valueOf(layoutNames[layoutIndex].trim().toUpperCase());
+            }
+            generator.setLayouts(layouts);
+        }
+
+        File idfFile = generator.generate(new File(args[0]), args[1]);
+        System.out.println("Generated " + idfFile.getAbsolutePath());
+    }
+}
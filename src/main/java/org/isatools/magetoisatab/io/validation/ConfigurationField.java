@@ -0,0 +1,52 @@
+package org.isatools.magetoisatab.io.validation;
+
+/**
+ * A column an ISA configuration expects in its table: a field, by header, or a protocol field, a Protocol REF column
+ * of a given protocol type.
+ */
+public final class ConfigurationField {
+
+    public static final String PROTOCOL_HEADER = "Protocol REF";
+
+    private final String header;
+    private final boolean required;
+    private final String protocolType;
+
+    private ConfigurationField(String header, boolean required, String protocolType) {
+        this.header = header;
+        this.required = required;
+        this.protocolType = protocolType;
+    }
+
+    public static ConfigurationField field(String header, boolean required) {
+        return new ConfigurationField(header.trim(), required, null);
+    }
+
+    public static ConfigurationField protocolField(String protocolType) {
+        return new ConfigurationField(PROTOCOL_HEADER, false, protocolType == null ? "" : protocolType.trim());
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    public boolean isProtocolField() {
+        return protocolType != null;
+    }
+
+    /**
+     * @return the protocol type of a protocol field, null for other fields
+     */
+    public String getProtocolType() {
+        return protocolType;
+    }
+
+    @Override
+    public String toString() {
+        return isProtocolField() ? header + " (" + protocolType + ")" : header;
+    }
+}
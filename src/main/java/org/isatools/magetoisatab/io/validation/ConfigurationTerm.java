@@ -0,0 +1,34 @@
+package org.isatools.magetoisatab.io.validation;
+
+/**
+ * An ontology term of an ISA configuration, such as its measurement or technology type.
+ */
+public final class ConfigurationTerm {
+
+    private final String label;
+    private final String accession;
+    private final String sourceAbbreviation;
+
+    public ConfigurationTerm(String label, String accession, String sourceAbbreviation) {
+        this.label = label == null ? "" : label.trim();
+        this.accession = accession == null ? "" : accession.trim();
+        this.sourceAbbreviation = sourceAbbreviation == null ? "" : sourceAbbreviation.trim();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public String getSourceAbbreviation() {
+        return sourceAbbreviation;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
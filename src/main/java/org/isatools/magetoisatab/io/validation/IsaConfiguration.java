@@ -0,0 +1,56 @@
+package org.isatools.magetoisatab.io.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ISA configuration: the columns expected in the study sample table, or in the assay tables of a measurement and
+ * technology type, in the order they are expected in.
+ */
+public final class IsaConfiguration {
+
+    // the measurement the study sample configuration is given instead of a real one
+    private static final String STUDY_SAMPLE_MEASUREMENT = "[Sample]";
+
+    private final String tableName;
+    private final ConfigurationTerm measurement;
+    private final ConfigurationTerm technology;
+    private final List<ConfigurationField> fields;
+
+    public IsaConfiguration(String tableName, ConfigurationTerm measurement, ConfigurationTerm technology,
+                            List<ConfigurationField> fields) {
+        this.tableName = tableName;
+        this.measurement = measurement;
+        this.technology = technology;
+        this.fields = Collections.unmodifiableList(new ArrayList<ConfigurationField>(fields));
+    }
+
+    /**
+     * @return the name of the configuration, e.g. transcription_micro
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    public ConfigurationTerm getMeasurement() {
+        return measurement;
+    }
+
+    public ConfigurationTerm getTechnology() {
+        return technology;
+    }
+
+    public List<ConfigurationField> getFields() {
+        return fields;
+    }
+
+    public boolean isStudySampleConfiguration() {
+        return STUDY_SAMPLE_MEASUREMENT.equals(measurement.getLabel());
+    }
+
+    @Override
+    public String toString() {
+        return tableName + " (" + measurement + ", " + technology + ")";
+    }
+}
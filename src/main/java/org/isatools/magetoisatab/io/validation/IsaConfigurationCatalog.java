@@ -0,0 +1,157 @@
+package org.isatools.magetoisatab.io.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ISA configurations of a configuration directory, parsed once, indexed by measurement and technology type and
+ * by table name, with each configuration's TableValidator compiled alongside it.
+ * <p/>
+ * The catalog of the magetoisatab.config directory is shared by every conversion of the JVM and loaded on first use,
+ * so that batches and long running processes parse the configurations once rather than once per accession. A
+ * catalog does not change once made, so any number of threads can read it without locking. Measurement and
+ * technology types are matched without regard to case; where two configurations share them, the first in file name
+ * order is used.
+ */
+public class IsaConfigurationCatalog {
+
+    private final List<IsaConfiguration> configurations;
+
+    private final IsaConfiguration studySampleConfiguration;
+
+    // by lower case measurement and technology, tab separated
+    private final Map<String, IsaConfiguration> assayConfigurations;
+
+    private final Map<String, IsaConfiguration> tableConfigurations;
+
+    private final Map<IsaConfiguration, TableValidator> validators;
+
+    private static class SharedCatalogHolder {
+        static final IsaConfigurationCatalog CATALOG = loadSharedCatalog();
+    }
+
+    public IsaConfigurationCatalog(List<IsaConfiguration> configurations) {
+        IsaConfiguration studySample = null;
+        Map<String, IsaConfiguration> byAssayType = new HashMap<String, IsaConfiguration>();
+        Map<String, IsaConfiguration> byTableName = new HashMap<String, IsaConfiguration>();
+        Map<IsaConfiguration, TableValidator> compiledValidators = new HashMap<IsaConfiguration, TableValidator>();
+
+        for (IsaConfiguration configuration : configurations) {
+            if (configuration.isStudySampleConfiguration()) {
+                if (studySample == null) {
+                    studySample = configuration;
+                }
+            } else {
+                String assayTypeKey = getAssayTypeKey(configuration.getMeasurement().getLabel(),
+                        configuration.getTechnology().getLabel());
+                if (!byAssayType.containsKey(assayTypeKey)) {
+                    byAssayType.put(assayTypeKey, configuration);
+                }
+            }
+            if (!byTableName.containsKey(configuration.getTableName())) {
+                byTableName.put(configuration.getTableName(), configuration);
+            }
+            compiledValidators.put(configuration, new TableValidator(configuration));
+        }
+
+        this.configurations = Collections.unmodifiableList(new ArrayList<IsaConfiguration>(configurations));
+        this.studySampleConfiguration = studySample;
+        this.assayConfigurations = Collections.unmodifiableMap(byAssayType);
+        this.tableConfigurations = Collections.unmodifiableMap(byTableName);
+        this.validators = Collections.unmodifiableMap(compiledValidators);
+    }
+
+    /**
+     * @return the catalog of the magetoisatab.config directory, loaded on first use, or null if the property is not
+     *         set
+     * @throws IllegalStateException if the configurations can not be read
+     */
+    public static IsaConfigurationCatalog getCatalog() {
+        return SharedCatalogHolder.CATALOG;
+    }
+
+    /**
+     * Parses the configurations of a directory in to a catalog of its own, not shared.
+     */
+    public static IsaConfigurationCatalog load(File directory) throws IOException {
+        return new IsaConfigurationCatalog(IsaConfigurationParser.parseDirectory(directory));
+    }
+
+    private static IsaConfigurationCatalog loadSharedCatalog() {
+        File directory = IsaConfigurationParser.getConfigurationDirectory();
+        if (directory == null) {
+            return null;
+        }
+
+        try {
+            IsaConfigurationCatalog catalog = load(directory);
+            System.out.println("Loaded " + catalog.getConfigurations().size() + " ISA configurations from " + directory);
+            return catalog;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the ISA configurations: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return every configuration, in file name order
+     */
+    public List<IsaConfiguration> getConfigurations() {
+        return configurations;
+    }
+
+    /**
+     * @return the configuration of the study sample table, or null if there is none
+     */
+    public IsaConfiguration getStudySampleConfiguration() {
+        return studySampleConfiguration;
+    }
+
+    /**
+     * @return the configuration of assays of the given measurement and technology type, e.g. transcription profiling
+     *         and DNA microarray, or null if there is none
+     */
+    public IsaConfiguration getConfiguration(String measurement, String technology) {
+        return assayConfigurations.get(getAssayTypeKey(measurement, technology));
+    }
+
+    /**
+     * @return the configuration of the given table name, e.g. transcription_micro, or null if there is none
+     */
+    public IsaConfiguration getConfiguration(String tableName) {
+        return tableConfigurations.get(tableName);
+    }
+
+    /**
+     * @return the measurement term, with its accession, of the configuration of the given assay type, or null
+     */
+    public ConfigurationTerm getMeasurementTerm(String measurement, String technology) {
+        IsaConfiguration configuration = getConfiguration(measurement, technology);
+        return configuration == null ? null : configuration.getMeasurement();
+    }
+
+    /**
+     * @return the technology term, with its accession, of the configuration of the given assay type, or null
+     */
+    public ConfigurationTerm getTechnologyTerm(String measurement, String technology) {
+        IsaConfiguration configuration = getConfiguration(measurement, technology);
+        return configuration == null ? null : configuration.getTechnology();
+    }
+
+    /**
+     * @return the validator of a configuration of this catalog, or null if the configuration is null or not one of
+     *         them
+     */
+    public TableValidator getValidator(IsaConfiguration configuration) {
+        return configuration == null ? null : validators.get(configuration);
+    }
+
+    private static String getAssayTypeKey(String measurement, String technology) {
+        return (measurement == null ? "" : measurement.trim().toLowerCase()) + "\t"
+                + (technology == null ? "" : technology.trim().toLowerCase());
+    }
+}
@@ -0,0 +1,140 @@
+package org.isatools.magetoisatab.io.validation;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads ISA configuration files, as found in isaconfig-default_v2011-02-18, with a StAX pull parser. Only the
+ * elements and attributes the converter uses are looked at: the table name, the measurement and technology terms,
+ * and the header, is-required flag and protocol type of each field and protocol field, in document order. Descriptions,
+ * ontologies and value templates are skipped without being read.
+ * <p/>
+ * The configuration directory is given by the magetoisatab.config system property. Conversions get its configurations
+ * from the shared IsaConfigurationCatalog rather than parsing them themselves.
+ */
+public class IsaConfigurationParser {
+
+    public static final String CONFIGURATION_PROPERTY = "magetoisatab.config";
+
+    private static final String CONFIGURATION_EXTENSION = ".xml";
+
+    /**
+     * @return the directory named by the magetoisatab.config system property, or null if it is not set
+     */
+    public static File getConfigurationDirectory() {
+        String directory = System.getProperty(CONFIGURATION_PROPERTY);
+        return directory == null || directory.trim().length() == 0 ? null : new File(directory.trim());
+    }
+
+    /**
+     * Reads the configurations of the .xml files of a directory, in file name order.
+     *
+     * @throws IOException if the directory or a file can not be read, or a file is not well formed
+     */
+    public static List<IsaConfiguration> parseDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("ISA configuration directory not found: " + directory);
+        }
+        Arrays.sort(files);
+
+        XMLInputFactory factory = createFactory();
+        List<IsaConfiguration> configurations = new ArrayList<IsaConfiguration>();
+
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(CONFIGURATION_EXTENSION)) {
+                InputStream input = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    configurations.addAll(parse(factory, input, file.getName()));
+                } finally {
+                    input.close();
+                }
+            }
+        }
+        return configurations;
+    }
+
+    /**
+     * @param source - what the stream is read from, for error messages
+     */
+    public static List<IsaConfiguration> parse(InputStream input, String source) throws IOException {
+        return parse(createFactory(), input, source);
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    }
+
+    private static List<IsaConfiguration> parse(XMLInputFactory factory, InputStream input, String source)
+            throws IOException {
+        List<IsaConfiguration> configurations = new ArrayList<IsaConfiguration>();
+
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(input);
+            try {
+                String tableName = null;
+                ConfigurationTerm measurement = null;
+                ConfigurationTerm technology = null;
+                List<ConfigurationField> fields = new ArrayList<ConfigurationField>();
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = reader.getLocalName();
+
+                        if (element.equals("isatab-configuration")) {
+                            tableName = getAttribute(reader, "table-name");
+                            measurement = null;
+                            technology = null;
+                            fields.clear();
+                        } else if (element.equals("measurement")) {
+                            measurement = getTerm(reader);
+                        } else if (element.equals("technology")) {
+                            technology = getTerm(reader);
+                        } else if (element.equals("field")) {
+                            fields.add(ConfigurationField.field(getAttribute(reader, "header"),
+                                    "true".equalsIgnoreCase(getAttribute(reader, "is-required"))));
+                        } else if (element.equals("protocol-field")) {
+                            fields.add(ConfigurationField.protocolField(getAttribute(reader, "protocol-type")));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("isatab-configuration")) {
+                        configurations.add(new IsaConfiguration(tableName,
+                                measurement == null ? new ConfigurationTerm("", "", "") : measurement,
+                                technology == null ? new ConfigurationTerm("", "", "") : technology, fields));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            IOException failure = new IOException("Could not read ISA configuration " + source + ": " + e.getMessage());
+            failure.initCause(e);
+            throw failure;
+        }
+        return configurations;
+    }
+
+    private static ConfigurationTerm getTerm(XMLStreamReader reader) {
+        return new ConfigurationTerm(getAttribute(reader, "term-label"), getAttribute(reader, "term-accession"),
+                getAttribute(reader, "source-abbreviation"));
+    }
+
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+}
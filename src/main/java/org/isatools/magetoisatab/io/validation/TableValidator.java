@@ -0,0 +1,159 @@
+package org.isatools.magetoisatab.io.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks tables against an ISA configuration as they are written, header first and then row by row, so that they
+ * never need to be read again to be validated.
+ * <p/>
+ * The configuration is compiled once in to its fields, in order, whether each is required, and how many protocol
+ * fields come right before each. The header of a table is checked for missing required columns, fields out of order
+ * and missing Protocol REF columns: a field preceded by protocol fields in the configuration must be preceded by as
+ * many Protocol REF columns since the field before it. This leaves the required columns to check in each row, for
+ * empty cells. Headers are matched without regard to case.
+ * <p/>
+ * Validators do not change once compiled and can check several tables at once.
+ */
+public class TableValidator {
+
+    private final IsaConfiguration configuration;
+
+    // the fields other than protocol fields, in configuration order
+    private final String[] fieldHeaders;
+    private final boolean[] requiredFields;
+
+    // for each field, the protocol fields between it and the field before it
+    private final int[] protocolsBefore;
+    private final List<List<String>> protocolTypesBefore = new ArrayList<List<String>>();
+
+    public TableValidator(IsaConfiguration configuration) {
+        this.configuration = configuration;
+
+        List<ConfigurationField> fields = new ArrayList<ConfigurationField>();
+        List<String> protocolTypes = new ArrayList<String>();
+
+        for (ConfigurationField field : configuration.getFields()) {
+            if (field.isProtocolField()) {
+                protocolTypes.add(field.getProtocolType());
+            } else {
+                fields.add(field);
+                protocolTypesBefore.add(protocolTypes);
+                protocolTypes = new ArrayList<String>();
+            }
+        }
+
+        fieldHeaders = new String[fields.size()];
+        requiredFields = new boolean[fields.size()];
+        protocolsBefore = new int[fields.size()];
+        for (int fieldIndex = 0; fieldIndex < fields.size(); fieldIndex++) {
+            fieldHeaders[fieldIndex] = fields.get(fieldIndex).getHeader();
+            requiredFields[fieldIndex] = fields.get(fieldIndex).isRequired();
+            protocolsBefore[fieldIndex] = protocolTypesBefore.get(fieldIndex).size();
+        }
+    }
+
+    public IsaConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Checks the header of a table, reporting its problems.
+     *
+     * @return the check of the rows of the table
+     */
+    public RowCheck checkHeader(String fileName, String[] header, ValidationReport report) {
+        report.addFile(fileName);
+
+        int[] positions = new int[fieldHeaders.length];
+        for (int fieldIndex = 0; fieldIndex < fieldHeaders.length; fieldIndex++) {
+            positions[fieldIndex] = findColumn(header, fieldHeaders[fieldIndex]);
+        }
+
+        List<Integer> requiredColumns = new ArrayList<Integer>();
+        int previousPosition = -1;
+        int previousField = -1;
+
+        for (int fieldIndex = 0; fieldIndex < fieldHeaders.length; fieldIndex++) {
+            int position = positions[fieldIndex];
+
+            if (position < 0) {
+                if (requiredFields[fieldIndex]) {
+                    report.addProblem(fileName, "required column " + fieldHeaders[fieldIndex] + " is missing");
+                }
+                continue;
+            }
+            if (requiredFields[fieldIndex]) {
+                requiredColumns.add(position);
+            }
+
+            if (position < previousPosition) {
+                report.addProblem(fileName, "column " + fieldHeaders[fieldIndex] + " should come after "
+                        + fieldHeaders[previousField]);
+                continue;
+            }
+
+            if (protocolsBefore[fieldIndex] > 0) {
+                int protocolColumns = 0;
+                for (int column = previousPosition + 1; column < position; column++) {
+                    if (header[column] != null && ConfigurationField.PROTOCOL_HEADER.equalsIgnoreCase(header[column].trim())) {
+                        protocolColumns++;
+                    }
+                }
+                if (protocolColumns < protocolsBefore[fieldIndex]) {
+                    report.addProblem(fileName, "expected a " + ConfigurationField.PROTOCOL_HEADER + " column for "
+                            + protocolTypesBefore.get(fieldIndex) + " before " + fieldHeaders[fieldIndex]
+                            + ", found " + protocolColumns);
+                }
+            }
+            previousPosition = position;
+            previousField = fieldIndex;
+        }
+
+        int[] columns = new int[requiredColumns.size()];
+        for (int index = 0; index < columns.length; index++) {
+            columns[index] = requiredColumns.get(index);
+        }
+        return new RowCheck(fileName, header.clone(), columns, report);
+    }
+
+    private static int findColumn(String[] header, String fieldHeader) {
+        for (int column = 0; column < header.length; column++) {
+            if (header[column] != null && header[column].trim().equalsIgnoreCase(fieldHeader)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks the rows of one table for empty required cells. Rows must be checked in order, from one thread.
+     */
+    public static class RowCheck {
+
+        private final String fileName;
+        private final String[] header;
+        private final int[] requiredColumns;
+        private final ValidationReport report;
+
+        // the header being line 1
+        private long lineNumber = 1;
+
+        RowCheck(String fileName, String[] header, int[] requiredColumns, ValidationReport report) {
+            this.fileName = fileName;
+            this.header = header;
+            this.requiredColumns = requiredColumns;
+            this.report = report;
+        }
+
+        public void check(String[] row) {
+            lineNumber++;
+
+            for (int column : requiredColumns) {
+                if (column >= row.length || row[column] == null || row[column].trim().length() == 0) {
+                    report.addProblem(fileName, "line " + lineNumber + ": " + header[column] + " is empty");
+                }
+            }
+        }
+    }
+}
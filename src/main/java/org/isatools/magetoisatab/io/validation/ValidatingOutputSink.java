@@ -0,0 +1,212 @@
+package org.isatools.magetoisatab.io.validation;
+
+import org.isatools.magetoisatab.io.output.ForwardingIsaTabWriter;
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.OutputSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes files to another sink, validating study and assay tables against their ISA configuration as they are
+ * written, into a ValidationReport.
+ * <p/>
+ * As an ISA-Tab validator would, the configuration of an assay file is found from the Study Assay Measurement Type,
+ * Study Assay Technology Type and Study Assay File Name rows of the investigation file, which is written before the
+ * assay files are. The study sample file is checked against the configuration with the [Sample] measurement type.
+ * Tables with no configuration are reported as such and not checked.
+ */
+public class ValidatingOutputSink implements OutputSink {
+
+    private static final String MEASUREMENT_ROW = "Study Assay Measurement Type";
+    private static final String TECHNOLOGY_ROW = "Study Assay Technology Type";
+    private static final String ASSAY_FILE_ROW = "Study Assay File Name";
+    private static final String ASSAY_ROW_PREFIX = "Study Assay ";
+
+    private final OutputSink sink;
+
+    private final ValidationReport report;
+
+    private final IsaConfigurationCatalog catalog;
+
+    // the assay rows of the investigation file of each accession, by row name
+    private final Map<String, Map<String, String[]>> investigationRows = new HashMap<String, Map<String, String[]>>();
+
+    /**
+     * @param catalog - the configurations to validate against, with their compiled validators
+     */
+    public ValidatingOutputSink(OutputSink sink, IsaConfigurationCatalog catalog, ValidationReport report) {
+        this.sink = sink;
+        this.catalog = catalog;
+        this.report = report;
+    }
+
+    public ValidationReport getReport() {
+        return report;
+    }
+
+    public IsaTabWriter openWriter(String accnum, String fileName) throws IOException {
+        IsaTabWriter writer = sink.openWriter(accnum, fileName);
+
+        if (fileName.startsWith("i_")) {
+            return new InvestigationWriter(writer, accnum);
+        }
+
+        TableValidator validator;
+        if (fileName.startsWith("s_")) {
+            validator = catalog.getValidator(catalog.getStudySampleConfiguration());
+            if (validator == null) {
+                report.addProblem(fileName, "not validated, there is no study sample configuration");
+            }
+        } else if (fileName.startsWith("a_")) {
+            validator = getAssayValidator(accnum, fileName);
+        } else {
+            return writer;
+        }
+
+        return validator == null ? writer : new ValidatingWriter(writer, validator, fileName);
+    }
+
+    public boolean exists(String accnum, String fileName) {
+        return sink.exists(accnum, fileName);
+    }
+
+    public boolean isIncremental() {
+        return sink.isIncremental();
+    }
+
+    public File getLocation(String accnum) {
+        return sink.getLocation(accnum);
+    }
+
+    public void finishAccession(String accnum) throws IOException {
+        synchronized (investigationRows) {
+            investigationRows.remove(accnum);
+        }
+        sink.finishAccession(accnum);
+    }
+
+    public void close() throws IOException {
+        sink.close();
+    }
+
+    private TableValidator getAssayValidator(String accnum, String fileName) {
+        String[] fileNames;
+        String[] measurements;
+        String[] technologies;
+        synchronized (investigationRows) {
+            Map<String, String[]> rows = investigationRows.get(accnum);
+            fileNames = rows == null ? null : rows.get(ASSAY_FILE_ROW);
+            measurements = rows == null ? null : rows.get(MEASUREMENT_ROW);
+            technologies = rows == null ? null : rows.get(TECHNOLOGY_ROW);
+        }
+
+        if (fileNames == null) {
+            report.addProblem(fileName, "not validated, the investigation file does not list it");
+            return null;
+        }
+
+        for (int index = 1; index < fileNames.length; index++) {
+            if (fileNames[index].trim().equals(fileName)) {
+                String measurement = getCell(measurements, index);
+                String technology = getCell(technologies, index);
+
+                TableValidator validator = catalog.getValidator(catalog.getConfiguration(measurement, technology));
+                if (validator == null) {
+                    report.addProblem(fileName, "not validated, there is no configuration for measurement "
+                            + measurement + " and technology " + technology);
+                }
+                return validator;
+            }
+        }
+
+        report.addProblem(fileName, "not validated, the investigation file does not list it");
+        return null;
+    }
+
+    private static String getCell(String[] row, int index) {
+        return row != null && index < row.length ? row[index] : "";
+    }
+
+    /**
+     * Notes the assay rows of the investigation file on their way.
+     */
+    private class InvestigationWriter extends ForwardingIsaTabWriter {
+
+        private final String accnum;
+
+        InvestigationWriter(IsaTabWriter writer, String accnum) {
+            super(writer);
+            this.accnum = accnum;
+        }
+
+        @Override
+        public void writeLine(String line) throws IOException {
+            super.writeLine(line);
+
+            if (line != null && line.contains(ASSAY_ROW_PREFIX)) {
+                for (String rowLine : line.split("\r\n|\n|\r")) {
+                    String[] row = rowLine.split("\t", -1);
+                    String rowName = row[0].trim();
+
+                    if (rowName.equals(MEASUREMENT_ROW) || rowName.equals(TECHNOLOGY_ROW) || rowName.equals(ASSAY_FILE_ROW)) {
+                        synchronized (investigationRows) {
+                            Map<String, String[]> rows = investigationRows.get(accnum);
+                            if (rows == null) {
+                                rows = new HashMap<String, String[]>();
+                                investigationRows.put(accnum, rows);
+                            }
+                            rows.put(rowName, row);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the header, the first row written, and then each row.
+     */
+    private class ValidatingWriter extends ForwardingIsaTabWriter {
+
+        private final TableValidator validator;
+        private final String fileName;
+
+        private TableValidator.RowCheck rowCheck;
+
+        ValidatingWriter(IsaTabWriter writer, TableValidator validator, String fileName) {
+            super(writer);
+            this.validator = validator;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void writeRow(String[] row) throws IOException {
+            super.writeRow(row);
+            check(row);
+        }
+
+        @Override
+        public void writeRow(List<String> row) throws IOException {
+            super.writeRow(row);
+            check(row.toArray(new String[row.size()]));
+        }
+
+        @Override
+        public void writeLine(String line) throws IOException {
+            super.writeLine(line);
+            check(line == null ? new String[]{""} : line.split("\t", -1));
+        }
+
+        private void check(String[] row) {
+            if (rowCheck == null) {
+                rowCheck = validator.checkHeader(fileName, row, report);
+            } else {
+                rowCheck.check(row);
+            }
+        }
+    }
+}
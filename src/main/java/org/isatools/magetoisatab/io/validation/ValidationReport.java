@@ -0,0 +1,114 @@
+package org.isatools.magetoisatab.io.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The problems validation found in the files of a conversion, by file. Files can be validated at once, from
+ * different threads.
+ * <p/>
+ * Every problem is counted, but only the first few of each file are kept, as a required column left empty gives one
+ * problem per row.
+ */
+public class ValidationReport {
+
+    private static final int MAXIMUM_KEPT_PROBLEMS = 20;
+
+    private static final String REPORT_EXTENSION = ".validation.txt";
+
+    private final Map<String, List<String>> fileProblems = new TreeMap<String, List<String>>();
+
+    private final Map<String, Integer> fileProblemCounts = new TreeMap<String, Integer>();
+
+    private final List<String> validatedFiles = new ArrayList<String>();
+
+    /**
+     * @return the name of the file the report of an accession is written to, next to its ISA-Tab files
+     */
+    public static String getReportFileName(String accnum) {
+        return accnum + REPORT_EXTENSION;
+    }
+
+    /**
+     * Records that a file was validated, whether or not it has problems.
+     */
+    public synchronized void addFile(String fileName) {
+        if (!validatedFiles.contains(fileName)) {
+            validatedFiles.add(fileName);
+        }
+    }
+
+    public synchronized void addProblem(String fileName, String problem) {
+        addFile(fileName);
+
+        Integer count = fileProblemCounts.get(fileName);
+        fileProblemCounts.put(fileName, count == null ? 1 : count + 1);
+
+        List<String> problems = fileProblems.get(fileName);
+        if (problems == null) {
+            problems = new ArrayList<String>();
+            fileProblems.put(fileName, problems);
+        }
+        if (problems.size() < MAXIMUM_KEPT_PROBLEMS) {
+            problems.add(problem);
+        }
+    }
+
+    public synchronized boolean isValid() {
+        return fileProblemCounts.isEmpty();
+    }
+
+    public synchronized List<String> getValidatedFiles() {
+        return Collections.unmodifiableList(new ArrayList<String>(validatedFiles));
+    }
+
+    /**
+     * @return the number of problems of every file
+     */
+    public synchronized int getProblemCount() {
+        int problemCount = 0;
+        for (int count : fileProblemCounts.values()) {
+            problemCount += count;
+        }
+        return problemCount;
+    }
+
+    public synchronized int getProblemCount(String fileName) {
+        Integer count = fileProblemCounts.get(fileName);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the first problems of a file, in the order found
+     */
+    public synchronized List<String> getProblems(String fileName) {
+        List<String> problems = fileProblems.get(fileName);
+        return problems == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(problems));
+    }
+
+    /**
+     * @return the report as lines of text: a line per validated file, followed by its problems
+     */
+    public synchronized List<String> toLines() {
+        List<String> lines = new ArrayList<String>();
+
+        List<String> fileNames = new ArrayList<String>(validatedFiles);
+        Collections.sort(fileNames);
+
+        for (String fileName : fileNames) {
+            int count = getProblemCount(fileName);
+            lines.add(fileName + "\t" + (count == 0 ? "valid" : count + " problem(s)"));
+
+            for (String problem : getProblems(fileName)) {
+                lines.add("\t" + problem);
+            }
+            if (count > MAXIMUM_KEPT_PROBLEMS) {
+                lines.add("\t... and " + (count - MAXIMUM_KEPT_PROBLEMS) + " more");
+            }
+        }
+        return lines;
+    }
+}
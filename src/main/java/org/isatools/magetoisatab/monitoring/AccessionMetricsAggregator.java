@@ -0,0 +1,137 @@
+package org.isatools.magetoisatab.monitoring;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default {@link ConversionListener}: sums up the metrics of every stage per accession.
+ * Totals are kept per stage and detail, e.g. 'cleanup CollapseColumnUtil', so each cleanup step is reported on
+ * its own.
+ */
+public class AccessionMetricsAggregator implements ConversionListener {
+
+    private static final String UNKNOWN_ACCESSION = "unknown";
+
+    private ConcurrentMap<String, ConcurrentMap<String, StageTotals>> accessionToStageTotals;
+
+    public AccessionMetricsAggregator() {
+        accessionToStageTotals = new ConcurrentHashMap<String, ConcurrentMap<String, StageTotals>>();
+    }
+
+    public Object stageStarted(String accession, ConversionStage stage, String detail) {
+        return null;
+    }
+
+    public void stageCompleted(StageMetrics metrics, Object context) {
+        String accession = metrics.getAccession() == null ? UNKNOWN_ACCESSION : metrics.getAccession();
+
+        ConcurrentMap<String, StageTotals> stageTotals = accessionToStageTotals.get(accession);
+        if (stageTotals == null) {
+            accessionToStageTotals.putIfAbsent(accession, new ConcurrentHashMap<String, StageTotals>());
+            stageTotals = accessionToStageTotals.get(accession);
+        }
+
+        String key = getStageKey(metrics);
+        StageTotals totals = stageTotals.get(key);
+        if (totals == null) {
+            stageTotals.putIfAbsent(key, new StageTotals(metrics.getStage()));
+            totals = stageTotals.get(key);
+        }
+
+        totals.add(metrics);
+    }
+
+    private String getStageKey(StageMetrics metrics) {
+        // file names would give one line per SDRF and assay, only cleanup steps are worth telling apart
+        if (metrics.getStage() == ConversionStage.CLEANUP && metrics.getDetail() != null) {
+            return metrics.getStage().getLabel() + " " + metrics.getDetail();
+        }
+        return metrics.getStage().getLabel();
+    }
+
+    public Map<String, StageTotals> getStageTotals(String accession) {
+        Map<String, StageTotals> stageTotals = accessionToStageTotals.get(accession);
+        return stageTotals == null
+                ? Collections.<String, StageTotals>emptyMap()
+                : Collections.unmodifiableMap(stageTotals);
+    }
+
+    public void clear(String accession) {
+        accessionToStageTotals.remove(accession);
+    }
+
+    public void printReport(PrintStream ps, String accession) {
+        ps.println("Conversion metrics for " + accession);
+        ps.printf("%-40s %6s %12s %12s %12s %16s %14s%n", "stage", "runs", "time (ms)", "rows in", "rows out",
+                "allocated (KB)", "bytes");
+
+        for (ConversionStage stage : ConversionStage.values()) {
+            for (Map.Entry<String, StageTotals> stageTotals : getStageTotals(accession).entrySet()) {
+                StageTotals totals = stageTotals.getValue();
+                if (totals.getStage() == stage) {
+                    ps.printf("%-40s %6d %12d %12d %12d %16d %14d%n", stageTotals.getKey(), totals.getRuns(),
+                            totals.getWallTimeNanos() / 1000000, totals.getRowsIn(), totals.getRowsOut(),
+                            totals.getBytesAllocated() / 1024, totals.getBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     * Running totals of all the runs of one stage.
+     */
+    public static class StageTotals {
+
+        private ConversionStage stage;
+        private int runs;
+        private long wallTimeNanos;
+        private long rowsIn;
+        private long rowsOut;
+        private long bytesAllocated;
+        private long bytes;
+
+        StageTotals(ConversionStage stage) {
+            this.stage = stage;
+        }
+
+        synchronized void add(StageMetrics metrics) {
+            runs++;
+            wallTimeNanos += metrics.getWallTimeNanos();
+            rowsIn += Math.max(0, metrics.getRowsIn());
+            rowsOut += Math.max(0, metrics.getRowsOut());
+            bytesAllocated += Math.max(0, metrics.getBytesAllocated());
+            bytes += Math.max(0, metrics.getBytes());
+        }
+
+        public ConversionStage getStage() {
+            return stage;
+        }
+
+        public synchronized int getRuns() {
+            return runs;
+        }
+
+        public synchronized long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+
+        public synchronized long getRowsIn() {
+            return rowsIn;
+        }
+
+        public synchronized long getRowsOut() {
+            return rowsOut;
+        }
+
+        public synchronized long getBytesAllocated() {
+            return bytesAllocated;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.isatools.magetoisatab.monitoring;
+
+/**
+ * Receives a callback when each stage of a conversion starts and completes.
+ * Stages of different SDRFs and assays run concurrently, so implementations must be thread safe.
+ */
+public interface ConversionListener {
+
+    /**
+     * Called on the thread about to run the stage.
+     *
+     * @param accession - the accession being converted, or null when unknown
+     * @param stage     - the stage about to run
+     * @param detail    - what the stage works on, e.g. a file name or cleanup step
+     * @return any object the listener needs back on completion, or null
+     */
+    Object stageStarted(String accession, ConversionStage stage, String detail);
+
+    /**
+     * Called on the thread which ran the stage, once it has completed.
+     *
+     * @param metrics - the measurements for the stage
+     * @param context - the object returned by stageStarted
+     */
+    void stageCompleted(StageMetrics metrics, Object context);
+}
@@ -0,0 +1,98 @@
+package org.isatools.magetoisatab.monitoring;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the {@link ConversionListener}s of the running JVM and hands out the timers instrumented code uses to
+ * report its stages.
+ * <p/>
+ * Usage:
+ * <pre>
+ * StageTimer timer = ConversionMetrics.startStage(accession, ConversionStage.CLEANUP, "collapse columns").setInput(sheet);
+ * sheet = doTheWork(sheet);
+ * timer.stop(sheet);
+ * </pre>
+ */
+public class ConversionMetrics {
+
+    private static final Logger log = Logger.getLogger(ConversionMetrics.class.getName());
+
+    public static final String JFR_PROPERTY = "magetoisatab.jfr";
+
+    // only present in jars built with the jfr profile (-Pjfr), on JDK 11 or later
+    private static final String JFR_LISTENER_CLASS = "org.isatools.magetoisatab.monitoring.jfr.JfrConversionListener";
+
+    private static List<ConversionListener> listeners = new CopyOnWriteArrayList<ConversionListener>();
+
+    private static boolean flightRecorderListenerInstalled = false;
+
+    public static void addListener(ConversionListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(ConversionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static List<ConversionListener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Registers the listener emitting Java Flight Recorder events for every stage, if this build contains it and the
+     * JVM supports it. Setting the magetoisatab.jfr system property to false turns it off.
+     *
+     * @return true if the listener is registered
+     */
+    public static synchronized boolean installFlightRecorderListener() {
+        if (flightRecorderListenerInstalled) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(System.getProperty(JFR_PROPERTY))) {
+            return false;
+        }
+
+        try {
+            addListener((ConversionListener) Class.forName(JFR_LISTENER_CLASS).newInstance());
+            flightRecorderListenerInstalled = true;
+        } catch (ClassNotFoundException e) {
+            log.info("Flight recorder events not available in this build");
+        } catch (LinkageError e) {
+            log.info("Flight recorder events not supported by this JVM: " + e.getMessage());
+        } catch (InstantiationException e) {
+            log.error("could not create the flight recorder listener: " + e.getMessage());
+        } catch (IllegalAccessException e) {
+            log.error("could not create the flight recorder listener: " + e.getMessage());
+        }
+        return flightRecorderListenerInstalled;
+    }
+
+    public static StageTimer startStage(String accession, ConversionStage stage, String detail) {
+        if (listeners.isEmpty()) {
+            return StageTimer.NONE;
+        }
+        return new StageTimer(new StageMetrics(accession, stage, detail), listeners);
+    }
+
+    // a broken listener must never break a conversion
+
+    static Object notifyStarted(ConversionListener listener, StageMetrics metrics) {
+        try {
+            return listener.stageStarted(metrics.getAccession(), metrics.getStage(), metrics.getDetail());
+        } catch (RuntimeException e) {
+            log.error("conversion listener failed: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    static void notifyCompleted(ConversionListener listener, StageMetrics metrics, Object context) {
+        try {
+            listener.stageCompleted(metrics, context);
+        } catch (RuntimeException e) {
+            log.error("conversion listener failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.isatools.magetoisatab.monitoring;
+
+/**
+ * The stages of a MAGE-TAB to ISA-Tab conversion reported to {@link ConversionListener}s.
+ */
+public enum ConversionStage {
+
+    DOWNLOAD("download"),
+    IDF_PARSE("IDF parse"),
+    SDRF_LOAD("SDRF load"),
+    CLEANUP("cleanup"),
+    SPLIT("split"),
+    ASSAY_CLASSIFICATION("assay classification"),
+    WRITE("write");
+
+    private String label;
+
+    private ConversionStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,111 @@
+package org.isatools.magetoisatab.monitoring;
+
+/**
+ * Measurements taken for a single run of a conversion stage.
+ * Counts which do not apply to a stage, or could not be measured, are -1.
+ */
+public class StageMetrics {
+
+    private String accession;
+    private ConversionStage stage;
+    private String detail;
+
+    private long wallTimeNanos;
+    private int rowsIn = -1;
+    private int columnsIn = -1;
+    private int rowsOut = -1;
+    private int columnsOut = -1;
+    private long bytesAllocated = -1;
+    private long bytes = -1;
+
+    public StageMetrics(String accession, ConversionStage stage, String detail) {
+        this.accession = accession;
+        this.stage = stage;
+        this.detail = detail;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public ConversionStage getStage() {
+        return stage;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public void setWallTimeNanos(long wallTimeNanos) {
+        this.wallTimeNanos = wallTimeNanos;
+    }
+
+    public int getRowsIn() {
+        return rowsIn;
+    }
+
+    public int getColumnsIn() {
+        return columnsIn;
+    }
+
+    public void setInput(int rowsIn, int columnsIn) {
+        this.rowsIn = rowsIn;
+        this.columnsIn = columnsIn;
+    }
+
+    public int getRowsOut() {
+        return rowsOut;
+    }
+
+    public int getColumnsOut() {
+        return columnsOut;
+    }
+
+    public void setOutput(int rowsOut, int columnsOut) {
+        this.rowsOut = rowsOut;
+        this.columnsOut = columnsOut;
+    }
+
+    /**
+     * @return bytes allocated by the thread which ran the stage. Work the stage forked on to other threads is not
+     *         included.
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    public void setBytesAllocated(long bytesAllocated) {
+        this.bytesAllocated = bytesAllocated;
+    }
+
+    /**
+     * @return the size of the file read, downloaded or written by the stage
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{" +
+                "accession='" + accession + '\'' +
+                ", stage=" + stage +
+                ", detail='" + detail + '\'' +
+                ", wallTimeNanos=" + wallTimeNanos +
+                ", rowsIn=" + rowsIn +
+                ", columnsIn=" + columnsIn +
+                ", rowsOut=" + rowsOut +
+                ", columnsOut=" + columnsOut +
+                ", bytesAllocated=" + bytesAllocated +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
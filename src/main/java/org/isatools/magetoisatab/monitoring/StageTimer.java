@@ -0,0 +1,107 @@
+package org.isatools.magetoisatab.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Measures one run of a conversion stage and reports it to the registered listeners when stopped.
+ * Obtained from {@link ConversionMetrics#startStage}; it must be stopped on the thread which started it.
+ */
+public class StageTimer {
+
+    // handed out when nobody is listening, so that instrumented code costs next to nothing
+    static final StageTimer NONE = new StageTimer();
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private StageMetrics metrics;
+    private List<ConversionListener> listeners;
+    private Object[] listenerContexts;
+
+    private long startTime;
+    private long startAllocatedBytes;
+
+    private StageTimer() {
+    }
+
+    StageTimer(StageMetrics metrics, List<ConversionListener> listeners) {
+        this.metrics = metrics;
+        this.listeners = listeners;
+        this.listenerContexts = new Object[listeners.size()];
+
+        for (int listenerIndex = 0; listenerIndex < listeners.size(); listenerIndex++) {
+            listenerContexts[listenerIndex] = ConversionMetrics.notifyStarted(listeners.get(listenerIndex), metrics);
+        }
+
+        startAllocatedBytes = getCurrentThreadAllocatedBytes();
+        startTime = System.nanoTime();
+    }
+
+    public StageTimer setInput(List<String[]> spreadsheet) {
+        if (metrics != null) {
+            metrics.setInput(countRows(spreadsheet), countColumns(spreadsheet));
+        }
+        return this;
+    }
+
+    public StageTimer setInput(int rows, int columns) {
+        if (metrics != null) {
+            metrics.setInput(rows, columns);
+        }
+        return this;
+    }
+
+    public StageTimer setBytes(long bytes) {
+        if (metrics != null) {
+            metrics.setBytes(bytes);
+        }
+        return this;
+    }
+
+    public void stop(List<String[]> spreadsheet) {
+        stop(countRows(spreadsheet), countColumns(spreadsheet));
+    }
+
+    public void stop(int rowsOut, int columnsOut) {
+        if (metrics == null) {
+            return;
+        }
+
+        metrics.setWallTimeNanos(System.nanoTime() - startTime);
+
+        long allocatedBytes = getCurrentThreadAllocatedBytes();
+        if (allocatedBytes >= 0 && startAllocatedBytes >= 0) {
+            metrics.setBytesAllocated(allocatedBytes - startAllocatedBytes);
+        }
+
+        metrics.setOutput(rowsOut, columnsOut);
+
+        for (int listenerIndex = 0; listenerIndex < listeners.size(); listenerIndex++) {
+            ConversionMetrics.notifyCompleted(listeners.get(listenerIndex), metrics, listenerContexts[listenerIndex]);
+        }
+    }
+
+    private static int countRows(List<String[]> spreadsheet) {
+        return spreadsheet == null ? -1 : spreadsheet.size();
+    }
+
+    private static int countColumns(List<String[]> spreadsheet) {
+        return spreadsheet == null || spreadsheet.isEmpty() ? -1 : spreadsheet.get(0).length;
+    }
+
+    /**
+     * Uses the HotSpot extension of ThreadMXBean when the JVM provides it.
+     *
+     * @return bytes allocated so far by the current thread, or -1 if the JVM cannot tell
+     */
+    static long getCurrentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
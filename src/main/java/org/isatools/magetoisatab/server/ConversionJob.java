@@ -0,0 +1,234 @@
+package org.isatools.magetoisatab.server;
+
+import org.isatools.magetoisatab.io.MAGETabObtain;
+import org.isatools.magetoisatab.io.model.ConversionPlan;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A conversion, or conversion plan, run by a ConversionScheduler, with its state, the memory it is estimated to need
+ * and, once finished, its result or what it failed with.
+ * <p/>
+ * A job goes from QUEUED to RUNNING to one of SUCCEEDED, FAILED or CANCELLED. A job cancelled while running is
+ * CANCELLED at once, its thread being interrupted so that the conversion stops at its next interruptible step; its
+ * result, if it still comes, is thrown away. State is read and changed under the job's lock, so jobs can be shown
+ * while they run.
+ */
+public class ConversionJob {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+
+    private final String accession;
+
+    // the IDF of a submission already on disk, or null to download it from ArrayExpress
+    private final File idfFile;
+
+    private final boolean plan;
+
+    private final long submitted;
+
+    private State state = State.QUEUED;
+
+    private long started;
+
+    private long finished;
+
+    // the bytes of its IDF and SDRFs, or -1 if they are not known
+    private long inputBytes = -1;
+
+    private long estimatedMemory;
+
+    // the thread running the job, to interrupt when it is cancelled
+    private Thread runner;
+
+    // the directory or archive holding the ISA-Tab files
+    private File location;
+
+    private List<String> planLines = Collections.emptyList();
+
+    private String failure;
+
+    public ConversionJob(String id, String accession, File idfFile, boolean plan) {
+        this.id = id;
+        this.accession = accession;
+        this.idfFile = idfFile;
+        this.plan = plan;
+        this.submitted = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public File getIdfFile() {
+        return idfFile;
+    }
+
+    public boolean isPlan() {
+        return plan;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return when the job started running, or 0 if it has not
+     */
+    public synchronized long getStarted() {
+        return started;
+    }
+
+    /**
+     * @return when the job finished, or 0 if it has not
+     */
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    public synchronized File getLocation() {
+        return location;
+    }
+
+    public synchronized List<String> getPlanLines() {
+        return planLines;
+    }
+
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the bytes of the IDF and SDRFs of the submission, or -1 if they are not known
+     */
+    public synchronized long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * @return the heap the job is estimated to need, in bytes
+     */
+    public synchronized long getEstimatedMemory() {
+        return estimatedMemory;
+    }
+
+    synchronized void setEstimate(long inputBytes, long estimatedMemory) {
+        this.inputBytes = inputBytes;
+        this.estimatedMemory = estimatedMemory;
+    }
+
+    /**
+     * Waits for the job to finish.
+     */
+    public synchronized void await() throws InterruptedException {
+        while (!state.isFinished()) {
+            wait();
+        }
+    }
+
+    /**
+     * Converts, or plans the conversion of, the submission on the calling thread, unless the job was cancelled
+     * before it could start.
+     *
+     * @param saveDirectory - directory in which the accession directory, or archive, is created
+     */
+    void run(String saveDirectory) {
+        if (!start()) {
+            return;
+        }
+
+        try {
+            MAGETabObtain converter = new MAGETabObtain();
+
+            if (plan) {
+                ConversionPlan conversionPlan = idfFile == null
+                        ? converter.doPlan(accession) : converter.doLocalPlan(accession, idfFile);
+                succeed(null, conversionPlan.toLines());
+            } else {
+                File convertedLocation = idfFile == null
+                        ? converter.doConversion(accession, saveDirectory)
+                        : converter.doLocalConversion(accession, idfFile, saveDirectory);
+
+                if (convertedLocation == null) {
+                    fail("the submission could not be read, see the log");
+                } else if (converter.getFailure() != null) {
+                    fail(converter.getFailure().toString());
+                } else {
+                    succeed(convertedLocation, null);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    private synchronized boolean start() {
+        if (state != State.QUEUED) {
+            return false;
+        }
+        state = State.RUNNING;
+        started = System.currentTimeMillis();
+        runner = Thread.currentThread();
+        return true;
+    }
+
+    private synchronized void succeed(File location, List<String> planLines) {
+        if (finish(State.SUCCEEDED)) {
+            this.location = location;
+            this.planLines = planLines == null
+                    ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(planLines));
+        }
+    }
+
+    private synchronized void fail(String failure) {
+        if (finish(State.FAILED)) {
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Cancels the job, interrupting its conversion if it is running.
+     *
+     * @return false if the job had already finished
+     */
+    public synchronized boolean cancel() {
+        Thread running = runner;
+        if (!finish(State.CANCELLED)) {
+            return false;
+        }
+        if (running != null) {
+            running.interrupt();
+        }
+        return true;
+    }
+
+    private boolean finish(State finishedState) {
+        if (state.isFinished()) {
+            return false;
+        }
+        state = finishedState;
+        finished = System.currentTimeMillis();
+        runner = null;
+        notifyAll();
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+package org.isatools.magetoisatab.server;
+
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs conversion jobs, for a batch or a ConversionServer, so that the jobs running together fit in the heap.
+ * <p/>
+ * Each job is given an estimate of the heap it needs by JobMemoryEstimator, and is only started while the estimates
+ * of the jobs running, with its own, fit the memory budget, given in MB by the magetoisatab.memory.budget system
+ * property and three quarters of the maximum heap by default. Jobs go in one of two lanes, each running at most
+ * magetoisatab.jobs of them at a time on a pool with one thread more than that, so that neither lane can take every
+ * thread from the other:
+ * <ul>
+ * <li>small jobs, plans and those of at most magetoisatab.jobs.small input bytes, are started first, in the order
+ * submitted, so they never wait behind large jobs. One of them is always let run, even past the budget, which they
+ * are too small to matter to.</li>
+ * <li>large jobs, those of unknown size included, are started largest first, so that the longest conversions of a
+ * batch are not left to run alone at its end. The largest waits until it fits rather than letting smaller ones by
+ * it, and a job bigger than the whole budget is started once no other large job runs.</li>
+ * </ul>
+ */
+public class ConversionScheduler {
+
+    public static final String JOBS_PROPERTY = "magetoisatab.jobs";
+
+    public static final String MEMORY_BUDGET_PROPERTY = "magetoisatab.memory.budget";
+
+    public static final String SMALL_JOB_PROPERTY = "magetoisatab.jobs.small";
+
+    public static final int DEFAULT_JOBS = 2;
+
+    public static final long DEFAULT_SMALL_JOB_BYTES = 1L << 20;
+
+    private static final Comparator<ConversionJob> LARGEST_FIRST = new Comparator<ConversionJob>() {
+        public int compare(ConversionJob job, ConversionJob otherJob) {
+            long memory = job.getEstimatedMemory();
+            long otherMemory = otherJob.getEstimatedMemory();
+            return memory > otherMemory ? -1 : memory < otherMemory ? 1 : 0;
+        }
+    };
+
+    private final String saveDirectory;
+
+    private final int jobCount;
+
+    private final long memoryBudget;
+
+    private final long smallJobBytes;
+
+    // one thread more than either lane may use, so that each always has one
+    private final ExecutorService executor;
+
+    private final LinkedList<ConversionJob> smallJobs = new LinkedList<ConversionJob>();
+
+    private final PriorityQueue<ConversionJob> largeJobs = new PriorityQueue<ConversionJob>(11, LARGEST_FIRST);
+
+    private int runningSmallCount;
+
+    private int runningLargeCount;
+
+    private long admittedMemory;
+
+    /**
+     * @param saveDirectory - directory in which the accession directories, or archives, are created
+     * @param jobCount      - how many jobs of each lane run at a time
+     * @param memoryBudget  - the heap, in bytes, the estimates of the jobs running may add up to
+     * @param smallJobBytes - the input bytes up to which a job goes in the small job lane
+     */
+    public ConversionScheduler(String saveDirectory, int jobCount, long memoryBudget, long smallJobBytes) {
+        this.saveDirectory = saveDirectory;
+        this.jobCount = Math.max(1, jobCount);
+        this.memoryBudget = memoryBudget;
+        this.smallJobBytes = smallJobBytes;
+
+        executor = Executors.newFixedThreadPool(this.jobCount + 1, new ConversionServer.ServerThreadFactory("job"));
+    }
+
+    /**
+     * @return a scheduler set up by the magetoisatab.jobs, magetoisatab.memory.budget and magetoisatab.jobs.small
+     *         system properties
+     */
+    public static ConversionScheduler create(String saveDirectory) {
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        Long budgetMegabytes = Long.getLong(MEMORY_BUDGET_PROPERTY);
+        if (budgetMegabytes != null) {
+            memoryBudget = budgetMegabytes << 20;
+        }
+
+        return new ConversionScheduler(saveDirectory, Integer.getInteger(JOBS_PROPERTY, DEFAULT_JOBS), memoryBudget,
+                Long.getLong(SMALL_JOB_PROPERTY, DEFAULT_SMALL_JOB_BYTES));
+    }
+
+    public String getSaveDirectory() {
+        return saveDirectory;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the estimated heap of the jobs running, in bytes
+     */
+    public synchronized long getAdmittedMemory() {
+        return admittedMemory;
+    }
+
+    /**
+     * @return how many jobs are waiting to be started, cancelled ones not yet dropped included
+     */
+    public synchronized int getQueuedCount() {
+        return smallJobs.size() + largeJobs.size();
+    }
+
+    /**
+     * Estimates the memory of a job, on the calling thread, and queues it.
+     */
+    public void submit(ConversionJob job) {
+        estimate(job);
+        synchronized (this) {
+            enqueue(job);
+            dispatch();
+        }
+    }
+
+    /**
+     * Estimates the memory of the jobs on the shared conversion pool, then queues them together, so that the
+     * largest of them are started first whatever the order they were given in.
+     */
+    public void submitAll(List<ConversionJob> jobs) throws IOException {
+        List<Callable<ConversionJob>> estimateTasks = new ArrayList<Callable<ConversionJob>>();
+        for (final ConversionJob job : jobs) {
+            estimateTasks.add(new Callable<ConversionJob>() {
+                public ConversionJob call() {
+                    estimate(job);
+                    return job;
+                }
+            });
+        }
+        ConversionThreadPool.invokeAll(estimateTasks);
+
+        synchronized (this) {
+            for (ConversionJob job : jobs) {
+                enqueue(job);
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * Stops the jobs running and drops those waiting, which are left QUEUED.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            smallJobs.clear();
+            largeJobs.clear();
+        }
+        executor.shutdownNow();
+    }
+
+    private void estimate(ConversionJob job) {
+        long inputBytes = job.isPlan() ? -1 : JobMemoryEstimator.estimateInputBytes(job.getAccession(), job.getIdfFile());
+        job.setEstimate(inputBytes, JobMemoryEstimator.estimateMemory(inputBytes, job.isPlan()));
+    }
+
+    private boolean isSmall(ConversionJob job) {
+        return job.isPlan() || (job.getInputBytes() >= 0 && job.getInputBytes() <= smallJobBytes);
+    }
+
+    private void enqueue(ConversionJob job) {
+        if (isSmall(job)) {
+            smallJobs.add(job);
+        } else {
+            largeJobs.add(job);
+        }
+    }
+
+    /**
+     * Starts every waiting job which can be.
+     */
+    private void dispatch() {
+        dropCancelledJobs();
+
+        while (!smallJobs.isEmpty() && hasFreeThread() && runningSmallCount < jobCount
+                && (runningSmallCount == 0 || fits(smallJobs.getFirst()))) {
+            start(smallJobs.removeFirst(), true);
+            dropCancelledJobs();
+        }
+
+        while (!largeJobs.isEmpty() && hasFreeThread() && runningLargeCount < jobCount
+                && (runningLargeCount == 0 || fits(largeJobs.peek()))) {
+            start(largeJobs.poll(), false);
+            dropCancelledJobs();
+        }
+    }
+
+    private boolean hasFreeThread() {
+        return runningSmallCount + runningLargeCount < jobCount + 1;
+    }
+
+    private boolean fits(ConversionJob job) {
+        return admittedMemory + job.getEstimatedMemory() <= memoryBudget;
+    }
+
+    private void dropCancelledJobs() {
+        while (!smallJobs.isEmpty() && smallJobs.getFirst().getState().isFinished()) {
+            smallJobs.removeFirst();
+        }
+        while (!largeJobs.isEmpty() && largeJobs.peek().getState().isFinished()) {
+            largeJobs.poll();
+        }
+    }
+
+    private void start(final ConversionJob job, final boolean small) {
+        if (small) {
+            runningSmallCount++;
+        } else {
+            runningLargeCount++;
+        }
+        admittedMemory += job.getEstimatedMemory();
+        System.out.println("Starting " + (small ? "small" : "large") + " job " + job.getId() + " of " + job.getAccession()
+                + ", estimated at " + (job.getEstimatedMemory() >> 20) + " MB, " + (admittedMemory >> 20) + " of "
+                + (memoryBudget >> 20) + " MB now admitted");
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    job.run(saveDirectory);
+                } finally {
+                    // a job cancelled while running may not have seen its interrupt, which must not reach the next
+                    Thread.interrupted();
+                    finished(job, small);
+                }
+            }
+        });
+    }
+
+    private synchronized void finished(ConversionJob job, boolean small) {
+        if (small) {
+            runningSmallCount--;
+        } else {
+            runningLargeCount--;
+        }
+        admittedMemory -= job.getEstimatedMemory();
+        dispatch();
+    }
+}
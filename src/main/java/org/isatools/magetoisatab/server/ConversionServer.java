@@ -0,0 +1,483 @@
+package org.isatools.magetoisatab.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.isatools.magetoisatab.io.DownloadUtils;
+import org.isatools.magetoisatab.io.output.JsonStreamWriter;
+import org.isatools.magetoisatab.io.rules.AssayClassificationRules;
+import org.isatools.magetoisatab.io.validation.IsaConfigurationCatalog;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps one JVM up to run conversions submitted over a local HTTP endpoint, so that each conversion pays neither JVM
+ * startup nor a cold JIT, and reuses what the JVM has loaded: the assay classification rules, the ISA configuration
+ * catalog, the shared conversion pool and the keep-alive HTTP connections to ArrayExpress. The rules and catalog are
+ * loaded when the server starts, so that a bad configuration stops it there rather than failing the first job.
+ * <p/>
+ * The server listens on the loopback address only, on the port given by the magetoisatab.server.port system property.
+ * Jobs are run by a ConversionScheduler, so that those running together fit in the heap, each converting in to the
+ * save directory as the command line would, the stages of a job running on the shared conversion pool. The API, whose
+ * responses are JSON:
+ * <pre>
+ * POST   /jobs?accession=E-MEXP-1        convert an ArrayExpress submission, 202 with the job
+ * POST   /jobs?idf=/path/E-X-1.idf.txt   convert a submission on disk, its SDRFs next to the IDF
+ *        ...&amp;plan=true                 plan the conversion rather than convert, as --plan does
+ * GET    /jobs                           every job, in the order submitted
+ * GET    /jobs/{id}                      a job, its state and its estimated memory
+ * GET    /jobs/{id}/result               the location and file names of a conversion, or the lines of a plan
+ * GET    /jobs/{id}/files/{name}         a file of a conversion, or its archive
+ * DELETE /jobs/{id}                      cancel a job, queued or running
+ * </pre>
+ * Parameters may be given in the query or as a form encoded body. A submission already queued or running is not
+ * converted twice; its job is given instead. Finished jobs are forgotten, oldest first, once there are more than
+ * MAXIMUM_FINISHED_JOBS of them; their files are left where they are.
+ */
+public class ConversionServer {
+
+    public static final String PORT_PROPERTY = "magetoisatab.server.port";
+
+    public static final int DEFAULT_PORT = 8085;
+
+    public static final int MAXIMUM_FINISHED_JOBS = 1000;
+
+    private static final String JOBS_PATH = "/jobs";
+
+    private static final int REQUEST_THREADS = 4;
+
+    private final HttpServer httpServer;
+
+    private final ConversionScheduler scheduler;
+
+    // by id, in the order submitted
+    private final Map<String, ConversionJob> jobs = new LinkedHashMap<String, ConversionJob>();
+
+    private final AtomicInteger jobNumber = new AtomicInteger(1);
+
+    /**
+     * @param port      - the port to listen on, or 0 for any free port
+     * @param scheduler - what runs the jobs
+     */
+    public ConversionServer(int port, ConversionScheduler scheduler) throws IOException {
+        this.scheduler = scheduler;
+
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        httpServer.createContext(JOBS_PATH, new JobsHandler());
+        httpServer.setExecutor(Executors.newFixedThreadPool(REQUEST_THREADS, new ServerThreadFactory("request")));
+    }
+
+    /**
+     * Loads the rules and configurations every conversion uses, then starts accepting requests.
+     *
+     * @throws IllegalStateException if the rules or ISA configurations can not be read
+     */
+    public void start() {
+        DownloadUtils.createTmpDirectory();
+        DownloadUtils.createDirectory(scheduler.getSaveDirectory());
+
+        AssayClassificationRules.getRules();
+        IsaConfigurationCatalog.getCatalog();
+        ConversionThreadPool.getExecutor();
+        ConversionMetrics.installFlightRecorderListener();
+
+        httpServer.start();
+        System.out.println("Accepting conversion jobs on http://127.0.0.1:" + getPort() + JOBS_PATH
+                + ", converting in to " + scheduler.getSaveDirectory() + " with a memory budget of "
+                + (scheduler.getMemoryBudget() >> 20) + " MB");
+    }
+
+    /**
+     * Stops accepting requests and cancels every job not yet finished.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        for (ConversionJob job : getJobs()) {
+            job.cancel();
+        }
+        scheduler.shutdown();
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Queues a conversion, or conversion plan, unless the same one is already queued or running. Its memory is
+     * estimated on the calling thread, which for an ArrayExpress submission means a few HEAD requests.
+     *
+     * @param idfFile - the IDF of a submission on disk, or null to download the submission from ArrayExpress
+     * @return the job queued, or the one already queued or running
+     */
+    public ConversionJob submit(String accession, File idfFile, boolean plan) {
+        ConversionJob job;
+        synchronized (jobs) {
+            for (ConversionJob queuedJob : jobs.values()) {
+                if (!queuedJob.getState().isFinished() && queuedJob.getAccession().equals(accession)
+                        && queuedJob.isPlan() == plan) {
+                    return queuedJob;
+                }
+            }
+
+            forgetFinishedJobs();
+
+            job = new ConversionJob("job-" + jobNumber.getAndIncrement(), accession, idfFile, plan);
+            jobs.put(job.getId(), job);
+        }
+
+        scheduler.submit(job);
+        return job;
+    }
+
+    /**
+     * @return the job, or null if there is none of that id
+     */
+    public ConversionJob getJob(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    public List<ConversionJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<ConversionJob>(jobs.values());
+        }
+    }
+
+    private void forgetFinishedJobs() {
+        int finishedCount = 0;
+        for (ConversionJob job : jobs.values()) {
+            if (job.getState().isFinished()) {
+                finishedCount++;
+            }
+        }
+
+        Iterator<ConversionJob> iterator = jobs.values().iterator();
+        while (finishedCount > MAXIMUM_FINISHED_JOBS && iterator.hasNext()) {
+            if (iterator.next().getState().isFinished()) {
+                iterator.remove();
+                finishedCount--;
+            }
+        }
+    }
+
+    /**
+     * @return the names of the files of a finished conversion, in name order: those of its directory, or the name of
+     *         its archive
+     */
+    static List<String> getResultFiles(File location) {
+        if (location == null) {
+            return Collections.emptyList();
+        }
+        if (location.isFile()) {
+            return Collections.singletonList(location.getName());
+        }
+
+        List<String> fileNames = new ArrayList<String>();
+        File[] files = location.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    fileNames.add(file.getName());
+                }
+            }
+        }
+        Collections.sort(fileNames);
+        return fileNames;
+    }
+
+    /**
+     * Routes requests under /jobs by method and path.
+     */
+    private class JobsHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                String path = exchange.getRequestURI().getPath().substring(JOBS_PATH.length());
+                List<String> segments = new ArrayList<String>();
+                for (String segment : path.split("/")) {
+                    if (segment.length() > 0) {
+                        segments.add(segment);
+                    }
+                }
+
+                if (segments.isEmpty()) {
+                    if (method.equals("POST")) {
+                        submitJob(exchange);
+                    } else if (method.equals("GET")) {
+                        sendJobs(exchange);
+                    } else {
+                        sendError(exchange, 405, "Use GET or POST on " + JOBS_PATH);
+                    }
+                    return;
+                }
+
+                ConversionJob job = getJob(segments.get(0));
+                if (job == null) {
+                    sendError(exchange, 404, "No job " + segments.get(0));
+                } else if (segments.size() == 1 && method.equals("GET")) {
+                    sendJson(exchange, 200, writeJob(job));
+                } else if (segments.size() == 1 && method.equals("DELETE")) {
+                    if (job.cancel()) {
+                        sendJson(exchange, 200, writeJob(job));
+                    } else {
+                        sendError(exchange, 409, "Job " + job.getId() + " has already finished");
+                    }
+                } else if (segments.size() == 2 && segments.get(1).equals("result") && method.equals("GET")) {
+                    sendResult(exchange, job);
+                } else if (segments.size() == 3 && segments.get(1).equals("files") && method.equals("GET")) {
+                    sendFile(exchange, job, segments.get(2));
+                } else {
+                    sendError(exchange, 404, "No such resource " + exchange.getRequestURI().getPath());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void submitJob(HttpExchange exchange) throws IOException {
+            Map<String, String> parameters = getParameters(exchange);
+            String accession = parameters.get("accession");
+            String idf = parameters.get("idf");
+            boolean plan = Boolean.parseBoolean(parameters.get("plan"));
+
+            File idfFile = null;
+            if (idf != null) {
+                idfFile = new File(idf).getAbsoluteFile();
+                if (!idfFile.isFile()) {
+                    sendError(exchange, 400, "IDF file not found: " + idfFile);
+                    return;
+                }
+                if (accession == null) {
+                    accession = idfFile.getName().replaceFirst("\\.idf\\.txt$", "");
+                }
+            }
+            if (accession == null || accession.trim().length() == 0) {
+                sendError(exchange, 400, "An accession or idf parameter is needed");
+                return;
+            }
+
+            ConversionJob job = submit(accession.trim(), idfFile, plan);
+            exchange.getResponseHeaders().set("Location", JOBS_PATH + "/" + job.getId());
+            sendJson(exchange, 202, writeJob(job));
+        }
+
+        private void sendJobs(HttpExchange exchange) throws IOException {
+            StringBuilder json = new StringBuilder();
+            JsonStreamWriter writer = new JsonStreamWriter(json);
+            writer.beginArray();
+            for (ConversionJob job : getJobs()) {
+                writeJob(writer, job);
+            }
+            writer.endArray();
+            writer.finish();
+            sendJson(exchange, 200, json.toString());
+        }
+
+        private void sendResult(HttpExchange exchange, ConversionJob job) throws IOException {
+            if (job.getState() != ConversionJob.State.SUCCEEDED) {
+                sendJson(exchange, 409, writeJob(job));
+                return;
+            }
+
+            StringBuilder json = new StringBuilder();
+            JsonStreamWriter writer = new JsonStreamWriter(json);
+            writer.beginObject();
+            writer.member("id", job.getId());
+            writer.member("accession", job.getAccession());
+            if (job.isPlan()) {
+                writer.name("plan").beginArray();
+                for (String line : job.getPlanLines()) {
+                    writer.value(line);
+                }
+                writer.endArray();
+            } else {
+                writer.member("location", job.getLocation().getAbsolutePath());
+                writer.name("files").beginArray();
+                for (String fileName : getResultFiles(job.getLocation())) {
+                    writer.value(fileName);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+            writer.finish();
+            sendJson(exchange, 200, json.toString());
+        }
+
+        private void sendFile(HttpExchange exchange, ConversionJob job, String fileName) throws IOException {
+            File location = job.getLocation();
+            // only the files listed in the result are served, so that the name can not reach outside the location
+            if (job.getState() != ConversionJob.State.SUCCEEDED || !getResultFiles(location).contains(fileName)) {
+                sendError(exchange, 404, "Job " + job.getId() + " has no file " + fileName);
+                return;
+            }
+
+            File file = location.isFile() ? location : new File(location, fileName);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, file.length());
+
+            InputStream input = new FileInputStream(file);
+            try {
+                OutputStream output = exchange.getResponseBody();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+                output.close();
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private static String writeJob(ConversionJob job) throws IOException {
+        StringBuilder json = new StringBuilder();
+        JsonStreamWriter writer = new JsonStreamWriter(json);
+        writeJob(writer, job);
+        writer.finish();
+        return json.toString();
+    }
+
+    private static void writeJob(JsonStreamWriter writer, ConversionJob job) throws IOException {
+        writer.beginObject();
+        writer.member("id", job.getId());
+        writer.member("accession", job.getAccession());
+        if (job.getIdfFile() != null) {
+            writer.member("idf", job.getIdfFile().getPath());
+        }
+        writer.name("plan").value(job.isPlan());
+        writer.member("state", job.getState().name());
+        if (job.getInputBytes() >= 0) {
+            writer.name("inputBytes").value(job.getInputBytes());
+        }
+        writer.name("estimatedMemory").value(job.getEstimatedMemory());
+        writer.name("submitted").value(job.getSubmitted());
+        if (job.getStarted() != 0) {
+            writer.name("started").value(job.getStarted());
+        }
+        if (job.getFinished() != 0) {
+            writer.name("finished").value(job.getFinished());
+        }
+        if (job.getLocation() != null) {
+            writer.member("location", job.getLocation().getAbsolutePath());
+        }
+        if (job.getFailure() != null) {
+            writer.member("failure", job.getFailure());
+        }
+        writer.endObject();
+    }
+
+    /**
+     * @return the parameters of the query and of a form encoded body, those of the body winning
+     */
+    private static Map<String, String> getParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        addParameters(exchange.getRequestURI().getRawQuery(), parameters);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream input = exchange.getRequestBody();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        addParameters(body.toString("UTF-8"), parameters);
+        return parameters;
+    }
+
+    private static void addParameters(String encoded, Map<String, String> parameters) throws IOException {
+        if (encoded == null) {
+            return;
+        }
+        for (String parameter : encoded.trim().split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder();
+        JsonStreamWriter writer = new JsonStreamWriter(json);
+        writer.beginObject().member("error", message).endObject();
+        writer.finish();
+        sendJson(exchange, status, json.toString());
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    static class ServerThreadFactory implements ThreadFactory {
+
+        private final String kind;
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        ServerThreadFactory(String kind) {
+            this.kind = kind;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "magetoisatab-" + kind + "-" + threadNumber.getAndIncrement());
+            // the server's dispatcher thread keeps the JVM up, these need not
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs the server until the JVM is stopped.
+     *
+     * @param argv - optionally, the directory to convert in to
+     */
+    public static void main(String[] argv) {
+        String saveDirectory = argv.length > 0 ? argv[0] : DownloadUtils.CONVERTED_DIRECTORY;
+        int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+
+        try {
+            final ConversionServer server = new ConversionServer(port, ConversionScheduler.create(saveDirectory));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    server.stop();
+                }
+            });
+            server.start();
+        } catch (IOException e) {
+            System.out.println("Could not start the conversion server on port " + port + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.isatools.magetoisatab.server;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.isatools.magetoisatab.io.DownloadUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the heap a conversion job needs from the byte sizes of its IDF and SDRFs, before anything is converted.
+ * <p/>
+ * A conversion holds its SDRFs as cells, several times over while they are cleaned and split in to study and assay
+ * tables, so the heap it needs grows with their size. Converting synthetic submissions of 7 and 28 MB under
+ * decreasing -Xmx, the least heap they converted in was a little over 9 bytes per input byte, on top of a few MB;
+ * HEAP_BYTES_PER_INPUT_BYTE leaves room above that. Plans only read header lines, so need the base alone.
+ * <p/>
+ * The sizes of a submission on disk are those of its files. For an ArrayExpress submission the IDF is fetched and read
+ * up to its SDRF File row, for the SDRF names, and the sizes of the IDF and SDRFs are asked for with HEAD requests. So
+ * the IDF, a few KB, is downloaded before the job is admitted, and again when it runs, but the SDRFs, nearly all of a
+ * submission, are not.
+ */
+public class JobMemoryEstimator {
+
+    public static final int HEAP_BYTES_PER_INPUT_BYTE = 12;
+
+    public static final long BASE_JOB_BYTES = 4L << 20;
+
+    // assumed for a submission whose sizes can not be found
+    public static final long UNKNOWN_INPUT_BYTES = 4L << 20;
+
+    /**
+     * @return the heap the job is estimated to need, in bytes
+     */
+    public static long estimateMemory(long inputBytes, boolean plan) {
+        if (plan) {
+            return BASE_JOB_BYTES;
+        }
+        return BASE_JOB_BYTES + HEAP_BYTES_PER_INPUT_BYTE * (inputBytes < 0 ? UNKNOWN_INPUT_BYTES : inputBytes);
+    }
+
+    /**
+     * @param idfFile - the IDF of a submission on disk, its SDRFs next to it, or null for an ArrayExpress submission
+     * @return the bytes of the IDF and SDRFs of the submission, or -1 if they can not be found
+     */
+    public static long estimateInputBytes(String accession, File idfFile) {
+        try {
+            return idfFile == null ? getRemoteInputBytes(accession) : getLocalInputBytes(idfFile);
+        } catch (IOException e) {
+            System.out.println("Could not find the size of " + accession + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static long getLocalInputBytes(File idfFile) throws IOException {
+        long inputBytes = idfFile.length();
+
+        File directory = idfFile.getAbsoluteFile().getParentFile();
+        for (String sdrfFileName : readSdrfFileNames(new FileInputStream(idfFile))) {
+            inputBytes += new File(directory, sdrfFileName).length();
+        }
+        return inputBytes;
+    }
+
+    private static long getRemoteInputBytes(String accession) throws IOException {
+        String filesUrl = DownloadUtils.ARRAYEXPRESS_FILES_URL + accession + "/";
+        String idfUrl = filesUrl + accession + ".idf.txt";
+
+        long inputBytes = DownloadUtils.getContentLength(idfUrl);
+        if (inputBytes < 0) {
+            return -1;
+        }
+
+        // asked for on a request thread of the daemon, so a stalled connection must not hold it
+        URLConnection idfConnection = new URL(idfUrl).openConnection();
+        idfConnection.setConnectTimeout(10000);
+        idfConnection.setReadTimeout(10000);
+
+        for (String sdrfFileName : readSdrfFileNames(idfConnection.getInputStream())) {
+            long sdrfBytes = DownloadUtils.getContentLength(filesUrl + sdrfFileName);
+            if (sdrfBytes < 0) {
+                return -1;
+            }
+            inputBytes += sdrfBytes;
+        }
+        return inputBytes;
+    }
+
+    /**
+     * Reads the SDRF File row of an IDF, closing the stream once read.
+     */
+    static List<String> readSdrfFileNames(InputStream idf) throws IOException {
+        List<String> sdrfFileNames = new ArrayList<String>();
+
+        CSVReader reader = new CSVReader(new InputStreamReader(idf, "UTF-8"), '\t');
+        try {
+            String[] nextLine;
+            while ((nextLine = reader.readNext()) != null) {
+                if (nextLine.length > 0 && nextLine[0].trim().startsWith("SDRF File")) {
+                    for (int index = 1; index < nextLine.length; index++) {
+                        if (nextLine[index].trim().length() > 0) {
+                            sdrfFileNames.add(nextLine[index].trim());
+                        }
+                    }
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sdrfFileNames;
+    }
+}
@@ -10,24 +10,28 @@ import java.util.Set;
  *         <p/>
  *         Date: 09/07/2012
  *         Time: 14:00
+ *         <p/>
+ *         Properties of one conversion, found in its IDF and used while its SDRFs are processed. Each conversion has
+ *         its own, so that conversions running side by side in one JVM do not see each other's design types. They
+ *         are filled in while the IDF is read, before any SDRF task is forked, and only read afterwards.
  */
 public class ConversionProperties {
     
-    private static Set<String> designTypes = new HashSet<String>();
+    private Set<String> designTypes = new HashSet<String>();
 
-    public static Set<String> getDesignTypes() {
+    public Set<String> getDesignTypes() {
         return designTypes;
     }
 
-    public static void setDesignTypes(Set<String> designTypes) {
-        ConversionProperties.designTypes = designTypes;
+    public void setDesignTypes(Set<String> designTypes) {
+        this.designTypes = designTypes;
     }
     
-    public static void addDesignType(String designType) {
-        ConversionProperties.designTypes.add(designType);
+    public void addDesignType(String designType) {
+        designTypes.add(designType);
     }
     
-    public static boolean isValueInDesignTypes(String value) {
+    public boolean isValueInDesignTypes(String value) {
         for(String designLine : designTypes) {
             if(designLine.toLowerCase().contains(value)) {
                 return true;
@@ -0,0 +1,124 @@
+package org.isatools.magetoisatab.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the bounded thread pool shared by every stage of a conversion run.
+ * The number of threads defaults to the number of available processors and can be set with the
+ * magetoisatab.threads system property.
+ * <p/>
+ * Work is forked on to the pool and joined by the caller. A caller joining a task which no pool thread has
+ * picked up yet runs it itself, so tasks forked from inside other pool tasks can never starve the pool.
+ */
+public class ConversionThreadPool {
+
+    public static final String THREADS_PROPERTY = "magetoisatab.threads";
+
+    private static ExecutorService executor;
+
+    private static int threadCount;
+
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            threadCount = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            if (threadCount < 1) {
+                threadCount = 1;
+            }
+            executor = Executors.newFixedThreadPool(threadCount, new ConversionThreadFactory());
+        }
+        return executor;
+    }
+
+    public static int getThreadCount() {
+        getExecutor();
+        return threadCount;
+    }
+
+    /**
+     * Schedules a task on the shared pool.
+     *
+     * @param task - the work to perform
+     * @return a handle to pass to join
+     */
+    public static <T> FutureTask<T> fork(Callable<T> task) {
+        FutureTask<T> futureTask = new FutureTask<T>(task);
+        getExecutor().execute(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * Waits for a forked task, running it on the calling thread if the pool has not started it yet.
+     *
+     * @param task - a task returned by fork
+     * @return the task result
+     * @throws IOException if the task failed with an IOException or the wait was interrupted
+     */
+    public static <T> T join(FutureTask<T> task) throws IOException {
+        // a no-op when the task has already been started by a pool thread
+        task.run();
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a conversion task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Runs all the tasks on the shared pool and returns their results in the order the tasks were given.
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws IOException {
+        List<FutureTask<T>> forked = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            forked.add(fork(task));
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (FutureTask<T> task : forked) {
+                results.add(join(task));
+            }
+        } finally {
+            // if one task failed, the ones not yet started are not worth running
+            for (FutureTask<T> task : forked) {
+                task.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    static class ConversionThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "magetoisatab-worker-" + threadNumber.getAndIncrement());
+            // the command line entry point never shuts the pool down, so it must not keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.isatools.magetoisatab.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds which of a fixed set of keywords occur in a piece of text in a single pass, however many keywords there are
+ * (Aho-Corasick). Each keyword is given a bit, and matching returns the bits of all the keywords found, so callers test
+ * for keywords with a mask rather than running one contains() per keyword.
+ * <p/>
+ * Keywords are ASCII. Several keywords may share a bit, e.g. the case variants returned by caseVariants(), in which
+ * case the bit is set when any of them is found, and a keyword may set several bits. Once built, an automaton is immutable and can be shared by threads.
+ */
+public class KeywordAutomaton {
+
+    private static final int ASCII = 128;
+
+    // state 0 is the root, each keyword prefix gets a state
+    private final int[] transitions;
+
+    // bits of every keyword ending at a state, including those reached through the failure links
+    private final long[] outputs;
+
+    // maps a character to its column in transitions, 0 for characters not in any keyword
+    private final int[] characterClasses;
+
+    private final int alphabetSize;
+
+    /**
+     * @param keywordMasks - each keyword and the bits to set when it is found
+     */
+    public KeywordAutomaton(Map<String, Long> keywordMasks) {
+        characterClasses = new int[ASCII];
+
+        int classCount = 1;
+        for (String keyword : keywordMasks.keySet()) {
+            if (keyword.length() == 0) {
+                throw new IllegalArgumentException("Keywords can not be empty");
+            }
+            for (int index = 0; index < keyword.length(); index++) {
+                char character = keyword.charAt(index);
+                if (character >= ASCII) {
+                    throw new IllegalArgumentException("Keywords must be ASCII: " + keyword);
+                }
+                if (characterClasses[character] == 0) {
+                    characterClasses[character] = classCount++;
+                }
+            }
+        }
+        alphabetSize = classCount;
+
+        // build the keyword trie
+        List<Map<Integer, Integer>> trie = new ArrayList<Map<Integer, Integer>>();
+        List<Long> trieOutputs = new ArrayList<Long>();
+        trie.add(new HashMap<Integer, Integer>());
+        trieOutputs.add(0L);
+
+        for (Map.Entry<String, Long> keywordMask : keywordMasks.entrySet()) {
+            int state = 0;
+            for (int index = 0; index < keywordMask.getKey().length(); index++) {
+                int characterClass = characterClasses[keywordMask.getKey().charAt(index)];
+
+                Integer nextState = trie.get(state).get(characterClass);
+                if (nextState == null) {
+                    nextState = trie.size();
+                    trie.add(new HashMap<Integer, Integer>());
+                    trieOutputs.add(0L);
+                    trie.get(state).put(characterClass, nextState);
+                }
+                state = nextState;
+            }
+            trieOutputs.set(state, trieOutputs.get(state) | keywordMask.getValue());
+        }
+
+        // turn the trie in to a complete transition table, following the failure links breadth first so that
+        // each state's failure state is done before the state itself
+        int stateCount = trie.size();
+        transitions = new int[stateCount * alphabetSize];
+        outputs = new long[stateCount];
+        int[] failures = new int[stateCount];
+
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+
+        for (int characterClass = 0; characterClass < alphabetSize; characterClass++) {
+            Integer child = trie.get(0).get(characterClass);
+            if (child != null) {
+                transitions[characterClass] = child;
+                failures[child] = 0;
+                queue.add(child);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            outputs[state] = trieOutputs.get(state) | outputs[failures[state]];
+
+            for (int characterClass = 0; characterClass < alphabetSize; characterClass++) {
+                Integer child = trie.get(state).get(characterClass);
+                int fallback = transitions[failures[state] * alphabetSize + characterClass];
+
+                if (child != null) {
+                    transitions[state * alphabetSize + characterClass] = child;
+                    failures[child] = fallback;
+                    queue.add(child);
+                } else {
+                    transitions[state * alphabetSize + characterClass] = fallback;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bits of the keywords found in any of the values. null values are skipped, and keywords are not
+     *         matched across values
+     */
+    public long match(String[] values) {
+        long found = 0;
+
+        for (String value : values) {
+            if (value != null) {
+                found |= match(value);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the bits of the keywords found in the text
+     */
+    public long match(CharSequence text) {
+        long found = 0;
+        int state = 0;
+
+        for (int index = 0; index < text.length(); index++) {
+            char character = text.charAt(index);
+            int characterClass = character < ASCII ? characterClasses[character] : 0;
+
+            state = transitions[state * alphabetSize + characterClass];
+            found |= outputs[state];
+        }
+        return found;
+    }
+
+    /**
+     * @return the keyword in every combination of upper and lower case letters, e.g. chip, Chip, cHip... CHIP, for
+     *         matching a keyword regardless of case
+     */
+    public static List<String> caseVariants(String keyword) {
+        List<String> variants = new ArrayList<String>();
+        variants.add("");
+
+        for (int index = 0; index < keyword.length(); index++) {
+            char lowerCase = Character.toLowerCase(keyword.charAt(index));
+            char upperCase = Character.toUpperCase(keyword.charAt(index));
+
+            List<String> longerVariants = new ArrayList<String>(variants.size() * 2);
+            for (String variant : variants) {
+                longerVariants.add(variant + lowerCase);
+                if (upperCase != lowerCase) {
+                    longerVariants.add(variant + upperCase);
+                }
+            }
+            variants = longerVariants;
+        }
+
+        return variants;
+    }
+}
@@ -0,0 +1,101 @@
+package org.isatools.magetoisatab.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+
+/**
+ * Splits the rows of a spreadsheet into chunks which are processed in parallel on the shared conversion pool.
+ * Chunk results come back in row order, so callers reassemble them by simple concatenation.
+ * <p/>
+ * Sheets with fewer rows than the magetoisatab.parallel.threshold system property (default 10000) are processed
+ * sequentially on the calling thread, as forking would cost more than it saves.
+ */
+public class RowChunks {
+
+    public static final String THRESHOLD_PROPERTY = "magetoisatab.parallel.threshold";
+
+    public static final int DEFAULT_THRESHOLD = 10000;
+
+    // no point in handing out chunks smaller than this, the per task overhead would dominate
+    private static final int MINIMUM_CHUNK_SIZE = 2048;
+
+    // a few chunks per thread evens out rows which are more expensive than others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public interface ChunkTask<T> {
+
+        /**
+         * Processes rows [from, to) of the sheet. Implementations must only touch their own rows.
+         */
+        T process(List<String[]> rows, int from, int to);
+    }
+
+    public static int getThreshold() {
+        return Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Runs the task over rows [from, rows.size()) and returns one result per chunk, in row order.
+     *
+     * @param rows - the sheet rows
+     * @param from - the first row to process, e.g. 1 to skip a header
+     * @param task - the row-local work
+     * @return chunk results, in row order
+     */
+    public static <T> List<T> process(final List<String[]> rows, int from, final ChunkTask<T> task) {
+        int rowCount = rows.size() - from;
+
+        int threadCount = ConversionThreadPool.getThreadCount();
+
+        if (rowCount < getThreshold() || threadCount < 2 || !(rows instanceof RandomAccess)) {
+            return Collections.singletonList(task.process(rows, from, rows.size()));
+        }
+
+        int chunkCount = Math.min(threadCount * CHUNKS_PER_THREAD, Math.max(1, rowCount / MINIMUM_CHUNK_SIZE));
+        int chunkSize = (rowCount + chunkCount - 1) / chunkCount;
+
+        List<Callable<T>> chunkTasks = new ArrayList<Callable<T>>(chunkCount);
+
+        for (int chunkStart = from; chunkStart < rows.size(); chunkStart += chunkSize) {
+            final int start = chunkStart;
+            final int end = Math.min(chunkStart + chunkSize, rows.size());
+
+            chunkTasks.add(new Callable<T>() {
+                public T call() {
+                    return task.process(rows, start, end);
+                }
+            });
+        }
+
+        try {
+            return ConversionThreadPool.invokeAll(chunkTasks);
+        } catch (IOException e) {
+            // row tasks do not do any I/O, so we only get here when interrupted
+            throw new RuntimeException("Row processing was interrupted", e);
+        }
+    }
+
+    /**
+     * Concatenates per chunk row lists back in to a single sheet.
+     */
+    public static List<String[]> concatenate(List<List<String[]>> chunks) {
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+
+        int size = 0;
+        for (List<String[]> chunk : chunks) {
+            size += chunk.size();
+        }
+
+        List<String[]> result = new ArrayList<String[]>(size);
+        for (List<String[]> chunk : chunks) {
+            result.addAll(chunk);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package org.isatools.magetoisatab.utils;
+
+/**
+ * A set of table rows which only keeps a 128 bit fingerprint of each row, two longs, rather than the row itself.
+ * Two rows are taken to be the same when their fingerprints are, the odds of different rows sharing one being
+ * negligible (about one in 2^64 for four billion rows).
+ * <p/>
+ * Fingerprints are kept in an open addressing table of longs, so the set costs 16 bytes per row and no objects.
+ */
+public class RowFingerprintSet {
+
+    private static final long SEED_1 = 0xCBF29CE484222325L;
+    private static final long SEED_2 = 0x84222325CBF29CE4L;
+
+    // separates cells, so that {"ab", "c"} and {"a", "bc"} differ; above any char value
+    private static final int CELL_SEPARATOR = 0x10000;
+
+    private long[] fingerprints;
+    private int size;
+
+    public RowFingerprintSet() {
+        this(1024);
+    }
+
+    public RowFingerprintSet(int expectedRows) {
+        int capacity = 16;
+        while (capacity < expectedRows * 2) {
+            capacity <<= 1;
+        }
+        fingerprints = new long[capacity * 2];
+    }
+
+    /**
+     * @return true if the row was not in the set. null cells are taken as empty
+     */
+    public boolean add(String[] row) {
+        long high = SEED_1;
+        long low = SEED_2;
+
+        for (String cell : row) {
+            if (cell != null) {
+                for (int index = 0; index < cell.length(); index++) {
+                    char character = cell.charAt(index);
+                    high = (high ^ character) * 0x100000001B3L;
+                    low = Long.rotateLeft(low ^ (character * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+                }
+            }
+            high = (high ^ CELL_SEPARATOR) * 0x100000001B3L;
+            low = Long.rotateLeft(low ^ (CELL_SEPARATOR * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+
+        return add(mix(high ^ row.length), mix(low + row.length));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean add(long high, long low) {
+        // 0, 0 marks an empty slot
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+
+        if ((size + 1) * 2 > fingerprints.length / 2) {
+            grow();
+        }
+
+        int mask = fingerprints.length / 2 - 1;
+        for (int slot = (int) low & mask; ; slot = (slot + 1) & mask) {
+            long slotHigh = fingerprints[slot * 2];
+            long slotLow = fingerprints[slot * 2 + 1];
+
+            if (slotHigh == 0 && slotLow == 0) {
+                fingerprints[slot * 2] = high;
+                fingerprints[slot * 2 + 1] = low;
+                size++;
+                return true;
+            }
+            if (slotHigh == high && slotLow == low) {
+                return false;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldFingerprints = fingerprints;
+        fingerprints = new long[oldFingerprints.length * 2];
+        size = 0;
+
+        for (int slot = 0; slot < oldFingerprints.length; slot += 2) {
+            if (oldFingerprints[slot] != 0 || oldFingerprints[slot + 1] != 0) {
+                add(oldFingerprints[slot], oldFingerprints[slot + 1]);
+            }
+        }
+    }
+
+    // the MurmurHash3 finalizer, so that every input bit affects every fingerprint bit
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB3F97A4FE1A3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,49 @@
+package org.isatools.magetoisatab.utils;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read only view of the rows of a table selected by a BitSet, in table order, which does not copy the rows.
+ * Each row appears once however many times its bit was set, and several views can share one table.
+ */
+public class RowSubset extends AbstractList<String[]> implements RandomAccess {
+
+    private final List<String[]> table;
+
+    // the selected table rows, so that get() does not have to walk the bits
+    private final int[] rowIndexes;
+
+    /**
+     * @param table - the table, which should not change while the view is in use
+     * @param rows  - the indexes of the table rows to include
+     */
+    public RowSubset(List<String[]> table, BitSet rows) {
+        this.table = table;
+
+        rowIndexes = new int[rows.cardinality()];
+        int count = 0;
+        for (int rowIndex = rows.nextSetBit(0); rowIndex >= 0 && rowIndex < table.size(); rowIndex = rows.nextSetBit(rowIndex + 1)) {
+            rowIndexes[count++] = rowIndex;
+        }
+
+        if (count < rowIndexes.length) {
+            throw new IndexOutOfBoundsException("Rows selected beyond the " + table.size() + " rows of the table");
+        }
+    }
+
+    @Override
+    public String[] get(int index) {
+        if (index < 0 || index >= rowIndexes.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rowIndexes.length);
+        }
+        return table.get(rowIndexes[index]);
+    }
+
+    @Override
+    public int size() {
+        return rowIndexes.length;
+    }
+}
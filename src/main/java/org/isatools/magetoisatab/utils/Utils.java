@@ -47,11 +47,23 @@ public class Utils {
 
     public static List<String[]> cleanInput(List<String[]> spreadsheet, String geoAcc) {
 
-        geoAcc = extractGEOAccession(geoAcc);
+        final String geoAccession = extractGEOAccession(geoAcc);
 
-        List<String[]> cleanedData = new ArrayList<String[]>();
+        final boolean doGEOCleanup = geoAccession.startsWith("GSE") || geoAccession.startsWith("GDS");
 
-        boolean doGEOCleanup = geoAcc.startsWith("GSE") || geoAcc.startsWith("GDS");
+        // rows are cleaned independently of each other, so tall sheets are cleaned in chunks
+        List<List<String[]>> cleanedChunks = RowChunks.process(spreadsheet, 0, new RowChunks.ChunkTask<List<String[]>>() {
+            public List<String[]> process(List<String[]> rows, int from, int to) {
+                return cleanRows(rows.subList(from, to), geoAccession, doGEOCleanup);
+            }
+        });
+
+        return RowChunks.concatenate(cleanedChunks);
+    }
+
+    private static List<String[]> cleanRows(List<String[]> spreadsheet, String geoAcc, boolean doGEOCleanup) {
+
+        List<String[]> cleanedData = new ArrayList<String[]>(spreadsheet.size());
 
         for (String[] line : spreadsheet) {
 
@@ -0,0 +1,53 @@
+package org.isatools.magetoisatab.monitoring.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event spanning one run of a conversion stage, e.g. the download of an SDRF or one
+ * cleanup step over it. Counts which do not apply to the stage are -1.
+ */
+@Name("org.isatools.magetoisatab.ConversionStage")
+@Label("Conversion Stage")
+@Category("MAGE-TAB to ISA-Tab")
+@Description("A stage of a MAGE-TAB to ISA-Tab conversion")
+@StackTrace(false)
+public class ConversionStageEvent extends Event {
+
+    @Label("Accession")
+    String accession;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("File")
+    @Description("The file or cleanup step the stage worked on")
+    String file;
+
+    @Label("Rows In")
+    int rowsIn;
+
+    @Label("Columns In")
+    int columnsIn;
+
+    @Label("Rows Out")
+    int rowsOut;
+
+    @Label("Columns Out")
+    int columnsOut;
+
+    @Label("File Size")
+    @Description("Size of the file read, downloaded or written by the stage")
+    @DataAmount
+    long bytes;
+
+    @Label("Bytes Allocated")
+    @Description("Bytes allocated by the thread which ran the stage")
+    @DataAmount
+    long bytesAllocated;
+}
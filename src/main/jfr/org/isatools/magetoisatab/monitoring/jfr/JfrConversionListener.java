@@ -0,0 +1,44 @@
+package org.isatools.magetoisatab.monitoring.jfr;
+
+import org.isatools.magetoisatab.monitoring.ConversionListener;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageMetrics;
+
+/**
+ * Emits a {@link ConversionStageEvent} for every conversion stage.
+ * Registered by ConversionMetrics.installFlightRecorderListener, this costs next to nothing unless a recording
+ * with the event enabled is running.
+ */
+public class JfrConversionListener implements ConversionListener {
+
+    public Object stageStarted(String accession, ConversionStage stage, String detail) {
+        ConversionStageEvent event = new ConversionStageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public void stageCompleted(StageMetrics metrics, Object context) {
+        if (!(context instanceof ConversionStageEvent)) {
+            return;
+        }
+
+        ConversionStageEvent event = (ConversionStageEvent) context;
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.accession = metrics.getAccession();
+            event.stage = metrics.getStage().getLabel();
+            event.file = metrics.getDetail();
+            event.rowsIn = metrics.getRowsIn();
+            event.columnsIn = metrics.getColumnsIn();
+            event.rowsOut = metrics.getRowsOut();
+            event.columnsOut = metrics.getColumnsOut();
+            event.bytes = metrics.getBytes();
+            event.bytesAllocated = metrics.getBytesAllocated();
+            event.commit();
+        }
+    }
+}
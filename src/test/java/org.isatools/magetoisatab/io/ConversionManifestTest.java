@@ -0,0 +1,197 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.isatools.magetoisatab.io.output.DirectoryOutputSink;
+import org.isatools.magetoisatab.io.output.TableOutputSink;
+import org.isatools.magetoisatab.io.validation.IsaConfigurationCatalog;
+import org.isatools.magetoisatab.io.validation.ValidationReport;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConversionManifestTest {
+
+    private static final String IDF = "Investigation Title\tTwo SDRFs\n"
+            + "Experimental Design\ttranscription profiling by array\tRNA-seq\n"
+            + "Person Last Name\tSmith\n"
+            + "Public Release Date\t2012-07-01\n"
+            + "Experiment Description\tOne SDRF of hybridizations, one of sequencing runs\n"
+            + "Protocol Name\tP-1\n"
+            + "Protocol Type\tnucleic acid extraction\n"
+            + "SDRF File\tE-MAN-1.1.sdrf.txt\tE-MAN-1.2.sdrf.txt\n";
+
+    private static final String HYBRIDIZATION_HEADER = "Source Name\tSample Name\tProtocol REF\tExtract Name\tMaterial Type\t"
+            + "Labeled Extract Name\tLabel\tHybridization Name\tArray Data File\n";
+
+    private static final String SEQUENCING_HEADER = "Source Name\tSample Name\tProtocol REF\tExtract Name\tMaterial Type\t"
+            + "Assay Name\tTechnology Type\tComment [FASTQ_URI]\n";
+
+    private static final String KEPT = "kept from the last conversion\n";
+
+    @Test
+    public void testManifestFileOfSink() {
+        System.out.println("___Testing conversion manifests kept where the output sink keeps the accession");
+        File directory = new File("converted-elsewhere");
+        assertEquals("Manifest next to the accession directory", new File(directory, "E-MAN-0.manifest"),
+                ConversionManifest.getManifestFile(new DirectoryOutputSink(directory), "E-MAN-0"));
+        assertTrue("Sinks which keep no files should have no manifest",
+                ConversionManifest.getManifestFile(new TableOutputSink(), "E-MAN-0") == null);
+    }
+
+    @Test
+    public void testIncrementalReconversion() throws Exception {
+        System.out.println("___Testing reconversions which only rewrite what changed");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "manifest-test");
+        File inputDirectory = new File(directory, "E-MAN-1");
+        File outputDirectory = new File(directory, "converted");
+        deleteAll(directory);
+        inputDirectory.mkdirs();
+
+        File sdrf1 = new File(inputDirectory, "E-MAN-1.1.sdrf.txt");
+        File sdrf2 = new File(inputDirectory, "E-MAN-1.2.sdrf.txt");
+        write(new File(inputDirectory, "E-MAN-1.idf.txt"), IDF);
+        write(sdrf1, HYBRIDIZATION_HEADER
+                + "source 1\tsample 1\tP-1\textract 1\ttotal RNA\tlabeled extract 1\tCy3\tassay 1\tdata_1.txt\n");
+        String sequencingSdrf = SEQUENCING_HEADER
+                + "source 2\tsample 2\tP-1\textract 2\ttotal RNA\trun 2\tsequencing assay\tftp://example.org/run_2.fastq.gz\n";
+        write(sdrf2, sequencingSdrf);
+
+        File accessionDirectory = new File(outputDirectory, "E-MAN-1");
+        File investigation = new File(accessionDirectory, "i_E-MAN-1_investigation.txt");
+        File arrayAssay = new File(accessionDirectory, "a_E-MAN-1_GeneChip_assay.txt");
+        File sequencingAssay = new File(accessionDirectory, "a_E-MAN-1_RNA-Seq_assay.txt");
+
+        convert(inputDirectory, outputDirectory);
+        assertTrue("Manifest expected next to the accession directory of the sink",
+                new File(outputDirectory, "E-MAN-1.manifest").isFile());
+        assertTrue("Array assay expected", read(arrayAssay).contains("sample 1"));
+        assertTrue("Sequencing assay expected", read(sequencingAssay).contains("sample 2"));
+
+        // the same inputs: nothing is written
+        write(investigation, KEPT);
+        write(arrayAssay, KEPT);
+        write(sequencingAssay, KEPT);
+        convert(inputDirectory, outputDirectory);
+        assertEquals("Unchanged conversion should be skipped", KEPT, read(investigation));
+        assertEquals("Unchanged conversion should keep the array assay", KEPT, read(arrayAssay));
+        assertEquals("Unchanged conversion should keep the sequencing assay", KEPT, read(sequencingAssay));
+
+        // one SDRF changed: only its assay is written
+        write(sdrf2, sequencingSdrf
+                + "source 3\tsample 3\tP-1\textract 3\ttotal RNA\trun 3\tsequencing assay\tftp://example.org/run_3.fastq.gz\n");
+        convert(inputDirectory, outputDirectory);
+        assertFalse("Investigation should be written again", KEPT.equals(read(investigation)));
+        assertEquals("Assay of the unchanged SDRF should be kept", KEPT, read(arrayAssay));
+        assertTrue("Assay of the changed SDRF should be written again", read(sequencingAssay).contains("sample 3"));
+
+        // the array assay moves to the second SDRF, the last to make it
+        write(sdrf2, HYBRIDIZATION_HEADER
+                + "source 4\tsample 4\tP-1\textract 4\ttotal RNA\tlabeled extract 4\tCy5\tassay 4\tdata_4.txt\n");
+        convert(inputDirectory, outputDirectory);
+        assertTrue("Array assay should be made by the second SDRF", read(arrayAssay).contains("sample 4"));
+
+        // and back to the first SDRF, which has not changed since the array assay was last made from it
+        write(arrayAssay, KEPT);
+        write(sdrf2, sequencingSdrf);
+        convert(inputDirectory, outputDirectory);
+        String arrayAssayContent = read(arrayAssay);
+        assertTrue("Array assay should be written again by the first SDRF: " + arrayAssayContent,
+                arrayAssayContent.contains("sample 1") && !arrayAssayContent.contains("sample 4"));
+    }
+
+    @Test
+    public void testReconversionWithValidation() throws Exception {
+        System.out.println("___Testing reconversions which validate tables write the whole validation report");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "manifest-validation-test");
+        File inputDirectory = new File(directory, "E-MAN-1");
+        File outputDirectory = new File(directory, "converted");
+        deleteAll(directory);
+        inputDirectory.mkdirs();
+
+        File sdrf2 = new File(inputDirectory, "E-MAN-1.2.sdrf.txt");
+        write(new File(inputDirectory, "E-MAN-1.idf.txt"), IDF);
+        write(new File(inputDirectory, "E-MAN-1.1.sdrf.txt"), HYBRIDIZATION_HEADER
+                + "source 1\tsample 1\tP-1\textract 1\ttotal RNA\tlabeled extract 1\tCy3\tassay 1\tdata_1.txt\n");
+        String sequencingSdrf = SEQUENCING_HEADER
+                + "source 2\tsample 2\tP-1\textract 2\ttotal RNA\trun 2\tsequencing assay\tftp://example.org/run_2.fastq.gz\n";
+        write(sdrf2, sequencingSdrf);
+
+        String baseDir = System.getProperty("basedir", ".");
+        IsaConfigurationCatalog catalog = IsaConfigurationCatalog.load(
+                new File(baseDir + "/target/test-classes/default-configuration/isaconfig-default_v2011-02-18"));
+        File accessionDirectory = new File(outputDirectory, "E-MAN-1");
+        File investigation = new File(accessionDirectory, "i_E-MAN-1_investigation.txt");
+        File arrayAssay = new File(accessionDirectory, "a_E-MAN-1_GeneChip_assay.txt");
+
+        // switching validation on is a change of settings: the accession is converted again
+        convert(inputDirectory, outputDirectory);
+        write(investigation, KEPT);
+        ValidationReport report = convert(inputDirectory, outputDirectory, catalog);
+        assertFalse("Conversion with validation should not be skipped", KEPT.equals(read(investigation)));
+        List<String> validatedFiles = report.getValidatedFiles();
+        assertTrue("Array assay should be validated: " + validatedFiles, validatedFiles.contains(arrayAssay.getName()));
+
+        // one SDRF changed: the assay of the unchanged SDRF is still written, so that the report covers it
+        write(arrayAssay, KEPT);
+        write(sdrf2, sequencingSdrf
+                + "source 3\tsample 3\tP-1\textract 3\ttotal RNA\trun 3\tsequencing assay\tftp://example.org/run_3.fastq.gz\n");
+        report = convert(inputDirectory, outputDirectory, catalog);
+        assertTrue("Array assay should be written again", read(arrayAssay).contains("sample 1"));
+        assertEquals("Every table should be validated again", validatedFiles, report.getValidatedFiles());
+        String reportContent = read(new File(accessionDirectory, ValidationReport.getReportFileName("E-MAN-1")));
+        assertTrue("Report should cover the array assay: " + reportContent, reportContent.contains(arrayAssay.getName()));
+    }
+
+    private static void convert(File inputDirectory, File outputDirectory) throws IOException {
+        convert(inputDirectory, outputDirectory, null);
+    }
+
+    private static ValidationReport convert(File inputDirectory, File outputDirectory, IsaConfigurationCatalog catalog)
+            throws IOException {
+        MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+        idfloader.setLocalSdrfDirectory(inputDirectory);
+        idfloader.setOutputSink(new DirectoryOutputSink(outputDirectory));
+        idfloader.setConfigurationCatalog(catalog);
+        idfloader.loadidfTab(new File(inputDirectory, "E-MAN-1.idf.txt").getPath(), "E-MAN-1");
+        assertTrue("Conversion should succeed: " + idfloader.getFailure(), idfloader.getFailure() == null);
+        return idfloader.getValidationReport();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        Scanner scanner = new Scanner(file, "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").next();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,88 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class DownloadUtilsTest {
+
+    @Test
+    public void testDownloadReplacesWholeFile() throws Exception {
+        System.out.println("___Testing downloads renamed in to place once complete");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "download-test");
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+
+        File source = new File(directory, "source.idf.txt");
+        write(source, "Investigation Title\tnew\n");
+
+        File target = new File(directory, "E-TEST-1.idf.txt");
+        write(target, "Investigation Title\told, and longer than the new one\n");
+
+        assertTrue("Download should succeed",
+                DownloadUtils.downloadFile(source.toURI().toURL().toString(), target.getPath(), "E-TEST-1"));
+        assertEquals("Downloaded file expected", "Investigation Title\tnew\n", read(target));
+
+        assertFalse("Missing file should not be downloaded", DownloadUtils.downloadFile(
+                new File(directory, "missing.idf.txt").toURI().toURL().toString(), target.getPath(), "E-TEST-1"));
+        assertEquals("Failed download should leave the file", "Investigation Title\tnew\n", read(target));
+
+        assertEquals("No partial downloads should be left", Arrays.asList(new String[]{"E-TEST-1.idf.txt", "source.idf.txt"}),
+                sortedNames(directory));
+    }
+
+    @Test
+    public void testContentLengthOfStalledServer() throws Exception {
+        System.out.println("___Testing the size of a file on a server which never answers");
+        // connections are queued in the backlog of the socket but never accepted, so no response ever comes
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            long start = System.currentTimeMillis();
+            assertEquals("No size expected", -1,
+                    DownloadUtils.getContentLength("http://127.0.0.1:" + server.getLocalPort() + "/E-TEST-1.idf.txt"));
+            assertTrue("Request should time out", System.currentTimeMillis() - start < 60000);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        Scanner scanner = new Scanner(file, "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").next();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static List<String> sortedNames(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
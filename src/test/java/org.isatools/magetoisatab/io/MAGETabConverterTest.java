@@ -0,0 +1,113 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.isatools.magetoisatab.io.model.ConversionResult;
+import org.isatools.magetoisatab.io.model.IsaTable;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+
+public class MAGETabConverterTest {
+
+    private static final String IDF = "Investigation Title\tA small study\n"
+            + "Experimental Design\ttranscription profiling by array\n"
+            + "Experimental Factor Name\ttime\n"
+            + "Experimental Factor Type\ttime\n"
+            + "Person Last Name\tSmith\n"
+            + "Public Release Date\t2012-07-01\n"
+            + "Experiment Description\tTwo hybridizations\n"
+            + "Protocol Name\tP-1\tP-2\n"
+            + "Protocol Type\tnucleic acid extraction\thybridization\n"
+            + "SDRF File\tE-MEM-1.sdrf.txt\n";
+
+    private static final String SDRF = "Source Name\tCharacteristics[organism]\tSample Name\tProtocol REF\tExtract Name\t"
+            + "Material Type\tLabeled Extract Name\tLabel\tProtocol REF\tHybridization Name\tArray Design REF\tArray Data File\t"
+            + "Factor Value[time]\n"
+            + "source 1\tHomo sapiens\tsample 1\tP-1\textract 1\ttotal RNA\tlabeled extract 1\tCy3\tP-2\tassay 1\tA-AFFY-44\t"
+            + "data_1.txt\t2 h\n"
+            + "source 2\tMus musculus\tsample 2\tP-1\textract 2\ttotal RNA\tlabeled extract 2\tCy5\tP-2\tassay 2\tA-AFFY-44\t"
+            + "data_2.txt\t4 h\n";
+
+    @Test
+    public void testInMemoryConversion() throws Exception {
+        System.out.println("___Testing in memory conversion of a submission");
+        Map<String, InputStream> sdrfs = new HashMap<String, InputStream>();
+        sdrfs.put("E-MEM-1.sdrf.txt", toStream(SDRF));
+
+        ConversionResult result = new MAGETabConverter().convert("E-MEM-1", toStream(IDF), sdrfs);
+
+        IsaTable investigation = result.getInvestigation();
+        assertEquals("Investigation file name", "i_E-MEM-1_investigation.txt", investigation.getFileName());
+        assertEquals("Study title", "A small study", investigation.getRowNamed("Study Title")[1]);
+        assertEquals("Study file should be named in the investigation", "s_E-MEM-1_study_samples.txt",
+                investigation.getRowNamed("Study File Name")[1]);
+        assertEquals("Assay file should be named in the investigation", "a_E-MEM-1_GeneChip_assay.txt",
+                investigation.getRowNamed("Study Assay File Name")[1]);
+
+        assertRows("Study samples", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name", "factor value[time]"},
+                new String[]{"source 1", "Homo sapiens", "sample 1", "2 h"},
+                new String[]{"source 2", "Mus musculus", "sample 2", "4 h"}), result.getStudySamples().getRows());
+
+        assertEquals("One assay expected", 1, result.getAssays().size());
+        IsaTable assay = result.getAssay("a_E-MEM-1_GeneChip_assay.txt");
+        assertEquals("Assay should be found by name", result.getAssays().get(0), assay);
+        assertEquals("Assay records expected", 3, assay.getRowCount());
+        assertEquals("Hybridizations should be assays", "assay 2",
+                assay.getValue(2, assay.getColumnIndex("Hybridization Assay Name")));
+        assertEquals("Assays should keep their samples", "sample 2", assay.getValue(2, assay.getColumnIndex("Sample Name")));
+    }
+
+    @Test
+    public void testStreamsLeftOpen() throws Exception {
+        System.out.println("___Testing in memory conversion reads its streams to the end without closing them");
+        CloseRecordingStream idf = new CloseRecordingStream(IDF);
+        CloseRecordingStream sdrf = new CloseRecordingStream(SDRF);
+        Map<String, InputStream> sdrfs = new HashMap<String, InputStream>();
+        sdrfs.put("E-MEM-1.sdrf.txt", sdrf);
+
+        new MAGETabConverter().convert("E-MEM-1", idf, sdrfs);
+
+        assertEquals("IDF should be read to the end", -1, idf.read());
+        assertEquals("SDRF should be read to the end", -1, sdrf.read());
+        assertFalse("IDF should be left open", idf.closed);
+        assertFalse("SDRF should be left open", sdrf.closed);
+    }
+
+    private static class CloseRecordingStream extends ByteArrayInputStream {
+
+        private boolean closed;
+
+        CloseRecordingStream(String text) throws IOException {
+            super(text.getBytes("UTF-8"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static InputStream toStream(String text) throws IOException {
+        return new ByteArrayInputStream(text.getBytes("UTF-8"));
+    }
+
+    private static void assertRows(String message, List<String[]> expectedRows, List<String[]> rows) {
+        assertEquals(message + ": row count", expectedRows.size(), rows.size());
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            assertEquals(message + ": row " + rowIndex, Arrays.asList(expectedRows.get(rowIndex)),
+                    Arrays.asList(rows.get(rowIndex)));
+        }
+    }
+}
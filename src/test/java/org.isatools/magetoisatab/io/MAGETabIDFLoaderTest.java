@@ -0,0 +1,99 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.isatools.magetoisatab.io.output.TableOutputSink;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class MAGETabIDFLoaderTest {
+
+    private static final String IDF = "Investigation Title\tThree SDRFs\n"
+            + "Experimental Design\ttranscription profiling by array\n"
+            + "Person Last Name\tSmith\n"
+            + "Public Release Date\t2012-07-01\n"
+            + "Experiment Description\tOne hybridization in each SDRF\n"
+            + "Protocol Name\tP-1\n"
+            + "Protocol Type\tnucleic acid extraction\n"
+            + "SDRF File\tE-ORD-1.1.sdrf.txt\tE-ORD-1.2.sdrf.txt\tE-ORD-1.3.sdrf.txt\n";
+
+    private static final String[] HEADER = {"Source Name", "Characteristics[organism]", "Sample Name", "Protocol REF",
+            "Extract Name", "Material Type", "Labeled Extract Name", "Label", "Hybridization Name", "Array Data File"};
+
+    @Test
+    public void testSdrfsGatheredInSdrfOrder() throws Exception {
+        System.out.println("___Testing SDRFs processed side by side are gathered in the order of the IDF");
+        Map<String, List<String[]>> sdrfTables = new HashMap<String, List<String[]>>();
+        // the first SDRF is held up, so that when the pool has more than one thread it is the last to finish
+        sdrfTables.put("E-ORD-1.1.sdrf.txt", new DelayedTable(newSdrf(1), 500));
+        sdrfTables.put("E-ORD-1.2.sdrf.txt", newSdrf(2));
+        sdrfTables.put("E-ORD-1.3.sdrf.txt", newSdrf(3));
+
+        TableOutputSink sink = new TableOutputSink();
+        MAGETabIDFLoader idfloader = new MAGETabIDFLoader();
+        idfloader.setOutputSink(sink);
+        idfloader.setWritingJson(false);
+        idfloader.loadidfTab(new StringReader(IDF), "E-ORD-1", sdrfTables);
+        assertTrue("Conversion should succeed: " + idfloader.getFailure(), idfloader.getFailure() == null);
+
+        Map<String, List<String[]>> tables = sink.getTables("E-ORD-1");
+        List<String[]> studySamples = tables.get("s_E-ORD-1_study_samples.txt");
+        assertEquals("Study samples of every SDRF expected", 4, studySamples.size());
+        for (int sdrfIndex = 1; sdrfIndex <= 3; sdrfIndex++) {
+            assertEquals("Study samples of SDRF " + sdrfIndex + " in SDRF order",
+                    Arrays.asList("source " + sdrfIndex, "Homo sapiens", "sample " + sdrfIndex),
+                    Arrays.asList(studySamples.get(sdrfIndex)));
+        }
+
+        // every SDRF makes the same assay file, which is the last SDRF's
+        List<String[]> assay = tables.get("a_E-ORD-1_GeneChip_assay.txt");
+        assertEquals("Records of the last SDRF expected", 2, assay.size());
+        assertEquals("Assay of the last SDRF expected", "sample 3", assay.get(1)[0]);
+    }
+
+    private static List<String[]> newSdrf(int sdrfIndex) {
+        List<String[]> sdrf = new ArrayList<String[]>();
+        sdrf.add(HEADER.clone());
+        sdrf.add(new String[]{"source " + sdrfIndex, "Homo sapiens", "sample " + sdrfIndex, "P-1",
+                "extract " + sdrfIndex, "total RNA", "labeled extract " + sdrfIndex, "Cy3", "assay " + sdrfIndex,
+                "data_" + sdrfIndex + ".txt"});
+        return sdrf;
+    }
+
+    /**
+     * A table which holds up whoever first asks for its size.
+     */
+    private static class DelayedTable extends ArrayList<String[]> {
+
+        private final AtomicBoolean delayed = new AtomicBoolean();
+
+        private final long delayMillis;
+
+        DelayedTable(List<String[]> rows, long delayMillis) {
+            super(rows);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int size() {
+            if (delayed.compareAndSet(false, true)) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.size();
+        }
+    }
+}
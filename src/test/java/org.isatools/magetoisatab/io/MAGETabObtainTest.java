@@ -1,10 +1,27 @@
 package org.isatools.magetoisatab.io;
 
 
+import org.isatools.magetoisatab.io.model.ConversionPlan;
+import org.isatools.magetoisatab.io.model.ConversionResult;
+import org.isatools.magetoisatab.io.model.IsaTable;
+import org.isatools.magetoisatab.io.validation.IsaConfiguration;
+import org.isatools.magetoisatab.io.validation.IsaConfigurationCatalog;
+import org.isatools.magetoisatab.io.validation.TableValidator;
+import org.isatools.magetoisatab.io.validation.ValidationReport;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -30,4 +47,93 @@ public class MAGETabObtainTest {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testTableValidation() throws Exception {
+        System.out.println("___Testing validation of tables against the ISA configurations");
+        String baseDir = System.getProperty("basedir", ".");
+        IsaConfigurationCatalog catalog = IsaConfigurationCatalog.load(
+                new File(baseDir + "/target/test-classes/default-configuration/isaconfig-default_v2011-02-18"));
+
+        IsaConfiguration microarray = catalog.getConfiguration("Transcription Profiling", "DNA microarray");
+        assertEquals("Configuration expected by assay type", catalog.getConfiguration("transcription_micro"), microarray);
+        assertEquals("Measurement accession expected", "0000424",
+                catalog.getMeasurementTerm("transcription profiling", "DNA microarray").getAccession());
+
+        IsaConfiguration studySample = catalog.getStudySampleConfiguration();
+        assertTrue("Study sample configuration expected", studySample != null);
+
+        TableValidator validator = catalog.getValidator(studySample);
+
+        ValidationReport report = new ValidationReport();
+        TableValidator.RowCheck rowCheck = validator.checkHeader("s_valid.txt",
+                new String[]{"Source Name", "Characteristics[organism]", "Protocol REF", "Sample Name"}, report);
+        rowCheck.check(new String[]{"source 1", "Homo sapiens", "sample collection", "sample 1"});
+        assertTrue("Table should be valid: " + report.toLines(), report.isValid());
+
+        report = new ValidationReport();
+        rowCheck = validator.checkHeader("s_invalid.txt", new String[]{"Source Name", "Sample Name"}, report);
+        rowCheck.check(new String[]{"source 1", ""});
+        assertEquals("Missing Protocol REF and empty Sample Name expected: " + report.toLines(), 2, report.getProblemCount());
+    }
+
+    @Test
+    public void testConversionPlan() throws Exception {
+        System.out.println("___Testing planning the conversion of a submission from its headers");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "plan-test" + File.separator + "E-PLAN-1");
+        directory.mkdirs();
+        File idfFile = new File(directory, "E-PLAN-1.idf.txt");
+        write(idfFile, "Investigation Title\tA planned study\n"
+                + "Experimental Design\ttranscription profiling by array\n"
+                + "Person Last Name\tSmith\n"
+                + "Public Release Date\t2012-07-01\n"
+                + "Experiment Description\tTwo hybridizations\n"
+                + "Protocol Name\tP-1\n"
+                + "Protocol Type\tnucleic acid extraction\n"
+                + "SDRF File\tE-PLAN-1.sdrf.txt\n");
+        File sdrfFile = new File(directory, "E-PLAN-1.sdrf.txt");
+        write(sdrfFile, "Source Name\tCharacteristics[organism]\tSample Name\tProtocol REF\tExtract Name\tMaterial Type\t"
+                + "Labeled Extract Name\tLabel\tHybridization Name\tArray Data File\n"
+                + "source 1\tHomo sapiens\tsample 1\tP-1\textract 1\ttotal RNA\tlabeled extract 1\tCy3\tassay 1\tdata_1.txt\n"
+                + "source 2\tHomo sapiens\tsample 2\tP-1\textract 2\ttotal RNA\tlabeled extract 2\tCy5\tassay 2\tdata_2.txt\n");
+
+        ConversionPlan plan = new MAGETabObtain().doLocalPlan("E-PLAN-1", idfFile);
+        assertTrue("Submission should be convertible: " + plan.getProblems(), plan.isConvertible());
+        assertEquals("Listed assay files", Arrays.asList("a_E-PLAN-1_GeneChip_assay.txt"), plan.getListedAssayFiles());
+        assertEquals("SDRFs", Arrays.asList("E-PLAN-1.sdrf.txt"), plan.getSdrfNames());
+
+        // the plan is worked out from the headers alone, so should agree with the tables the conversion writes
+        Map<String, InputStream> sdrfs = new HashMap<String, InputStream>();
+        sdrfs.put("E-PLAN-1.sdrf.txt", new FileInputStream(sdrfFile));
+        InputStream idf = new FileInputStream(idfFile);
+        ConversionResult result;
+        try {
+            result = new MAGETabConverter().convert("E-PLAN-1", idf, sdrfs);
+        } finally {
+            idf.close();
+            sdrfs.get("E-PLAN-1.sdrf.txt").close();
+        }
+
+        assertEquals("Planned study sample header", Arrays.asList(result.getStudySamples().getHeader()),
+                plan.getStudySampleHeader());
+        assertEquals("Planned assay files", 1, plan.getAssayFiles().size());
+        for (IsaTable assay : result.getAssays()) {
+            assertEquals("Planned header of " + assay.getFileName(), Arrays.asList(assay.getHeader()),
+                    Arrays.asList(plan.getAssayHeader(assay.getFileName())));
+        }
+
+        // a listed SDRF which is not there keeps the submission from being converted
+        sdrfFile.delete();
+        ConversionPlan missingSdrfPlan = new MAGETabObtain().doLocalPlan("E-PLAN-1", idfFile);
+        assertFalse("Submission without its SDRF should not be convertible", missingSdrfPlan.isConvertible());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package org.isatools.magetoisatab.io;
+
+
+import com.sun.tools.javac.util.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class MAGETabSDRFLoaderTest {
+
+    private static final String[] HEADER = {"Source Name", "Characteristics[organism]", "Sample Name", "Protocol REF",
+            "Extract Name", "Comment [spot #]", "Hybridization Name", "Array Data File"};
+
+    @Test
+    public void testSplitSdrfTable() {
+        System.out.println("___Testing SDRF records split in to study sample and assay records");
+        List<String[]> sheet = newSheet(HEADER,
+                new String[]{"source 1", "Homo sapiens", "sample 1", "P-1", "extract 1", "7", "assay 1", "data_1.txt"},
+                // ending before the runs of assay columns after the numbered column
+                new String[]{"source 2", "Homo sapiens", "sample 2", "P-1", "extract 2"},
+                // ending within the first run
+                new String[]{"source 3", "Homo sapiens", "sample 3", "P-1"},
+                new String[]{"source 4", "Mus musculus", "sample 4", "P-1", "extract 4", "9", "assay 4", "data_4.txt",
+                        "past the header"});
+
+        Pair<List<String[]>, List<String[]>> tables = split(sheet, new ArrayList<String[]>());
+
+        assertRows("Study samples", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name"},
+                new String[]{"source 1", "Homo sapiens", "sample 1"},
+                new String[]{"source 2", "Homo sapiens", "sample 2"},
+                new String[]{"source 3", "Homo sapiens", "sample 3"},
+                new String[]{"source 4", "Mus musculus", "sample 4"}), tables.fst);
+        assertRows("Assay records", Arrays.asList(
+                new String[]{"Sample Name", "Protocol REF", "Extract Name", "Hybridization Assay Name", "Array Data File"},
+                new String[]{"sample 1", "P-1", "extract 1", "assay 1", "data_1.txt"},
+                new String[]{"sample 2", "P-1", "extract 2"},
+                new String[]{"sample 3", "P-1"},
+                new String[]{"sample 4", "P-1", "extract 4", "assay 4", "data_4.txt", "past the header"}), tables.snd);
+    }
+
+    @Test
+    public void testFactorsBySourceAndSampleName() {
+        System.out.println("___Testing factor values found by source and sample name in a reordered, filtered factor sheet");
+        List<String[]> sheet = newSheet(HEADER,
+                new String[]{"source 1", "Homo sapiens", "sample 1", "P-1", "extract 1"},
+                new String[]{"source 2", "Homo sapiens", "sample 2", "P-1", "extract 2"},
+                new String[]{"source 3", "Mus musculus", "sample 3", "P-1", "extract 3"},
+                new String[]{"source 4", "Mus musculus", "sample 4", "P-1", "extract 4"});
+        // source 2 has no factor record, and source 4 fewer values than there are factors
+        List<String[]> factorSheet = newSheet(
+                new String[]{"Source Name", "Sample Name", "Factor Value[time]", "Factor Value[dose]"},
+                new String[]{"source 3", "sample 3", "6 h", "10 mg"},
+                new String[0],
+                new String[]{"SOURCE 1", "Sample 1", "2 h", "5 mg"},
+                new String[]{"source 4", "sample 4", "8 h"});
+
+        assertRows("Study samples with factors", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name", "Factor Value[time]",
+                        "Factor Value[dose]"},
+                new String[]{"source 1", "Homo sapiens", "sample 1", "2 h", "5 mg"},
+                new String[]{"source 2", "Homo sapiens", "sample 2", "", ""},
+                new String[]{"source 3", "Mus musculus", "sample 3", "6 h", "10 mg"},
+                new String[]{"source 4", "Mus musculus", "sample 4", "8 h", ""}), split(sheet, factorSheet).fst);
+    }
+
+    @Test
+    public void testFactorsOfShuffledSamplesOfOneSource() {
+        System.out.println("___Testing factor values of the samples of one source, in a different order to the factor sheet");
+        List<String[]> sheet = newSheet(HEADER,
+                new String[]{"source 1", "Homo sapiens", "sample 8 h", "P-1", "extract 4"},
+                new String[]{"source 2", "Homo sapiens", "sample 0 h", "P-1", "extract 5"},
+                new String[]{"source 1", "Homo sapiens", "sample 2 h", "P-1", "extract 2"},
+                new String[]{"source 1", "Homo sapiens", "sample 0 h", "P-1", "extract 1"},
+                new String[]{"source 1", "Homo sapiens", "sample 4 h", "P-1", "extract 3"});
+        // a time series of one source, its extracts repeating samples, with the 4 h sample filtered out
+        List<String[]> factorSheet = newSheet(
+                new String[]{"Source Name", "Sample Name", "Factor Value[time]"},
+                new String[]{"source 1", "sample 0 h", "0 h"},
+                new String[]{"source 1", "sample 2 h", "2 h"},
+                new String[]{"source 1", "sample 2 h", "2 h"},
+                new String[]{"source 2", "sample 0 h", "0 h, second source"},
+                new String[]{"source 1", "sample 8 h", "8 h"});
+
+        assertRows("Study samples with factors", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name", "Factor Value[time]"},
+                new String[]{"source 1", "Homo sapiens", "sample 8 h", "8 h"},
+                new String[]{"source 2", "Homo sapiens", "sample 0 h", "0 h, second source"},
+                new String[]{"source 1", "Homo sapiens", "sample 2 h", "2 h"},
+                new String[]{"source 1", "Homo sapiens", "sample 0 h", "0 h"},
+                new String[]{"source 1", "Homo sapiens", "sample 4 h", ""}), split(sheet, factorSheet).fst);
+    }
+
+    @Test
+    public void testFactorsBySourceNameAlone() {
+        System.out.println("___Testing factor values found by source name where the SDRF has no sample node");
+        List<String[]> sheet = newSheet(HEADER,
+                new String[]{"source 1", "Homo sapiens", "sample 1", "P-1", "extract 1"},
+                new String[]{"source 2", "Homo sapiens", "sample 2", "P-1", "extract 2"});
+        List<String[]> factorSheet = newSheet(
+                new String[]{"Source Name", "Factor Value[time]"},
+                new String[]{"source 2", "4 h"},
+                new String[]{"Source 1", "2 h"});
+
+        assertRows("Study samples with factors", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name", "Factor Value[time]"},
+                new String[]{"source 1", "Homo sapiens", "sample 1", "2 h"},
+                new String[]{"source 2", "Homo sapiens", "sample 2", "4 h"}), split(sheet, factorSheet).fst);
+    }
+
+    private static List<String[]> newSheet(String[]... rows) {
+        return new ArrayList<String[]>(Arrays.asList(rows));
+    }
+
+    private static Pair<List<String[]>, List<String[]>> split(List<String[]> sheet, List<String[]> factorSheet) {
+        MAGETabSDRFLoader loader = new MAGETabSDRFLoader();
+        return loader.splitSdrfTable(loader.processSdrfHeaderRow(sheet.get(0)), sheet, factorSheet);
+    }
+
+    private static void assertRows(String message, List<String[]> expectedRows, List<String[]> rows) {
+        assertEquals(message + ": row count", expectedRows.size(), rows.size());
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            assertEquals(message + ": row " + rowIndex, Arrays.asList(expectedRows.get(rowIndex)),
+                    Arrays.asList(rows.get(rowIndex)));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.io.model.Study;
+import org.isatools.magetoisatab.io.synthetic.MAGETabCorpusGenerator;
+import org.isatools.magetoisatab.monitoring.ConversionListener;
+import org.isatools.magetoisatab.monitoring.ConversionMetrics;
+import org.isatools.magetoisatab.monitoring.ConversionStage;
+import org.isatools.magetoisatab.monitoring.StageMetrics;
+import org.isatools.magetoisatab.utils.Digests;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SdrfSnapshotCacheTest {
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        System.out.println("___Testing SDRF snapshots read back as they were stored");
+        SdrfSnapshotCache cache = new SdrfSnapshotCache(newCacheDirectory("round-trip"));
+
+        StringBuilder longCell = new StringBuilder();
+        while (longCell.length() < 70000) {
+            longCell.append("a long cell, past what writeUTF can hold; ");
+        }
+
+        List<String[]> sheet = new ArrayList<String[]>();
+        sheet.add(new String[]{"Source Name", "Characteristics[organism]", "Sample Name"});
+        sheet.add(new String[]{"source 1", null, "sample 1"});
+        sheet.add(new String[]{"source 2", longCell.toString(), "sample 1"});
+        sheet.add(new String[0]);
+        List<String[]> factorSheet = new ArrayList<String[]>();
+        factorSheet.add(new String[]{"Source Name", "Factor Value[time]"});
+        factorSheet.add(new String[]{"source 1", "2 h \u00b5M"});
+
+        cache.store("E-SNAP-1", "0123", new SdrfSnapshotCache.Snapshot(sheet, factorSheet, 1));
+
+        SdrfSnapshotCache.Snapshot snapshot = cache.load("E-SNAP-1", "0123");
+        assertTrue("Snapshot expected", snapshot != null);
+        assertTables("Sheet", sheet, snapshot.getSheet());
+        assertTables("Factor sheet", factorSheet, snapshot.getFactorSheet());
+        assertEquals("Technology type", 1, snapshot.getTechnologyType());
+
+        assertTrue("Other SDRFs should have no snapshot", cache.load("E-SNAP-1", "4567") == null);
+    }
+
+    @Test
+    public void testDamagedSnapshotsIgnored() throws Exception {
+        System.out.println("___Testing truncated and corrupt SDRF snapshots ignored");
+        SdrfSnapshotCache cache = new SdrfSnapshotCache(newCacheDirectory("damaged"));
+
+        List<String[]> sheet = new ArrayList<String[]>();
+        sheet.add(new String[]{"Source Name", "Sample Name"});
+        sheet.add(new String[]{"source 1", "sample 1"});
+        SdrfSnapshotCache.Snapshot snapshot = new SdrfSnapshotCache.Snapshot(sheet, new ArrayList<String[]>(), -1);
+
+        cache.store("E-SNAP-2", "truncated", snapshot);
+        RandomAccessFile truncated = new RandomAccessFile(cache.getSnapshotFile("E-SNAP-2", "truncated"), "rw");
+        try {
+            truncated.setLength(truncated.length() / 2);
+        } finally {
+            truncated.close();
+        }
+        assertTrue("Truncated snapshot should be ignored", cache.load("E-SNAP-2", "truncated") == null);
+
+        // a string count, after the magic number and the version, far past what the file could hold
+        cache.store("E-SNAP-2", "corrupt", snapshot);
+        RandomAccessFile corrupt = new RandomAccessFile(cache.getSnapshotFile("E-SNAP-2", "corrupt"), "rw");
+        try {
+            corrupt.seek(8);
+            corrupt.writeInt(Integer.MAX_VALUE);
+        } finally {
+            corrupt.close();
+        }
+        assertTrue("Corrupt snapshot should be ignored", cache.load("E-SNAP-2", "corrupt") == null);
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToLoading() throws Exception {
+        System.out.println("___Testing SDRFs loaded in full when their snapshot is corrupt");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "snapshot-test" + File.separator + "E-SNAP-3");
+        MAGETabCorpusGenerator generator = new MAGETabCorpusGenerator();
+        generator.setRowCount(20);
+        generator.setLayouts(MAGETabCorpusGenerator.Layout.MICROARRAY);
+        generator.generate(directory, "E-SNAP-3");
+        File sdrfFile = new File(directory, "E-SNAP-3.sdrf.txt");
+
+        Study uncached = new MAGETabSDRFLoader().processSdrfTab(sdrfFile.getPath(), "E-SNAP-3", new HashSet<AssayType>());
+
+        File cacheDirectory = newCacheDirectory("fallback");
+        SdrfLoadCounter loads = new SdrfLoadCounter();
+        ConversionMetrics.addListener(loads);
+        System.setProperty(SdrfSnapshotCache.CACHE_DIRECTORY_PROPERTY, cacheDirectory.getPath());
+        try {
+            Study stored = new MAGETabSDRFLoader().processSdrfTab(sdrfFile.getPath(), "E-SNAP-3", new HashSet<AssayType>());
+            File snapshotFile = new SdrfSnapshotCache(cacheDirectory).getSnapshotFile("E-SNAP-3", Digests.sha256(sdrfFile));
+            assertTrue("Snapshot should be stored", snapshotFile.isFile());
+            assertStudies("Study on a cache miss", uncached, stored);
+
+            Study cached = new MAGETabSDRFLoader().processSdrfTab(sdrfFile.getPath(), "E-SNAP-3", new HashSet<AssayType>());
+            assertStudies("Study from the snapshot", uncached, cached);
+
+            RandomAccessFile corrupt = new RandomAccessFile(snapshotFile, "rw");
+            try {
+                corrupt.setLength(corrupt.length() - 10);
+            } finally {
+                corrupt.close();
+            }
+            Study reloaded = new MAGETabSDRFLoader().processSdrfTab(sdrfFile.getPath(), "E-SNAP-3", new HashSet<AssayType>());
+            assertStudies("Study loaded again past the corrupt snapshot", uncached, reloaded);
+        } finally {
+            System.clearProperty(SdrfSnapshotCache.CACHE_DIRECTORY_PROPERTY);
+            ConversionMetrics.removeListener(loads);
+        }
+
+        assertEquals("One load stage started for each SDRF processed", 3, loads.started);
+        assertEquals("Every load stage completed", 3, loads.completed);
+    }
+
+    private static class SdrfLoadCounter implements ConversionListener {
+
+        private int started;
+
+        private int completed;
+
+        public synchronized Object stageStarted(String accession, ConversionStage stage, String detail) {
+            if ("E-SNAP-3".equals(accession) && stage == ConversionStage.SDRF_LOAD) {
+                started++;
+            }
+            return null;
+        }
+
+        public synchronized void stageCompleted(StageMetrics metrics, Object context) {
+            if ("E-SNAP-3".equals(metrics.getAccession()) && metrics.getStage() == ConversionStage.SDRF_LOAD) {
+                completed++;
+            }
+        }
+    }
+
+    private static File newCacheDirectory(String name) {
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "snapshot-test" + File.separator + name);
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        return directory;
+    }
+
+    private static void assertStudies(String message, Study expected, Study actual) {
+        assertTables(message + ": study samples", expected.getStudySampleLevelInformation(),
+                actual.getStudySampleLevelInformation());
+        assertEquals(message + ": assays", expected.getAssays().size(), actual.getAssays().size());
+        assertTrue(message + ": study samples expected", actual.getStudySampleLevelInformation().size() > 1);
+    }
+
+    private static void assertTables(String message, List<String[]> expected, List<String[]> actual) {
+        assertEquals(message + ": row count", expected.size(), actual.size());
+        for (int rowIndex = 0; rowIndex < expected.size(); rowIndex++) {
+            assertEquals(message + ": row " + rowIndex, Arrays.asList(expected.get(rowIndex)),
+                    Arrays.asList(actual.get(rowIndex)));
+        }
+    }
+}
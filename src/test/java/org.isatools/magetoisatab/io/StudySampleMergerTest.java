@@ -0,0 +1,65 @@
+package org.isatools.magetoisatab.io;
+
+
+import org.isatools.magetoisatab.io.output.IsaTabWriter;
+import org.isatools.magetoisatab.io.output.TableOutputSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class StudySampleMergerTest {
+
+    @Test
+    public void testMergedTables() throws Exception {
+        System.out.println("___Testing study sample tables with different headers merged");
+        StudySampleMerger merger = new StudySampleMerger();
+
+        merger.addTable(Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name"},
+                new String[]{"source 2", "Homo sapiens", "sample 2"},
+                new String[]{"source 1", "Homo sapiens", "sample 1"},
+                new String[]{"source 2", "Homo sapiens", "sample 2"}));
+        merger.addTable(new ArrayList<String[]>());
+        // overlapping the first table in a different order, with a column of its own and a repeated column
+        merger.addTable(Arrays.asList(
+                new String[]{"Sample Name", "Characteristics[strain]", "Source Name", "Characteristics[organism]",
+                        "Characteristics[organism]"},
+                new String[]{"sample 3", "C57BL/6", "source 3", "Homo sapiens", "Mus musculus"},
+                new String[]{"sample 1", "", "source 1", "Mus musculus", "Homo sapiens"},
+                new String[]{"sample 4", null, "source 4"},
+                new String[]{"sample 3", "C57BL/6", "source 3", "Homo sapiens", "Mus musculus"}));
+        // sharing only some columns with the others
+        merger.addTable(Arrays.asList(
+                new String[]{"Source Name", "Factor Value[time]"},
+                new String[]{"source 5", "2 h"},
+                new String[]{"source 5", "2 h"}));
+
+        assertEquals("Column names in the order first found", Arrays.asList("Source Name", "Characteristics[organism]",
+                "Sample Name", "Characteristics[strain]", "Factor Value[time]"), merger.getHeader());
+
+        TableOutputSink sink = new TableOutputSink();
+        IsaTabWriter studyWriter = sink.openWriter("E-MERGE-1", "s_E-MERGE-1_study_samples.txt");
+        merger.write(studyWriter);
+        studyWriter.close();
+
+        List<String[]> expectedRows = Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name", "Characteristics[strain]",
+                        "Factor Value[time]"},
+                new String[]{"source 2", "Homo sapiens", "sample 2", "", ""},
+                new String[]{"source 1", "Homo sapiens", "sample 1", "", ""},
+                new String[]{"source 3", "Mus musculus", "sample 3", "C57BL/6", ""},
+                new String[]{"source 4", "", "sample 4", "", ""},
+                new String[]{"source 5", "", "", "", "2 h"});
+        List<String[]> rows = sink.getTables("E-MERGE-1").get("s_E-MERGE-1_study_samples.txt");
+        assertEquals("Distinct records and header expected", expectedRows.size(), rows.size());
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            assertEquals("Row " + rowIndex, Arrays.asList(expectedRows.get(rowIndex)), Arrays.asList(rows.get(rowIndex)));
+        }
+        assertEquals("Records written", 5, merger.getRecordCount());
+    }
+}
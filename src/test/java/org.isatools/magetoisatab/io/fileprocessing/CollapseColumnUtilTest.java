@@ -0,0 +1,37 @@
+package org.isatools.magetoisatab.io.fileprocessing;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class CollapseColumnUtilTest {
+
+    @Test
+    public void testChainedProtocolsOfTallSheet() {
+        System.out.println("___Testing chained protocols collapsed on a sheet of more than 65536 rows");
+        // past 65536 rows a HashMap of row numbers stops iterating in row order
+        int rowCount = 70000;
+        List<String[]> sheet = new ArrayList<String[]>(rowCount);
+        sheet.add(new String[]{"Sample Name", "Protocol REF", "Protocol REF", "Extract Name"});
+        for (int rowIndex = 1; rowIndex < rowCount; rowIndex++) {
+            sheet.add(new String[]{"sample " + rowIndex, "P-" + rowIndex, "", "extract " + rowIndex});
+        }
+
+        List<String[]> collapsed = new CollapseColumnUtil().processSpreadsheet(sheet);
+
+        assertEquals("Row count", rowCount, collapsed.size());
+        assertEquals("Header", Arrays.asList("Sample Name", "Protocol REF", "Extract Name"),
+                Arrays.asList(collapsed.get(0)));
+        for (int rowIndex = 1; rowIndex < rowCount; rowIndex++) {
+            assertEquals("Row " + rowIndex,
+                    Arrays.asList("sample " + rowIndex, "P-" + rowIndex, "extract " + rowIndex),
+                    Arrays.asList(collapsed.get(rowIndex)));
+        }
+    }
+}
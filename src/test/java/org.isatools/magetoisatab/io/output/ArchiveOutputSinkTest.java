@@ -0,0 +1,287 @@
+package org.isatools.magetoisatab.io.output;
+
+
+import org.isatools.magetoisatab.io.DownloadUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ArchiveOutputSinkTest {
+
+    // a file name which, under its accession, is over 100 bytes but splits in to a ustar prefix and name
+    private static final String SPLIT_NAME = "a_E-ARCH-1_" + repeat("transcription_profiling_", 3) + "assay.txt";
+
+    // a file name over 100 bytes on its own, which needs a GNU long name entry
+    private static final String LONG_NAME = "a_E-ARCH-1_" + repeat("transcription_profiling_by_array_", 4) + "assay.txt";
+
+    // past the 8MB an entry is gathered in memory up to
+    private static final int SPILLED_LINE_COUNT = 5 << 16;
+
+    @Test
+    public void testZipPerAccession() throws Exception {
+        System.out.println("___Testing one zip archive per accession");
+        File directory = newDirectory("zip-per-accession");
+        ArchiveOutputSink sink = ArchiveOutputSink.perAccession(ArchiveOutputSink.Format.ZIP, directory);
+
+        Map<String, String> firstFiles = writeFiles(sink, "E-ARCH-1", false);
+        assertFalse("Archive should only exist once finished", new File(directory, "E-ARCH-1.zip").exists());
+        sink.finishAccession("E-ARCH-1");
+        Map<String, String> secondFiles = writeFiles(sink, "E-ARCH-2", false);
+        sink.finishAccession("E-ARCH-2");
+        sink.close();
+
+        assertEquals("Only the finished archives should exist", Arrays.asList("E-ARCH-1.zip", "E-ARCH-2.zip"),
+                sortedNames(directory));
+        assertEquals("Archive location", new File(directory, "E-ARCH-1.zip"), sink.getLocation("E-ARCH-1"));
+        assertEquals("Entries of the first archive", firstFiles, readZip(new File(directory, "E-ARCH-1.zip")));
+        assertEquals("Entries of the second archive", secondFiles, readZip(new File(directory, "E-ARCH-2.zip")));
+    }
+
+    @Test
+    public void testZipPerBatch() throws Exception {
+        System.out.println("___Testing one zip archive for a batch, with an entry spilled to disk");
+        File directory = newDirectory("zip-per-batch");
+        File archiveFile = new File(directory, "batch.zip");
+        ArchiveOutputSink sink = ArchiveOutputSink.perBatch(ArchiveOutputSink.Format.ZIP, archiveFile);
+        Map<String, String> files = writeFiles(sink, "E-ARCH-1", true);
+        sink.finishAccession("E-ARCH-1");
+        files.putAll(writeFiles(sink, "E-ARCH-2", false));
+        sink.finishAccession("E-ARCH-2");
+        assertEquals("The batch archive should only exist once the sink is closed", Arrays.asList("batch.zip.part"),
+                sortedNames(directory));
+        sink.close();
+
+        assertEquals("Only the finished archive should exist", Arrays.asList("batch.zip"), sortedNames(directory));
+        assertEquals("Every accession in the batch archive", files, readZip(archiveFile));
+    }
+
+    @Test
+    public void testTarPerBatch() throws Exception {
+        System.out.println("___Testing one tar archive for a batch, with long names and an entry spilled to disk");
+        File directory = newDirectory("tar-per-batch");
+        File archiveFile = new File(directory, "batch.tar");
+        ArchiveOutputSink sink = ArchiveOutputSink.perBatch(ArchiveOutputSink.Format.TAR, archiveFile);
+
+        Map<String, String> files = writeFiles(sink, "E-ARCH-1", true);
+        files.putAll(writeFiles(sink, "E-ARCH-2", false));
+        sink.close();
+
+        assertTrue("Split name should need a prefix", ("E-ARCH-1/" + SPLIT_NAME).length() > 100 && SPLIT_NAME.length() <= 100);
+        assertTrue("Long name should need a long name entry", LONG_NAME.length() > 100);
+        assertEquals("Only the finished archive should exist", Arrays.asList("batch.tar"), sortedNames(directory));
+        assertEquals("Every accession in the batch archive", files, readTar(archiveFile));
+    }
+
+    @Test
+    public void testTarPerAccession() throws Exception {
+        System.out.println("___Testing one tar archive per accession");
+        File directory = newDirectory("tar-per-accession");
+        ArchiveOutputSink sink = ArchiveOutputSink.perAccession(ArchiveOutputSink.Format.TAR, directory);
+
+        Map<String, String> files = writeFiles(sink, "E-ARCH-1", false);
+        sink.finishAccession("E-ARCH-1");
+
+        assertEquals("Only the finished archive should exist", Arrays.asList("E-ARCH-1.tar"), sortedNames(directory));
+        assertEquals("Entries of the archive", files, readTar(new File(directory, "E-ARCH-1.tar")));
+        sink.close();
+    }
+
+    /**
+     * Writes an investigation file, a study file and assay files with long names, and optionally an assay file
+     * larger than is gathered in memory, closing them in a different order than they were opened.
+     *
+     * @return the contents of the files by entry name
+     */
+    private static Map<String, String> writeFiles(ArchiveOutputSink sink, String accnum, boolean spilled) throws IOException {
+        Map<String, String> files = new LinkedHashMap<String, String>();
+
+        IsaTabWriter investigation = sink.openWriter(accnum, "i_" + accnum + "_investigation.txt");
+        IsaTabWriter study = sink.openWriter(accnum, "s_" + accnum + "_study_samples.txt");
+        investigation.writeLine("Investigation Identifier\t" + accnum);
+        study.writeRow(new String[]{"Source Name", "Sample Name"});
+        study.writeRow(new String[]{"source 1", "sample 1"});
+        study.close();
+        investigation.close();
+        files.put(accnum + "/s_" + accnum + "_study_samples.txt", "Source Name\tSample Name" + EOL + "source 1\tsample 1" + EOL);
+        files.put(accnum + "/i_" + accnum + "_investigation.txt", "Investigation Identifier\t" + accnum + EOL);
+
+        for (String assayName : new String[]{SPLIT_NAME, LONG_NAME}) {
+            IsaTabWriter assay = sink.openWriter(accnum, assayName);
+            assay.writeRow(new String[]{"Sample Name", "Assay Name"});
+            assay.close();
+            files.put(accnum + "/" + assayName, "Sample Name\tAssay Name" + EOL);
+        }
+
+        if (spilled) {
+            int spillFileCount = countSpillFiles();
+            StringBuilder content = new StringBuilder();
+            IsaTabWriter assay = sink.openWriter(accnum, "a_" + accnum + "_large_assay.txt");
+            for (int line = 0; line < SPILLED_LINE_COUNT; line++) {
+                String row = "sample " + line + "\tassay " + line + "\t" + repeat("x", line % 17);
+                assay.writeLine(row);
+                content.append(row).append(EOL);
+            }
+            assertTrue("Entry should be past the threshold", content.length() > 8 << 20);
+            assertEquals("Entry should be spilled to disk", spillFileCount + 1, countSpillFiles());
+            assay.close();
+            assertEquals("Spilled entry should be deleted once written", spillFileCount, countSpillFiles());
+            files.put(accnum + "/a_" + accnum + "_large_assay.txt", content.toString());
+        }
+        return files;
+    }
+
+    private static final String EOL = System.getProperty("line.separator");
+
+    private static Map<String, String> readZip(File archiveFile) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        ZipInputStream input = new ZipInputStream(new FileInputStream(archiveFile));
+        try {
+            ZipEntry entry;
+            while ((entry = input.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(readAll(input), "UTF-8"));
+            }
+        } finally {
+            input.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a ustar archive, checking the checksum and magic of every header and joining GNU long names and ustar
+     * prefixes to the names they belong to.
+     */
+    private static Map<String, String> readTar(File archiveFile) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        DataInputStream input = new DataInputStream(new FileInputStream(archiveFile));
+        try {
+            String longName = null;
+            byte[] header = new byte[512];
+            while (true) {
+                input.readFully(header);
+                if (isZero(header)) {
+                    input.readFully(header);
+                    assertTrue("Two empty blocks should end the archive", isZero(header));
+                    assertEquals("Nothing should follow the end of the archive", -1, input.read());
+                    break;
+                }
+
+                long checksum = 0;
+                for (int index = 0; index < header.length; index++) {
+                    checksum += index >= 148 && index < 156 ? ' ' : header[index] & 0xFF;
+                }
+                assertEquals("Header checksum", checksum, parseOctal(header, 148, 8));
+                assertEquals("ustar magic", "ustar\u000000", new String(header, 257, 8, "US-ASCII"));
+
+                long size = parseOctal(header, 124, 12);
+                byte[] content = new byte[(int) size];
+                input.readFully(content);
+                input.readFully(new byte[(int) ((512 - size % 512) % 512)]);
+
+                String name = parseString(header, 0, 100);
+                if (header[156] == 'L') {
+                    assertEquals("Long name entry name", "././@LongLink", name);
+                    longName = parseString(content, 0, content.length);
+                    continue;
+                }
+                assertEquals("Regular file expected", '0', (char) header[156]);
+
+                String prefix = parseString(header, 345, 155);
+                if (longName != null) {
+                    assertTrue("Truncated name expected", longName.startsWith(name));
+                    name = longName;
+                    longName = null;
+                } else if (prefix.length() > 0) {
+                    name = prefix + "/" + name;
+                }
+                entries.put(name, new String(content, "UTF-8"));
+            }
+        } finally {
+            input.close();
+        }
+        return entries;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte blockByte : block) {
+            if (blockByte != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) {
+        long value = 0;
+        for (int index = offset; index < offset + length && header[index] >= '0' && header[index] <= '7'; index++) {
+            value = value * 8 + header[index] - '0';
+        }
+        return value;
+    }
+
+    private static String parseString(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, "UTF-8");
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int countSpillFiles() {
+        int count = 0;
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+            if (name.startsWith("isatab-entry")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static File newDirectory(String name) {
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "archive-test" + File.separator + name);
+        directory.mkdirs();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        return directory;
+    }
+
+    private static List<String> sortedNames(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int index = 0; index < count; index++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+}
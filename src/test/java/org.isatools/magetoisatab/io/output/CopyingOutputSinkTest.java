@@ -0,0 +1,80 @@
+package org.isatools.magetoisatab.io.output;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CopyingOutputSinkTest {
+
+    @Test
+    public void testCopiesReadBackFromTemporaryFiles() throws Exception {
+        System.out.println("___Testing table copies kept in temporary files");
+        InMemoryOutputSink files = new InMemoryOutputSink();
+        CopyingOutputSink sink = new CopyingOutputSink(files);
+
+        IsaTabWriter study = sink.openWriter("E-TEST-1", "s_E-TEST-1_study_samples.txt");
+        study.writeRow(new String[]{"Source Name", "Characteristics[organism]", "Sample Name"});
+        study.writeRow(new String[]{"source\t1", null, "sample\n1"});
+        study.writeRow(Arrays.asList("source 2", "Mus musculus", "sample 2"));
+        study.close();
+
+        IsaTabWriter investigation = sink.openWriter("E-TEST-1", "i_E-TEST-1_investigation.txt");
+        investigation.writeLine("Investigation Identifier\tE-TEST-1\nInvestigation Title\ta title");
+        investigation.close();
+
+        assertTrue("Files should reach the other sink", files.exists("E-TEST-1", "s_E-TEST-1_study_samples.txt"));
+
+        Map<String, SpooledTable> tables = sink.getTables("E-TEST-1");
+        assertEquals("Copies by file name expected",
+                Arrays.asList("i_E-TEST-1_investigation.txt", "s_E-TEST-1_study_samples.txt"),
+                new ArrayList<String>(tables.keySet()));
+
+        SpooledTable studyCopy = tables.get("s_E-TEST-1_study_samples.txt");
+        List<String[]> expectedRows = Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Sample Name"},
+                new String[]{"source 1", "", "sample 1"},
+                new String[]{"source 2", "Mus musculus", "sample 2"});
+        for (int pass = 0; pass < 2; pass++) {
+            assertRows("Study rows expected, pass " + pass, expectedRows, studyCopy);
+        }
+        assertEquals("Lines written expected", 3, studyCopy.getLineCount());
+
+        assertRows("Lines split in to rows expected", Arrays.asList(
+                new String[]{"Investigation Identifier", "E-TEST-1"},
+                new String[]{"Investigation Title", "a title"}), tables.get("i_E-TEST-1_investigation.txt"));
+
+        // reading the header alone leaves no file open, so the copy can be deleted at once
+        Iterator<String[]> rows = studyCopy.iterator();
+        assertEquals("Header expected", "Source Name", rows.next()[0]);
+        File studyFile = studyCopy.getFile();
+        assertTrue("Copy should be on disk", studyFile.isFile());
+
+        sink.remove("E-TEST-1");
+        assertFalse("Copy should be deleted", studyFile.exists());
+        assertTrue("Copies should be let go of", sink.getTables("E-TEST-1").isEmpty());
+        assertTrue("Files should stay in the other sink", files.exists("E-TEST-1", "s_E-TEST-1_study_samples.txt"));
+    }
+
+    private static void assertRows(String message, List<String[]> expectedRows, Iterable<String[]> table) {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (String[] row : table) {
+            rows.add(row);
+        }
+        assertEquals(message + ": row count", expectedRows.size(), rows.size());
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            assertEquals(message + ": row " + rowIndex, Arrays.asList(expectedRows.get(rowIndex)),
+                    Arrays.asList(rows.get(rowIndex)));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.isatools.magetoisatab.io.output;
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class IsaJsonWriterTest {
+
+    @Test
+    public void testIsaJsonExport() throws Exception {
+        System.out.println("___Testing ISA-JSON export of a study and an assay");
+        Map<String, List<String[]>> tables = new LinkedHashMap<String, List<String[]>>();
+        tables.put("i_E-JSON-1_investigation.txt", Arrays.asList(
+                new String[]{"Investigation Identifier", "E-JSON-1"},
+                new String[]{"Study Title", "A small study"},
+                new String[]{"Study Protocol Name", "P-1", "P-2"},
+                new String[]{"Study Protocol Type", "sample collection", "nucleic acid extraction"}));
+        // both samples come from the one source
+        tables.put("s_E-JSON-1_study_samples.txt", Arrays.asList(
+                new String[]{"Source Name", "Characteristics[organism]", "Protocol REF", "Sample Name"},
+                new String[]{"source 1", "Homo sapiens", "P-1", "sample 1"},
+                new String[]{"source 1", "Homo sapiens", "P-1", "sample 2"}));
+        tables.put("a_E-JSON-1_GeneChip_assay.txt", Arrays.asList(
+                new String[]{"Sample Name", "Protocol REF", "Extract Name", "Array Data File"},
+                new String[]{"sample 1", "P-2", "extract 1", "data_1.txt"},
+                new String[]{"sample 2", "P-2", "extract 2", "data_2.txt"}));
+
+        StringBuilder output = new StringBuilder();
+        new IsaJsonWriter(output).write("E-JSON-1", tables);
+        String json = output.toString();
+
+        assertTrue("Investigation identifier expected", json.startsWith("{\"identifier\":\"E-JSON-1\",\"filename\":\"i_E-JSON-1_investigation.txt\""));
+        assertTrue("Study identifier should default to the accession",
+                json.contains("\"studies\":[{\"identifier\":\"E-JSON-1\",\"filename\":\"s_E-JSON-1_study_samples.txt\",\"title\":\"A small study\""));
+        assertTrue("Protocol expected", json.contains("{\"@id\":\"#protocol/P-2\",\"name\":\"P-2\",\"protocolType\":"
+                + "{\"annotationValue\":\"nucleic acid extraction\""));
+
+        assertEquals("Shared source should be written once", 1, count(json, "{\"@id\":\"#source/source 1\",\"name\""));
+        assertTrue("Sample should derive from its source", json.contains("{\"@id\":\"#sample/sample 2\",\"name\":\"sample 2\","
+                + "\"characteristics\":[],\"factorValues\":[],\"derivesFrom\":[{\"@id\":\"#source/source 1\"}]}"));
+        assertTrue("Study process expected", json.contains("{\"@id\":\"#process/P-1/2\",\"executesProtocol\":{\"@id\":\"#protocol/P-1\"}"));
+
+        assertTrue("Assay expected", json.contains("\"assays\":[{\"filename\":\"a_E-JSON-1_GeneChip_assay.txt\""));
+        assertTrue("Assay should refer to study samples", json.contains("\"materials\":{\"samples\":[{\"@id\":\"#sample/sample 1\"},"
+                + "{\"@id\":\"#sample/sample 2\"}]"));
+        assertTrue("Data file expected", json.contains("{\"@id\":\"#data/array_data_file/data_2.txt\",\"name\":\"data_2.txt\","
+                + "\"type\":\"Array Data File\""));
+        // processes are numbered across the document, so assay processes follow those of the study
+        assertTrue("Assay process expected", json.contains("{\"@id\":\"#process/P-2/3\",\"executesProtocol\":{\"@id\":\"#protocol/P-2\"}"));
+        assertTrue("Assay process should link sample and extract", json.contains("\"inputs\":[{\"@id\":\"#sample/sample 2\"}],"
+                + "\"outputs\":[{\"@id\":\"#material/extract_name/extract 2\"}]"));
+        assertTrue("Document should be closed", json.endsWith("]}"));
+    }
+
+    @Test
+    public void testMissingInvestigation() throws Exception {
+        System.out.println("___Testing ISA-JSON export without an investigation file");
+        Map<String, List<String[]>> tables = new LinkedHashMap<String, List<String[]>>();
+        tables.put("s_E-JSON-2_study_samples.txt", Arrays.<String[]>asList(new String[]{"Source Name", "Sample Name"}));
+        StringBuilder output = new StringBuilder();
+        try {
+            new IsaJsonWriter(output).write("E-JSON-2", tables);
+            fail("Export without an investigation file should fail");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Nothing should be written", 0, output.length());
+        }
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+package org.isatools.magetoisatab.io.output;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class IsaTabWriterTest {
+
+    private static final String NEW_LINE = System.getProperty("line.separator");
+
+    @Test
+    public void testCellsEscaped() throws Exception {
+        System.out.println("___Testing tabs and line breaks within cells written as spaces");
+        StringWriter text = new StringWriter();
+        IsaTabWriter writer = new IsaTabWriter(text);
+        writer.writeRow(new String[]{"source\t1", "Homo\nsapiens", "sample\r\n1", "\t"});
+        writer.writeRow(Arrays.asList("source\t2", "Mus\rmusculus", "sample 2"));
+        writer.close();
+
+        assertEquals("Cells should stay in their columns",
+                "source 1\tHomo sapiens\tsample  1\t " + NEW_LINE + "source 2\tMus musculus\tsample 2" + NEW_LINE,
+                text.toString());
+        assertEquals("Rows written", 2, writer.getLineCount());
+    }
+
+    @Test
+    public void testNullCellsWrittenEmpty() throws Exception {
+        System.out.println("___Testing null cells written as empty cells");
+        StringWriter text = new StringWriter();
+        IsaTabWriter writer = new IsaTabWriter(text);
+        writer.writeRow(new String[]{null, "sample 1", null});
+        writer.writeRow(Arrays.asList("source 2", null, ""));
+        writer.writeRow(new String[]{null});
+        writer.close();
+
+        assertEquals("Null cells should be empty",
+                "\tsample 1\t" + NEW_LINE + "source 2\t\t" + NEW_LINE + NEW_LINE, text.toString());
+    }
+
+    @Test
+    public void testLinesWrittenAsTheyAre() throws Exception {
+        System.out.println("___Testing investigation lines written as they are, and bytes counted in UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IsaTabWriter writer = new IsaTabWriter(bytes);
+        writer.writeLine("Investigation Title\tLe caf\u00e9");
+        writer.writeLine(null);
+        writer.append("{}");
+        writer.flush();
+
+        String expected = "Investigation Title\tLe caf\u00e9" + NEW_LINE + NEW_LINE + "{}";
+        assertEquals("Lines should keep their tabs", expected, bytes.toString(IsaTabWriter.ENCODING));
+        assertEquals("Bytes written", expected.getBytes(IsaTabWriter.ENCODING).length, writer.getByteCount());
+        assertEquals("Appended text is not counted as lines", 2, writer.getLineCount());
+
+        writer.close();
+        writer.close();
+    }
+}
@@ -0,0 +1,127 @@
+package org.isatools.magetoisatab.io.output;
+
+
+import org.isatools.magetoisatab.utils.ConversionThreadPool;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ParallelGzipOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    @Test
+    public void testBlocksReadBackAsOneStream() throws Exception {
+        System.out.println("___Testing gzip members of several blocks, the last partial, read back as one stream");
+        byte[] data = newData(12 * BLOCK_SIZE + 357, 1);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+        // single bytes, writes within a block and writes over several blocks
+        int offset = 0;
+        for (; offset < 10; offset++) {
+            gzip.write(data[offset]);
+        }
+        gzip.write(data, offset, 500);
+        offset += 500;
+        gzip.flush();
+        gzip.write(data, offset, 3 * BLOCK_SIZE + 1);
+        offset += 3 * BLOCK_SIZE + 1;
+        gzip.write(data, offset, data.length - offset);
+        gzip.close();
+
+        byte[] members = compressed.toByteArray();
+        assertTrue("Bytes should read back the same", Arrays.equals(data, gunzip(members)));
+        assertEquals("The last member should hold the partial block", 357, getLastMemberSize(members));
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        System.out.println("___Testing a gzip stream nothing was written to");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION).close();
+
+        assertTrue("An empty member expected", compressed.size() > 0);
+        assertEquals("Nothing should read back", 0, gunzip(compressed.toByteArray()).length);
+        assertEquals("Empty member expected", 0, getLastMemberSize(compressed.toByteArray()));
+    }
+
+    @Test(timeout = 120000)
+    public void testWritesFromPoolThreads() throws Exception {
+        System.out.println("___Testing gzip streams written from pool threads");
+        // more streams than pool threads, each with more blocks than may wait, as writeAssays has when it writes
+        // assays concurrently: a writer must compress blocks itself rather than wait for a pool thread
+        int streamCount = ConversionThreadPool.getThreadCount() * 2 + 1;
+        final int blockCount = ConversionThreadPool.getThreadCount() * 4 + 3;
+
+        List<Callable<Boolean>> writers = new ArrayList<Callable<Boolean>>();
+        for (int stream = 0; stream < streamCount; stream++) {
+            final byte[] data = newData(blockCount * BLOCK_SIZE + stream, stream);
+            writers.add(new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, BLOCK_SIZE,
+                            Deflater.BEST_SPEED);
+                    for (int offset = 0; offset < data.length; offset += 100) {
+                        gzip.write(data, offset, Math.min(100, data.length - offset));
+                    }
+                    gzip.close();
+                    return Arrays.equals(data, gunzip(compressed.toByteArray()));
+                }
+            });
+        }
+
+        List<Boolean> results = ConversionThreadPool.invokeAll(writers);
+        for (int stream = 0; stream < streamCount; stream++) {
+            assertTrue("Stream " + stream + " should read back the same", results.get(stream));
+        }
+    }
+
+    /**
+     * @return rows of text with some random cells, which compress as tables do
+     */
+    private static byte[] newData(int length, long seed) throws IOException {
+        Random random = new Random(seed);
+        ByteArrayOutputStream data = new ByteArrayOutputStream(length);
+        while (data.size() < length) {
+            String row = "sample " + random.nextInt(1000) + "\tHomo sapiens\t" + random.nextLong() + "\n";
+            data.write(row.getBytes("UTF-8"));
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(data.toByteArray(), 0, bytes, 0, length);
+        return bytes;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            data.write(buffer, 0, read);
+        }
+        input.close();
+        return data.toByteArray();
+    }
+
+    // the ISIZE field, the last four bytes of a gzip member, little endian
+    private static int getLastMemberSize(byte[] members) {
+        int end = members.length;
+        return (members[end - 4] & 0xff) | (members[end - 3] & 0xff) << 8 | (members[end - 2] & 0xff) << 16
+                | (members[end - 1] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,251 @@
+package org.isatools.magetoisatab.io.rules;
+
+
+import org.isatools.magetoisatab.io.model.AssayType;
+import org.isatools.magetoisatab.utils.ConversionProperties;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class AssayClassificationRulesTest {
+
+    private static final AssayClassificationRules RULES = AssayClassificationRules.getRules();
+
+    private static final String[] SEQUENCING_HEADER = {"Sample Name", "Extract Name", "Material Type", "Assay Name",
+            "Technology Type", "Comment [LIBRARY_STRATEGY]"};
+
+    private static final String[] HYBRIDIZATION_HEADER = {"Sample Name", "Extract Name", "Material Type",
+            "Hybridization Assay Name", "Array Data File"};
+
+    private static final String[] ANTIBODY_HEADER = {"Sample Name", "Extract Name", "Characteristics[AntiBody]",
+            "Material Type", "Hybridization Assay Name"};
+
+    private static final Set<AssayType> CHIP_SEQ_STUDY = Collections.singleton(
+            new AssayType("protein-DNA binding site identification", "nucleotide sequencing", "ChIP-Seq"));
+
+    private static final Set<AssayType> RNA_SEQ_STUDY = Collections.singleton(
+            new AssayType("transcription profiling", "nucleotide sequencing", "RNA-Seq"));
+
+    @Test
+    public void testSequencingStudyRecords() {
+        System.out.println("___Testing the records of a ChIP-Seq study without hybridizations");
+        RecordClassifier classifier = RULES.createClassifier(SEQUENCING_HEADER, CHIP_SEQ_STUDY, new ConversionProperties());
+
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "ChIP-Seq"}, "ChIP-Seq", "ChIP-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "ChIPSeq"}, "ChIP-Seq", "ChIP-Seq");
+        for (String strategy : new String[]{"Bisulfite-Seq", "MRE-Seq", "MBD-Seq", "MeDIP-Seq protocol"}) {
+            assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", strategy}, "ME-Seq", "ME-Seq");
+        }
+        // the baseline looked for "MeDIP-Seq " with its trailing space
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "MeDIP-Seq"});
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "DNase-Hypersensitivity"},
+                "Chromatin-Seq", "Chromatin-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic DNA", "run 1", "MNase-Seq"},
+                "Chromatin-Seq", "Chromatin-Seq", "ChIP-Seq", "ChIP-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic_DNA", "run 1", "other"}, "ChIP-Seq", "ChIP-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "total RNA", "run 1", "RNA-Seq"}, "RNA-Seq", "RNA-Seq");
+        // keywords are looked for in each cell, as the baseline did in records joined with tabs
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic", "DNA", "ChIP-", "Seq"});
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", null, "run 1", "other"});
+    }
+
+    @Test
+    public void testSequencingKeywordsNeedSequencingStudy() {
+        System.out.println("___Testing sequencing keywords in a study with no ChIP-Seq assay type");
+        RecordClassifier classifier = RULES.createClassifier(SEQUENCING_HEADER, RNA_SEQ_STUDY, new ConversionProperties());
+
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "ChIP-Seq"});
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "Bisulfite-Seq"});
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "run 1", "DNase-Hypersensitivity"});
+        // these rules did not depend on the study assay types
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic DNA", "run 1", "other"}, "ChIP-Seq", "ChIP-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "total RNA", "run 1", "other"}, "RNA-Seq", "RNA-Seq");
+    }
+
+    @Test
+    public void testHybridizationRecords() {
+        System.out.println("___Testing the records of a table of hybridizations");
+        RecordClassifier classifier = RULES.createClassifier(HYBRIDIZATION_HEADER, CHIP_SEQ_STUDY, new ConversionProperties());
+
+        // !hybridization & "ChIP-Seq" | "ChIPSeq": & binds tighter, so ChIPSeq is found even in hybridizations
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "assay 1", "ChIP-Seq"});
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "assay 1", "ChIPSeq"}, "ChIP-Seq", "ChIP-Seq");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "total RNA", "assay 1", "data.CEL"},
+                "transcription profiling by array", "transcription profiling by array");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic DNA", "assay 1", "data.CEL"},
+                "transcription profiling by array", "transcription profiling by array");
+        // not sequencing in a table of hybridizations
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "genomic_DNA", "assay 1", "data.CEL"});
+    }
+
+    @Test
+    public void testAntibodyHybridizationRecords() {
+        System.out.println("___Testing the records of a table of hybridizations with an antibody column");
+        RecordClassifier classifier = RULES.createClassifier(ANTIBODY_HEADER, RNA_SEQ_STUDY, new ConversionProperties());
+
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "H3K4me3", "genomic DNA", "assay 1"},
+                "ChIP-chip", "ChIP-chip");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "H3K4me3", "DNA", "CHiP assay 1"}, "ChIP-chip", "ChIP-chip");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "H3K4me3", "DNA", "chip 1"}, "ChIP-chip", "ChIP-chip");
+        // no expression profiling with an antibody
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "none", "total RNA", "assay 1"});
+    }
+
+    @Test
+    public void testDesignTypeRecords() {
+        System.out.println("___Testing records classified by the design types of the submission");
+        ConversionProperties properties = new ConversionProperties();
+        properties.addDesignType("dye_swap_design");
+        properties.addDesignType("ChIP-chip by tiling array");
+        RecordClassifier classifier = RULES.createClassifier(HYBRIDIZATION_HEADER, RNA_SEQ_STUDY, properties);
+
+        // design types are lower cased before being searched, so, as in the baseline, the mixed case tiling array
+        // design is never found
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "DNA", "assay 1", "data.CEL"},
+                "Hybridization", "transcription profiling by array");
+        assertRecord(classifier, new String[]{"sample 1", "extract 1", "total RNA", "assay 1", "data.CEL"},
+                "Hybridization", "transcription profiling by array",
+                "transcription profiling by array", "transcription profiling by array");
+    }
+
+    @Test
+    public void testTableClassification() {
+        System.out.println("___Testing the records of a whole table classified in chunks");
+        List<String[]> table = new ArrayList<String[]>();
+        table.add(SEQUENCING_HEADER);
+        table.add(new String[]{"sample 1", "extract 1", "total RNA", "run 1", "RNA-Seq"});
+        table.add(new String[]{"sample 2", "extract 2", "genomic DNA", "run 2", "ChIP-Seq"});
+        table.add(new String[]{"sample 3", "extract 3", "DNA", "run 3", "other"});
+        table.add(new String[]{"sample 4", "extract 4", "total RNA", "run 4", "RNA-Seq"});
+
+        RecordClassifier classifier = RULES.createClassifier(SEQUENCING_HEADER, CHIP_SEQ_STUDY, new ConversionProperties());
+        AssayRecords records = classifier.createAssayRecords();
+        records.addToAllGroups(0);
+        records.addAll(classifier.classify(table, 1, 3));
+        records.addAll(classifier.classify(table, 3, table.size()));
+
+        assertEquals("Labels of the table", new HashSet<String>(Arrays.asList("RNA-Seq", "ChIP-Seq")),
+                records.getAssayLabels());
+        assertEquals("RNA-Seq records", "{0, 1, 4}", records.getGroup(getGroup("RNA-Seq")).toString());
+        // the record matching two ChIP-Seq rules is in the group once
+        assertEquals("ChIP-Seq records", "{0, 2}", records.getGroup(getGroup("ChIP-Seq")).toString());
+        assertEquals("ChIP-chip records", "{0}", records.getGroup(getGroup("ChIP-chip")).toString());
+    }
+
+    @Test
+    public void testPossibleLabels() {
+        System.out.println("___Testing the labels a table may be given, from its header alone");
+        assertEquals("Labels of a sequencing table", Arrays.asList("ChIP-Seq", "ME-Seq", "Chromatin-Seq", "RNA-Seq"),
+                new ArrayList<String>(RULES.createClassifier(SEQUENCING_HEADER, CHIP_SEQ_STUDY,
+                        new ConversionProperties()).getPossibleLabels()));
+        assertEquals("Labels of a hybridization table", Arrays.asList("ChIP-Seq", "ME-Seq", "Chromatin-Seq",
+                "transcription profiling by array"), new ArrayList<String>(RULES.createClassifier(HYBRIDIZATION_HEADER,
+                CHIP_SEQ_STUDY, new ConversionProperties()).getPossibleLabels()));
+    }
+
+    @Test
+    public void testConditionPrecedence() throws IOException {
+        System.out.println("___Testing how record conditions are parsed");
+        AssayClassificationRules rules = AssayClassificationRules.load(new StringReader(
+                "feature\thybridization\theader\tHybridization\n"
+                        + "record\tor-and\tg1\t\"a\" | \"b\" & \"c\"\n"
+                        + "record\tnot-and\tg2\t!\"a\" & \"b\"\n"
+                        + "record\tbrackets\tg3\t!(\"a\" | \"b\") & (\"c\" | hybridization)\n"
+                        + "record\tignore-case\tg4\ti\"Seq\" & !\"SEQ\"\n"));
+        RecordClassifier classifier = rules.createClassifier(new String[]{"Assay Name"}, Collections.<AssayType>emptySet(),
+                new ConversionProperties());
+
+        assertRecord(rules, classifier, new String[]{"a"}, "or-and", "g1");
+        assertRecord(rules, classifier, new String[]{"b"}, "not-and", "g2");
+        assertRecord(rules, classifier, new String[]{"b", "c"}, "or-and", "g1", "not-and", "g2");
+        assertRecord(rules, classifier, new String[]{"c"}, "brackets", "g3");
+        assertRecord(rules, classifier, new String[]{"sEq"}, "ignore-case", "g4");
+        assertRecord(rules, classifier, new String[]{"SEQ", "seq"});
+        assertRecord(rules, classifier, new String[]{"x"});
+
+        classifier = rules.createClassifier(new String[]{"Hybridization Assay Name"}, Collections.<AssayType>emptySet(),
+                new ConversionProperties());
+        assertRecord(rules, classifier, new String[]{"x"}, "brackets", "g3");
+        assertRecord(rules, classifier, new String[]{"b", "x"}, "not-and", "g2");
+    }
+
+    @Test
+    public void testInvalidRules() {
+        System.out.println("___Testing rules which can not be compiled");
+        assertInvalid("record\tlabel\tgroup\t\"a\" & unknown\n", "line 1: unknown feature 'unknown'");
+        assertInvalid("# comment\n\nrecord\tlabel\tgroup\t(\"a\" | \"b\"\n", "line 3: missing )");
+        assertInvalid("record\tlabel\tgroup\t\"a\n", "missing \"");
+        assertInvalid("record\tlabel\tgroup\t\"a\" \"b\"\n", "unexpected \"");
+        assertInvalid("feature\tf\tcolumn\tx\n", "unknown feature type column");
+        assertInvalid("record\tlabel\tgroup\n", "record rules need 3 values");
+        assertInvalid("record\tlabel\tgroup\t\"\u00e9\"\n", "ASCII");
+    }
+
+    private static void assertInvalid(String rulesText, String message) {
+        try {
+            AssayClassificationRules.load(new StringReader(rulesText));
+        } catch (IllegalArgumentException e) {
+            assertTrue("Message should say " + message + ": " + e.getMessage(), e.getMessage().contains(message));
+            return;
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        fail("Rules should be rejected: " + rulesText);
+    }
+
+    private static void assertRecord(RecordClassifier classifier, String[] record, String... labelsAndGroupLabels) {
+        assertRecord(RULES, classifier, record, labelsAndGroupLabels);
+    }
+
+    /**
+     * Classifies a table of one record and checks the labels it is given and the groups it is put in.
+     *
+     * @param labelsAndGroups - each label expected, followed by the label of an assay-file rule of the group expected
+     *                        for it with the default rules, or by the group name with other rules
+     */
+    private static void assertRecord(AssayClassificationRules rules, RecordClassifier classifier, String[] record,
+                                     String... labelsAndGroups) {
+        Set<String> expectedLabels = new HashSet<String>();
+        Set<Integer> expectedGroups = new HashSet<Integer>();
+        for (int index = 0; index < labelsAndGroups.length; index += 2) {
+            expectedLabels.add(labelsAndGroups[index]);
+            expectedGroups.add(rules == RULES ? getGroup(labelsAndGroups[index + 1])
+                    : Integer.parseInt(labelsAndGroups[index + 1].substring(1)) - 1);
+        }
+
+        List<String[]> table = new ArrayList<String[]>();
+        table.add(new String[0]);
+        table.add(record);
+        AssayRecords records = classifier.classify(table, 1, 2);
+
+        assertEquals("Labels of " + Arrays.asList(record), expectedLabels, records.getAssayLabels());
+        for (int group = 0; group < rules.getGroupCount(); group++) {
+            assertEquals("Group " + group + " of " + Arrays.asList(record), expectedGroups.contains(group),
+                    records.getGroup(group).get(1));
+        }
+    }
+
+    /**
+     * @return the record group written to the assay file of an assay label, with the default rules
+     */
+    private static int getGroup(String assayLabel) {
+        for (AssayFileRule assayFileRule : RULES.getAssayFileRules()) {
+            if (assayFileRule.appliesTo(assayLabel)) {
+                return assayFileRule.getGroup();
+            }
+        }
+        throw new IllegalArgumentException("No assay file for " + assayLabel);
+    }
+}
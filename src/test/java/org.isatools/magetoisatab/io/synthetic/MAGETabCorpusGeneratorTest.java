@@ -0,0 +1,68 @@
+package org.isatools.magetoisatab.io.synthetic;
+
+
+import org.isatools.magetoisatab.io.DownloadUtils;
+import org.isatools.magetoisatab.io.MAGETabObtain;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class MAGETabCorpusGeneratorTest {
+
+    @Test
+    public void testGeneratedSdrfShape() {
+        System.out.println("___Testing synthetic SDRF generation");
+        MAGETabCorpusGenerator generator = new MAGETabCorpusGenerator();
+        generator.setRowCount(20);
+        generator.setEmptyRowInterval(10);
+
+        List<String[]> sdrf = generator.generateSdrf(0);
+        List<String> header = Arrays.asList(sdrf.get(0));
+
+        assertEquals("Header and rows expected", 21, sdrf.size());
+        assertEquals("Every tenth row should be empty", "", sdrf.get(10)[0]);
+        assertEquals("Protocol REF chain expected", "Protocol REF", header.get(header.indexOf("Protocol REF") + 1));
+        assertTrue("Duplicate characteristic expected",
+                header.indexOf("Characteristics[organism]") != header.lastIndexOf("Characteristics[organism]"));
+        assertTrue("Term Source REF after Sample Name expected",
+                header.get(header.indexOf("Sample Name") + 1).equals("Term Source REF"));
+
+        MAGETabCorpusGenerator copy = new MAGETabCorpusGenerator();
+        copy.setRowCount(20);
+        copy.setEmptyRowInterval(10);
+        List<String[]> sameSdrf = copy.generateSdrf(0);
+        for (int rowIndex = 0; rowIndex < sdrf.size(); rowIndex++) {
+            assertTrue("Same settings should give the same SDRF", Arrays.equals(sdrf.get(rowIndex), sameSdrf.get(rowIndex)));
+        }
+    }
+
+    @Test
+    public void testOfflineConversion() throws Exception {
+        System.out.println("___Testing conversion of a synthetic submission");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "synthetic" + File.separator + "E-SYNT-1");
+
+        MAGETabCorpusGenerator generator = new MAGETabCorpusGenerator();
+        generator.setRowCount(60);
+        generator.setSdrfCount(2);
+        generator.setLayouts(MAGETabCorpusGenerator.Layout.MICROARRAY, MAGETabCorpusGenerator.Layout.CHIP_SEQ);
+
+        File idfFile = generator.generate(directory, "E-SYNT-1");
+        assertTrue("IDF not written", idfFile.isFile());
+        assertTrue("SDRF not written", new File(directory, "E-SYNT-1.2.sdrf.txt").isFile());
+
+        MAGETabObtain converter = new MAGETabObtain();
+        File isatabDir = converter.doLocalConversion("E-SYNT-1", idfFile,
+                DownloadUtils.TMP_DIRECTORY + File.separator + "synthetic" + File.separator + "converted");
+
+        assertTrue("ISA-Tab directory not created", isatabDir.exists());
+        assertTrue("Investigation file not created", new File(isatabDir, "i_E-SYNT-1_investigation.txt").isFile());
+        assertTrue("Study sample file not created", new File(isatabDir, "s_E-SYNT-1_study_samples.txt").isFile());
+        assertTrue("Assay files not created", isatabDir.list().length > 2);
+    }
+}
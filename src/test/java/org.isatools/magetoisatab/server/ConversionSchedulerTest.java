@@ -0,0 +1,159 @@
+package org.isatools.magetoisatab.server;
+
+
+import org.isatools.magetoisatab.io.DownloadUtils;
+import org.isatools.magetoisatab.io.synthetic.MAGETabCorpusGenerator;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConversionSchedulerTest {
+
+    /**
+     * A job which, once the scheduler has taken it off its queue, records so and holds its thread until released.
+     */
+    private static class HeldJob extends ConversionJob {
+
+        private final List<String> startOrder;
+
+        private final Semaphore started;
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        HeldJob(String id, String accession, File idfFile, boolean plan, List<String> startOrder, Semaphore started) {
+            super(id, accession, idfFile, plan);
+            this.startOrder = startOrder;
+            this.started = started;
+        }
+
+        @Override
+        void run(String saveDirectory) {
+            startOrder.add(getId());
+            started.release();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            super.run(saveDirectory);
+        }
+
+        void release() {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testScheduledConversions() throws Exception {
+        System.out.println("___Testing conversions scheduled by their estimated memory");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "synthetic" + File.separator + "scheduled");
+
+        List<String> startOrder = Collections.synchronizedList(new ArrayList<String>());
+        Semaphore started = new Semaphore(0);
+
+        List<HeldJob> jobs = new ArrayList<HeldJob>();
+        int[] rowCounts = {10, 40, 20};
+        for (int index = 0; index < rowCounts.length; index++) {
+            MAGETabCorpusGenerator generator = new MAGETabCorpusGenerator();
+            generator.setRowCount(rowCounts[index]);
+            generator.setLayouts(MAGETabCorpusGenerator.Layout.MICROARRAY);
+
+            String accession = "E-SYNT-" + (10 + index);
+            File idfFile = generator.generate(new File(directory, accession), accession);
+            jobs.add(new HeldJob("job-" + index, accession, idfFile, false, startOrder, started));
+        }
+        HeldJob plan = new HeldJob("job-plan", "E-SYNT-10", jobs.get(0).getIdfFile(), true, startOrder, started);
+        jobs.add(plan);
+
+        // one job of each lane at a time, everything but the plan being large
+        ConversionScheduler scheduler = new ConversionScheduler(new File(directory, "converted").getPath(), 1,
+                1L << 30, 0);
+        try {
+            scheduler.submitAll(new ArrayList<ConversionJob>(jobs));
+
+            assertTrue("Two jobs should start", started.tryAcquire(2, 30, TimeUnit.SECONDS));
+            assertEquals("The plan and the largest job should start first",
+                    Arrays.asList("job-1", "job-plan"), sorted(startOrder));
+            assertEquals("The others should wait", 2, scheduler.getQueuedCount());
+            assertEquals("Admitted memory", plan.getEstimatedMemory() + jobs.get(1).getEstimatedMemory(),
+                    scheduler.getAdmittedMemory());
+            assertTrue("Input size expected", jobs.get(1).getInputBytes() > jobs.get(2).getInputBytes()
+                    && jobs.get(2).getInputBytes() > jobs.get(0).getInputBytes());
+
+            plan.release();
+            plan.await();
+            assertEquals("Plan should succeed: " + plan.getFailure(), ConversionJob.State.SUCCEEDED, plan.getState());
+            assertEquals("A finished plan should not start a large job", 2, startOrder.size());
+
+            jobs.get(1).release();
+            assertTrue("Next job should start", started.tryAcquire(30, TimeUnit.SECONDS));
+            assertEquals("Next largest expected", "job-2", startOrder.get(2));
+
+            jobs.get(2).release();
+            assertTrue("Last job should start", started.tryAcquire(30, TimeUnit.SECONDS));
+            assertEquals("Smallest expected last", "job-0", startOrder.get(3));
+            assertEquals("Nothing should wait", 0, scheduler.getQueuedCount());
+
+            jobs.get(0).release();
+            for (ConversionJob job : jobs) {
+                job.await();
+                assertEquals("Job should succeed: " + job.getFailure(), ConversionJob.State.SUCCEEDED, job.getState());
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelledJobIsDropped() throws Exception {
+        System.out.println("___Testing that a job cancelled while queued is never started");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "synthetic" + File.separator + "cancelled");
+        File idfFile = new MAGETabCorpusGenerator().generate(new File(directory, "E-SYNT-20"), "E-SYNT-20");
+
+        List<String> startOrder = Collections.synchronizedList(new ArrayList<String>());
+        Semaphore started = new Semaphore(0);
+        HeldJob first = new HeldJob("job-first", "E-SYNT-20", idfFile, true, startOrder, started);
+        HeldJob second = new HeldJob("job-second", "E-SYNT-20", idfFile, true, startOrder, started);
+        HeldJob third = new HeldJob("job-third", "E-SYNT-20", idfFile, true, startOrder, started);
+
+        ConversionScheduler scheduler = new ConversionScheduler(new File(directory, "converted").getPath(), 1,
+                1L << 30, 0);
+        try {
+            scheduler.submit(first);
+            scheduler.submit(second);
+            scheduler.submit(third);
+            assertTrue("First job should start", started.tryAcquire(30, TimeUnit.SECONDS));
+            assertEquals("The others should wait", 2, scheduler.getQueuedCount());
+
+            assertTrue("Queued job should be cancelled", second.cancel());
+            first.release();
+            assertTrue("Third job should start", started.tryAcquire(30, TimeUnit.SECONDS));
+
+            assertEquals("Cancelled job should be skipped", Arrays.asList("job-first", "job-third"), startOrder);
+            assertEquals("Cancelled job should be dropped", 0, scheduler.getQueuedCount());
+            assertEquals("Cancelled state expected", ConversionJob.State.CANCELLED, second.getState());
+
+            third.release();
+            third.await();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<String>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,101 @@
+package org.isatools.magetoisatab.server;
+
+
+import org.isatools.magetoisatab.io.DownloadUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConversionServerTest {
+
+    @Test
+    public void testConversionServer() throws Exception {
+        System.out.println("___Testing conversion jobs submitted to the conversion server");
+        File directory = new File(DownloadUtils.TMP_DIRECTORY + File.separator + "server-test" + File.separator + "E-SERV-1");
+        directory.mkdirs();
+        File idfFile = new File(directory, "E-SERV-1.idf.txt");
+        write(idfFile, "Investigation Title\tA submission on disk\n"
+                + "Experimental Design\ttranscription profiling by array\n"
+                + "Person Last Name\tSmith\n"
+                + "Public Release Date\t2012-07-01\n"
+                + "Experiment Description\tOne hybridization\n"
+                + "Protocol Name\tP-1\n"
+                + "Protocol Type\tnucleic acid extraction\n"
+                + "SDRF File\tE-SERV-1.sdrf.txt\n");
+        write(new File(directory, "E-SERV-1.sdrf.txt"), "Source Name\tSample Name\tProtocol REF\tExtract Name\t"
+                + "Material Type\tLabeled Extract Name\tLabel\tHybridization Name\tArray Data File\n"
+                + "source 1\tsample 1\tP-1\textract 1\ttotal RNA\tlabeled extract 1\tCy3\tassay 1\tdata_1.txt\n");
+
+        ConversionServer server = new ConversionServer(0,
+                new ConversionScheduler(new File(directory, "converted").getPath(), 1, 64L << 20, 1L << 20));
+        server.start();
+        try {
+            String jobs = "http://127.0.0.1:" + server.getPort() + "/jobs";
+
+            HttpURLConnection submission = (HttpURLConnection) new URL(jobs + "?idf="
+                    + URLEncoder.encode(idfFile.getAbsolutePath(), "UTF-8")).openConnection();
+            submission.setRequestMethod("POST");
+            assertEquals("Job should be accepted", 202, submission.getResponseCode());
+            String location = submission.getHeaderField("Location");
+            submission.disconnect();
+
+            ConversionJob job = server.getJob(location.substring(location.lastIndexOf('/') + 1));
+            for (int wait = 0; wait < 600 && !job.getState().isFinished(); wait++) {
+                Thread.sleep(100);
+            }
+            assertEquals("Job should succeed: " + job.getFailure(), ConversionJob.State.SUCCEEDED, job.getState());
+
+            String result = read(new URL(jobs + "/" + job.getId() + "/result"));
+            assertTrue("Investigation file expected in " + result, result.contains("\"i_E-SERV-1_investigation.txt\""));
+
+            String studySamples = read(new URL(jobs + "/" + job.getId() + "/files/s_E-SERV-1_study_samples.txt"));
+            assertTrue("Study samples expected in " + studySamples, studySamples.startsWith("Source Name\tSample Name"));
+
+            assertEquals("Unknown jobs should not be found", 404,
+                    getResponseCode(new URL(jobs + "/no-such-job"), "GET"));
+            assertEquals("Finished job should not be cancelled", 409,
+                    getResponseCode(new URL(jobs + "/" + job.getId()), "DELETE"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String read(URL url) throws IOException {
+        Scanner scanner = new Scanner(url.openStream(), "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").next();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static int getResponseCode(URL url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
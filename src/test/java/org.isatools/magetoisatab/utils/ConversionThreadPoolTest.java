@@ -0,0 +1,115 @@
+package org.isatools.magetoisatab.utils;
+
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ConversionThreadPoolTest {
+
+    @Test
+    public void testJoinRunsUnstartedTask() throws Exception {
+        System.out.println("___Testing tasks joined before any pool thread has started them");
+        CountDownLatch release = new CountDownLatch(1);
+        occupyPool(release);
+        try {
+            FutureTask<Thread> task = ConversionThreadPool.fork(new Callable<Thread>() {
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            });
+            assertSame("Task queued behind a busy pool should run on the joining thread", Thread.currentThread(),
+                    ConversionThreadPool.join(task));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testInvokeAllResultOrder() throws Exception {
+        System.out.println("___Testing results of tasks run together come back in the order of the tasks");
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int taskIndex = 0; taskIndex < 20; taskIndex++) {
+            final int value = taskIndex;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    // the first tasks finish last
+                    Thread.sleep(20 - value);
+                    return value;
+                }
+            });
+        }
+
+        List<Integer> results = ConversionThreadPool.invokeAll(tasks);
+        for (int taskIndex = 0; taskIndex < 20; taskIndex++) {
+            assertEquals("Result " + taskIndex, Integer.valueOf(taskIndex), results.get(taskIndex));
+        }
+    }
+
+    @Test
+    public void testInvokeAllCancelsRemainingTasks() throws Exception {
+        System.out.println("___Testing tasks not yet started are cancelled when one fails");
+        final AtomicInteger runCount = new AtomicInteger();
+        Callable<Integer> counted = new Callable<Integer>() {
+            public Integer call() {
+                return runCount.incrementAndGet();
+            }
+        };
+        Callable<Integer> failing = new Callable<Integer>() {
+            public Integer call() throws IOException {
+                throw new IOException("failed on purpose");
+            }
+        };
+
+        CountDownLatch release = new CountDownLatch(1);
+        occupyPool(release);
+        try {
+            ConversionThreadPool.invokeAll(Arrays.asList(failing, counted, counted));
+            fail("The failure of the first task should be thrown");
+        } catch (IOException e) {
+            assertEquals("Failure of the first task", "failed on purpose", e.getMessage());
+        } finally {
+            release.countDown();
+        }
+
+        // once the pool has got through its queue, the cancelled tasks would have run if they were going to
+        ConversionThreadPool.join(ConversionThreadPool.fork(counted));
+        occupyPool(release);
+        assertEquals("Only the task forked afterwards should have run", 1, runCount.get());
+    }
+
+    /**
+     * Blocks every pool thread until released, returning once they are all blocked.
+     */
+    private static void occupyPool(final CountDownLatch release) throws InterruptedException {
+        int threadCount = ConversionThreadPool.getThreadCount();
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+            ConversionThreadPool.getExecutor().execute(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue("Pool threads should start", started.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,133 @@
+package org.isatools.magetoisatab.utils;
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class KeywordAutomatonTest {
+
+    private static final long HE = 1, SHE = 2, HIS = 4, HERS = 8;
+
+    @Test
+    public void testOverlappingKeywords() {
+        System.out.println("___Testing keywords which overlap and end inside each other");
+        KeywordAutomaton automaton = newAutomaton("he", HE, "she", SHE, "his", HIS, "hers", HERS);
+
+        assertEquals("she, he and hers end inside ushers", HE | SHE | HERS, automaton.match("ushers"));
+        assertEquals("his and she overlap in hishe", HIS | SHE | HE, automaton.match("hishe"));
+        assertEquals("Nothing in hs", 0, automaton.match("hs"));
+        assertEquals("Nothing in an empty text", 0, automaton.match(""));
+
+        KeywordAutomaton rna = newAutomaton("RNA", 1, "total RNA", 2, "RNA-Seq", 4);
+        assertEquals("A keyword inside a longer one", 1 | 2, rna.match("total RNA"));
+        assertEquals("Keywords sharing a prefix", 1 | 4, rna.match("RNA-Seq"));
+        assertEquals("Only the shorter keyword", 1, rna.match("RNA-Se"));
+    }
+
+    @Test
+    public void testFailureLinks() {
+        System.out.println("___Testing matches found after a partial match fails");
+        KeywordAutomaton automaton = newAutomaton("abcd", 1, "bc", 2, "ab", 4, "cab", 8);
+
+        assertEquals("bc found when abcd fails", 2 | 4, automaton.match("abcx"));
+        assertEquals("ab found after a repeated a", 4, automaton.match("aab"));
+        assertEquals("cab found through the failure of abc", 2 | 4 | 8, automaton.match("abcab"));
+        assertEquals("abcd found after a false start", 1 | 2 | 4, automaton.match("ababcd"));
+        assertEquals("Same result when found again", 1 | 2 | 4, automaton.match("abcdabcd"));
+
+        KeywordAutomaton repeated = newAutomaton("aaa", 1);
+        assertEquals("aa is not aaa", 0, repeated.match("aabaa"));
+        assertEquals("aaa inside aaaa", 1, repeated.match("baaaa"));
+    }
+
+    @Test
+    public void testNonAsciiText() {
+        System.out.println("___Testing text with characters outside of ASCII");
+        KeywordAutomaton automaton = newAutomaton("ab", 1, "RNA", 2);
+
+        assertEquals("A non-ASCII character breaks a match", 0, automaton.match("a\u00e9b"));
+        assertEquals("Matches after a non-ASCII character", 1, automaton.match("\u00e9ab"));
+        // the low seven bits of \u0161 are those of 'a', and of \u014e those of 'N'
+        assertEquals("Characters are not folded on to ASCII", 0, automaton.match("\u0161b"));
+        assertEquals("Characters are not folded on to ASCII", 0, automaton.match("R\u014eA"));
+        assertEquals("Non-ASCII text around keywords", 1 | 2, automaton.match("\u00fcab\u2013RNA\u2013seq"));
+        assertEquals("Characters in no keyword break a match", 0, automaton.match("aXb"));
+    }
+
+    @Test
+    public void testMatchCells() {
+        System.out.println("___Testing keywords matched in the cells of a record");
+        KeywordAutomaton automaton = newAutomaton("ChIP-Seq", 1, "genomic DNA", 2);
+
+        assertEquals("Keywords in different cells", 1 | 2,
+                automaton.match(new String[]{"sample 1", "ChIP-Seq", null, "genomic DNA"}));
+        assertEquals("Keywords are not matched across cells", 0, automaton.match(new String[]{"ChIP", "-Seq"}));
+        assertEquals("No cells", 0, automaton.match(new String[0]));
+    }
+
+    @Test
+    public void testSharedBits() {
+        System.out.println("___Testing keywords which share bits and keywords which set several");
+        Map<String, Long> keywordMasks = new LinkedHashMap<String, Long>();
+        for (String variant : KeywordAutomaton.caseVariants("chip")) {
+            keywordMasks.put(variant, 1L);
+        }
+        keywordMasks.put("ChIP", 1L | 2L);
+        keywordMasks.put("Seq", 1L << 63);
+        KeywordAutomaton automaton = new KeywordAutomaton(keywordMasks);
+
+        assertEquals("Any case variant sets the shared bit", 1, automaton.match("a CHiP array"));
+        assertEquals("A keyword setting several bits", 1 | 2, automaton.match("ChIP"));
+        assertEquals("The highest bit", 1L << 63, automaton.match("RNA-Seq"));
+    }
+
+    @Test
+    public void testCaseVariants() {
+        System.out.println("___Testing the case variants of a keyword");
+        List<String> variants = KeywordAutomaton.caseVariants("ChIP-1");
+
+        assertEquals("Two cases for each of four letters", 16, variants.size());
+        assertEquals("Variants should be distinct", 16, new HashSet<String>(variants).size());
+        assertTrue("Lower case variant expected", variants.contains("chip-1"));
+        assertTrue("Upper case variant expected", variants.contains("CHIP-1"));
+        assertTrue("Variant as written expected", variants.contains("ChIP-1"));
+        assertEquals("No letters, one variant", Arrays.asList("-1"), KeywordAutomaton.caseVariants("-1"));
+    }
+
+    @Test
+    public void testInvalidKeywords() {
+        System.out.println("___Testing keywords which can not be matched");
+        assertInvalid("", 1);
+        assertInvalid("ChIP\u2013Seq", 1);
+    }
+
+    private static void assertInvalid(String keyword, long mask) {
+        try {
+            newAutomaton(keyword, mask);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        fail("Keyword should be rejected: " + keyword);
+    }
+
+    /**
+     * @param keywordMasks - keywords, each followed by its mask
+     */
+    private static KeywordAutomaton newAutomaton(Object... keywordMasks) {
+        Map<String, Long> masks = new LinkedHashMap<String, Long>();
+        for (int index = 0; index < keywordMasks.length; index += 2) {
+            masks.put((String) keywordMasks[index], ((Number) keywordMasks[index + 1]).longValue());
+        }
+        return new KeywordAutomaton(masks);
+    }
+}
@@ -0,0 +1,66 @@
+package org.isatools.magetoisatab.utils;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+public class RowChunksTest {
+
+    @Test
+    public void testChunksInRowOrder() {
+        System.out.println("___Testing rows processed in chunks come back in row order");
+        List<String[]> sheet = newSheet(70000);
+
+        String threshold = System.setProperty(RowChunks.THRESHOLD_PROPERTY, "100");
+        List<List<String[]>> chunks;
+        try {
+            chunks = RowChunks.process(sheet, 1, new RowChunks.ChunkTask<List<String[]>>() {
+                public List<String[]> process(List<String[]> rows, int from, int to) {
+                    return new ArrayList<String[]>(rows.subList(from, to));
+                }
+            });
+        } finally {
+            if (threshold == null) {
+                System.clearProperty(RowChunks.THRESHOLD_PROPERTY);
+            } else {
+                System.setProperty(RowChunks.THRESHOLD_PROPERTY, threshold);
+            }
+        }
+        List<String[]> rows = RowChunks.concatenate(chunks);
+
+        assertEquals("Every row but the header should be processed once", sheet.size() - 1, rows.size());
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            assertSame("Row " + rowIndex, sheet.get(rowIndex + 1), rows.get(rowIndex));
+        }
+    }
+
+    @Test
+    public void testSmallSheetInOneChunk() {
+        System.out.println("___Testing sheets below the threshold processed in one chunk");
+        List<String[]> sheet = newSheet(50);
+
+        List<Integer> chunkSizes = RowChunks.process(sheet, 1, new RowChunks.ChunkTask<Integer>() {
+            public Integer process(List<String[]> rows, int from, int to) {
+                return to - from;
+            }
+        });
+
+        assertEquals("One chunk expected", 1, chunkSizes.size());
+        assertEquals("Every row but the header", Integer.valueOf(49), chunkSizes.get(0));
+    }
+
+    private static List<String[]> newSheet(int rowCount) {
+        List<String[]> sheet = new ArrayList<String[]>(rowCount);
+        sheet.add(new String[]{"Sample Name", "Protocol REF", "Protocol REF", "Extract Name"});
+        for (int rowIndex = 1; rowIndex < rowCount; rowIndex++) {
+            sheet.add(new String[]{"sample " + rowIndex, "P-" + rowIndex, "", "extract " + rowIndex});
+        }
+        return sheet;
+    }
+}
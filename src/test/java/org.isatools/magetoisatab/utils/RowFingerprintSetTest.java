@@ -0,0 +1,45 @@
+package org.isatools.magetoisatab.utils;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class RowFingerprintSetTest {
+
+    @Test
+    public void testGrowth() {
+        System.out.println("___Testing row fingerprints kept past the expected row count");
+        RowFingerprintSet rows = new RowFingerprintSet(4);
+
+        for (int rowIndex = 0; rowIndex < 10000; rowIndex++) {
+            assertTrue("Row " + rowIndex + " should be new", rows.add(new String[]{"sample " + rowIndex, "Homo sapiens"}));
+        }
+        assertEquals("Every row should be kept", 10000, rows.size());
+
+        for (int rowIndex = 0; rowIndex < 10000; rowIndex++) {
+            assertFalse("Row " + rowIndex + " should be found", rows.add(new String[]{"sample " + rowIndex, "Homo sapiens"}));
+        }
+        assertEquals("Rows added again should not be kept", 10000, rows.size());
+    }
+
+    @Test
+    public void testCellBoundaries() {
+        System.out.println("___Testing rows told apart by where their cells end");
+        RowFingerprintSet rows = new RowFingerprintSet();
+
+        assertTrue("{ab, c} should be new", rows.add(new String[]{"ab", "c"}));
+        assertTrue("{a, bc} should differ from {ab, c}", rows.add(new String[]{"a", "bc"}));
+        assertTrue("{abc} should differ from both", rows.add(new String[]{"abc"}));
+        assertTrue("A trailing empty cell should make a row differ", rows.add(new String[]{"ab", "c", ""}));
+        assertTrue("{c, ab} should differ from {ab, c}", rows.add(new String[]{"c", "ab"}));
+        assertFalse("{a, bc} should be found again", rows.add(new String[]{"a", "bc"}));
+
+        assertTrue("{x, null} should be new", rows.add(new String[]{"x", null}));
+        assertFalse("null cells should be taken as empty", rows.add(new String[]{"x", ""}));
+        assertEquals("Distinct rows", 6, rows.size());
+    }
+}